@@ -35,6 +35,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_21
         targetCompatibility = JavaVersion.VERSION_21
     }
+    testOptions {
+        // android.util.Log and friends are called from code under test
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
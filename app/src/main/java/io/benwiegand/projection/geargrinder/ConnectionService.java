@@ -22,35 +22,57 @@ import android.util.Log;
 import androidx.activity.result.ActivityResult;
 import androidx.annotation.Nullable;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.TrustManager;
 
+import io.benwiegand.projection.geargrinder.crypto.CipherSuiteRanking;
 import io.benwiegand.projection.geargrinder.crypto.CryptoManager;
 import io.benwiegand.projection.geargrinder.crypto.KeystoreManager;
 import io.benwiegand.projection.geargrinder.crypto.LGTMTrustManager;
+import io.benwiegand.projection.geargrinder.crypto.ReplayTLSService;
+import io.benwiegand.projection.geargrinder.crypto.TLSContext;
 import io.benwiegand.projection.geargrinder.crypto.TLSService;
 import io.benwiegand.projection.geargrinder.exception.CorruptedCertificateException;
 import io.benwiegand.projection.geargrinder.exception.CorruptedKeyException;
+import io.benwiegand.projection.geargrinder.logs.BringUpTimeline;
 import io.benwiegand.projection.geargrinder.message.AAFrame;
 import io.benwiegand.projection.geargrinder.message.MessageBroker;
+import io.benwiegand.projection.geargrinder.message.TransmitPriority;
 import io.benwiegand.projection.geargrinder.notification.ConnectionNotificationService;
 import io.benwiegand.projection.geargrinder.projection.ProjectionService;
 import io.benwiegand.projection.geargrinder.protocol.AAConstants;
 import io.benwiegand.projection.geargrinder.callback.ControlListener;
 import io.benwiegand.projection.geargrinder.channel.ControlChannel;
 import io.benwiegand.projection.geargrinder.settings.SettingsManager;
+import io.benwiegand.projection.geargrinder.transfer.AATransferInterface;
+import io.benwiegand.projection.geargrinder.transfer.ReplayTransferInterface;
 import io.benwiegand.projection.geargrinder.transfer.UsbTransferInterface;
+import io.benwiegand.projection.geargrinder.transfer.WireCapture;
 
 public class ConnectionService extends Service implements ControlListener {
     private static final String TAG = ConnectionService.class.getSimpleName();
 
+    private static final int USB_READ_BUFFER_SIZE = 128 * 1024;
+
+    private static final String WIRE_CAPTURE_DIR = "captures";
+    private static final String WIRE_CAPTURE_EXTENSION = ".aacap";
+    private static final int MAX_WIRE_CAPTURES = 5;
+
     public static final String INTENT_ACTION_CONNECT_USB = "io.benwiegand.projection.geargrinder.USB_HEADUNIT_CONNECTED";
     public static final String INTENT_ACTION_START_MEDIA_PROJECTION = "io.benwiegand.projection.geargrinder.START_MEDIA_PROJECTION";
     public static final String INTENT_ACTION_STOP_CONNECTION = "io.benwiegand.projection.geargrinder.STOP_CONNECTION";
+    public static final String INTENT_ACTION_REPLAY_LAST_CAPTURE = "io.benwiegand.projection.geargrinder.REPLAY_LAST_CAPTURE";
 
     public static final String INTENT_EXTRA_MEDIA_PROJECTION_PERMISSION_RESULT = "projection_result";
 
@@ -70,6 +92,11 @@ public class ConnectionService extends Service implements ControlListener {
     private ProjectionService projectionService = null;
     private Object projectionGracePeriodToken = null;
 
+    // outlives connections so headunits can resume tls sessions when they reconnect
+    private final Object tlsContextLock = new Object();
+    private FutureTask<TLSContext> tlsContextTask = null;
+    private byte[] tlsContextKeysDigest = null;
+
 
     @Override
     public void onCreate() {
@@ -79,6 +106,9 @@ public class ConnectionService extends Service implements ControlListener {
         notificationService = new ConnectionNotificationService(this);
         settingsManager = new SettingsManager(this);
         cryptoManager = new CryptoManager(this);
+
+        // get the slow part of tls setup out of the way before a headunit shows up
+        prepareTlsContext();
     }
 
     @Override
@@ -89,6 +119,19 @@ public class ConnectionService extends Service implements ControlListener {
         if (projectionService != null) projectionService.destroy();
         if (mediaProjection != null) mediaProjection.stop();
         notificationService.destroy();
+
+        synchronized (tlsContextLock) {
+            if (tlsContextTask != null) {
+                tlsContextTask.cancel(false);
+                if (tlsContextTask.isDone() && !tlsContextTask.isCancelled()) {
+                    try {
+                        tlsContextTask.get().destroy();
+                    } catch (ExecutionException | InterruptedException ignored) {
+                        // never created
+                    }
+                }
+            }
+        }
     }
 
     @Nullable
@@ -109,6 +152,7 @@ public class ConnectionService extends Service implements ControlListener {
             case INTENT_ACTION_CONNECT_USB -> connectUsb();
             case INTENT_ACTION_START_MEDIA_PROJECTION -> startMediaProjection(intent);
             case INTENT_ACTION_STOP_CONNECTION -> stopConnection();
+            case INTENT_ACTION_REPLAY_LAST_CAPTURE -> replayLastCapture();
             case null -> Log.e(TAG, "no intent action");
             default -> Log.wtf(TAG, "intent action not handled: " + intent.getAction());
         }
@@ -206,20 +250,130 @@ public class ConnectionService extends Service implements ControlListener {
 
     }
 
+    private void replayLastCapture() {
+        Thread thread = new Thread(this::replayConnectionLoop, "Geargrinder replay connection loop");
+
+        synchronized (lock) {
+            if (connectionThread != null) {
+                Log.e(TAG, "connection thread already active");
+                return;
+            }
+
+            Log.i(TAG, "replaying last wire capture");
+            connectionThread = thread;
+        }
+
+        connectionThread.start();
+    }
+
     @Override
     public void onCarNameDiscovered(String carName) {
         notificationService.setCarName(carName);
     }
 
-    private TLSService createTlsService() throws CorruptedKeyException, CorruptedCertificateException {
+    private TLSContext createTlsContext() throws CorruptedKeyException, CorruptedCertificateException {
         KeystoreManager keystoreManager = cryptoManager.getKeystoreForCurrentConfiguration();
         TrustManager[] trustManagers = new TrustManager[] {new LGTMTrustManager()};
         KeyManager[] keyManagers = keystoreManager.getKeyManagers();
-        return new TLSService(trustManagers, keyManagers);
+        return new TLSContext(trustManagers, keyManagers);
+    }
+
+    /**
+     * @return a digest of the phone keys a tls context would be created with right now, so re-imported keys are noticed too
+     */
+    private byte[] digestPhoneKeys() {
+        boolean useImportedKeys = settingsManager.useImportedPhoneKeys();
+        byte[][] certChain = useImportedKeys ? settingsManager.getImportedPhoneX509CertificateChain() : settingsManager.getSelfSignedPhoneX509CertificateChain();
+        byte[] privateKey = useImportedKeys ? settingsManager.getImportedPhonePKCS8PrivateKey() : settingsManager.getSelfSignedPhonePKCS8PrivateKey();
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((byte) (useImportedKeys ? 1 : 0));
+            if (certChain != null) {
+                for (byte[] cert : certChain) {
+                    digest.update(cert);
+                    digest.update((byte) 0);
+                }
+            }
+            if (privateKey != null) digest.update(privateKey);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * starts creating the tls context in the background, unless it's already created for the current keys
+     */
+    private FutureTask<TLSContext> prepareTlsContext() {
+        synchronized (tlsContextLock) {
+            byte[] keysDigest = digestPhoneKeys();
+            if (tlsContextTask != null && MessageDigest.isEqual(tlsContextKeysDigest, keysDigest))
+                return tlsContextTask;
+
+            if (tlsContextTask != null) Log.i(TAG, "phone keys changed, recreating tls context");
+            tlsContextTask = new FutureTask<>(this::createTlsContext);
+            tlsContextKeysDigest = keysDigest;
+            new Thread(tlsContextTask, "Geargrinder TLS context setup").start();
+            return tlsContextTask;
+        }
+    }
+
+    private TLSService createTlsService() throws CorruptedKeyException, CorruptedCertificateException, InterruptedException {
+        FutureTask<TLSContext> task = prepareTlsContext();
+        try {
+            TLSContext tlsContext = awaitTask(task);
+
+            // the benchmark may have finished since the context was created
+            CipherSuiteRanking ranking = settingsManager.getCipherSuiteRanking();
+            tlsContext.setCipherSuiteRanking(ranking != null && ranking.isCurrent() ? ranking : null);
+
+            return new TLSService(tlsContext);
+        } catch (CorruptedKeyException | CorruptedCertificateException | RuntimeException e) {
+            // try again next time, the keys may have been fixed
+            synchronized (tlsContextLock) {
+                if (tlsContextTask == task) tlsContextTask = null;
+            }
+            throw e;
+        }
+    }
+
+    private static <T> T awaitTask(FutureTask<T> task) throws CorruptedKeyException, CorruptedCertificateException, InterruptedException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            switch (e.getCause()) {
+                case CorruptedKeyException ee -> throw ee;
+                case CorruptedCertificateException ee -> throw ee;
+                case RuntimeException ee -> throw ee;
+                case Error ee -> throw ee;
+                default -> throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * starts privd, the virtual display, and the projection activity before the headunit is done with the handshake.
+     * the display is created with the default preset and resized once the real one is known.
+     * the control channel takes over as the listener after service discovery.
+     */
+    private void startProjectionEarly() {
+        binder.getOrCreateGeargrinderProjectionService(new ProjectionService.Listener() {
+            @Override
+            public void onProjectionStarted() {
+                // can't happen until the control channel provides input and output
+            }
+
+            @Override
+            public void onProjectionFailed(Throwable t) {
+                Log.w(TAG, "early projection start failed, it will be retried after service discovery", t);
+            }
+        });
     }
 
     private void usbConnectionLoop() {
         assert !Looper.getMainLooper().isCurrentThread();   // never run on main thread
+        BringUpTimeline timeline = new BringUpTimeline();
 
         try {
             synchronized (lock) {
@@ -257,6 +411,16 @@ public class ConnectionService extends Service implements ControlListener {
 
             Log.i(TAG, "headunit found");
             notificationService.setConnectionStatusText(R.string.connecting_to_car);
+            timeline.mark("headunit found");
+
+            // none of this depends on the headunit, so it runs alongside opening the accessory and the version exchange/handshake
+            FutureTask<TLSService> tlsServiceTask = new FutureTask<>(() -> {
+                TLSService tlsService = createTlsService();
+                timeline.mark("tls service ready");
+                return tlsService;
+            });
+            new Thread(tlsServiceTask, "Geargrinder TLS setup").start();
+            startProjectionEarly();
 
             // TODO: open accessory more efficiently (see openAccessory()
             try (ParcelFileDescriptor pfd = usbManager.openAccessory(headunit);
@@ -264,30 +428,28 @@ public class ConnectionService extends Service implements ControlListener {
                  FileOutputStream os = new FileOutputStream(pfd.getFileDescriptor())) {
 
                 Log.d(TAG, "opened usb file descriptor [" + pfd.getFd() + "]: " + pfd);
+                timeline.mark("usb accessory opened");
                 notificationService.setConnectionStatusText(R.string.connected_to_car);
                 notificationService.clearError();
 
                 Log.d(TAG, "starting services");
-                TLSService tlsService = createTlsService();
-                UsbTransferInterface usbTransferInterface = new UsbTransferInterface(pfd, is, os, AAFrame.MAX_LENGTH);
-                MessageBroker messageBroker = new MessageBroker(usbTransferInterface, tlsService);
-                ControlChannel controlChannel = new ControlChannel(this, messageBroker, tlsService, this, settingsManager, binder);
-                try {
-                    messageBroker.registerForChannel(AAConstants.CHANNEL_CONTROL, controlChannel);
-                    messageBroker.loop();
-                } finally {
-                    controlChannel.destroy();
-                    messageBroker.destroy();
-                }
+                TLSService tlsService = awaitTask(tlsServiceTask);
+                UsbTransferInterface usbTransferInterface = new UsbTransferInterface(pfd, is, os, AAFrame.MAX_LENGTH, USB_READ_BUFFER_SIZE);
+                WireCapture wireCapture = settingsManager.isWireCaptureEnabled() ? startWireCapture() : null;
+                runSession(usbTransferInterface, tlsService, wireCapture, timeline);
 
             } catch (IOException e) {
                 Log.e(TAG, "IOException in car connection", e);
                 notificationService.postError(R.string.car_connection_unexpected_error, R.string.error_car_io_usb_generic);
             } catch (CorruptedKeyException | CorruptedCertificateException e) {
                 notificationService.postError(e);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "interrupted while waiting for tls service", e);
+                Thread.currentThread().interrupt();
             }
 
         } finally {
+            timeline.logSummary();
             // suspend
             synchronized (lock) {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
@@ -299,6 +461,114 @@ public class ConnectionService extends Service implements ControlListener {
         }
     }
 
+    /**
+     * runs the protocol over a connection until it dies
+     * @param wireCapture where to capture the connection to, or null
+     */
+    private void runSession(AATransferInterface transferInterface, TLSService tlsService, WireCapture wireCapture, BringUpTimeline timeline) {
+        MessageBroker messageBroker = new MessageBroker(transferInterface, tlsService);
+        ControlChannel controlChannel = new ControlChannel(this, messageBroker, tlsService, this, settingsManager, binder, timeline);
+        messageBroker.setWireCapture(wireCapture);
+        try {
+            messageBroker.registerForChannel(AAConstants.CHANNEL_CONTROL, TransmitPriority.CONTROL, controlChannel);
+            messageBroker.loop();
+        } finally {
+            controlChannel.destroy();
+            messageBroker.destroy();
+            if (wireCapture != null) wireCapture.close();
+        }
+    }
+
+    /**
+     * plays back the most recent wire capture in place of a headunit, for debugging without a car.
+     * tls is skipped since the capture only has plaintext, and nothing is captured.
+     */
+    private void replayConnectionLoop() {
+        assert !Looper.getMainLooper().isCurrentThread();   // never run on main thread
+        BringUpTimeline timeline = new BringUpTimeline();
+
+        try {
+            File captureFile = findLatestWireCapture();
+            if (captureFile == null) {
+                Log.e(TAG, "no wire capture to replay");
+                return;
+            }
+
+            synchronized (lock) {
+                projectionGracePeriodToken = new Object();
+            }
+
+            notificationService.setConnectionStatusText(R.string.connected_to_car);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+                notificationService.addForegroundFlag(ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+
+            startProjectionEarly();
+
+            ReplayTransferInterface replayTransferInterface = new ReplayTransferInterface(captureFile, ReplayTransferInterface.Speed.ORIGINAL);
+            try {
+                runSession(replayTransferInterface, new ReplayTLSService(), null, timeline);
+            } finally {
+                replayTransferInterface.close();
+            }
+
+        } catch (IOException e) {
+            Log.e(TAG, "failed to replay wire capture", e);
+        } finally {
+            timeline.logSummary();
+            synchronized (lock) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+                    notificationService.removeForegroundFlag(ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+                notificationService.setConnectionStatusText(R.string.looking_for_car);
+                connectionThread = null;
+                suspendProjectionLocked();
+            }
+        }
+    }
+
+    private File findLatestWireCapture() {
+        File[] captures = new File(getFilesDir(), WIRE_CAPTURE_DIR).listFiles((dir, name) -> name.endsWith(WIRE_CAPTURE_EXTENSION));
+        if (captures == null) return null;
+
+        File latest = null;
+        for (File capture : captures) {
+            if (latest == null || capture.lastModified() > latest.lastModified())
+                latest = capture;
+        }
+        return latest;
+    }
+
+    /**
+     * deletes the oldest captures so there's room for a new one within {@link ConnectionService#MAX_WIRE_CAPTURES}
+     */
+    private void deleteOldWireCaptures(File captureDir) {
+        File[] captures = captureDir.listFiles((dir, name) -> name.endsWith(WIRE_CAPTURE_EXTENSION));
+        if (captures == null || captures.length < MAX_WIRE_CAPTURES) return;
+
+        Arrays.sort(captures, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i <= captures.length - MAX_WIRE_CAPTURES; i++) {
+            if (!captures[i].delete())
+                Log.w(TAG, "failed to delete old wire capture " + captures[i]);
+        }
+    }
+
+    private WireCapture startWireCapture() {
+        File captureDir = new File(getFilesDir(), WIRE_CAPTURE_DIR);
+        if (!captureDir.isDirectory() && !captureDir.mkdirs()) {
+            Log.e(TAG, "failed to create wire capture directory");
+            return null;
+        }
+
+        deleteOldWireCaptures(captureDir);
+
+        File captureFile = new File(captureDir, System.currentTimeMillis() + WIRE_CAPTURE_EXTENSION);
+        try {
+            return new WireCapture(captureFile);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to start wire capture", e);
+            return null;
+        }
+    }
+
     private void suspendProjectionLocked() {
         if (projectionService == null) return;
         if (projectionService.getError() != null) {
@@ -24,8 +24,12 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.function.Supplier;
 
+import io.benwiegand.projection.geargrinder.crypto.CipherSuiteBenchmark;
+import io.benwiegand.projection.geargrinder.crypto.CipherSuiteRanking;
+import io.benwiegand.projection.geargrinder.crypto.CryptoManager;
 import io.benwiegand.projection.geargrinder.logs.LogUiAdapter;
 import io.benwiegand.projection.geargrinder.logs.LogcatReader;
+import io.benwiegand.projection.geargrinder.settings.SettingsManager;
 
 public class DebugActivity extends AppCompatActivity {
     private static final String TAG = DebugActivity.class.getSimpleName();
@@ -118,9 +122,64 @@ public class DebugActivity extends AppCompatActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_debug, menu);
+        menu.findItem(R.id.wire_capture_button).setChecked(new SettingsManager(this).isWireCaptureEnabled());
         return super.onCreateOptionsMenu(menu);
     }
 
+    private void showCipherSuiteBenchmark() {
+        SettingsManager settingsManager = new SettingsManager(this);
+        CipherSuiteRanking ranking = settingsManager.getCipherSuiteRanking();
+        String lastCipherSuite = settingsManager.getLastCipherSuite();
+
+        StringBuilder sb = new StringBuilder("last negotiated: ");
+        if (lastCipherSuite == null) {
+            sb.append("never connected");
+        } else {
+            sb.append(lastCipherSuite);
+            CipherSuiteRanking.Entry entry = ranking == null ? null : ranking.get(lastCipherSuite);
+            if (entry != null) sb.append(" (").append(entry.megabytesPerSecond()).append(" MB/s)");
+        }
+
+        sb.append("\n\n");
+        if (ranking == null) {
+            sb.append("no benchmark results");
+        } else {
+            if (!ranking.isCurrent()) sb.append("results are from a different os build or benchmark version, they will be redone on next launch\n\n");
+            for (CipherSuiteRanking.Entry entry : ranking.entries()) {
+                sb.append(entry.cipherSuite())
+                        .append(": ")
+                        .append(entry.megabytesPerSecond())
+                        .append(" MB/s\n");
+            }
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle("cipher suite benchmark")
+                .setMessage(sb.toString().trim())
+                .setPositiveButton("close", null)
+                .setNeutralButton("run again", (d, i) -> {
+                    Toast.makeText(this, "benchmark started", Toast.LENGTH_SHORT).show();
+                    CipherSuiteBenchmark.runInBackground(settingsManager, new CryptoManager(this), result -> runOnUiThread(() -> {
+                        if (isDestroyed()) return;
+                        if (result == null) {
+                            Toast.makeText(this, "benchmark failed", Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                        showCipherSuiteBenchmark();
+                    }));
+                })
+                .show();
+    }
+
+    private void showFrameSizeStats() {
+        String stats = new SettingsManager(this).getLastFrameSizeStats();
+        new AlertDialog.Builder(this)
+                .setTitle("video frame sizes")
+                .setMessage(stats == null ? "no video has been streamed yet" : "last full window of the last video stream:\n\n" + stats)
+                .setPositiveButton("close", null)
+                .show();
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         Map<Integer, Supplier<Boolean>> actionMap = Map.of(
@@ -141,6 +200,26 @@ public class DebugActivity extends AppCompatActivity {
                     startActivity(new Intent(this, ConnectionRequestActivity.class)
                             .setAction(ConnectionRequestActivity.INTENT_ACTION_REQUEST_MEDIA_PROJECTION));
                     return true;
+                },
+                R.id.cipher_suite_benchmark_button, () -> {
+                    showCipherSuiteBenchmark();
+                    return true;
+                },
+                R.id.frame_size_stats_button, () -> {
+                    showFrameSizeStats();
+                    return true;
+                },
+                R.id.wire_capture_button, () -> {
+                    boolean enabled = !item.isChecked();
+                    if (!new SettingsManager(this).setWireCaptureEnabled(enabled)) return true;
+                    item.setChecked(enabled);
+                    Toast.makeText(this, enabled ? "connections will be captured to files/captures" : "capture disabled", Toast.LENGTH_SHORT).show();
+                    return true;
+                },
+                R.id.replay_capture_button, () -> {
+                    startService(new Intent(this, ConnectionService.class)
+                            .setAction(ConnectionService.INTENT_ACTION_REPLAY_LAST_CAPTURE));
+                    return true;
                 }
         );
         Supplier<Boolean> action = actionMap.getOrDefault(item.getItemId(), () -> super.onOptionsItemSelected(item));
@@ -4,12 +4,20 @@ import android.app.Application;
 
 import com.google.android.material.color.DynamicColors;
 
+import io.benwiegand.projection.geargrinder.crypto.CipherSuiteBenchmark;
+import io.benwiegand.projection.geargrinder.crypto.CryptoManager;
+import io.benwiegand.projection.geargrinder.projection.video.EncoderCapabilityProber;
+import io.benwiegand.projection.geargrinder.settings.SettingsManager;
+
 public class Geargrinder extends Application {
 
     @Override
     public void onCreate() {
         super.onCreate();
         DynamicColors.applyToActivitiesIfAvailable(this);
+        SettingsManager settingsManager = new SettingsManager(this);
+        EncoderCapabilityProber.probeIfNeeded(settingsManager);
+        CipherSuiteBenchmark.runIfNeeded(settingsManager, new CryptoManager(this));
     }
 
 }
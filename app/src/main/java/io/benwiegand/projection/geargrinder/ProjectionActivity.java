@@ -5,6 +5,7 @@ import static androidx.core.view.WindowInsetsControllerCompat.BEHAVIOR_SHOW_TRAN
 import android.app.KeyguardManager;
 import android.content.ComponentName;
 import android.content.Intent;
+import android.graphics.Rect;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.Handler;
@@ -12,6 +13,7 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.util.Log;
 import android.view.KeyEvent;
+import android.view.MotionEvent;
 import android.view.View;
 
 import androidx.activity.OnBackPressedCallback;
@@ -20,6 +22,9 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.view.WindowInsetsCompat;
 import androidx.core.view.WindowInsetsControllerCompat;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import io.benwiegand.projection.geargrinder.callback.AppLauncherListener;
 import io.benwiegand.projection.geargrinder.callback.IPCConnectionListener;
 import io.benwiegand.projection.geargrinder.makeshiftbind.MakeshiftBind;
@@ -27,6 +32,7 @@ import io.benwiegand.projection.geargrinder.callback.MakeshiftBindCallback;
 import io.benwiegand.projection.geargrinder.pm.AppRecord;
 import io.benwiegand.projection.geargrinder.projection.ui.BatteryIndicator;
 import io.benwiegand.projection.geargrinder.projection.ui.NotificationDisplay;
+import io.benwiegand.projection.geargrinder.projection.ui.VirtualActivity;
 import io.benwiegand.projection.geargrinder.projection.ui.task.ProjectionTask;
 import io.benwiegand.projection.geargrinder.projection.ui.NetworkIndicators;
 import io.benwiegand.projection.geargrinder.projection.ui.task.ProjectionTaskManager;
@@ -42,6 +48,24 @@ public class ProjectionActivity extends AppCompatActivity implements MakeshiftBi
     // only happens while device is initially locked
     private static final long KEYGUARD_LOCK_STATE_POLL_INTERVAL = 1000;
 
+    // touches this close to the bottom edge bring the dock back in fullscreen
+    private static final int FULLSCREEN_EXIT_EDGE_DP = 24;
+
+    /**
+     * draws virtual activities to the output without going through the projection display when nothing is drawn over them
+     */
+    public interface DirectCompositionHost {
+        /**
+         * @param source the virtual activity that fills the whole screen with nothing on top, or null if the projection display is needed
+         */
+        void setDirectCompositionSource(VirtualActivity source);
+
+        /**
+         * @param sources virtual activities with nothing on top, and where they are on the projection display. they're drawn over it as separate layers.
+         */
+        void setLayerSources(Map<VirtualActivity, Rect> sources);
+    }
+
     private final Handler handler = new Handler(Looper.getMainLooper());
 
     private final ActivityBinder binder = new ActivityBinder();
@@ -57,6 +81,11 @@ public class ProjectionActivity extends AppCompatActivity implements MakeshiftBi
     private GeargrinderServiceConnector connector;
     private IPrivd privd = null;
 
+    private boolean fullscreen = false;
+    private DirectCompositionHost directCompositionHost = null;
+    private VirtualActivity directCompositionSource = null;
+    private Map<VirtualActivity, Rect> layerSources = Map.of();
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -113,6 +142,9 @@ public class ProjectionActivity extends AppCompatActivity implements MakeshiftBi
 
         taskManager.registerListener(this);
 
+        // anything that could cover the app changes the layout
+        findViewById(R.id.root).getViewTreeObserver().addOnGlobalLayoutListener(this::updateDirectComposition);
+
         // binds
         connector = new GeargrinderServiceConnector(TAG, this, this);
         connector.bindPrivdService(BIND_AUTO_CREATE | BIND_IMPORTANT);
@@ -142,6 +174,15 @@ public class ProjectionActivity extends AppCompatActivity implements MakeshiftBi
 
         connector.getPackageBinder().ifPresent(b -> b.unregisterListener(this::onPackageListUpdated));
 
+        // the virtual activities are about to go away
+        if (directCompositionHost != null) {
+            directCompositionHost.setDirectCompositionSource(null);
+            directCompositionHost.setLayerSources(Map.of());
+        }
+        directCompositionHost = null;
+        directCompositionSource = null;
+        layerSources = Map.of();
+
         taskManager.unregisterListener(this);
         taskManager.destroy();
 
@@ -168,6 +209,86 @@ public class ProjectionActivity extends AppCompatActivity implements MakeshiftBi
         return nextFocus.requestFocus();
     }
 
+    private boolean isShown(int viewId) {
+        return findViewById(viewId).getVisibility() == View.VISIBLE;
+    }
+
+    private boolean isContentCovered() {
+        // the drawer, notifications, and modals are all drawn by the projection display on top of the content
+        if (!isShown(R.id.projection_root) || isShown(R.id.app_drawer) || isShown(R.id.popup_notification_overlay)) return true;
+
+        ProjectionTask task = taskManager.getActiveTask();
+        return task == null || task.isSplashShown();
+    }
+
+    private VirtualActivity findDirectCompositionSource() {
+        // the dock is drawn by the projection display too
+        if (!fullscreen || isContentCovered()) return null;
+
+        ProjectionTask task = taskManager.getActiveTask();
+        if (task.activityCount() != 1) return null;
+
+        VirtualActivity activity = task.getVirtualActivities().get(0);
+        if (!activity.canComposeDirectly()) return null;
+
+        // screen margins
+        View root = findViewById(R.id.root);
+        if (activity.getSurfaceWidth() != root.getWidth() || activity.getSurfaceHeight() != root.getHeight()) return null;
+
+        return activity;
+    }
+
+    private Map<VirtualActivity, Rect> findLayerSources(VirtualActivity directCompositionSource) {
+        if (directCompositionSource != null || isContentCovered()) return Map.of();
+
+        Map<VirtualActivity, Rect> sources = new HashMap<>();
+        for (VirtualActivity activity : taskManager.getActiveTask().getVirtualActivities()) {
+            if (!activity.canComposeDirectly()) continue;
+            sources.put(activity, activity.getSurfaceBounds());
+        }
+        return Map.copyOf(sources);
+    }
+
+    private void updateDirectComposition() {
+        VirtualActivity source = findDirectCompositionSource();
+        Map<VirtualActivity, Rect> layers = findLayerSources(source);
+
+        if (source != directCompositionSource) {
+            directCompositionSource = source;
+
+            if (source != null) Log.i(TAG, "using direct composition for " + source.getComponentName().flattenToShortString());
+            else Log.i(TAG, "stopped direct composition");
+
+            if (directCompositionHost != null) directCompositionHost.setDirectCompositionSource(source);
+        }
+
+        if (!layers.equals(layerSources)) {
+            layerSources = layers;
+            if (directCompositionHost != null) directCompositionHost.setLayerSources(layers);
+        }
+    }
+
+    private void setFullscreen(boolean fullscreen) {
+        if (this.fullscreen == fullscreen) return;
+        Log.i(TAG, fullscreen ? "entering fullscreen" : "leaving fullscreen");
+        this.fullscreen = fullscreen;
+        findViewById(R.id.dock_bar).setVisibility(fullscreen ? View.GONE : View.VISIBLE);
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event) {
+        if (fullscreen && event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            View root = findViewById(R.id.root);
+            float edge = FULLSCREEN_EXIT_EDGE_DP * getResources().getDisplayMetrics().density;
+            if (event.getY() >= root.getHeight() - root.getPaddingBottom() - edge) {
+                setFullscreen(false);
+                return true;
+            }
+        }
+
+        return super.dispatchTouchEvent(event);
+    }
+
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         boolean handled = switch (keyCode) {
@@ -194,6 +315,17 @@ public class ProjectionActivity extends AppCompatActivity implements MakeshiftBi
         appDrawer.close();
     }
 
+    @Override
+    public void onFullscreenRequest() {
+        setFullscreen(true);
+    }
+
+    @Override
+    public void onSwitchTask(ProjectionTask oldTask, boolean oldPinned, ProjectionTask newTask, boolean newPinned) {
+        // there's nothing to show fullscreen
+        if (newTask == null) setFullscreen(false);
+    }
+
     @Override
     public void onAppDrawerSelected() {
         appDrawer.toggle();
@@ -259,5 +391,14 @@ public class ProjectionActivity extends AppCompatActivity implements MakeshiftBi
             });
         }
 
+        public void setDirectCompositionHost(DirectCompositionHost host) {
+            runOnUiThread(() -> {
+                directCompositionHost = host;
+                directCompositionSource = null;
+                layerSources = Map.of();
+                updateDirectComposition();
+            });
+        }
+
     }
 }
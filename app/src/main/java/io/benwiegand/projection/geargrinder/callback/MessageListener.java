@@ -1,6 +1,17 @@
 package io.benwiegand.projection.geargrinder.callback;
 
+import io.benwiegand.projection.geargrinder.data.PooledBuffer;
+
 public interface MessageListener {
 
     void onMessage(int channelId, int flags, byte[] buffer, int payloadOffset, int payloadLength);
+
+    /**
+     * like {@link MessageListener#onMessage(int, int, byte[], int, int)}, but with the pooled buffer the message was reassembled into.
+     * the buffer is only valid until this returns, unless the handler calls {@link PooledBuffer#retain()} to keep it for later.
+     * a retained buffer must be released once the handler is done with it.
+     */
+    default void onMessage(int channelId, int flags, PooledBuffer message) {
+        onMessage(channelId, flags, message.array(), 0, message.length());
+    }
 }
@@ -21,7 +21,9 @@ import java.util.function.Supplier;
 
 import io.benwiegand.projection.geargrinder.data.BufferReader;
 import io.benwiegand.projection.geargrinder.message.MessageBroker;
+import io.benwiegand.projection.geargrinder.message.TransmitPriority;
 import io.benwiegand.projection.geargrinder.callback.MessageListener;
+import io.benwiegand.projection.geargrinder.proto.data.readable.av.AVMediaAck;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.AVSetupResponse;
 import io.benwiegand.projection.geargrinder.proto.data.readable.ChannelOpenResponse;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.VideoFocusIndication;
@@ -38,11 +40,12 @@ public abstract class AVChannel<T> implements MessageListener {
     // this should probably be even lower
     private static final int MAX_OUTSTANDING_ACK_LIMIT = 15;
 
+    // waitForAck() gives up after a timeout, so more frames than the limit can end up waiting for an ack
+    private static final int ACK_SEND_TIME_CAPACITY = MAX_OUTSTANDING_ACK_LIMIT * 4;
+
     protected final long AV_ACK_TIMEOUT = 500;
 
-    private final Object avAckLock = new Object();
-    private int outstandingAcks = 0;
-    private int maxOutstandingAcks = 1;
+    private final AckWindow ackWindow = new AckWindow(ACK_SEND_TIME_CAPACITY);
 
     private final Object avThreadLock = new Object();
     private Thread avThread = null;
@@ -57,9 +60,12 @@ public abstract class AVChannel<T> implements MessageListener {
     protected record AVPreset<T>(int index, T preset) {}
     protected final List<AVPreset<T>> avPresets = new ArrayList<>();
 
+    private int preferredPresetIndex = -1;
+    protected volatile int selectedPresetIndex = -1;  // set by avLoop() once a working preset is found
+
     protected boolean dead = false;
 
-    public AVChannel(MessageBroker mb, int channelId, int channelPriority) {
+    public AVChannel(MessageBroker mb, int channelId, int channelPriority, TransmitPriority transmitPriority) {
         this.mb = mb;
         this.channelPriority = channelPriority;
 
@@ -67,7 +73,7 @@ public abstract class AVChannel<T> implements MessageListener {
         controlParams = new MessageBroker.MessageSendParameters(channelId, true, true);
         mediaParams = new MessageBroker.MessageSendParameters(channelId, true, false);
 
-        mb.registerForChannel(channelId, this);
+        mb.registerForChannel(channelId, transmitPriority, this);
     }
 
     public void destroy() {
@@ -78,29 +84,68 @@ public abstract class AVChannel<T> implements MessageListener {
     public void openChannel() {
         Log.i(TAG, "sending channel open request");
         mb.sendMessage(controlParams, CMD_CHANNEL_OPEN_REQUEST,
-                new ChannelOpenRequest(channelPriority, controlParams.channelId()).serialize());
+                new ChannelOpenRequest(channelPriority, controlParams.channelId()));
     }
 
-    protected void onAck() {
-        synchronized (avAckLock) {
-            outstandingAcks--;
-            avAckLock.notify();
-        }
+    /**
+     * starts from what worked with this headunit last time
+     * @param presetIndex the preset to try first, or -1
+     * @param initialAckWindow the ack window to start with, or -1 to start fully open
+     */
+    public void applyProfile(int presetIndex, int initialAckWindow) {
+        preferredPresetIndex = presetIndex;
+        if (initialAckWindow > 0) ackWindow.setInitialWindow(initialAckWindow);
+    }
+
+    /**
+     * @return the index of the preset in use, or -1 if none has been picked yet
+     */
+    public int getSelectedPresetIndex() {
+        return selectedPresetIndex;
+    }
+
+    /**
+     * @return the largest ack window that held for a while this session, or -1 if none has yet
+     */
+    public int getAckWindow() {
+        return ackWindow.getStableWindow();
+    }
+
+    protected void onAck(AVMediaAck ack) {
+        long latency = ackWindow.onAck(ack.ackCount());
+        if (latency >= 0) onAckLatency(latency, ackWindow.getOutstanding(), ackWindow.getWindow());
     }
 
     protected void expectAck() {
-        synchronized (avAckLock) {
-            outstandingAcks++;
-        }
+        ackWindow.onSend();
+    }
+
+    /**
+     * called for each ack with the time it took to get it
+     * @param latency time between sending the frame and getting the ack in ms
+     * @param outstandingAcks frames still waiting for an ack
+     * @param maxOutstandingAcks the current ack window
+     */
+    protected void onAckLatency(long latency, int outstandingAcks, int maxOutstandingAcks) {
     }
 
+    /**
+     * waits for room in the ack window
+     * @param timeout max time to wait in ms
+     * @return true if another frame can be sent, false if the headunit is still behind
+     */
     protected boolean waitForAck(long timeout) throws InterruptedException {
-        synchronized (avAckLock) {
-            if (outstandingAcks >= maxOutstandingAcks) {
-                avAckLock.wait(timeout);
-            }
-            return outstandingAcks < maxOutstandingAcks;
-        }
+        boolean ready = ackWindow.await(timeout);
+        int lostFrames = ackWindow.takeLostFrames();
+        if (lostFrames > 0) onFramesLost(lostFrames);
+        return ready;
+    }
+
+    /**
+     * called from the av thread when sent frames are assumed to have been lost, since they were never acked
+     * @param lostFrames the number of frames lost
+     */
+    protected void onFramesLost(int lostFrames) {
     }
 
     protected void start() {
@@ -111,7 +156,7 @@ public abstract class AVChannel<T> implements MessageListener {
                 return;
             }
 
-            outstandingAcks = 0;
+            ackWindow.reset();
 
             AtomicBoolean runBool = new AtomicBoolean(true);
             stopAvThreadRunnable = () -> runBool.set(false);
@@ -148,17 +193,18 @@ public abstract class AVChannel<T> implements MessageListener {
 
     protected void sendStartIndication(AVStartIndication startIndication) {
         Log.i(TAG, "sending start indication");
-        mb.sendMessage(mediaParams, AV_CMD_START, startIndication.serialize());
+        mb.sendMessage(mediaParams, AV_CMD_START, startIndication);
     }
 
     protected void sendStopIndication() {
         Log.i(TAG, "sending stop indication");
-        mb.sendMessage(mediaParams, AV_CMD_STOP, new byte[0]);
+        mb.sendMessage(mediaParams, AV_CMD_STOP);
     }
 
     protected void sendAvBuffer(BufferReader bufferReader) {
-        mb.sendMessage(mediaParams, bufferReader);
+        // before sending, the ack can arrive before sendMessage() returns
         expectAck();
+        mb.sendMessage(mediaParams, bufferReader);
     }
 
     protected void onAvSetupResponse(AVSetupResponse response) {
@@ -172,14 +218,23 @@ public abstract class AVChannel<T> implements MessageListener {
             }
         }
 
-        maxOutstandingAcks = response.maxOutstandingAck();
+        int maxOutstandingAcks = response.maxOutstandingAck();
         if (maxOutstandingAcks > MAX_OUTSTANDING_ACK_LIMIT) {
             // some headunits return excessive numbers for this which causes latency issues
             Log.w(TAG, "limiting maxOutstandingAcks from " + maxOutstandingAcks + " to " + MAX_OUTSTANDING_ACK_LIMIT);
             maxOutstandingAcks = MAX_OUTSTANDING_ACK_LIMIT;
         }
+        ackWindow.setLimit(maxOutstandingAcks);
 
         updatePresets(response.acceptedPresets());
+
+        if (preferredPresetIndex < 0) return;
+        for (int i = 0; i < avPresets.size(); i++) {
+            if (avPresets.get(i).index() != preferredPresetIndex) continue;
+            Log.i(TAG, "trying preset that worked last time first: " + preferredPresetIndex);
+            avPresets.add(0, avPresets.remove(i));
+            break;
+        }
     }
 
     protected void onVideoFocusIndication(VideoFocusIndication indication) {
@@ -221,7 +276,7 @@ public abstract class AVChannel<T> implements MessageListener {
                 }
 
                 Log.i(TAG, "sending av setup request");
-                mb.sendMessage(mediaParams, AV_CMD_SETUP_REQUEST, getAvSetupRequest().serialize());
+                mb.sendMessage(mediaParams, AV_CMD_SETUP_REQUEST, getAvSetupRequest());
             }
             case AV_CMD_SETUP_RESPONSE -> {
                 AVSetupResponse response = AVSetupResponse.parse(buffer, payloadOffset + COMMAND_ID_LENGTH, payloadLength - COMMAND_ID_LENGTH);
@@ -235,8 +290,13 @@ public abstract class AVChannel<T> implements MessageListener {
                 onAvSetupResponse(response);
             }
             case AV_CMD_MEDIA_ACK -> {
-                // TODO: unparsed
-                onAck();
+                AVMediaAck ack = AVMediaAck.parse(buffer, payloadOffset + COMMAND_ID_LENGTH, payloadLength - COMMAND_ID_LENGTH);
+                if (ack == null) {
+                    Log.e(TAG, "failed to parse media ack, assuming one frame was acked");
+                    ack = new AVMediaAck(0, 1);
+                }
+
+                onAck(ack);
             }
             case AV_CMD_VIDEO_FOCUSED -> {
                 VideoFocusIndication indication = VideoFocusIndication.parse(buffer, payloadOffset + COMMAND_ID_LENGTH, payloadLength - COMMAND_ID_LENGTH);
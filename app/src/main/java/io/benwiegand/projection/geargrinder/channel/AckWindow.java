@@ -0,0 +1,220 @@
+package io.benwiegand.projection.geargrinder.channel;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * flow control window for av frames waiting on a media ack.
+ * the window grows by one frame per window of acks while the ack latency stays close to the lowest seen,
+ * and halves (at most once per round trip) when it inflates, so a slow headunit doesn't build up a queue of stale frames.
+ */
+final class AckWindow {
+    private static final String TAG = AckWindow.class.getSimpleName();
+
+    private static final boolean LOG_WINDOW_DEBUG = false;
+
+    // an ack is late when its latency is over twice the lowest seen plus this
+    private static final long LATENCY_INFLATION_MARGIN = 30;
+
+    // the lowest latency is raised by this much every round trip, so it can follow a link that got slower for good
+    private static final long MIN_LATENCY_DRIFT = 1;
+
+    // if nothing gets acked for this long, the outstanding frames are assumed to be lost
+    private static final long ACK_LOSS_TIMEOUT = 2000;
+
+    // how long a window has to hold without inflating or losing frames to count as stable
+    private static final long STABLE_WINDOW_TIME = 10000;
+
+    // send times of frames waiting for an ack, oldest first
+    private final long[] sendTimes;
+    private int sendTimesStart = 0;
+    private int sendTimesCount = 0;
+
+    private int outstanding = 0;
+    private int limit = 1;
+    private int initialWindow = Integer.MAX_VALUE;
+    private int window = 1;
+
+    private int acksSinceWindowChange = 0;
+    private long minLatency = Long.MAX_VALUE;
+    private long lastDecreaseTime = Long.MIN_VALUE;
+    private long lastAckTime = 0;
+    private int lostFrames = 0;
+
+    // largest window that held, kept across resets since it's still the same headunit
+    private long windowSetTime = 0;
+    private int stableWindow = 0;
+
+    /**
+     * @param capacity the number of send times to keep track of, should be well over the limit since waits can time out
+     */
+    AckWindow(int capacity) {
+        sendTimes = new long[capacity];
+    }
+
+    synchronized void reset() {
+        outstanding = 0;
+        sendTimesStart = 0;
+        sendTimesCount = 0;
+        window = Math.min(limit, initialWindow);
+        acksSinceWindowChange = 0;
+        minLatency = Long.MAX_VALUE;
+        lastDecreaseTime = Long.MIN_VALUE;
+        lastAckTime = SystemClock.elapsedRealtime();
+        windowSetTime = lastAckTime;
+        lostFrames = 0;
+        notifyAll();
+    }
+
+    /**
+     * sets the most frames that can ever be in flight, the window starts out fully open unless an initial window was set
+     */
+    synchronized void setLimit(int limit) {
+        this.limit = Math.max(1, limit);
+        window = Math.min(this.limit, initialWindow);
+        windowSetTime = SystemClock.elapsedRealtime();
+        notifyAll();
+    }
+
+    /**
+     * sets the window to start from (capped to the limit), such as the one that held up last time
+     */
+    synchronized void setInitialWindow(int initialWindow) {
+        this.initialWindow = Math.max(1, initialWindow);
+        window = Math.min(limit, this.initialWindow);
+        windowSetTime = SystemClock.elapsedRealtime();
+        notifyAll();
+    }
+
+    synchronized int getOutstanding() {
+        return outstanding;
+    }
+
+    synchronized int getWindow() {
+        return window;
+    }
+
+    private void updateStableWindow(long now) {
+        if (now - windowSetTime >= STABLE_WINDOW_TIME && window > stableWindow)
+            stableWindow = window;
+    }
+
+    /**
+     * @return the largest window that held for a while without inflating the latency or losing frames, or -1 if none has yet
+     */
+    int getStableWindow() {
+        return getStableWindow(SystemClock.elapsedRealtime());
+    }
+
+    synchronized int getStableWindow(long now) {
+        updateStableWindow(now);
+        return stableWindow > 0 ? stableWindow : -1;
+    }
+
+    /**
+     * records a frame about to be sent
+     */
+    void onSend() {
+        onSend(SystemClock.elapsedRealtime());
+    }
+
+    synchronized void onSend(long now) {
+        outstanding++;
+
+        if (sendTimesCount == sendTimes.length) {
+            // the oldest frame is most likely never getting acked
+            sendTimesStart = (sendTimesStart + 1) % sendTimes.length;
+            sendTimesCount--;
+        }
+
+        sendTimes[(sendTimesStart + sendTimesCount) % sendTimes.length] = now;
+        sendTimesCount++;
+    }
+
+    /**
+     * records an ack and adjusts the window
+     * @param ackCount the number of frames acked
+     * @return time between sending the newest acked frame and getting the ack in ms, or -1 if unknown
+     */
+    long onAck(int ackCount) {
+        return onAck(ackCount, SystemClock.elapsedRealtime());
+    }
+
+    synchronized long onAck(int ackCount, long now) {
+        lastAckTime = now;
+        updateStableWindow(now);
+        outstanding = Math.max(0, outstanding - ackCount);
+        notifyAll();
+
+        long sendTime = -1;
+        for (int i = 0; i < ackCount && sendTimesCount > 0; i++) {
+            sendTime = sendTimes[sendTimesStart];
+            sendTimesStart = (sendTimesStart + 1) % sendTimes.length;
+            sendTimesCount--;
+        }
+        if (sendTime < 0) return -1;
+
+        long latency = now - sendTime;
+        minLatency = Math.min(minLatency, latency);
+
+        if (latency > minLatency * 2 + LATENCY_INFLATION_MARGIN) {
+            // only react once per round trip, frames sent before the last decrease were already accounted for
+            if (sendTime <= lastDecreaseTime) return latency;
+
+            int newWindow = Math.max(1, window / 2);
+            if (LOG_WINDOW_DEBUG || newWindow != window) Log.d(TAG, "ack latency inflated (" + latency + " ms, min " + minLatency + " ms), window: " + window + " -> " + newWindow);
+            window = newWindow;
+            windowSetTime = now;    // even if it couldn't shrink, it didn't hold
+            lastDecreaseTime = now;
+            acksSinceWindowChange = 0;
+        } else if (++acksSinceWindowChange >= window) {
+            acksSinceWindowChange = 0;
+            minLatency += MIN_LATENCY_DRIFT;
+            if (window < limit) {
+                window++;
+                windowSetTime = now;
+                if (LOG_WINDOW_DEBUG) Log.d(TAG, "window grew to " + window);
+            }
+        }
+
+        return latency;
+    }
+
+    /**
+     * waits for room in the window. acks that don't make room and other wakeups keep it waiting until the timeout.
+     * @param timeout max time to wait in ms, 0 to not wait
+     * @return true if another frame can be sent
+     */
+    synchronized boolean await(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout * 1_000_000;
+        long remaining = timeout;
+        while (outstanding >= window && remaining > 0) {
+            wait(remaining);
+            // rounded up, wait(0) would wait forever
+            remaining = (deadline - System.nanoTime() + 999_999) / 1_000_000;
+        }
+        if (outstanding < window) return true;
+
+        if (SystemClock.elapsedRealtime() - lastAckTime > ACK_LOSS_TIMEOUT) {
+            Log.w(TAG, "no acks in over " + ACK_LOSS_TIMEOUT + " ms, assuming " + outstanding + " outstanding frames were lost");
+            lostFrames += outstanding;
+            outstanding = 0;
+            sendTimesStart = 0;
+            sendTimesCount = 0;
+            lastAckTime = SystemClock.elapsedRealtime();
+            windowSetTime = lastAckTime;    // the window didn't hold
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the number of frames assumed to be lost since the last call
+     */
+    synchronized int takeLostFrames() {
+        int lost = lostFrames;
+        lostFrames = 0;
+        return lost;
+    }
+}
@@ -13,6 +13,7 @@ import java.util.function.Supplier;
 import io.benwiegand.projection.geargrinder.data.BufferReader;
 import io.benwiegand.projection.geargrinder.projection.audio.AudioCapture;
 import io.benwiegand.projection.geargrinder.message.MessageBroker;
+import io.benwiegand.projection.geargrinder.message.TransmitPriority;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.AVSetupResponse;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.AudioChannelMeta;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.preset.AudioPreset;
@@ -39,7 +40,7 @@ public class AudioChannel extends AVChannel<AudioPreset> {
     }
 
     public AudioChannel(MessageBroker mb, AudioChannelMeta channelMeta, AudioCaptureProvider audioCaptureProvider) {
-        super(mb, channelMeta.channelId(), 0);
+        super(mb, channelMeta.channelId(), 0, TransmitPriority.AUDIO);
         this.channelMeta = channelMeta;
         this.audioCaptureProvider = audioCaptureProvider;
 
@@ -138,6 +139,8 @@ public class AudioChannel extends AVChannel<AudioPreset> {
             return;
         }
 
+        selectedPresetIndex = avPreset.index();
+
         try {
             sendStartIndication(new AVStartIndication(0, avPreset.index()));
 
@@ -21,6 +21,7 @@ import io.benwiegand.projection.geargrinder.projection.audio.AudioRecordCapture;
 import io.benwiegand.projection.geargrinder.crypto.TLSService;
 import io.benwiegand.projection.geargrinder.message.MessageBroker;
 import io.benwiegand.projection.geargrinder.callback.MessageListener;
+import io.benwiegand.projection.geargrinder.logs.BringUpTimeline;
 import io.benwiegand.projection.geargrinder.projection.ProjectionService;
 import io.benwiegand.projection.geargrinder.proto.data.readable.AudioFocusResponse;
 import io.benwiegand.projection.geargrinder.proto.data.readable.PingRequest;
@@ -34,6 +35,8 @@ import io.benwiegand.projection.geargrinder.proto.data.writable.ServiceDiscovery
 import io.benwiegand.projection.geargrinder.proto.data.readable.ServiceDiscoveryResponse;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.VideoChannelMeta;
 import io.benwiegand.projection.geargrinder.callback.ControlListener;
+import io.benwiegand.projection.geargrinder.settings.HeadunitProfile;
+import io.benwiegand.projection.geargrinder.settings.HeadunitProfileStore;
 import io.benwiegand.projection.geargrinder.settings.SettingsManager;
 
 public class ControlChannel implements MessageListener, ProjectionService.Listener {
@@ -47,6 +50,8 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
     private final MessageBroker mb;
     private final TLSService tlsService;
     private final SettingsManager settingsManager;
+    private final BringUpTimeline timeline;
+    private final HeadunitProfileStore headunitProfileStore;
 
     private final MessageBroker.MessageSendParameters unencryptedParams;
     private final MessageBroker.MessageSendParameters encryptedParams;
@@ -63,27 +68,60 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
     private InputChannelMeta inputChannelMeta = null;
     private SensorChannelMeta sensorChannelMeta = null;
 
-    public ControlChannel(Context context, MessageBroker mb, TLSService tlsService, ControlListener controlListener, SettingsManager settingsManager, ConnectionService.ServiceBinder connectionServiceBinder) {
+    private String headunitIdentity = null;
+    private HeadunitProfile headunitProfile = null;    // from the last time this headunit was connected
+
+    public ControlChannel(Context context, MessageBroker mb, TLSService tlsService, ControlListener controlListener, SettingsManager settingsManager, ConnectionService.ServiceBinder connectionServiceBinder, BringUpTimeline timeline) {
         this.context = context;
         this.connectionServiceBinder = connectionServiceBinder;
         this.mb = mb;
         this.tlsService = tlsService;
         this.controlListener = controlListener;
         this.settingsManager = settingsManager;
+        this.timeline = timeline;
+        headunitProfileStore = new HeadunitProfileStore(context);
 
         unencryptedParams = new MessageBroker.MessageSendParameters(CHANNEL_CONTROL, false, false);
         encryptedParams = new MessageBroker.MessageSendParameters(CHANNEL_CONTROL, true, false);
     }
 
     public void destroy() {
+        saveHeadunitProfile();
         if (videoChannel != null) videoChannel.destroy();
         if (mediaAudioChannel != null) mediaAudioChannel.destroy();
         if (inputChannel != null) inputChannel.destroy();
     }
 
+    private void saveHeadunitProfile() {
+        if (headunitIdentity == null) return;
+
+        HeadunitProfile profile = new HeadunitProfile(
+                videoChannel != null ? videoChannel.getSelectedPresetIndex() : HeadunitProfile.UNKNOWN,
+                videoChannel != null ? videoChannel.getStableBitrate() : HeadunitProfile.UNKNOWN,
+                videoChannel != null && videoChannel.getSelectedPresetIndex() >= 0 ? videoChannel.getAckWindow() : HeadunitProfile.UNKNOWN,
+                mediaAudioChannel != null ? mediaAudioChannel.getSelectedPresetIndex() : HeadunitProfile.UNKNOWN,
+                mediaAudioChannel != null && mediaAudioChannel.getSelectedPresetIndex() >= 0 ? mediaAudioChannel.getAckWindow() : HeadunitProfile.UNKNOWN,
+                tlsService.getCipherSuite()
+        ).withFallback(headunitProfile);
+
+        Log.d(TAG, "saving headunit profile: " + profile);
+        if (!headunitProfileStore.save(headunitIdentity, profile))
+            Log.e(TAG, "failed to save headunit profile");
+    }
+
     private void handleServiceDiscoveryResponse(ServiceDiscoveryResponse response) {
         controlListener.onCarNameDiscovered(response.friendlyName());
 
+        headunitIdentity = response.identity();
+        headunitProfile = headunitProfileStore.get(headunitIdentity);
+        if (headunitProfile != null) {
+            Log.i(TAG, "headunit seen before, starting from last session: " + headunitProfile);
+            if (headunitProfile.cipherSuite() != null && !headunitProfile.cipherSuite().equals(tlsService.getCipherSuite()))
+                Log.i(TAG, "cipher suite changed since last session: " + headunitProfile.cipherSuite() + " -> " + tlsService.getCipherSuite());
+        } else {
+            Log.i(TAG, "new headunit: " + headunitIdentity);
+        }
+
         for (ChannelMeta channelMeta : response.channelMetadata()) switch (channelMeta) {
             case VideoChannelMeta vcm -> {
                 if (videoChannelMeta != null) Log.w(TAG, "multiple video channels detected.");  // this maybe won't happen
@@ -125,11 +163,15 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
     private void startProjection() {
         ProjectionService projectionService = connectionServiceBinder.getOrCreateGeargrinderProjectionService(this);
 
-        mb.sendMessage(encryptedParams, CMD_AUDIO_FOCUS_REQUEST, new AudioFocusRequest(AudioFocusRequest.Type.GAIN).serialize());
+        mb.sendMessage(encryptedParams, CMD_AUDIO_FOCUS_REQUEST, new AudioFocusRequest(AudioFocusRequest.Type.GAIN));
 
         if (videoChannelMeta != null) {
             Log.d(TAG, "init video channel");
-            videoChannel = new VideoChannel(mb, projectionService, settingsManager, videoChannelMeta);
+            videoChannel = new VideoChannel(mb, projectionService, settingsManager, videoChannelMeta, timeline);
+            if (headunitProfile != null) {
+                videoChannel.applyProfile(headunitProfile.videoPresetIndex(), headunitProfile.videoAckWindow());
+                videoChannel.setInitialBitrate(headunitProfile.videoBitrate());
+            }
             videoChannel.openChannel();
         }
 
@@ -151,6 +193,8 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
                                     .build(),
                             preset, bufferSize
                     ));
+                    if (headunitProfile != null)
+                        mediaAudioChannel.applyProfile(headunitProfile.audioPresetIndex(), headunitProfile.audioAckWindow());
                     mediaAudioChannel.openChannel();
                 } catch (SecurityException e) {
                     Log.e(TAG, "can't launch audio capture: need explicit RECORD_AUDIO permission", e);
@@ -177,6 +221,7 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
     @Override
     public void onProjectionStarted() {
         Log.i(TAG, "projection started");
+        timeline.mark("projection started");
     }
 
     @Override
@@ -208,7 +253,7 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
 
                 mb.sendMessage(
                         !tlsService.needsHandshake() ? encryptedParams : unencryptedParams,
-                        CMD_PING_RESPONSE, PingResponse.fromRequest(request).serialize());
+                        CMD_PING_RESPONSE, PingResponse.fromRequest(request));
             }
 
             case CMD_VERSION_REQUEST -> {
@@ -216,8 +261,8 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
 
                 // TODO: rework
                 if (payloadLength >= COMMAND_ID_LENGTH + 2) {
-                    int major = readUInt16(buffer, COMMAND_ID_LENGTH);
-                    int minor = readUInt16(buffer, COMMAND_ID_LENGTH + 2);
+                    int major = readUInt16(buffer, payloadOffset + COMMAND_ID_LENGTH);
+                    int minor = readUInt16(buffer, payloadOffset + COMMAND_ID_LENGTH + 2);
                     Log.v(TAG, "headunit version code: " + major + "." + minor);
                 }
 
@@ -229,6 +274,7 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
                 i += writeUInt16(VERSION_CODE_MINOR, payload, i);
                 i += writeUInt16(0, payload, i);   // version code status. I assume this is for negotiation. (todo)
                 mb.sendMessage(unencryptedParams, payload);
+                timeline.mark("version exchanged");
             }
 
             case CMD_SSL_HANDSHAKE -> {
@@ -248,6 +294,7 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
 
             case CMD_AUTH_COMPLETE -> {
                 Log.i(TAG, "auth complete: " + hexDump(buffer, payloadOffset, payloadLength));
+                timeline.mark("tls handshake complete");
 
                 if (tlsService.needsHandshake()) {
                     Log.wtf(TAG, "auth complete before handshake completed?");
@@ -255,8 +302,12 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
                     return;
                 }
 
+                // for diagnostics, there's none when replaying a capture
+                String cipherSuite = tlsService.getCipherSuite();
+                if (cipherSuite != null) settingsManager.saveLastCipherSuite(cipherSuite);
+
                 Log.i(TAG, "sending service discovery request");
-                mb.sendMessage(encryptedParams, CMD_SERVICE_DISCOVERY_REQUEST, ServiceDiscoveryRequest.getDefault().serialize());
+                mb.sendMessage(encryptedParams, CMD_SERVICE_DISCOVERY_REQUEST, ServiceDiscoveryRequest.getDefault());
             }
 
             case CMD_SERVICE_DISCOVERY_RESPONSE -> {
@@ -282,6 +333,7 @@ public class ControlChannel implements MessageListener, ProjectionService.Listen
                 }
 
                 Log.d(TAG, "response data: " + response);
+                timeline.mark("service discovery complete");
                 handleServiceDiscoveryResponse(response);
                 startProjection();
 
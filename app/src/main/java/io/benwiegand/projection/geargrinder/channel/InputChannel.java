@@ -13,8 +13,10 @@ import android.util.Log;
 
 import io.benwiegand.projection.geargrinder.callback.InputEventListener;
 import io.benwiegand.projection.geargrinder.message.MessageBroker;
+import io.benwiegand.projection.geargrinder.message.TransmitPriority;
 import io.benwiegand.projection.geargrinder.callback.MessageListener;
 import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
 import io.benwiegand.projection.geargrinder.proto.data.readable.ChannelOpenResponse;
 import io.benwiegand.projection.geargrinder.proto.data.readable.input.InputChannelMeta;
 import io.benwiegand.projection.geargrinder.proto.data.readable.input.InputEventData;
@@ -36,13 +38,18 @@ public class InputChannel implements MessageListener {
 
     private InputEventListener inputEventListener = null;
 
+    // reused for every input event, only touched from the channel's handler thread
+    private final ProtoReader eventDataReader = new ProtoReader();
+    private final ProtoReader eventReader = new ProtoReader();
+    private final ProtoReader innerEventReader = new ProtoReader();
+
     public InputChannel(MessageBroker mb, InputChannelMeta channelMeta) {
         this.mb = mb;
         this.channelMeta = channelMeta;
         controlMessageParams = new MessageBroker.MessageSendParameters(channelMeta.channelId(), true, true);
         messageParams = new MessageBroker.MessageSendParameters(channelMeta.channelId(), true, false);
 
-        mb.registerForChannel(channelMeta.channelId(), this);
+        mb.registerForChannel(channelMeta.channelId(), TransmitPriority.INPUT, this);
     }
 
     public void destroy() {
@@ -51,7 +58,7 @@ public class InputChannel implements MessageListener {
 
     public void openChannel() {
         Log.i(TAG, "sending channel open request");
-        mb.sendMessage(controlMessageParams, CMD_CHANNEL_OPEN_REQUEST, new ChannelOpenRequest(0, channelMeta.channelId()).serialize());
+        mb.sendMessage(controlMessageParams, CMD_CHANNEL_OPEN_REQUEST, new ChannelOpenRequest(0, channelMeta.channelId()));
     }
 
     public void setInputEventListener(InputEventListener listener) {
@@ -112,11 +119,12 @@ public class InputChannel implements MessageListener {
 
                 // for now just do all the keycodes
                 Log.i(TAG, "sending input binding request");
-                mb.sendMessage(messageParams, INPUT_CMD_BINDING_REQUEST, new InputBindingRequest(channelMeta.keycodes()).serialize());
+                mb.sendMessage(messageParams, INPUT_CMD_BINDING_REQUEST, new InputBindingRequest(channelMeta.keycodes()));
             }
 
             case INPUT_CMD_EVENT -> {
-                InputEventData eventData = InputEventData.parse(buffer, payloadOffset + COMMAND_ID_LENGTH, payloadLength - COMMAND_ID_LENGTH);
+                InputEventData eventData = InputEventData.parse(buffer, payloadOffset + COMMAND_ID_LENGTH, payloadLength - COMMAND_ID_LENGTH,
+                        eventDataReader, eventReader, innerEventReader);
                 if (LOG_EVENT_DEBUG) {
                     Log.d(TAG, "got input event: " + eventData);
                     ProtoParser.debugDumpRecursive(buffer, payloadOffset + COMMAND_ID_LENGTH, payloadLength - COMMAND_ID_LENGTH);
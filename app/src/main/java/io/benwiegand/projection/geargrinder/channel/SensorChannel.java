@@ -13,6 +13,7 @@ import android.util.Log;
 
 import io.benwiegand.projection.geargrinder.callback.MessageListener;
 import io.benwiegand.projection.geargrinder.message.MessageBroker;
+import io.benwiegand.projection.geargrinder.message.TransmitPriority;
 import io.benwiegand.projection.geargrinder.proto.data.readable.ChannelOpenResponse;
 import io.benwiegand.projection.geargrinder.proto.data.readable.input.InputEventData;
 import io.benwiegand.projection.geargrinder.proto.data.readable.sensor.SensorChannelMeta;
@@ -37,7 +38,7 @@ public class SensorChannel implements MessageListener {
         controlMessageParams = new MessageBroker.MessageSendParameters(channelMeta.channelId(), true, true);
         messageParams = new MessageBroker.MessageSendParameters(channelMeta.channelId(), true, false);
 
-        mb.registerForChannel(channelMeta.channelId(), this);
+        mb.registerForChannel(channelMeta.channelId(), TransmitPriority.INPUT, this);
     }
 
     public void destroy() {
@@ -46,7 +47,7 @@ public class SensorChannel implements MessageListener {
 
     public void openChannel() {
         Log.i(TAG, "sending channel open request");
-        mb.sendMessage(controlMessageParams, CMD_CHANNEL_OPEN_REQUEST, new ChannelOpenRequest(0, channelMeta.channelId()).serialize());
+        mb.sendMessage(controlMessageParams, CMD_CHANNEL_OPEN_REQUEST, new ChannelOpenRequest(0, channelMeta.channelId()));
     }
 
     private void onSensorEvent() {
@@ -83,7 +84,7 @@ public class SensorChannel implements MessageListener {
 
 //                Log.i(TAG, "requesting all sensors");
 //                for (SensorMeta sensor : channelMeta.sensors()) {
-//                    mb.sendMessage(messageParams, SENSOR_CMD_START_REQUEST, new SensorStartRequest(sensor.type(), 0).serialize());
+//                    mb.sendMessage(messageParams, SENSOR_CMD_START_REQUEST, new SensorStartRequest(sensor.type(), 0));
 //                }
             }
 
@@ -5,21 +5,33 @@ import static io.benwiegand.projection.geargrinder.protocol.AAConstants.*;
 import static io.benwiegand.projection.geargrinder.util.ByteUtil.writeInt64;
 import static io.benwiegand.projection.geargrinder.util.ByteUtil.writeUInt16;
 
-import android.os.SystemClock;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
 import io.benwiegand.projection.geargrinder.data.BufferReader;
+import io.benwiegand.projection.geargrinder.data.CompositeBuffer;
+import io.benwiegand.projection.geargrinder.logs.BringUpTimeline;
 import io.benwiegand.projection.geargrinder.message.MessageBroker;
+import io.benwiegand.projection.geargrinder.message.TransmitPriority;
 import io.benwiegand.projection.geargrinder.projection.ProjectionService;
+import io.benwiegand.projection.geargrinder.proto.data.enums.MediaCodecType;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.VideoChannelMeta;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.VideoFocusIndication;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.preset.VideoPreset;
 import io.benwiegand.projection.geargrinder.proto.data.writable.av.AVSetupRequest;
 import io.benwiegand.projection.geargrinder.proto.data.writable.av.AVStartIndication;
+import io.benwiegand.projection.geargrinder.projection.video.BitrateController;
+import io.benwiegand.projection.geargrinder.projection.video.EncoderCapabilities;
+import io.benwiegand.projection.geargrinder.projection.video.FramePacer;
 import io.benwiegand.projection.geargrinder.projection.video.FrameRateCounter;
+import io.benwiegand.projection.geargrinder.projection.video.FrameSizeStats;
 import io.benwiegand.projection.geargrinder.projection.video.VideoEncoder;
 import io.benwiegand.projection.geargrinder.settings.SettingsManager;
 
@@ -30,34 +42,171 @@ public class VideoChannel extends AVChannel<VideoPreset> {
     private static final boolean LOG_FRAME_RATE_DEBUG = false;
 
     private static final long VIDEO_FRAME_TIMEOUT_US = 500000;  // 500 ms
+    private static final boolean ASYNC_ENCODER = true;  // overlap frame copy with encode/send
+    private static final long SUSPEND_POLL_INTERVAL = 500;
     private static final int MAX_VIDEO_HEADER_SIZE = COMMAND_ID_LENGTH + 8; // command + 64-bit timestamp
 
     private final FrameRateCounter frameRateCounter = new FrameRateCounter();
+    private final FrameSizeStats frameSizeStats = new FrameSizeStats();
 
     private final ProjectionService projectionService;
+    private final SettingsManager settingsManager;
+    private final BringUpTimeline timeline;
 
     private final VideoChannelMeta channelMeta;
     private final int bitrateMode;
     private final int bitrateCustom;
-
-    public VideoChannel(MessageBroker mb, ProjectionService projectionService, SettingsManager settingsManager, VideoChannelMeta channelMeta) {
-        super(mb, channelMeta.channelId(), 0);
+    private final boolean adaptiveBitrate;
+    private final int bitrateMin;
+    private final int bitrateMax;
+    private final boolean intraRefresh;
+    private final EncoderCapabilities encoderCapabilities;     // null if not probed yet
+    private final MediaCodecType codecType;     // announced in the setup request, so it's decided before any preset is picked
+
+    // only set while the video loop is running with adaptive bitrate
+    private volatile BitrateController bitrateController = null;
+    private volatile int initialBitrate = -1;
+    private volatile int stableBitrate = -1;
+
+    // set when the headunit needs a fresh picture, the video loop requests a sync frame from the encoder
+    private final AtomicBoolean syncFrameRequested = new AtomicBoolean(false);
+
+    // while unfocused, the video loop keeps the encoder and GL pipeline around but stops sending frames.
+    // focus is tracked even while the loop isn't running, since it can be lost while the loop is still starting.
+    private final Object focusLock = new Object();
+    private boolean videoLoopRunning = false;
+    private boolean suspended = false;
+
+    public VideoChannel(MessageBroker mb, ProjectionService projectionService, SettingsManager settingsManager, VideoChannelMeta channelMeta, BringUpTimeline timeline) {
+        super(mb, channelMeta.channelId(), 0, TransmitPriority.VIDEO);
         this.channelMeta = channelMeta;
         this.projectionService = projectionService;
+        this.settingsManager = settingsManager;
+        this.timeline = timeline;
 
         bitrateMode = settingsManager.getVideoBitrateMode();
         bitrateCustom = settingsManager.getVideoBitrateCustom();
+        adaptiveBitrate = settingsManager.useVideoAdaptiveBitrate();
+        bitrateMin = settingsManager.getVideoBitrateMin();
+        bitrateMax = settingsManager.getVideoBitrateMax();
+        intraRefresh = settingsManager.useVideoIntraRefresh();
+
+        EncoderCapabilities capabilities = settingsManager.getEncoderCapabilities();
+        if (capabilities != null && !capabilities.isCurrent()) {
+            Log.w(TAG, "ignoring stale encoder capabilities");
+            capabilities = null;
+        }
+        encoderCapabilities = capabilities;
+        codecType = pickCodecType(channelMeta.presets(), encoderCapabilities);
+        Log.i(TAG, "video codec: " + codecType);
+    }
+
+    /**
+     * hevc needs about half the bandwidth, so it's used whenever the headunit offers it and there's a hardware encoder for it.
+     * a software hevc encoder can't keep up, and the capability probe is what looks for a hardware one.
+     */
+    private static MediaCodecType pickCodecType(VideoPreset[] presets, EncoderCapabilities capabilities) {
+        if (capabilities == null || !capabilities.hevcHardwareEncoder()) return MediaCodecType.VIDEO_H264_BP;
+        for (VideoPreset preset : presets) {
+            if (preset != null && preset.codecType() == MediaCodecType.VIDEO_H265)
+                return MediaCodecType.VIDEO_H265;
+        }
+        return MediaCodecType.VIDEO_H264_BP;
+    }
+
+    /**
+     * @return the codec a preset is for, presets that don't say are avc
+     */
+    private static MediaCodecType getCodecType(VideoPreset preset) {
+        return preset.codecType() == MediaCodecType.UNKNOWN ? MediaCodecType.VIDEO_H264_BP : preset.codecType();
     }
 
     @Override
     protected void onVideoFocusIndication(VideoFocusIndication indication) {
         switch (indication.focusType()) {
-            case FOCUSED -> start();
-            case UNFOCUSED -> stop();
+            case FOCUSED -> {
+                // a running loop never stopped sending, but the headunit might not have been showing the stream
+                syncFrameRequested.set(true);
+                if (!resume()) start();
+            }
+            case UNFOCUSED -> suspend();
             case UNKNOWN -> Log.wtf(TAG, "video focus type is unknown", new AssertionError());
         }
     }
 
+    private void suspend() {
+        synchronized (focusLock) {
+            if (!videoLoopRunning) Log.i(TAG, "video focus lost before the video loop is running");
+            suspended = true;
+        }
+    }
+
+    /**
+     * @return true if a suspended video loop was resumed, false if there is none and it needs to be started
+     */
+    private boolean resume() {
+        synchronized (focusLock) {
+            suspended = false;
+            focusLock.notifyAll();
+            return videoLoopRunning;
+        }
+    }
+
+    private void onVideoLoopExit() {
+        synchronized (focusLock) {
+            videoLoopRunning = false;
+        }
+    }
+
+    private boolean isSuspended() {
+        synchronized (focusLock) {
+            return suspended;
+        }
+    }
+
+    /**
+     * waits for video focus to come back
+     * @return true if resumed, false if the video loop should stop
+     */
+    private boolean awaitResume(Supplier<Boolean> runCondition) throws InterruptedException {
+        synchronized (focusLock) {
+            while (suspended) {
+                if (!runCondition.get()) return false;
+                focusLock.wait(SUSPEND_POLL_INTERVAL);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * starts adaptive bitrate from this instead of the preset bitrate, such as the one that held up last time
+     */
+    public void setInitialBitrate(int bitrate) {
+        initialBitrate = bitrate;
+    }
+
+    /**
+     * @return the highest bitrate that held for a while without the headunit falling behind this session, or -1 if unknown
+     */
+    public int getStableBitrate() {
+        BitrateController controller = bitrateController;
+        if (controller != null) return Math.max(stableBitrate, controller.getStableBitrate());
+        return stableBitrate;
+    }
+
+    @Override
+    protected void onAckLatency(long latency, int outstandingAcks, int maxOutstandingAcks) {
+        BitrateController controller = bitrateController;
+        if (controller == null) return;
+        controller.onAck(latency, outstandingAcks, maxOutstandingAcks);
+    }
+
+    @Override
+    protected void onFramesLost(int lostFrames) {
+        // the headunit's decoder is missing a reference, so everything after the lost frames is garbage until the next sync frame
+        syncFrameRequested.set(true);
+    }
+
     @Override
     protected void updatePresets(int[] acceptedPresets) {
         // TODO: presets in the metadata can be null
@@ -97,24 +246,74 @@ public class VideoChannel extends AVChannel<VideoPreset> {
 
     }
 
+    /**
+     * @return the mime type to encode the codec with, or null if it isn't supported
+     */
+    private static String getMimeType(MediaCodecType codecType) {
+        return switch (codecType) {
+            case VIDEO_H264_BP, UNKNOWN -> MediaFormat.MIMETYPE_VIDEO_AVC;
+            case VIDEO_H265 -> MediaFormat.MIMETYPE_VIDEO_HEVC;
+            default -> null;
+        };
+    }
+
     @Override
     protected AVSetupRequest getAvSetupRequest() {
-        return AVSetupRequest.createVideo();
+        return AVSetupRequest.createVideo(codecType);
     }
 
     @Override
     protected void avLoop(Supplier<Boolean> runCondition) {
         Log.i(TAG, "video loop start");
+        synchronized (focusLock) {
+            // focus can be lost while the encoder is still starting
+            videoLoopRunning = true;
+        }
+
         byte[] headerBuffer = new byte[MAX_VIDEO_HEADER_SIZE];
-        long lastFrameGeneratedAt = 0;
-        long minFrameInterval, frameTs, timeToNextFrame;
-        int headerLength;
+        CompositeBuffer frameBuffer = new CompositeBuffer(2);   // header + encoded frame, reused for every frame
+        boolean retryFrame = false;
+        int headerLength, skippedFrames;
         VideoEncoder.FrameResult result = new VideoEncoder.FrameResult();
 
-        // find working preset
+        // find working preset for the codec the headunit was told about in the setup request
+        boolean hevcSupported = encoderCapabilities != null && encoderCapabilities.hevcHardwareEncoder();
+        List<AVPreset<VideoPreset>> candidatePresets = new ArrayList<>();
+        for (AVPreset<VideoPreset> p : avPresets) {
+            if (getCodecType(p.preset()) == codecType) candidatePresets.add(p);
+        }
+        if (candidatePresets.isEmpty()) {
+            Log.w(TAG, "headunit didn't accept any " + codecType + " presets, trying them all");
+            candidatePresets.addAll(avPresets);
+        }
+
+        // if the probe rules out every avc resolution it's probably wrong, so try them anyway
+        boolean filterResolutions = false;
+        if (encoderCapabilities != null) {
+            for (AVPreset<VideoPreset> p : candidatePresets) {
+                if (!MediaFormat.MIMETYPE_VIDEO_AVC.equals(getMimeType(p.preset().codecType()))) continue;
+                if (!encoderCapabilities.isResolutionSupported(p.preset().resolution())) continue;
+                filterResolutions = true;
+                break;
+            }
+            if (!filterResolutions) Log.w(TAG, "encoder doesn't claim to support any preset resolution, trying them all");
+        }
+
         AVPreset<VideoPreset> avPreset = null;
         VideoEncoder videoEncoder = null;
-        for (AVPreset<VideoPreset> p : avPresets) {
+        for (AVPreset<VideoPreset> p : candidatePresets) {
+            String mimeType = getMimeType(p.preset().codecType());
+            if (mimeType == null) {
+                Log.i(TAG, "skipping preset, codec not supported: " + p.preset());
+                continue;
+            } else if (mimeType.equals(MediaFormat.MIMETYPE_VIDEO_HEVC) && !hevcSupported) {
+                Log.i(TAG, "skipping preset, no hardware hevc encoder (or not probed yet): " + p.preset());
+                continue;
+            } else if (mimeType.equals(MediaFormat.MIMETYPE_VIDEO_AVC) && filterResolutions && !encoderCapabilities.isResolutionSupported(p.preset().resolution())) {
+                Log.i(TAG, "skipping preset, encoder doesn't support its resolution: " + p.preset());
+                continue;
+            }
+
             int[] bitrateTargets = bitrateCustom > -1 ? new int[] {bitrateCustom} : p.preset().bitrateTargets();
 
             // some encoders refuse to init when bitrate isn't valid
@@ -123,11 +322,15 @@ public class VideoChannel extends AVChannel<VideoPreset> {
                         p.preset().width(),
                         p.preset().height(),
                         p.preset().refreshRate().hz(),
+                        mimeType,
                         bitrateMode,
-                        bitrateTargets[0]
+                        bitrate,
+                        ASYNC_ENCODER,
+                        intraRefresh,
+                        encoderCapabilities
                 );
                 try {
-                    Log.i(TAG, "video mode: " + p.preset().width() + " x " + p.preset().height() + " @ " + p.preset().refreshRate().hz() + ", density = " + p.preset().density());
+                    Log.i(TAG, "video mode: " + p.preset().width() + " x " + p.preset().height() + " @ " + p.preset().refreshRate().hz() + ", density = " + p.preset().density() + ", codec = " + mimeType);
                     Log.i(TAG, "bitrate: mode=" + bitrateMode + ", bps=" + bitrate);
                     videoEncoder.init();
                     break;
@@ -146,45 +349,101 @@ public class VideoChannel extends AVChannel<VideoPreset> {
 
         if (avPreset == null) {
             Log.e(TAG, "no working video presets!");
+            onVideoLoopExit();
             return;
         }
 
-        minFrameInterval = 1000 / avPreset.preset().refreshRate().hz();
+        selectedPresetIndex = avPreset.index();
+        timeline.mark("video encoder ready");
+        FramePacer framePacer = new FramePacer(avPreset.preset().refreshRate().hz());
+
+        if (adaptiveBitrate && bitrateMode != MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ) {
+            int maxBitrate = bitrateMax > 0 ? bitrateMax : videoEncoder.getBitrate();
+            int minBitrate = bitrateMin > 0 ? Math.min(bitrateMin, maxBitrate) : Math.max(1, maxBitrate / 8);
+            bitrateController = new BitrateController(initialBitrate > 0 ? initialBitrate : videoEncoder.getBitrate(), minBitrate, maxBitrate);
+        }
+
+        AVStartIndication startIndication = new AVStartIndication(0, avPreset.index());
+        boolean streaming = false;
 
         try {
-            sendStartIndication(new AVStartIndication(0, avPreset.index()));
+            if (isSuspended()) {
+                // focus was lost while the encoder was starting, don't start streaming until it's back
+                Log.i(TAG, "video focus lost while starting, waiting for it to come back");
+                if (!awaitResume(runCondition)) return;
+            }
+
+            sendStartIndication(startIndication);
+            streaming = true;
 
             // video resolution and projection resolution are different sometimes to account for screen margin
             // AA always uses a 16:9 video, but the headunit screen may differ
             projectionService.setOutput(
                     videoEncoder.getInputSurface(),
-                    avPreset.preset()
+                    avPreset.preset(),
+                    videoEncoder::createLayer
             );
 
+            // the loop can be restarted, but the first frame only counts once per session
+            boolean firstFrameSent = timeline.hasMarked("first video frame");
             while (runCondition.get()) {
-                waitForAck(AV_ACK_TIMEOUT);
-
-                timeToNextFrame = minFrameInterval - (SystemClock.elapsedRealtime() - lastFrameGeneratedAt);
-                if (timeToNextFrame > 0) {
-                    if (LOG_FRAME_DEBUG) Log.d(TAG, "too early for next frame, waiting " + timeToNextFrame);
-                    // noinspection BusyWait: this is for throttling
-                    Thread.sleep(timeToNextFrame);
-                } else if (timeToNextFrame < 0) {
-                    if (LOG_FRAME_DEBUG) Log.d(TAG, "late for next frame by " + -timeToNextFrame);
+                if (isSuspended()) {
+                    Log.i(TAG, "video focus lost, suspending");
+                    sendStopIndication();
+                    streaming = false;
+                    videoEncoder.setSuspended(true);
+
+                    if (!awaitResume(runCondition)) break;
+
+                    Log.i(TAG, "video focus regained, resuming");
+                    videoEncoder.setSuspended(false);
+                    syncFrameRequested.set(false);  // resuming already requests one
+                    sendStartIndication(startIndication);
+                    streaming = true;
+                    framePacer.reset();
+
+                    // the codec config is only output once, and the headunit may have torn down its decoder while unfocused
+                    BufferReader codecConfig = videoEncoder.getCodecConfig();
+                    if (codecConfig != null) {
+                        writeUInt16(AV_CMD_MEDIA, headerBuffer, 0);
+                        sendAvBuffer(frameBuffer.clear()
+                                .add(headerBuffer, 0, COMMAND_ID_LENGTH)
+                                .add(codecConfig));
+                    }
+                    continue;
                 }
 
-                frameTs = SystemClock.elapsedRealtime();
+                if (!waitForAck(AV_ACK_TIMEOUT)) {
+                    // the headunit is behind, skip this frame instead of queueing it. the next one is copied from whatever is on screen by then
+                    if (LOG_FRAME_DEBUG) Log.d(TAG, "ack window full, skipping frame");
+                    continue;
+                }
+
+                if (!retryFrame) {
+                    // keep captures in step with when the projected display actually produces frames
+                    framePacer.onFrameArrival(videoEncoder.getLastInputFrameTimestamp());
+                    skippedFrames = framePacer.awaitNextFrame();
+                    if (LOG_FRAME_DEBUG && skippedFrames > 0) Log.d(TAG, "late for next frame, skipped " + skippedFrames);
+                }
+                retryFrame = false;
+
+                BitrateController controller = bitrateController;
+                if (controller != null)
+                    videoEncoder.updateBitrate(controller.getTargetBitrate(), controller.takeSyncFrameRequest());
+                if (syncFrameRequested.getAndSet(false))
+                    videoEncoder.requestSyncFrame();
+
                 BufferReader outputBuffer = videoEncoder.getFrame(result, VIDEO_FRAME_TIMEOUT_US);
 
                 switch (result.error) {
                     case NO_ERROR -> {}
                     case NO_FRAME -> {
                         if (LOG_FRAME_DEBUG) Log.d(TAG, "no frame");
-                        lastFrameGeneratedAt = frameTs;
                         continue;
                     }
                     case TRY_AGAIN -> {
                         if (LOG_FRAME_DEBUG) Log.d(TAG, "try again");
+                        retryFrame = true;
                         continue;
                     }
                     case END_OF_STREAM -> {
@@ -214,13 +473,20 @@ public class VideoChannel extends AVChannel<VideoPreset> {
                     }
 
 
-                    lastFrameGeneratedAt = frameTs;
                     frameRateCounter.onFrame();
+                    if (result.bufferIndex >= 0) frameSizeStats.onFrame(result.length, result.keyFrame);    // skip frames don't come from the encoder
                     if (LOG_FRAME_RATE_DEBUG) Log.v(TAG, "fps: " + frameRateCounter.getFrameRate());
                     if (LOG_FRAME_DEBUG) Log.v(TAG, "sending frame size: " + result.length);
 
-                    BufferReader headerBufferReader = BufferReader.from(headerBuffer, 0, headerLength);
-                    sendAvBuffer(BufferReader.join(headerBufferReader, outputBuffer));
+                    sendAvBuffer(frameBuffer.clear()
+                            .add(headerBuffer, 0, headerLength)
+                            .add(outputBuffer));
+
+                    if (!firstFrameSent) {
+                        firstFrameSent = true;
+                        timeline.mark("first video frame");
+                        timeline.logSummary();
+                    }
 
                 } finally {
                     videoEncoder.releaseOutputBuffer(result.bufferIndex);
@@ -230,8 +496,16 @@ public class VideoChannel extends AVChannel<VideoPreset> {
             Log.e(TAG, "interrupted", e);
         } finally {
             Log.d(TAG, "video loop death");
-            sendStopIndication();
+            onVideoLoopExit();
+            if (bitrateController != null)
+                stableBitrate = Math.max(stableBitrate, bitrateController.getStableBitrate());
+            bitrateController = null;
+            if (streaming) sendStopIndication();
             videoEncoder.destroy();
+
+            // for the debug screen
+            FrameSizeStats.Summary frameSizeSummary = frameSizeStats.getLastSummary();
+            if (frameSizeSummary != null) settingsManager.saveLastFrameSizeStats(frameSizeSummary.toString());
         }
     }
 
@@ -0,0 +1,207 @@
+package io.benwiegand.projection.geargrinder.crypto;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManager;
+
+import io.benwiegand.projection.geargrinder.settings.SettingsManager;
+
+/**
+ * measures how fast each cipher suite can encrypt on this device.
+ * the headunit picks from whatever is enabled, and left to itself it often picks one that's slow here (like cbc without hardware aes).
+ * each suite gets a handshake between two local engines, then full size records are wrapped for a few short runs, and the median run counts.
+ * the results are still only good to about 10%, so {@link CipherSuiteRanking} treats anything closer than that as a tie.
+ */
+public class CipherSuiteBenchmark {
+    private static final String TAG = CipherSuiteBenchmark.class.getSimpleName();
+
+    private static final int RECORD_SIZE = 16 * 1024;
+    private static final long WARMUP_TIME_NS = 50_000_000;      // 50 ms
+    private static final long MEASURE_TIME_NS = 50_000_000;     // 50 ms per run
+    private static final int MEASURE_RUNS = 5;                  // the median run is used
+    private static final int MAX_HANDSHAKE_STEPS = 100;
+
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    /**
+     * benchmarks on a background thread, unless there are already results for this os build
+     */
+    public static void runIfNeeded(SettingsManager settingsManager, CryptoManager cryptoManager) {
+        CipherSuiteRanking saved = settingsManager.getCipherSuiteRanking();
+        if (saved != null && saved.isCurrent()) {
+            Log.d(TAG, "cipher suite ranking is up to date");
+            return;
+        }
+
+        runInBackground(settingsManager, cryptoManager, null);
+    }
+
+    /**
+     * benchmarks on a background thread and saves the results
+     * @param callback called on the background thread when done, with null if it failed. may be null.
+     */
+    public static void runInBackground(SettingsManager settingsManager, CryptoManager cryptoManager, Consumer<CipherSuiteRanking> callback) {
+        Thread thread = new Thread(() -> {
+            CipherSuiteRanking ranking = null;
+            try {
+                ranking = run(cryptoManager.getKeystoreForCurrentConfiguration().getKeyManagers());
+                if (!settingsManager.saveCipherSuiteRanking(ranking))
+                    Log.e(TAG, "failed to save cipher suite ranking");
+            } catch (Throwable t) {
+                Log.e(TAG, "cipher suite benchmark failed", t);
+            }
+            if (callback != null) callback.accept(ranking);
+        }, TAG);
+        thread.start();
+    }
+
+    /**
+     * benchmarks every supported cipher suite that can be used with the given keys. this blocks for several seconds.
+     */
+    public static CipherSuiteRanking run(KeyManager[] keyManagers) throws Exception {
+        long startTime = SystemClock.elapsedRealtime();
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers, new TrustManager[] {new LGTMTrustManager()}, new SecureRandom());
+
+        List<CipherSuiteRanking.Entry> entries = new ArrayList<>();
+        for (String cipherSuite : sslContext.createSSLEngine().getSupportedCipherSuites()) {
+            if (cipherSuite.endsWith("_SCSV")) continue;   // not real cipher suites
+
+            try {
+                CipherSuiteRanking.Entry entry = new CipherSuiteRanking.Entry(cipherSuite, measure(sslContext, cipherSuite));
+                Log.d(TAG, cipherSuite + ": " + entry.megabytesPerSecond() + " MB/s");
+                entries.add(entry);
+            } catch (Throwable t) {
+                // most likely needs a different key type, or isn't allowed with tls 1.2
+                Log.v(TAG, "can't benchmark " + cipherSuite + ": " + t);
+            }
+        }
+
+        entries.sort(Comparator.comparingLong(CipherSuiteRanking.Entry::bytesPerSecond).reversed());
+        CipherSuiteRanking ranking = new CipherSuiteRanking(Build.FINGERPRINT, entries.toArray(new CipherSuiteRanking.Entry[0]), CipherSuiteRanking.BENCHMARK_VERSION);
+
+        Log.i(TAG, "benchmarked " + entries.size() + " cipher suites in " + (SystemClock.elapsedRealtime() - startTime) + " ms"
+                + (entries.isEmpty() ? "" : ", fastest: " + entries.get(0).cipherSuite() + " (" + entries.get(0).megabytesPerSecond() + " MB/s)"));
+        return ranking;
+    }
+
+    private static SSLEngine createEngine(SSLContext sslContext, String cipherSuite, boolean clientMode) {
+        SSLEngine sslEngine = sslContext.createSSLEngine();
+        sslEngine.setUseClientMode(clientMode);
+        sslEngine.setEnabledProtocols(new String[]{"TLSv1.2",});
+        sslEngine.setEnabledCipherSuites(new String[]{cipherSuite,});
+        return sslEngine;
+    }
+
+    private static long measure(SSLContext sslContext, String cipherSuite) throws SSLException {
+        SSLEngine client = createEngine(sslContext, cipherSuite, true);
+        SSLEngine server = createEngine(sslContext, cipherSuite, false);
+        handshake(client, server);
+
+        ByteBuffer plaintext = ByteBuffer.allocateDirect(RECORD_SIZE);
+        ByteBuffer ciphertext = ByteBuffer.allocateDirect(server.getSession().getPacketBufferSize());
+
+        wrapFor(server, plaintext, ciphertext, WARMUP_TIME_NS);
+
+        long[] runs = new long[MEASURE_RUNS];
+        for (int i = 0; i < runs.length; i++)
+            runs[i] = wrapFor(server, plaintext, ciphertext, MEASURE_TIME_NS);
+
+        Arrays.sort(runs);
+        return runs[runs.length / 2];
+    }
+
+    /**
+     * wraps full size records for a while
+     * @return the throughput in bytes per second
+     */
+    private static long wrapFor(SSLEngine sslEngine, ByteBuffer plaintext, ByteBuffer ciphertext, long duration) throws SSLException {
+        long start = System.nanoTime();
+        long end = start + duration;
+        long bytes = 0;
+        long now;
+
+        while ((now = System.nanoTime()) < end) {
+            plaintext.clear();
+            ciphertext.clear();
+            SSLEngineResult result = sslEngine.wrap(plaintext, ciphertext);
+            if (result.getStatus() != SSLEngineResult.Status.OK)
+                throw new SSLException("wrap failed: " + result);
+            bytes += result.bytesConsumed();
+        }
+
+        long elapsed = now - start;
+        if (elapsed <= 0 || bytes == 0) throw new SSLException("nothing measured");
+        return bytes * 1_000_000_000L / elapsed;
+    }
+
+    private static boolean isHandshaking(SSLEngine sslEngine) {
+        SSLEngineResult.HandshakeStatus hs = sslEngine.getHandshakeStatus();
+        return hs != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING && hs != SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    private static void handshake(SSLEngine client, SSLEngine server) throws SSLException {
+        int packetBufferSize = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+        ByteBuffer clientToServer = ByteBuffer.allocate(packetBufferSize * 2);
+        ByteBuffer serverToClient = ByteBuffer.allocate(packetBufferSize * 2);
+        ByteBuffer appBuffer = ByteBuffer.allocate(client.getSession().getApplicationBufferSize());
+
+        client.beginHandshake();
+        server.beginHandshake();
+
+        for (int i = 0; i < MAX_HANDSHAKE_STEPS; i++) {
+            if (!isHandshaking(client) && !isHandshaking(server)) return;
+            handshakeStep(client, serverToClient, clientToServer, appBuffer);
+            handshakeStep(server, clientToServer, serverToClient, appBuffer);
+        }
+
+        throw new SSLException("handshake didn't finish");
+    }
+
+    /**
+     * @param in data from the other engine, in write mode
+     * @param out data for the other engine, in write mode
+     */
+    private static void handshakeStep(SSLEngine sslEngine, ByteBuffer in, ByteBuffer out, ByteBuffer appBuffer) throws SSLException {
+        switch (sslEngine.getHandshakeStatus()) {
+            case NEED_TASK -> {
+                Runnable task;
+                while ((task = sslEngine.getDelegatedTask()) != null)
+                    task.run();
+            }
+            case NEED_WRAP -> {
+                SSLEngineResult result = sslEngine.wrap(EMPTY_BUFFER, out);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                    throw new SSLException("closed during handshake");
+            }
+            case NEED_UNWRAP -> {
+                in.flip();
+                try {
+                    SSLEngineResult result = sslEngine.unwrap(in, appBuffer);
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                        throw new SSLException("closed during handshake");
+                } finally {
+                    in.compact();
+                    appBuffer.clear();
+                }
+            }
+            default -> {}
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package io.benwiegand.projection.geargrinder.crypto;
+
+import android.os.Build;
+import android.util.Base64;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
+
+/**
+ * cipher suites ordered by how fast this device can encrypt with them, see {@link CipherSuiteBenchmark}.
+ * only valid for the os build and benchmark version it was measured with, see {@link CipherSuiteRanking#isCurrent()}.
+ */
+public record CipherSuiteRanking(
+        String fingerprint,     // 1    Build.FINGERPRINT when measured
+        Entry[] entries,        // 2 (repeated)     fastest first
+        int version             // 3    BENCHMARK_VERSION when measured
+) implements ProtoWritable {
+    private static final String TAG = CipherSuiteRanking.class.getSimpleName();
+
+    private static final double TIE_RATIO = 1.1;
+
+    // bump when the benchmark changes enough that old results shouldn't be trusted
+    public static final int BENCHMARK_VERSION = 2;
+
+    public record Entry(
+            String cipherSuite,     // 1
+            long bytesPerSecond     // 2    wrap throughput with full size records
+    ) implements ProtoWritable {
+
+        /**
+         * @return throughput in MB/s, rounded to 1 decimal place for display
+         */
+        public double megabytesPerSecond() {
+            return Math.round(bytesPerSecond() / 100_000d) / 10d;
+        }
+
+        @Override
+        public int encodedLength() {
+            return ProtoWriter.varDataFieldSize(1, cipherSuite().getBytes(StandardCharsets.UTF_8).length)
+                    + ProtoWriter.varIntFieldSize(2, bytesPerSecond());
+        }
+
+        @Override
+        public void write(ProtoWriter writer) {
+            writer.varData(1, cipherSuite().getBytes(StandardCharsets.UTF_8))
+                    .varInt(2, bytesPerSecond());
+        }
+
+        private static Entry parse(ProtoReader reader) {
+            String cipherSuite = "";
+            long bytesPerSecond = 0;
+
+            while (reader.next()) {
+                switch (reader.fieldId()) {
+                    case 1 -> cipherSuite = reader.string();
+                    case 2 -> bytesPerSecond = reader.uint64();
+                }
+            }
+
+            return new Entry(cipherSuite, bytesPerSecond);
+        }
+    }
+
+    public boolean isCurrent() {
+        return Build.FINGERPRINT.equals(fingerprint) && version == BENCHMARK_VERSION;
+    }
+
+    /**
+     * @return the entry for a cipher suite, or null if it wasn't measured
+     */
+    public Entry get(String cipherSuite) {
+        for (Entry entry : entries()) {
+            if (entry.cipherSuite().equals(cipherSuite)) return entry;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the key exchange is ephemeral, so recorded traffic can't be decrypted with a leaked key later
+     */
+    static boolean isForwardSecret(String cipherSuite) {
+        return cipherSuite.contains("_ECDHE_") || cipherSuite.contains("_DHE_")
+                || cipherSuite.startsWith("TLS_AES_") || cipherSuite.startsWith("TLS_CHACHA20_");    // tls 1.3, always ephemeral
+    }
+
+    /**
+     * @return true if the cipher is authenticated encryption, which avoids the cbc + mac constructions
+     */
+    static boolean isAead(String cipherSuite) {
+        return cipherSuite.contains("_GCM_") || cipherSuite.contains("_CHACHA20_POLY1305") || cipherSuite.contains("_CCM");
+    }
+
+    private static boolean isUnencrypted(String cipherSuite) {
+        return cipherSuite.contains("_WITH_NULL_");
+    }
+
+    /**
+     * @return lower is better, speed never moves a suite out of its group
+     */
+    private static int securityGroup(String cipherSuite) {
+        if (isUnencrypted(cipherSuite)) return 2;
+        return isForwardSecret(cipherSuite) ? 0 : 1;
+    }
+
+    /**
+     * groups throughput into bands {@link CipherSuiteRanking#TIE_RATIO} wide, counting down from the fastest.
+     * suites in the same band are treated as a tie, since the benchmark can't reliably tell them apart.
+     * @return lower is faster, Integer.MAX_VALUE if it wasn't measured
+     */
+    private int speedBand(String cipherSuite, long fastest) {
+        Entry entry = get(cipherSuite);
+        if (entry == null || entry.bytesPerSecond() <= 0) return Integer.MAX_VALUE;
+        return (int) (Math.log((double) fastest / entry.bytesPerSecond()) / Math.log(TIE_RATIO));
+    }
+
+    /**
+     * sorts cipher suites fastest first, without ever putting one that isn't forward secret ahead of one that is.
+     * suites within about 10% of each other are a tie, broken in favour of ecdhe and then aead.
+     * ones that weren't measured go last in their group, in their original order.
+     */
+    public String[] order(String[] cipherSuites) {
+        long fastest = 0;
+        for (Entry entry : entries())
+            fastest = Math.max(fastest, entry.bytesPerSecond());
+        long finalFastest = fastest;
+
+        List<String> ordered = new ArrayList<>(Arrays.asList(cipherSuites));
+        ordered.sort(Comparator.<String>comparingInt(CipherSuiteRanking::securityGroup)
+                .thenComparingInt(cipherSuite -> speedBand(cipherSuite, finalFastest))
+                .thenComparing(cipherSuite -> !cipherSuite.contains("_ECDHE_"))
+                .thenComparing(cipherSuite -> !isAead(cipherSuite)));
+        return ordered.toArray(new String[0]);
+    }
+
+    @Override
+    public int encodedLength() {
+        int length = ProtoWriter.varDataFieldSize(1, fingerprint().getBytes(StandardCharsets.UTF_8).length);
+        for (Entry entry : entries())
+            length += ProtoWriter.messageFieldSize(2, entry);
+        length += ProtoWriter.varIntFieldSize(3, version());
+        return length;
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.varData(1, fingerprint().getBytes(StandardCharsets.UTF_8));
+        for (Entry entry : entries())
+            writer.message(2, entry);
+        writer.varInt(3, version());
+    }
+
+    public static CipherSuiteRanking parse(byte[] buffer, int offset, int length) {
+        try {
+            ProtoReader reader = new ProtoReader(buffer, offset, length);
+            ProtoReader entryReader = new ProtoReader();
+
+            String fingerprint = "";
+            int version = 1;    // before it was recorded
+            Entry[] entries = new Entry[reader.count(2)];
+            int entryIndex = 0;
+
+            while (reader.next()) {
+                switch (reader.fieldId()) {
+                    case 1 -> fingerprint = reader.string();
+                    case 2 -> entries[entryIndex++] = Entry.parse(reader.enter(entryReader));
+                    case 3 -> version = reader.int32();
+                }
+            }
+
+            return new CipherSuiteRanking(fingerprint, entries, version);
+        } catch (Throwable t) {
+            Log.wtf(TAG, "failed to parse CipherSuiteRanking: " + Base64.encodeToString(buffer, offset, length, 0), t);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.benwiegand.projection.geargrinder.crypto;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import io.benwiegand.projection.geargrinder.data.BufferReader;
+
+/**
+ * stands in for {@link TLSService} when replaying a {@link io.benwiegand.projection.geargrinder.transfer.WireCapture}.
+ * the capture only has plaintext and the recorded handshake can't be completed, so the first handshake message is
+ * taken as the end of the handshake, and everything after that is passed through without encryption.
+ */
+public class ReplayTLSService extends TLSService {
+    private static final String TAG = ReplayTLSService.class.getSimpleName();
+
+    private volatile boolean handshakeSkipped = false;
+
+    @Override
+    public int getMaxPlaintextSize(int maxCiphertextSize) {
+        return maxCiphertextSize;
+    }
+
+    @Override
+    public boolean needsHandshake() {
+        return !handshakeSkipped;
+    }
+
+    @Override
+    public String getCipherSuite() {
+        return null;
+    }
+
+    @Override
+    public <T> T encrypt(BufferReader input, int inLimit, Function<ByteBuffer, T> outBufferConsumer) {
+        if (!handshakeSkipped) throw new IllegalStateException("handshake must be completed before encrypting data");
+        ByteBuffer out = ByteBuffer.allocate(inLimit);
+        input.read(out, inLimit);
+        out.flip();
+        return outBufferConsumer.apply(out);
+    }
+
+    @Override
+    public int encrypt(BufferReader input, int inLimit, byte[] output, int outOffset, int outLength) throws IOException {
+        if (!handshakeSkipped) throw new IllegalStateException("handshake must be completed before encrypting data");
+        if (inLimit > outLength) throw new IOException("buffer overflow while wrapping");
+        input.read(output, outOffset, inLimit);
+        return inLimit;
+    }
+
+    @Override
+    public <T> T decrypt(byte[] input, int inOffset, int inLength, Function<ByteBuffer, T> outBufferConsumer) {
+        if (!handshakeSkipped) throw new IllegalStateException("handshake must be completed before decrypting data");
+        return outBufferConsumer.apply(ByteBuffer.wrap(input, inOffset, inLength));
+    }
+
+    @Override
+    public int decrypt(byte[] input, int inOffset, int inLength, byte[] output, int outOffset, int outLength, DecryptOverflowConsumer overflowConsumer) {
+        if (!handshakeSkipped) throw new IllegalStateException("handshake must be completed before decrypting data");
+        int directLength = Math.min(inLength, outLength);
+        System.arraycopy(input, inOffset, output, outOffset, directLength);
+        if (directLength == inLength) return directLength;
+        return directLength + overflowConsumer.accept(directLength, ByteBuffer.wrap(input, inOffset + directLength, inLength - directLength));
+    }
+
+    @Override
+    public void doHandshake(byte[] inBuffer, int offset, int length, Consumer<ByteBuffer> bufferSender) {
+        if (handshakeSkipped) {
+            Log.d(TAG, "ignoring recorded handshake data, len = " + length);
+            return;
+        }
+
+        Log.i(TAG, "skipping handshake for replay");
+        handshakeSkipped = true;
+    }
+}
@@ -0,0 +1,132 @@
+package io.benwiegand.projection.geargrinder.crypto;
+
+import android.util.Log;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+
+/**
+ * ssl context that outlives a single connection.
+ * it's expensive to set up, so it's done ahead of time, and it keeps a session cache so a headunit that reconnects can resume instead of doing a full handshake.
+ */
+public class TLSContext {
+    private static final String TAG = TLSContext.class.getSimpleName();
+
+    // there's only ever one headunit, but it may come back with a few different sessions
+    private static final int SESSION_CACHE_SIZE = 8;
+    private static final int SESSION_TIMEOUT = 60 * 60;     // seconds
+
+    private static final int DELEGATED_TASK_THREADS = 2;
+    private static final long DELEGATED_TASK_THREAD_KEEPALIVE = 30;    // seconds
+
+    private final SSLContext sslContext;
+    private final ThreadPoolExecutor delegatedTaskExecutor;
+    private volatile CipherSuiteRanking cipherSuiteRanking = null;
+
+    public TLSContext(TrustManager[] trustManagers, KeyManager[] keyManagers) {
+        try {
+            sslContext = SSLContext.getInstance("TLS");
+            Log.i(TAG, "ssl provider: " + sslContext.getProvider());
+
+            // getInstanceStrong() can block for a long time waiting on entropy
+            sslContext.init(
+                    keyManagers,
+                    trustManagers,
+                    new SecureRandom()
+            );
+
+            SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+            sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+
+        } catch (Throwable t) {
+            Log.e(TAG, "fatal exception during SSL init", t);
+            throw new RuntimeException(t);
+        }
+
+        delegatedTaskExecutor = new ThreadPoolExecutor(
+                DELEGATED_TASK_THREADS, DELEGATED_TASK_THREADS,
+                DELEGATED_TASK_THREAD_KEEPALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> new Thread(r, "geargrinder-" + TAG + "-task"));
+        delegatedTaskExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param cipherSuiteRanking used to prefer the fastest cipher suites for new connections, or null to leave the order alone
+     */
+    public void setCipherSuiteRanking(CipherSuiteRanking cipherSuiteRanking) {
+        this.cipherSuiteRanking = cipherSuiteRanking;
+    }
+
+    public void destroy() {
+        delegatedTaskExecutor.shutdownNow();
+    }
+
+    /**
+     * creates an engine for a new connection, sessions from earlier connections can be resumed
+     */
+    public SSLEngine createEngine() {
+        SSLEngine sslEngine = sslContext.createSSLEngine();
+        sslEngine.setUseClientMode(false);  // phone is the server, headunit is the client
+        sslEngine.setNeedClientAuth(true);
+        sslEngine.setEnabledProtocols(new String[]{"TLSv1.2",});  // TLSv1.3 does not work, nor does TLSv1.1
+
+        Log.d(TAG, "default cipher suites: " + Arrays.toString(sslEngine.getEnabledCipherSuites()));
+        Log.d(TAG, "all cipher suites: " + Arrays.toString(sslEngine.getSupportedCipherSuites()));
+
+        // TODO: if wireless is ever implemented, this needs to be removed since it is insecure.
+        //       and also the certificate needs to be validated too.
+        String[] cipherSuites = sslEngine.getSupportedCipherSuites();
+
+        // the headunit goes with whatever it likes first, unless the server says otherwise
+        CipherSuiteRanking ranking = cipherSuiteRanking;
+        if (ranking != null) {
+            cipherSuites = ranking.order(cipherSuites);
+            Log.d(TAG, "cipher suites by measured throughput: " + Arrays.toString(cipherSuites));
+        }
+
+        SSLParameters sslParameters = sslEngine.getSSLParameters();
+        sslParameters.setCipherSuites(cipherSuites);
+        sslParameters.setUseCipherSuitesOrder(ranking != null);
+        sslEngine.setSSLParameters(sslParameters);
+
+        return sslEngine;
+    }
+
+    /**
+     * runs the engine's delegated tasks on the worker pool and waits for them to finish
+     */
+    void runDelegatedTasks(SSLEngine sslEngine) throws SSLException {
+        List<Future<?>> futures = new ArrayList<>();
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null)
+            futures.add(delegatedTaskExecutor.submit(task));
+
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (ExecutionException e) {
+            throw new SSLException("delegated task failed", e.getCause());
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SSLException("interrupted while running delegated tasks", e);
+        }
+    }
+}
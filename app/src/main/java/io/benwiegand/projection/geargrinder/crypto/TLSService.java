@@ -6,18 +6,13 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.security.SecureRandom;
-import java.util.Arrays;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
 
 import io.benwiegand.projection.geargrinder.data.BufferReader;
 
@@ -26,6 +21,7 @@ public class TLSService {
 
     private static final boolean LOG_DEBUG = false;
 
+    private final TLSContext tlsContext;
     private final SSLEngine sslEngine;
     private final SSLSession sslSession;
 
@@ -34,34 +30,37 @@ public class TLSService {
     private final ByteBuffer devRxBuffer;
     private final ByteBuffer devTxBuffer;
 
-    private static final Object handshakeLock = new Object();
-
-    private boolean handshakeComplete = false;
-
-
-    public TLSService(TrustManager[] trustManagers, KeyManager[] keyManagers) {
-        try {
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            Log.i(TAG, "ssl provider: " + sslContext.getProvider());
-
-            sslContext.init(
-                    keyManagers,
-                    trustManagers,
-                    SecureRandom.getInstanceStrong()
-            );
+    // reusable views over caller arrays for unwrapping in place, only used by the decrypting thread
+    private ByteBuffer directRxInView = null;
+    private ByteBuffer directRxOutView = null;
 
-            sslEngine = sslContext.createSSLEngine();
-            sslEngine.setUseClientMode(false);  // phone is the server, headunit is the client
-            sslEngine.setNeedClientAuth(true);
-            sslEngine.setEnabledProtocols(new String[]{"TLSv1.2",});  // TLSv1.3 does not work, nor does TLSv1.1
+    // reusable view over the caller's frame buffer for wrapping in place, guarded by the caller like appTxBuffer
+    private ByteBuffer directTxOutView = null;
 
-            Log.d(TAG, "default cipher suites: " + Arrays.toString(sslEngine.getEnabledCipherSuites()));
-            Log.d(TAG, "all cipher suites: " + Arrays.toString(sslEngine.getSupportedCipherSuites()));
+    private static final Object handshakeLock = new Object();
 
-            // TODO: if wireless is ever implemented, this needs to be removed since it is insecure.
-            //       and also the certificate needs to be validated too.
-            sslEngine.setEnabledCipherSuites(sslEngine.getSupportedCipherSuites());
+    // read by the rx pipeline and senders on other threads
+    private volatile boolean handshakeComplete = false;
+    private long handshakeStartTime = 0;
+
+
+    /**
+     * for {@link ReplayTLSService}, which doesn't use an engine
+     */
+    protected TLSService() {
+        tlsContext = null;
+        sslEngine = null;
+        sslSession = null;
+        appRxBuffer = null;
+        appTxBuffer = null;
+        devRxBuffer = null;
+        devTxBuffer = null;
+    }
 
+    public TLSService(TLSContext tlsContext) {
+        this.tlsContext = tlsContext;
+        try {
+            sslEngine = tlsContext.createEngine();
             sslSession = sslEngine.getSession();
 
             appRxBuffer = ByteBuffer.allocateDirect(sslSession.getApplicationBufferSize());
@@ -94,6 +93,14 @@ public class TLSService {
         return !handshakeComplete;
     }
 
+    /**
+     * @return the negotiated cipher suite, or null if the handshake isn't done
+     */
+    public String getCipherSuite() {
+        if (!handshakeComplete) return null;
+        return sslEngine.getSession().getCipherSuite();
+    }
+
 
     public <T> T encrypt(BufferReader input, int inLimit, Function<ByteBuffer, T> outBufferConsumer) throws IOException {
         if (!handshakeComplete) throw new IllegalStateException("handshake must be completed before encrypting data");
@@ -124,6 +131,54 @@ public class TLSService {
         return encrypt(input, input.length(), outBufferConsumer);
     }
 
+    /**
+     * encrypts straight from the input's underlying buffers into the output array, without staging the plaintext or ciphertext.
+     * if the engine reports the output is too small, the rest of the input is encrypted like
+     * {@link TLSService#encrypt(BufferReader, int, Function)} and copied in after whatever was already written, if it fits.
+     * @param input plaintext reader, advanced by inLimit
+     * @param inLimit the number of bytes to encrypt
+     * @param output output buffer, the ciphertext is never written past outOffset + outLength
+     * @return the ciphertext length
+     */
+    public int encrypt(BufferReader input, int inLimit, byte[] output, int outOffset, int outLength) throws IOException {
+        if (!handshakeComplete) throw new IllegalStateException("handshake must be completed before encrypting data");
+
+        ByteBuffer[] srcs = input.nioBuffers(inLimit);
+        ByteBuffer out = directTxOutView = view(directTxOutView, output, outOffset, outLength);
+
+        int consumed = 0;
+        while (consumed < inLimit) {
+            SSLEngineResult result = sslEngine.wrap(srcs, out);
+            if (LOG_DEBUG) Log.d(TAG, "wrap (gather): " + result);
+
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW -> {
+                    Log.v(TAG, "gather wrap overflowed after " + consumed + " bytes, falling back to internal buffer");
+                    input.skip(consumed);
+                    int directLength = out.position() - outOffset;
+                    int overflowLength = encrypt(input, inLimit - consumed, overflow -> {
+                        if (overflow.remaining() > out.remaining()) return -1;
+                        int length = overflow.remaining();
+                        out.put(overflow);
+                        return length;
+                    });
+
+                    if (overflowLength < 0) throw new IOException("buffer overflow while wrapping");
+                    return directLength + overflowLength;
+                }
+                case BUFFER_UNDERFLOW -> throw new IOException("buffer underflow while wrapping");
+                case CLOSED -> throw new IOException("ssl/tls session closed");
+                case OK -> { }
+            }
+
+            if (result.bytesConsumed() == 0) throw new IOException("wrap made no progress: " + result);
+            consumed += result.bytesConsumed();
+        }
+
+        input.skip(consumed);
+        return out.position() - outOffset;
+    }
+
     public <T> T decrypt(byte[] input, int inOffset, int inLength, Function<ByteBuffer, T> outBufferConsumer) throws IOException {
         if (!handshakeComplete) throw new IllegalStateException("handshake must be completed before decrypting data");
 
@@ -149,6 +204,59 @@ public class TLSService {
         return outBufferConsumer.apply(appRxBuffer);
     }
 
+    public interface DecryptOverflowConsumer {
+        /**
+         * called when the rest of the plaintext didn't fit in the output given to {@link TLSService#decrypt(byte[], int, int, byte[], int, int, DecryptOverflowConsumer)}
+         * @param directLength the number of bytes that were already decrypted into the output
+         * @param overflow the rest of the plaintext
+         * @return the number of overflow bytes consumed
+         */
+        int accept(int directLength, ByteBuffer overflow);
+    }
+
+    private static ByteBuffer view(ByteBuffer cached, byte[] buffer, int offset, int length) {
+        if (cached == null || cached.array() != buffer)
+            cached = ByteBuffer.wrap(buffer);
+
+        cached.clear();
+        cached.position(offset);
+        cached.limit(offset + length);
+        return cached;
+    }
+
+    /**
+     * decrypts straight from the input array into the output array, without going through the internal buffers.
+     * if the engine reports the output is too small, the remaining ciphertext is decrypted like
+     * {@link TLSService#decrypt(byte[], int, int, Function)} and handed to overflowConsumer.
+     * @param output output buffer, the plaintext is never written past outOffset + outLength
+     * @param overflowConsumer handles any plaintext that didn't fit in the output
+     * @return the total plaintext length, including any overflow
+     */
+    public int decrypt(byte[] input, int inOffset, int inLength, byte[] output, int outOffset, int outLength, DecryptOverflowConsumer overflowConsumer) throws IOException {
+        if (!handshakeComplete) throw new IllegalStateException("handshake must be completed before decrypting data");
+
+        ByteBuffer in = directRxInView = view(directRxInView, input, inOffset, inLength);
+        ByteBuffer out = directRxOutView = view(directRxOutView, output, outOffset, outLength);
+
+        while (in.hasRemaining()) {
+            SSLEngineResult result = sslEngine.unwrap(in, out);
+            if (LOG_DEBUG) Log.d(TAG, "unwrap (direct): " + result);
+
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW -> {
+                    int directLength = out.position() - outOffset;
+                    Log.v(TAG, "direct unwrap overflowed after " + directLength + " bytes, falling back to internal buffer");
+                    return directLength + decrypt(input, in.position(), in.remaining(), overflow -> overflowConsumer.accept(directLength, overflow));
+                }
+                case BUFFER_UNDERFLOW -> throw new IOException("buffer underflow while unwrapping");
+                case CLOSED -> throw new IOException("ssl/tls session closed");
+                case OK -> { }
+            }
+        }
+
+        return out.position() - outOffset;
+    }
+
     public void doHandshake(byte[] inBuffer, int offset, int length, Consumer<ByteBuffer> bufferSender) throws SSLException {
         synchronized (handshakeLock) {
             if (handshakeComplete) {
@@ -163,6 +271,7 @@ public class TLSService {
 
             if (sslEngine.getHandshakeStatus() == NOT_HANDSHAKING) {
                 Log.i(TAG, "starting handshake");
+                handshakeStartTime = System.currentTimeMillis();
                 sslEngine.beginHandshake();
             }
 
@@ -172,6 +281,8 @@ public class TLSService {
                 switch (hs) {
                     case NOT_HANDSHAKING -> {
                         Log.i(TAG, "handshake complete");
+                        if (sslEngine.getSession().getCreationTime() < handshakeStartTime)
+                            Log.i(TAG, "resumed previous session");
                         Log.d(TAG, "cipher suite: " + sslSession.getCipherSuite());
                         Log.d(TAG, "max ciphertext: " + sslSession.getPacketBufferSize());
                         Log.d(TAG, "max plaintext: " + sslSession.getApplicationBufferSize());
@@ -203,11 +314,7 @@ public class TLSService {
 
                         devRxBuffer.compact();
                     }
-                    case NEED_TASK -> {
-                        Runnable task;
-                        while ((task = sslEngine.getDelegatedTask()) != null)
-                            task.run();
-                    }
+                    case NEED_TASK -> tlsContext.runDelegatedTasks(sslEngine);
                     default -> throw new AssertionError("unknown handshake status: " + hs);
                 }
             }
@@ -0,0 +1,134 @@
+package io.benwiegand.projection.geargrinder.data;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * hands out {@link PooledBuffer}s in power of 2 size classes.
+ * small buffers are kept around since they're constantly reused, big ones are only kept while they're being used.
+ * a big one-off message would otherwise pin its buffer for the rest of the connection.
+ */
+public class BufferPool {
+    private static final String TAG = BufferPool.class.getSimpleName();
+
+    private static final int MIN_SIZE_CLASS = 8;        // 256 B
+    private static final int MAX_SIZE_CLASS = 20;       // 1 MiB, anything bigger isn't pooled
+    private static final int LARGE_SIZE_CLASS = 15;     // 32 KiB, anything this size or bigger is trimmed when idle
+
+    private static final int MAX_FREE_SMALL = 16;
+    private static final int MAX_FREE_LARGE = 2;
+
+    private static final long IDLE_TRIM_TIME = 5000;    // ms
+    private static final long TRIM_INTERVAL = 1000;     // ms
+
+    private static final int UNPOOLED = -1;
+
+    private final Object lock = new Object();
+
+    // guarded by lock, indexed by size class - MIN_SIZE_CLASS
+    private final ArrayDeque<PooledBuffer>[] freeBuffers;
+    private final long[] lastAcquireTimes;
+    private long nextTrimTime = 0;
+
+    @SuppressWarnings("unchecked")
+    public BufferPool() {
+        int classCount = MAX_SIZE_CLASS - MIN_SIZE_CLASS + 1;
+        freeBuffers = new ArrayDeque[classCount];
+        lastAcquireTimes = new long[classCount];
+        for (int i = 0; i < classCount; i++)
+            freeBuffers[i] = new ArrayDeque<>();
+    }
+
+    private static int sizeClassFor(int capacity) {
+        if (capacity <= 1 << MIN_SIZE_CLASS) return MIN_SIZE_CLASS;
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+        return sizeClass <= MAX_SIZE_CLASS ? sizeClass : UNPOOLED;
+    }
+
+    private static int maxFree(int sizeClass) {
+        return sizeClass >= LARGE_SIZE_CLASS ? MAX_FREE_LARGE : MAX_FREE_SMALL;
+    }
+
+    /**
+     * gets a buffer with at least the requested capacity, and a length of 0
+     * @param minCapacity the minimum capacity
+     * @return a buffer holding one reference
+     */
+    public PooledBuffer acquire(int minCapacity) {
+        int sizeClass = sizeClassFor(minCapacity);
+
+        PooledBuffer buffer;
+        if (sizeClass == UNPOOLED) {
+            Log.w(TAG, "allocating unpooled buffer of " + minCapacity + " bytes");
+            buffer = new PooledBuffer(this, UNPOOLED, minCapacity);
+        } else {
+            int i = sizeClass - MIN_SIZE_CLASS;
+            synchronized (lock) {
+                buffer = freeBuffers[i].pollFirst();
+                lastAcquireTimes[i] = SystemClock.elapsedRealtime();
+            }
+            if (buffer == null) buffer = new PooledBuffer(this, sizeClass, 1 << sizeClass);
+        }
+
+        buffer.acquired();
+        return buffer;
+    }
+
+    /**
+     * makes sure a buffer has at least the requested capacity, moving to a bigger one if needed.
+     * if it moves, the reference to the old buffer is released, so it must only have one reference.
+     * @param buffer the buffer to grow
+     * @param minCapacity the minimum capacity
+     * @param copy how many bytes to carry over from the start of the old buffer
+     * @return the buffer to use from now on
+     */
+    public PooledBuffer grow(PooledBuffer buffer, int minCapacity, int copy) {
+        if (buffer.capacity() >= minCapacity) return buffer;
+        assert buffer.refCount() == 1;
+        assert copy <= buffer.capacity();
+
+        PooledBuffer newBuffer = acquire(minCapacity);
+        if (copy > 0) System.arraycopy(buffer.array(), 0, newBuffer.array(), 0, copy);
+        newBuffer.setLength(Math.min(buffer.length(), copy));
+        buffer.release();
+        return newBuffer;
+    }
+
+    void recycle(PooledBuffer buffer) {
+        int sizeClass = buffer.getSizeClass();
+        if (sizeClass == UNPOOLED) return;
+
+        synchronized (lock) {
+            ArrayDeque<PooledBuffer> free = freeBuffers[sizeClass - MIN_SIZE_CLASS];
+            if (free.size() < maxFree(sizeClass)) free.addFirst(buffer);
+        }
+    }
+
+    /**
+     * drops free large buffers that haven't been needed in a while.
+     * this is cheap to call often, it only actually looks at the buffers every so often.
+     */
+    public void trimIfDue() {
+        trimIfDue(SystemClock.elapsedRealtime());
+    }
+
+    void trimIfDue(long now) {
+        int trimmedBytes = 0;
+
+        synchronized (lock) {
+            if (now < nextTrimTime) return;
+            nextTrimTime = now + TRIM_INTERVAL;
+
+            for (int sizeClass = LARGE_SIZE_CLASS; sizeClass <= MAX_SIZE_CLASS; sizeClass++) {
+                int i = sizeClass - MIN_SIZE_CLASS;
+                if (freeBuffers[i].isEmpty() || now - lastAcquireTimes[i] < IDLE_TRIM_TIME) continue;
+                trimmedBytes += freeBuffers[i].size() << sizeClass;
+                freeBuffers[i].clear();
+            }
+        }
+
+        if (trimmedBytes > 0) Log.d(TAG, "trimmed " + trimmedBytes + " bytes of idle buffers");
+    }
+}
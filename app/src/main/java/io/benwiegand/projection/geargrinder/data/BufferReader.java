@@ -12,6 +12,20 @@ public interface BufferReader {
         read(out, length());
     }
 
+    /**
+     * exposes the next readLength bytes as nio buffers, without copying them or advancing the reader.
+     * the returned buffers are only valid until the underlying buffers change.
+     * @param readLength the number of bytes to expose
+     * @return buffers containing exactly readLength bytes between them
+     */
+    ByteBuffer[] nioBuffers(int readLength);
+
+    /**
+     * advances the reader without reading anything
+     * @param skipLength the number of bytes to skip
+     */
+    void skip(int skipLength);
+
     int length();
 
     int index();
@@ -45,7 +59,13 @@ public interface BufferReader {
     static BufferReader join(BufferReader... bufferReaders) {
         if (bufferReaders.length == 0) return from(new byte[0]);
         if (bufferReaders.length == 1) return bufferReaders[0];
-        return new MultiBufferReader(bufferReaders);
+
+        CompositeBuffer joined = new CompositeBuffer(bufferReaders.length);
+        for (BufferReader reader : bufferReaders) {
+            assert reader.initialized();
+            joined.add(reader);
+        }
+        return joined;
     }
 
 }
@@ -35,6 +35,25 @@ public final class ByteArrayBufferReader implements BufferReader {
         index += readLength;
     }
 
+    @Override
+    public ByteBuffer[] nioBuffers(int readLength) {
+        assert remaining() >= readLength;
+        return new ByteBuffer[] {ByteBuffer.wrap(buffer, offset + index, readLength)};
+    }
+
+    /**
+     * adds the unread bytes to a composite buffer directly, without the view nioBuffers() makes
+     */
+    void addTo(CompositeBuffer composite) {
+        composite.add(buffer, offset + index, remaining());
+    }
+
+    @Override
+    public void skip(int skipLength) {
+        assert remaining() >= skipLength;
+        index += skipLength;
+    }
+
     @Override
     public int length() {
         return length;
@@ -44,6 +44,31 @@ public final class ByteBufferReader implements BufferReader {
          }
     }
 
+    @Override
+    public ByteBuffer[] nioBuffers(int readLength) {
+        assertBufferStateValid();
+        assert buffer.remaining() >= readLength;
+
+        ByteBuffer view = buffer.duplicate();
+        view.limit(view.position() + readLength);
+        return new ByteBuffer[] {view};
+    }
+
+    /**
+     * adds the unread bytes to a composite buffer directly, without the view nioBuffers() makes
+     */
+    void addTo(CompositeBuffer composite) {
+        assertBufferStateValid();
+        composite.add(buffer);
+    }
+
+    @Override
+    public void skip(int skipLength) {
+        assertBufferStateValid();
+        assert buffer.remaining() >= skipLength;
+        buffer.position(buffer.position() + skipLength);
+    }
+
     @Override
     public int length() {
         return length;
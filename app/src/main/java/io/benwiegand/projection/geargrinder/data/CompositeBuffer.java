@@ -0,0 +1,267 @@
+package io.benwiegand.projection.geargrinder.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * reads several buffers back to back as if they were one, without copying them together.
+ * the total length is tracked as components are added, and reading doesn't allocate anything,
+ * so one instance can be cleared and reused for every message. adding buffers that were added before doesn't allocate either.
+ */
+public final class CompositeBuffer implements BufferReader {
+    private static final int DEFAULT_CAPACITY = 4;
+    private static final int VIEW_CACHE_SIZE = 8;   // per slot, enough for the encoder's output buffers
+
+    /**
+     * one component. views of the last few buffers it held are kept, so adding the same buffers
+     * again (like a header array, or the encoder's output buffers) doesn't create new ones.
+     */
+    private static final class Slot {
+        private final Object[] sources = new Object[VIEW_CACHE_SIZE];
+        private final ByteBuffer[] views = new ByteBuffer[VIEW_CACHE_SIZE];
+        private int nextCacheIndex = 0;
+
+        // private view of the source, indexed the same as the source
+        private ByteBuffer view;
+        private int offset;
+        private int length;
+
+        private ByteBuffer findView(Object source) {
+            for (int i = 0; i < VIEW_CACHE_SIZE; i++) {
+                if (sources[i] == source) return views[i];
+            }
+            return null;
+        }
+
+        private ByteBuffer cacheView(Object source, ByteBuffer view) {
+            sources[nextCacheIndex] = source;
+            views[nextCacheIndex] = view;
+            nextCacheIndex = (nextCacheIndex + 1) % VIEW_CACHE_SIZE;
+            return view;
+        }
+
+        private void set(byte[] array, int offset, int length) {
+            ByteBuffer cached = findView(array);
+            view = cached != null ? cached : cacheView(array, ByteBuffer.wrap(array));
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private void set(ByteBuffer buffer) {
+            ByteBuffer cached = findView(buffer);
+            view = cached != null ? cached : cacheView(buffer, buffer.duplicate());
+            offset = buffer.position();
+            length = buffer.remaining();
+        }
+
+        /**
+         * sets up the view for viewLength bytes starting at index within this component
+         */
+        private ByteBuffer view(int index, int viewLength) {
+            view.limit(offset + index + viewLength);
+            view.position(offset + index);
+            return view;
+        }
+    }
+
+    // slots are kept when cleared so their views can be reused
+    private Slot[] slots;
+    private int count = 0;
+    private int length = 0;
+
+    // read position
+    private int index = 0;
+    private int component = 0;
+    private int componentIndex = 0;
+
+    // reused for nioBuffers(), indexed by the number of buffers returned
+    private ByteBuffer[][] nioBufferArrays;
+
+    public CompositeBuffer(int initialCapacity) {
+        slots = new Slot[initialCapacity];
+        nioBufferArrays = new ByteBuffer[initialCapacity + 1][];
+    }
+
+    public CompositeBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * removes all components and resets the read position
+     * @return this buffer
+     */
+    public CompositeBuffer clear() {
+        count = 0;
+        length = 0;
+        reset();
+        return this;
+    }
+
+    private Slot nextSlot() {
+        if (count == slots.length) {
+            int capacity = Math.max(count * 2, DEFAULT_CAPACITY);
+            slots = Arrays.copyOf(slots, capacity);
+            nioBufferArrays = Arrays.copyOf(nioBufferArrays, capacity + 1);
+        }
+
+        Slot slot = slots[count];
+        if (slot == null) slot = slots[count] = new Slot();
+        count++;
+        return slot;
+    }
+
+    /**
+     * adds the bytes between the buffer's position and limit to the end.
+     * the buffer itself isn't touched, but its contents must not change until this is cleared.
+     * @return this buffer
+     */
+    public CompositeBuffer add(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) return this;
+        nextSlot().set(buffer);
+        length += buffer.remaining();
+        return this;
+    }
+
+    /**
+     * like {@link CompositeBuffer#add(ByteBuffer)}, but for part of an array
+     */
+    public CompositeBuffer add(byte[] buffer, int offset, int length) {
+        assert offset >= 0 && length >= 0;
+        assert buffer.length >= offset + length;
+        if (length == 0) return this;
+        nextSlot().set(buffer, offset, length);
+        this.length += length;
+        return this;
+    }
+
+    /**
+     * adds the unread bytes of another reader to the end, without advancing it
+     */
+    public CompositeBuffer add(BufferReader reader) {
+        // the simple readers are added directly, their nioBuffers() would make new views every time
+        switch (reader) {
+            case ByteArrayBufferReader arrayReader -> arrayReader.addTo(this);
+            case ByteBufferReader bufferReader -> bufferReader.addTo(this);
+            default -> {
+                for (ByteBuffer buffer : reader.nioBuffers(reader.remaining()))
+                    add(buffer);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * moves the read position forward, stepping over any components that have been used up
+     */
+    private void advance(int advanceLength) {
+        index += advanceLength;
+        componentIndex += advanceLength;
+        while (component < count && componentIndex == slots[component].length) {
+            component++;
+            componentIndex = 0;
+        }
+    }
+
+    /**
+     * sets up the current component's view for the next readLength bytes, or as many of them as it has
+     * @return the view
+     */
+    private ByteBuffer viewCurrent(int readLength) {
+        Slot slot = slots[component];
+        return slot.view(componentIndex, Math.min(readLength, slot.length - componentIndex));
+    }
+
+    @Override
+    public void read(byte[] out, int outOffset, int readLength) {
+        assert outOffset >= 0 && readLength >= 0;
+        assert out.length >= outOffset + readLength;
+        if (remaining() < readLength) throw new IndexOutOfBoundsException("read of " + readLength + " bytes with " + remaining() + " remaining");
+
+        while (readLength > 0) {
+            ByteBuffer view = viewCurrent(readLength);
+            int viewLength = view.remaining();
+            view.get(out, outOffset, viewLength);
+
+            outOffset += viewLength;
+            readLength -= viewLength;
+            advance(viewLength);
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer out, int readLength) {
+        assert readLength >= 0;
+        if (remaining() < readLength) throw new IndexOutOfBoundsException("read of " + readLength + " bytes with " + remaining() + " remaining");
+
+        while (readLength > 0) {
+            ByteBuffer view = viewCurrent(readLength);
+            int viewLength = view.remaining();
+            out.put(view);
+
+            readLength -= viewLength;
+            advance(viewLength);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * the returned array and buffers are reused, so they're only valid until the next call on this buffer.
+     */
+    @Override
+    public ByteBuffer[] nioBuffers(int readLength) {
+        assert readLength >= 0;
+        if (remaining() < readLength) throw new IndexOutOfBoundsException("read of " + readLength + " bytes with " + remaining() + " remaining");
+
+        int bufferCount = 0;
+        for (int i = component, covered = -componentIndex; covered < readLength; i++) {
+            covered += slots[i].length;
+            bufferCount++;
+        }
+
+        ByteBuffer[] buffers = nioBufferArrays[bufferCount];
+        if (buffers == null) buffers = nioBufferArrays[bufferCount] = new ByteBuffer[bufferCount];
+
+        int remaining = readLength;
+        int position = componentIndex;
+        for (int i = 0; i < bufferCount; i++) {
+            Slot slot = slots[component + i];
+            int viewLength = Math.min(remaining, slot.length - position);
+            buffers[i] = slot.view(position, viewLength);
+
+            remaining -= viewLength;
+            position = 0;
+        }
+
+        assert remaining == 0;
+        return buffers;
+    }
+
+    @Override
+    public void skip(int skipLength) {
+        assert skipLength >= 0;
+        if (remaining() < skipLength) throw new IndexOutOfBoundsException("skip of " + skipLength + " bytes with " + remaining() + " remaining");
+
+        while (skipLength > 0) {
+            int skipped = Math.min(skipLength, slots[component].length - componentIndex);
+            skipLength -= skipped;
+            advance(skipped);
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public void reset() {
+        index = 0;
+        component = 0;
+        componentIndex = 0;
+    }
+}
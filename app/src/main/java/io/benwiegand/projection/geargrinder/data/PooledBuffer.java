@@ -0,0 +1,85 @@
+package io.benwiegand.projection.geargrinder.data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a reference counted byte array from a {@link BufferPool}.
+ * it starts with one reference, and goes back to the pool once every reference has been released.
+ * nothing may touch the array after releasing its reference.
+ */
+public final class PooledBuffer {
+
+    private final BufferPool pool;
+    private final int sizeClass;
+    private final byte[] array;
+    private final AtomicInteger refCount = new AtomicInteger(0);
+    private int length = 0;
+
+    PooledBuffer(BufferPool pool, int sizeClass, int capacity) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.array = new byte[capacity];
+    }
+
+    /**
+     * called by the pool when handing the buffer out
+     */
+    void acquired() {
+        length = 0;
+        boolean wasFree = refCount.compareAndSet(0, 1);
+        assert wasFree;
+    }
+
+    int getSizeClass() {
+        return sizeClass;
+    }
+
+    public byte[] array() {
+        return array;
+    }
+
+    public int capacity() {
+        return array.length;
+    }
+
+    /**
+     * @return the number of valid bytes, starting at index 0
+     */
+    public int length() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        if (length < 0 || length > array.length)
+            throw new IndexOutOfBoundsException("length " + length + " out of bounds for capacity " + array.length);
+        this.length = length;
+    }
+
+    /**
+     * adds a reference, so the buffer can be kept past the point where the current holder releases it.
+     * each call must be matched with a call to {@link PooledBuffer#release()}.
+     * @return this buffer
+     */
+    public PooledBuffer retain() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0) throw new IllegalStateException("retain() on a released buffer");
+        } while (!refCount.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /**
+     * drops a reference, the buffer goes back to the pool when the last one is dropped
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count > 0) return;
+        if (count < 0) throw new IllegalStateException("release() on a released buffer");
+        pool.recycle(this);
+    }
+
+    public int refCount() {
+        return refCount.get();
+    }
+}
@@ -0,0 +1,57 @@
+package io.benwiegand.projection.geargrinder.logs;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * records when each phase of bringing up a session finished, relative to when the headunit was plugged in.
+ * phases can finish on any thread and in any order, since some of them run in parallel.
+ */
+public class BringUpTimeline {
+    private static final String TAG = BringUpTimeline.class.getSimpleName();
+
+    private record Phase(String name, long time, String thread) {}
+
+    private final long startTime = SystemClock.elapsedRealtime();
+    private final List<Phase> phases = new ArrayList<>();
+    private final Set<String> phaseNames = new HashSet<>();
+
+    /**
+     * marks a phase as finished, only the first time it finishes is recorded
+     */
+    public void mark(String phase) {
+        long time = SystemClock.elapsedRealtime() - startTime;
+        synchronized (phases) {
+            if (!phaseNames.add(phase)) return;
+            phases.add(new Phase(phase, time, Thread.currentThread().getName()));
+        }
+        Log.i(TAG, phase + ": +" + time + " ms");
+    }
+
+    public boolean hasMarked(String phase) {
+        synchronized (phases) {
+            return phaseNames.contains(phase);
+        }
+    }
+
+    public void logSummary() {
+        StringBuilder sb = new StringBuilder("bring-up timeline:");
+        synchronized (phases) {
+            for (Phase phase : phases) {
+                sb.append("\n  +")
+                        .append(phase.time())
+                        .append(" ms\t")
+                        .append(phase.name())
+                        .append(" [")
+                        .append(phase.thread())
+                        .append("]");
+            }
+        }
+        Log.i(TAG, sb.toString());
+    }
+}
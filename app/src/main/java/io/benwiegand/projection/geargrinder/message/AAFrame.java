@@ -33,10 +33,16 @@ public class AAFrame {
     public static final int SEQUENCE_FLAGS_MASK = FLAG_SEQUENCE_FIRST | FLAG_SEQUENCE_LAST;
 
     private final byte[] buffer;
+    private final int offset;
 
-    public AAFrame(byte[] buffer, int flags) {
-        assert buffer.length >= HEADER_LENGTH;
+    private AAFrame(int offset, byte[] buffer) {
+        assert offset >= 0 && buffer.length - offset >= HEADER_LENGTH;
         this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    public AAFrame(byte[] buffer, int flags) {
+        this(0, buffer);
         setFlags(flags);
     }
 
@@ -46,14 +52,36 @@ public class AAFrame {
      * @param buffer buffer containing an existing frame
      */
     public AAFrame(byte[] buffer) {
-        assert buffer.length >= HEADER_LENGTH;
-        this.buffer = buffer;
+        this(0, buffer);
+    }
+
+    /**
+     * creates a view of an existing frame in the middle of a buffer, without copying it.
+     * @param buffer buffer containing an existing frame
+     * @param offset offset of the frame header within the buffer
+     */
+    public static AAFrame wrap(byte[] buffer, int offset) {
+        return new AAFrame(offset, buffer);
     }
 
     public byte[] getBuffer() {
         return buffer;
     }
 
+    /**
+     * @return offset of the frame header within {@link AAFrame#getBuffer()}
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return offset of the payload within {@link AAFrame#getBuffer()}, as opposed to the start of the frame
+     */
+    public int getPayloadBufferOffset() {
+        return offset + getPayloadOffset();
+    }
+
     public boolean isFirstInSequence() {
         return (getFlags() & SEQUENCE_FLAGS_MASK) == FLAG_SEQUENCE_FIRST;
     }
@@ -79,56 +107,56 @@ public class AAFrame {
     }
 
     public int getChannelId() {
-        return buffer[CHANNEL_ID_OFFSET];
+        return buffer[offset + CHANNEL_ID_OFFSET];
     }
 
     public AAFrame setChannelId(int channelId) {
         assert channelId <= 0xff && channelId >= 0;
-        buffer[CHANNEL_ID_OFFSET] = (byte) channelId;
+        buffer[offset + CHANNEL_ID_OFFSET] = (byte) channelId;
         return this;
     }
 
     public int getFlags() {
-        return buffer[FLAGS_OFFSET];
+        return buffer[offset + FLAGS_OFFSET];
     }
 
     public AAFrame setFlags(int flags) {
         assert flags <= 0xff && flags >= 0;
-        buffer[FLAGS_OFFSET] = (byte) flags;
+        buffer[offset + FLAGS_OFFSET] = (byte) flags;
         return this;
     }
 
     public int getPayloadLength() {
-        return readUInt16(buffer, PAYLOAD_LENGTH_OFFSET);
+        return readUInt16(buffer, offset + PAYLOAD_LENGTH_OFFSET);
     }
 
     public AAFrame setPayloadLength(int payloadLength) {
         assert payloadLength <= 0xffff && payloadLength >= 0;
-        assert buffer.length - getPayloadOffset() >= payloadLength;
-        writeUInt16(payloadLength, buffer, PAYLOAD_LENGTH_OFFSET);
+        assert buffer.length - getPayloadBufferOffset() >= payloadLength;
+        writeUInt16(payloadLength, buffer, offset + PAYLOAD_LENGTH_OFFSET);
         return this;
     }
 
     public int getTotalMessageLength() {
         if (!isFirstInSequence()) return getPayloadLength();
-        return readInt32(getBuffer(), TOTAL_MESSAGE_LENGTH_OFFSET);
+        return readInt32(buffer, offset + TOTAL_MESSAGE_LENGTH_OFFSET);
     }
 
     public AAFrame setTotalMessageLength(int totalLength) {
         assert isFirstInSequence();
-        writeInt32(totalLength, buffer, TOTAL_MESSAGE_LENGTH_OFFSET);
+        writeInt32(totalLength, buffer, offset + TOTAL_MESSAGE_LENGTH_OFFSET);
         return this;
     }
 
     public AAFrame copyPayload(byte[] src, int offset, int length) {
         setPayloadLength(length);
-        System.arraycopy(src, offset, buffer, getPayloadOffset(), length);
+        System.arraycopy(src, offset, buffer, getPayloadBufferOffset(), length);
         return this;
     }
 
     public AAFrame copyPayload(BufferReader src, int length) {
         setPayloadLength(length);
-        src.read(buffer, getPayloadOffset(), length);
+        src.read(buffer, getPayloadBufferOffset(), length);
         return this;
     }
 
@@ -138,7 +166,7 @@ public class AAFrame {
 
     public AAFrame copyPayload(ByteBuffer src) {
         setPayloadLength(src.remaining());
-        src.get(buffer, getPayloadOffset(), src.remaining());
+        src.get(buffer, getPayloadBufferOffset(), src.remaining());
         return this;
     }
 
@@ -170,7 +198,7 @@ public class AAFrame {
                 ", " + flagsToString() +
                 ", payloadLength=" + getPayloadLength() +
                 ", totalMessageLength=" + getTotalMessageLength() +
-                ", buffer=(" + buffer.length + " bytes, full header: " + hexDump(buffer, 0, getPayloadOffset()) + ")" +
+                ", buffer=(" + buffer.length + " bytes, offset " + offset + ", full header: " + hexDump(buffer, offset, getPayloadOffset()) + ")" +
                 '}';
     }
 }
@@ -0,0 +1,104 @@
+package io.benwiegand.projection.geargrinder.message;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import io.benwiegand.projection.geargrinder.callback.MessageListener;
+import io.benwiegand.projection.geargrinder.data.PooledBuffer;
+
+/**
+ * calls a channel's message handler on its own thread so a slow handler doesn't hold up the rest of the connection.
+ * each queued message takes one of a fixed number of slots, which bounds how far behind the handler can get.
+ * once they're all taken, submitting waits for one to free up. that holds up reassembly for every channel,
+ * but nothing is ever dropped, since losing a control message, ack or input event is worse than a short stall.
+ * the slot is freed once the handler returns, even if the handler keeps the message buffer.
+ */
+final class ChannelDispatcher {
+    private static final String TAG = ChannelDispatcher.class.getSimpleName();
+
+    static final class Slot {
+        PooledBuffer buffer;
+        int flags;
+    }
+
+    private final int channelId;
+    private final MessageListener handler;
+    private final Runnable onHandlerFailure;
+
+    private final BlockingQueue<Slot> freeSlots;
+    private final BlockingQueue<Slot> pendingSlots;
+
+    private final Thread dispatchThread;
+
+    ChannelDispatcher(int channelId, MessageListener handler, int slotCount, Runnable onHandlerFailure) {
+        this.channelId = channelId;
+        this.handler = handler;
+        this.onHandlerFailure = onHandlerFailure;
+
+        freeSlots = new ArrayBlockingQueue<>(slotCount);
+        pendingSlots = new ArrayBlockingQueue<>(slotCount);
+        for (int i = 0; i < slotCount; i++)
+            freeSlots.add(new Slot());
+
+        dispatchThread = new Thread(this::dispatchLoop, "channel " + channelId + " dispatch");
+    }
+
+    void start() {
+        dispatchThread.start();
+    }
+
+    void stop() {
+        dispatchThread.interrupt();
+    }
+
+    MessageListener getHandler() {
+        return handler;
+    }
+
+    /**
+     * queues a message for the handler, waiting for a free slot if the handler is behind.
+     * the dispatcher takes over the caller's reference to the buffer, even if this is interrupted.
+     * @return true if the caller had to wait for a slot
+     */
+    boolean submit(int flags, PooledBuffer buffer) throws InterruptedException {
+        boolean waited = false;
+        Slot slot = freeSlots.poll();
+        try {
+            if (slot == null) {
+                waited = true;
+                slot = freeSlots.take();
+            }
+        } catch (InterruptedException e) {
+            buffer.release();
+            throw e;
+        }
+
+        slot.buffer = buffer;
+        slot.flags = flags;
+        boolean queued = pendingSlots.offer(slot);
+        assert queued;  // there's only as many slots as queue capacity
+        return waited;
+    }
+
+    private void dispatchLoop() {
+        try {
+            while (true) {
+                Slot slot = pendingSlots.take();
+                try {
+                    handler.onMessage(channelId, slot.flags, slot.buffer);
+                } catch (Throwable t) {
+                    Log.wtf(TAG, "exception in message handler", t);
+                    onHandlerFailure.run();     // this isn't supposed to happen
+                } finally {
+                    slot.buffer.release();
+                    slot.buffer = null;
+                    freeSlots.add(slot);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "channel " + channelId + " dispatch loop interrupted");
+        }
+    }
+}
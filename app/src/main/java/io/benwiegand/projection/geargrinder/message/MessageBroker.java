@@ -1,49 +1,86 @@
 package io.benwiegand.projection.geargrinder.message;
 
 import static io.benwiegand.projection.geargrinder.message.AAFrame.COMMAND_ID_LENGTH;
-import static io.benwiegand.projection.geargrinder.message.AAFrame.EXTENDED_HEADER_LENGTH;
 import static io.benwiegand.projection.geargrinder.message.AAFrame.EXTENDED_PAYLOAD_MAX_LENGTH;
 import static io.benwiegand.projection.geargrinder.message.AAFrame.FLAG_CONTROL;
 import static io.benwiegand.projection.geargrinder.message.AAFrame.FLAG_ENCRYPTED;
 import static io.benwiegand.projection.geargrinder.message.AAFrame.FLAG_SEQUENCE_FIRST;
 import static io.benwiegand.projection.geargrinder.message.AAFrame.FLAG_SEQUENCE_LAST;
-import static io.benwiegand.projection.geargrinder.message.AAFrame.HEADER_LENGTH;
 import static io.benwiegand.projection.geargrinder.message.AAFrame.PAYLOAD_MAX_LENGTH;
 import static io.benwiegand.projection.geargrinder.util.ByteUtil.writeUInt16;
 
 import android.util.Log;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.benwiegand.projection.geargrinder.callback.MessageListener;
 import io.benwiegand.projection.geargrinder.crypto.TLSService;
+import io.benwiegand.projection.geargrinder.data.BufferPool;
 import io.benwiegand.projection.geargrinder.data.BufferReader;
+import io.benwiegand.projection.geargrinder.data.EnumCategoryLookup;
+import io.benwiegand.projection.geargrinder.data.PooledBuffer;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
 import io.benwiegand.projection.geargrinder.transfer.AATransferInterface;
+import io.benwiegand.projection.geargrinder.transfer.ReceivedFrame;
+import io.benwiegand.projection.geargrinder.transfer.WireCapture;
 import io.benwiegand.projection.geargrinder.util.ByteUtil;
 
 public class MessageBroker {
     private static final String TAG = MessageBroker.class.getSimpleName();
 
-    private static final int INIT_PAYLOAD_BUFFER_SIZE = PAYLOAD_MAX_LENGTH;
-
     // logs payloads for debugging
     private static final boolean LOG_MESSAGE_DEBUG = false;
 
+    private static final TransmitPriority[] TRANSMIT_PRIORITIES = TransmitPriority.values();
+
+    private static final int RX_FRAME_QUEUE_SIZE = 32;
+    private static final int DISPATCH_SLOT_COUNT = 32;
+
+    // marks the end of the received frames
+    private static final ReceivedFrame RX_END = new ReceivedFrame(null, null);
+
     private final Object writeLock = new Object();
+    private final Object txQueueLock = new Object();
+
+    // outbound queues, guarded by txQueueLock
+    private final Map<Integer, TransmitPriority> channelPriorities = new HashMap<>();
+    private final Map<Integer, Queue<OutgoingMessage>> channelTxQueues = new HashMap<>();
+    private final EnumCategoryLookup<TransmitPriority, OutgoingMessage> scheduledTxMessages = new EnumCategoryLookup<>(TransmitPriority.class);
+
+    // handlers are registered from dispatch threads, and looked up by the reassembly stage
+    private final Map<Integer, ChannelDispatcher> channelDispatchers = new ConcurrentHashMap<>();
 
-    private final Map<Integer, MessageListener> messageHandlers = new HashMap<>();
+    // rx pipeline: the reader thread passes frames to the reassembly stage still in the transfer interface's buffers
+    private final BlockingQueue<ReceivedFrame> rxFrames = new ArrayBlockingQueue<>(RX_FRAME_QUEUE_SIZE);
+    private volatile IOException rxFailure = null;
+    private ReceivedFrame rxCurrentFrame = null;
 
-    // max outbound length is 16 KiB but frames are technically capable of an additional 8 bytes beyond that
-    private final byte[] readBuffer = new byte[AAFrame.MAX_LENGTH + EXTENDED_HEADER_LENGTH];
-    private byte[] readMessageBuffer = new byte[INIT_PAYLOAD_BUFFER_SIZE];
+    // messages are reassembled into pooled buffers, so handlers can hold onto them without copying
+    private final BufferPool rxMessagePool = new BufferPool();
+    private PooledBuffer readMessageBuffer;
 
     private final byte[] writeBuffer = new byte[AAFrame.MAX_LENGTH];
 
+    // guarded by writeLock, encrypted single frame commands are serialized here and encrypted straight into writeBuffer
+    private final byte[] txCommandBuffer = new byte[AAFrame.MAX_LENGTH];
+    private final BufferReader txCommandReader = BufferReader.from(txCommandBuffer);
+    private final ProtoWriter txProtoWriter = new ProtoWriter();
+
     private final AATransferInterface transferInterface;
     private final TLSService tlsService;
 
+    // records frames for debugging when set
+    private volatile WireCapture wireCapture = null;
+
     public record MessageSendParameters(
             int channelId,
             boolean encrypted,
@@ -55,6 +92,63 @@ public class MessageBroker {
         }
     }
 
+    private static final ProtoWritable NO_COMMAND_DATA = new ProtoWritable() {
+        @Override
+        public int encodedLength() {
+            return 0;
+        }
+
+        @Override
+        public void write(ProtoWriter writer) {
+        }
+    };
+
+    private static final class OutgoingMessage {
+        private final MessageSendParameters params;
+        private final TransmitPriority priority;
+        private final BufferReader payloadReader;
+        private final int payloadLength;
+        private final int extendedPayloadMaxLength;
+        private final int payloadMaxLength;
+        private final int sequenceLength;
+
+        // for single frame commands that are serialized once they get to the front of the queue, otherwise null
+        private final int cmd;
+        private final ProtoWritable cmdData;
+
+        // guarded by writeLock
+        private int sequenceIndex = 0;
+        private int payloadRemaining;
+        private boolean complete = false;
+        private Exception failure = null;
+
+        private OutgoingMessage(MessageSendParameters params, TransmitPriority priority, BufferReader payloadReader, int extendedPayloadMaxLength, int payloadMaxLength, int sequenceLength) {
+            this.params = params;
+            this.priority = priority;
+            this.payloadReader = payloadReader;
+            this.extendedPayloadMaxLength = extendedPayloadMaxLength;
+            this.payloadMaxLength = payloadMaxLength;
+            this.sequenceLength = sequenceLength;
+            payloadLength = payloadReader.length();
+            payloadRemaining = payloadLength;
+            cmd = -1;
+            cmdData = null;
+        }
+
+        private OutgoingMessage(MessageSendParameters params, TransmitPriority priority, int cmd, ProtoWritable cmdData, int payloadLength) {
+            this.params = params;
+            this.priority = priority;
+            this.cmd = cmd;
+            this.cmdData = cmdData;
+            this.payloadLength = payloadLength;
+            payloadReader = null;
+            extendedPayloadMaxLength = payloadLength;
+            payloadMaxLength = payloadLength;
+            sequenceLength = 1;
+            payloadRemaining = payloadLength;
+        }
+    }
+
 
     public MessageBroker(AATransferInterface transferInterface, TLSService tlsService) {
         this.transferInterface = transferInterface;
@@ -64,7 +158,9 @@ public class MessageBroker {
     public void destroy() {
         Log.i(TAG, "destroying message broker");
         closeConnection();
-        messageHandlers.clear();
+        for (ChannelDispatcher dispatcher : channelDispatchers.values())
+            dispatcher.stop();
+        channelDispatchers.clear();
     }
 
 
@@ -82,6 +178,14 @@ public class MessageBroker {
         return transferInterface.alive();
     }
 
+    /**
+     * starts recording every frame sent and received, with its plaintext payload
+     * @param wireCapture the capture to record to, or null to stop recording. the caller closes it.
+     */
+    public void setWireCapture(WireCapture wireCapture) {
+        this.wireCapture = wireCapture;
+    }
+
     private int calculateSequenceLength(int extendedPayloadMaxLength, int payloadMaxLength, int length) {
         if (length <= payloadMaxLength) return 1;
         int fullFrames = (length - extendedPayloadMaxLength) / payloadMaxLength + 1;
@@ -89,16 +193,9 @@ public class MessageBroker {
     }
 
     private void growReadMessageBufferIfNeeded(int newSize, int copy) {
-        assert copy <= readMessageBuffer.length;
-        if (readMessageBuffer.length >= newSize) return;
-
-        Log.d(TAG, "resizing message buffer to " + newSize + " bytes (retaining " + copy + " bytes from start of buffer)");
-
-        byte[] buffer = new byte[newSize];
-        if (copy > 0)
-            System.arraycopy(readMessageBuffer, 0, buffer, 0, copy);
-
-        readMessageBuffer = buffer;
+        if (readMessageBuffer.capacity() >= newSize) return;
+        Log.d(TAG, "growing message buffer to " + newSize + " bytes (retaining " + copy + " bytes from start of buffer)");
+        readMessageBuffer = rxMessagePool.grow(readMessageBuffer, newSize, copy);
     }
 
     /**
@@ -108,76 +205,189 @@ public class MessageBroker {
     private void sendFrame(AAFrame frame) {
         synchronized (writeLock) {
             try {
-                transferInterface.sendFrame(frame.getBuffer(), 0, frame.getLength());
+                transferInterface.sendFrame(frame.getBuffer(), frame.getOffset(), frame.getLength());
             } catch (IOException e) {
                 Log.e(TAG, "IOException while sending message", e);
             }
         }
     }
 
+    private TransmitPriority getTransmitPriority(int channelId) {
+        synchronized (txQueueLock) {
+            TransmitPriority priority = channelPriorities.get(channelId);
+            return priority != null ? priority : TransmitPriority.CONTROL;
+        }
+    }
+
+    private void enqueue(OutgoingMessage message) {
+        synchronized (txQueueLock) {
+            int channelId = message.params.channelId();
+            Queue<OutgoingMessage> channelQueue = channelTxQueues.get(channelId);
+            if (channelQueue == null) {
+                channelQueue = new ArrayDeque<>();
+                channelTxQueues.put(channelId, channelQueue);
+            }
+
+            channelQueue.add(message);
+
+            // only the head of each channel queue is scheduled, the receiver can't reassemble two messages on one channel at once
+            if (channelQueue.size() == 1)
+                scheduledTxMessages.add(message.priority, message);
+        }
+    }
+
+    private OutgoingMessage nextScheduledMessage() {
+        synchronized (txQueueLock) {
+            for (TransmitPriority priority : TRANSMIT_PRIORITIES) {
+                List<OutgoingMessage> scheduled = scheduledTxMessages.get(priority);
+                if (!scheduled.isEmpty()) return scheduled.get(0);
+            }
+            return null;
+        }
+    }
+
+    private void onFrameSent(OutgoingMessage message) {
+        synchronized (txQueueLock) {
+            List<OutgoingMessage> scheduled = scheduledTxMessages.get(message.priority);
+            scheduled.remove(message);
+
+            if (!message.complete) {
+                // round robin within the same priority
+                scheduled.add(message);
+                return;
+            }
+
+            Queue<OutgoingMessage> channelQueue = channelTxQueues.get(message.params.channelId());
+            assert channelQueue.peek() == message;
+            channelQueue.poll();
+
+            OutgoingMessage next = channelQueue.peek();
+            if (next != null) scheduled.add(next);
+        }
+    }
+
     /**
-     * sends a full message with a payload
-     * @param params the parameters to send the message with
-     * @param payloadReader buffer reader to read the payload with
+     * builds, encrypts (if needed), and sends the next frame of a message.
+     * must hold writeLock.
+     * @param message the message to send the next frame of
      */
-    public void sendMessage(MessageSendParameters params, BufferReader payloadReader) {
-        assert payloadReader.initialized();
-        synchronized (writeLock) {
-            try {
-                int extendedPayloadMaxLength = params.encrypted() ? tlsService.getMaxPlaintextSize(EXTENDED_PAYLOAD_MAX_LENGTH) : EXTENDED_PAYLOAD_MAX_LENGTH;
-                int payloadMaxLength = params.encrypted() ? tlsService.getMaxPlaintextSize(PAYLOAD_MAX_LENGTH) : PAYLOAD_MAX_LENGTH;
-                int sequenceLength = calculateSequenceLength(extendedPayloadMaxLength, payloadMaxLength, payloadReader.length());
-
-                // single frame
-                if (sequenceLength == 1) {
-                    int flags = params.getFlags() | FLAG_SEQUENCE_FIRST | FLAG_SEQUENCE_LAST;
-                    AAFrame frame = new AAFrame(writeBuffer, flags)
-                            .setChannelId(params.channelId());
-
-                    if (params.encrypted()) {
-                        tlsService.encrypt(payloadReader, frame::copyPayload);
-                    } else {
-                        frame.copyPayload(payloadReader);
-                    }
-
-                    sendFrame(frame);
-                    return;
-                }
+    private void sendNextFrameLocked(OutgoingMessage message) throws IOException {
+        MessageSendParameters params = message.params;
+        int i = message.sequenceIndex;
+
+        int flags = params.getFlags();
+        if (i == 0) flags |= FLAG_SEQUENCE_FIRST;
+        if (i == message.sequenceLength - 1) flags |= FLAG_SEQUENCE_LAST;
+
+        AAFrame frame = new AAFrame(writeBuffer, flags)
+                .setChannelId(params.channelId());
+
+        int payloadLength;
+        if (message.sequenceLength == 1) {
+            payloadLength = message.payloadRemaining;
+        } else if (i == 0) {
+            frame.setTotalMessageLength(message.payloadLength);
+            payloadLength = Math.min(message.extendedPayloadMaxLength, message.payloadRemaining);
+        } else {
+            payloadLength = Math.min(message.payloadMaxLength, message.payloadRemaining);
+        }
+
+        WireCapture capture = wireCapture;
+        int totalMessageLength = i == 0 && message.sequenceLength > 1 ? message.payloadLength : 0;
+
+        if (message.cmdData != null) {
+            int payloadOffset = frame.getPayloadBufferOffset();
+            if (params.encrypted()) {
+                writeCommandLocked(message, txCommandBuffer, 0);
+                if (capture != null) capture.record(WireCapture.DIRECTION_TX, params.channelId(), flags, totalMessageLength, txCommandBuffer, 0, payloadLength);
+                txCommandReader.reset();
+                int ciphertextLength = tlsService.encrypt(txCommandReader, payloadLength, writeBuffer, payloadOffset, writeBuffer.length - payloadOffset);
+                frame.setPayloadLength(ciphertextLength);
+            } else {
+                writeCommandLocked(message, writeBuffer, payloadOffset);
+                frame.setPayloadLength(payloadLength);
+                if (capture != null) capture.record(WireCapture.DIRECTION_TX, params.channelId(), flags, totalMessageLength, writeBuffer, payloadOffset, payloadLength);
+            }
+        } else if (params.encrypted()) {
+            int payloadOffset = frame.getPayloadBufferOffset();
+            if (capture != null) capture.record(WireCapture.DIRECTION_TX, params.channelId(), flags, totalMessageLength, message.payloadReader.nioBuffers(payloadLength));
+            int ciphertextLength = tlsService.encrypt(message.payloadReader, payloadLength, writeBuffer, payloadOffset, writeBuffer.length - payloadOffset);
+            frame.setPayloadLength(ciphertextLength);
+        } else {
+            frame.copyPayload(message.payloadReader, payloadLength);
+            if (capture != null) capture.record(WireCapture.DIRECTION_TX, params.channelId(), flags, totalMessageLength, writeBuffer, frame.getPayloadBufferOffset(), payloadLength);
+        }
+
+        sendFrame(frame);
+
+        message.payloadRemaining -= payloadLength;
+        message.sequenceIndex++;
+        message.complete = message.sequenceIndex == message.sequenceLength;
+    }
+
+    /**
+     * serializes the command id and command data of a single frame command.
+     * must hold writeLock.
+     */
+    private void writeCommandLocked(OutgoingMessage message, byte[] buffer, int offset) {
+        writeUInt16(message.cmd, buffer, offset);
+        txProtoWriter.reset(buffer, offset + COMMAND_ID_LENGTH);
+        message.cmdData.write(txProtoWriter);
+        assert txProtoWriter.position() == offset + message.payloadLength;
+    }
 
-                // multi-frame
-                Log.v(TAG, "multi-frame message of len " + sequenceLength);
-                int payloadRemaining = payloadReader.length();
-                int payloadLength;
-                for (int i = 0; i < sequenceLength; i++) {
-                    int flags = params.getFlags();
-                    if (i == 0) flags |= FLAG_SEQUENCE_FIRST;
-                    if (i == sequenceLength - 1) flags |= FLAG_SEQUENCE_LAST;
-
-                    AAFrame frame = new AAFrame(writeBuffer, flags)
-                            .setChannelId(params.channelId());
-
-                    if (i == 0) {
-                        frame.setTotalMessageLength(payloadReader.length());
-                        payloadLength = Math.min(extendedPayloadMaxLength, payloadRemaining);
-                    } else {
-                        payloadLength = Math.min(payloadMaxLength, payloadRemaining);
-                    }
-
-                    if (params.encrypted()) {
-                        tlsService.encrypt(payloadReader, payloadLength, frame::copyPayload);
-                    } else {
-                        frame.copyPayload(payloadReader, payloadLength);
-                    }
-
-                    sendFrame(frame);
-
-                    payloadRemaining -= payloadLength;
+    /**
+     * queues a message and sends frames until it has been fully sent.
+     * the calling thread sends whichever frame is scheduled next, which isn't necessarily one of its own.
+     * this way a high priority message waits for at most one frame of a large low priority message.
+     * @param message the message to send
+     */
+    private void transmit(OutgoingMessage message) {
+        enqueue(message);
+
+        while (true) {
+            synchronized (writeLock) {
+                if (message.complete) break;
+
+                OutgoingMessage next = nextScheduledMessage();
+                assert next != null;
+
+                try {
+                    sendNextFrameLocked(next);
+                } catch (IOException | RuntimeException e) {
+                    // drop the rest of the message, a partially sent sequence can't be salvaged anyway
+                    next.failure = e;
+                    next.complete = true;
                 }
 
-            } catch (IOException e) {
-                Log.e(TAG, "IOException while sending message", e);
+                onFrameSent(next);
             }
         }
+
+        switch (message.failure) {
+            case null -> {}
+            case IOException e -> Log.e(TAG, "IOException while sending message", e);
+            case RuntimeException e -> throw e;
+            default -> throw new AssertionError(message.failure);
+        }
+    }
+
+    /**
+     * sends a full message with a payload.
+     * blocks until the message is fully sent, frames of messages on other channels may be sent in between its frames.
+     * @param params the parameters to send the message with
+     * @param payloadReader buffer reader to read the payload with
+     */
+    public void sendMessage(MessageSendParameters params, BufferReader payloadReader) {
+        assert payloadReader.initialized();
+        int extendedPayloadMaxLength = params.encrypted() ? tlsService.getMaxPlaintextSize(EXTENDED_PAYLOAD_MAX_LENGTH) : EXTENDED_PAYLOAD_MAX_LENGTH;
+        int payloadMaxLength = params.encrypted() ? tlsService.getMaxPlaintextSize(PAYLOAD_MAX_LENGTH) : PAYLOAD_MAX_LENGTH;
+        int sequenceLength = calculateSequenceLength(extendedPayloadMaxLength, payloadMaxLength, payloadReader.length());
+        if (sequenceLength > 1) Log.v(TAG, "multi-frame message of len " + sequenceLength);
+
+        transmit(new OutgoingMessage(
+                params, getTransmitPriority(params.channelId()), payloadReader,
+                extendedPayloadMaxLength, payloadMaxLength, sequenceLength));
     }
 
     /**
@@ -207,55 +417,175 @@ public class MessageBroker {
      */
     public void sendMessage(MessageSendParameters params, int cmd, byte[] cmdData) {
         assert cmd >= 0 && cmd <= 0xffff;
-        synchronized (writeLock) {
-            byte[] payload = new byte[COMMAND_ID_LENGTH + cmdData.length];
+        byte[] payload = new byte[COMMAND_ID_LENGTH + cmdData.length];
+        writeUInt16(cmd, payload, 0);
+        System.arraycopy(cmdData, 0, payload, COMMAND_ID_LENGTH, cmdData.length);
+        sendMessage(params, payload);
+    }
+
+    /**
+     * sends a full message with a payload constructed from the provided command and protobuf message.
+     * if it fits in a single frame, the command is serialized straight into the outgoing frame (or the buffer it's encrypted from) when it's sent, without allocating anything.
+     * @param params the parameters to send message with
+     * @param cmd the command (unsigned, 16 bits max)
+     * @param cmdData the protobuf message following the command
+     */
+    public void sendMessage(MessageSendParameters params, int cmd, ProtoWritable cmdData) {
+        assert cmd >= 0 && cmd <= 0xffff;
+        int payloadLength = COMMAND_ID_LENGTH + cmdData.encodedLength();
+        int payloadMaxLength = params.encrypted() ? tlsService.getMaxPlaintextSize(PAYLOAD_MAX_LENGTH) : PAYLOAD_MAX_LENGTH;
+
+        if (payloadLength > payloadMaxLength) {
+            // too big for one frame, serialize it up front and send it like any other payload
+            byte[] payload = new byte[payloadLength];
             writeUInt16(cmd, payload, 0);
-            System.arraycopy(cmdData, 0, payload, COMMAND_ID_LENGTH, cmdData.length);
+            cmdData.write(new ProtoWriter(payload, COMMAND_ID_LENGTH));
             sendMessage(params, payload);
+            return;
         }
+
+        transmit(new OutgoingMessage(params, getTransmitPriority(params.channelId()), cmd, cmdData, payloadLength));
     }
 
     /**
-     * like {@link MessageBroker#sendMessage(MessageSendParameters, int cmd, byte[] cmdData)} but with no command data.
+     * like {@link MessageBroker#sendMessage(MessageSendParameters, int cmd, ProtoWritable cmdData)} but with no command data.
      */
     public void sendMessage(MessageSendParameters params, int cmd) {
-        assert cmd >= 0 && cmd <= 0xffff;
-        synchronized (writeLock) {
-            byte[] payload = new byte[COMMAND_ID_LENGTH];
-            writeUInt16(cmd, payload, 0);
-            sendMessage(params, payload);
+        sendMessage(params, cmd, NO_COMMAND_DATA);
+    }
+
+    public void registerForChannel(int channelId, TransmitPriority priority, MessageListener handler) {
+        ChannelDispatcher dispatcher = new ChannelDispatcher(channelId, handler, DISPATCH_SLOT_COUNT, this::closeConnection);
+        if (channelDispatchers.putIfAbsent(channelId, dispatcher) != null) throw new IllegalArgumentException("handler already registered for channel " + channelId);
+
+        synchronized (txQueueLock) {
+            channelPriorities.put(channelId, priority);
         }
+
+        dispatcher.start();
     }
 
-    public void registerForChannel(int channelId, MessageListener handler) {
-        if (messageHandlers.containsKey(channelId)) throw new IllegalArgumentException("handler already registered for channel " + channelId);
-        messageHandlers.put(channelId, handler);
+    /**
+     * reader stage of the rx pipeline. keeps the transfer interface drained regardless of what the reassembly stage and handlers are up to.
+     */
+    private void rxReadLoop() {
+        boolean interrupted = false;
+        try {
+            while (true)
+                rxFrames.put(transferInterface.readFrame());
+        } catch (IOException e) {
+            rxFailure = e;
+        } catch (InterruptedException e) {
+            interrupted = true;
+            rxFailure = new IOException("rx reader interrupted", e);
+        } finally {
+            if (rxFailure == null) rxFailure = new IOException("rx reader died");
+            endRxFrames(interrupted);
+        }
     }
 
-    private AAFrame readFrame() throws IOException {
-        int len = 0;
-        while (len == 0) {
-            len = transferInterface.readFrame(readBuffer);
-            if (LOG_MESSAGE_DEBUG) Log.d(TAG, "received frame: len = " + len);
-            if (LOG_MESSAGE_DEBUG) Log.d(TAG, "RX raw: " + ByteUtil.hexDump(readBuffer, 0, len));
-            if (len == 0) Log.w(TAG, "got empty frame");
+    private void endRxFrames(boolean interrupted) {
+        if (!interrupted) {
+            // the frames already read (like the tail of a replay) still need to make it through, so wait for room
+            try {
+                rxFrames.put(RX_END);
+                return;
+            } catch (InterruptedException e) {
+                Log.w(TAG, "interrupted while ending rx frames", e);
+            }
         }
 
-        if (len < HEADER_LENGTH) throw new RuntimeException("transfer too short");
+        // nothing is going to read the rest, so drop frames if that's what it takes to fit the end marker
+        while (!rxFrames.offer(RX_END)) {
+            ReceivedFrame dropped = rxFrames.poll();
+            if (dropped != null) dropped.buffer().release();
+        }
+    }
 
-        AAFrame frame = new AAFrame(readBuffer);
-        if (LOG_MESSAGE_DEBUG) Log.d(TAG, "received frame: " + frame);
+    /**
+     * gets the next frame from the reader stage. the frame is only valid until the next call.
+     */
+    private AAFrame readFrame() throws IOException, InterruptedException {
+        if (rxCurrentFrame != null) {
+            rxCurrentFrame.buffer().release();
+            rxCurrentFrame = null;
+        }
 
-        if (frame.getLength() < len) {
-            Log.w(TAG, "frame smaller than transfer");
-        } else if (frame.getLength() > len) {
-            throw new AssertionError("transfer too small for frame");
+        ReceivedFrame received = rxFrames.take();
+        if (received == RX_END) {
+            rxFrames.add(RX_END);
+            throw rxFailure;
         }
 
+        rxCurrentFrame = received;
+        AAFrame frame = received.frame();
+        if (LOG_MESSAGE_DEBUG) Log.d(TAG, "received frame: " + frame);
+        if (LOG_MESSAGE_DEBUG) Log.d(TAG, "RX raw: " + ByteUtil.hexDump(frame.getBuffer(), frame.getOffset(), frame.getLength()));
         return frame;
     }
 
-    private void readMessage() throws IOException {
+    private void dispatchMessage(int channelId, int flags, byte[] buffer, int offset, int length) {
+        if (LOG_MESSAGE_DEBUG) Log.d(TAG, "RX message: " + ByteUtil.hexDump(buffer, offset, length));
+
+        ChannelDispatcher dispatcher = channelDispatchers.get(channelId);
+        if (dispatcher == null) {
+            Log.w(TAG, "no handler for channel " + channelId);
+            return;
+        }
+
+        try {
+            dispatcher.getHandler().onMessage(channelId, flags, buffer, offset, length);
+        } catch (Throwable t) {
+            Log.wtf(TAG, "exception in message handler", t);
+            closeConnection();  // this isn't supposed to happen
+        }
+    }
+
+    /**
+     * like {@link MessageBroker#dispatchMessage(int, int, byte[], int, int)}, but with a pooled buffer. releases the caller's reference to it.
+     */
+    private void dispatchMessage(int channelId, int flags, PooledBuffer message) {
+        try {
+            if (LOG_MESSAGE_DEBUG) Log.d(TAG, "RX message: " + ByteUtil.hexDump(message.array(), 0, message.length()));
+
+            ChannelDispatcher dispatcher = channelDispatchers.get(channelId);
+            if (dispatcher == null) {
+                Log.w(TAG, "no handler for channel " + channelId);
+                return;
+            }
+
+            dispatcher.getHandler().onMessage(channelId, flags, message);
+        } catch (Throwable t) {
+            Log.wtf(TAG, "exception in message handler", t);
+            closeConnection();  // this isn't supposed to happen
+        } finally {
+            message.release();
+        }
+    }
+
+    /**
+     * decrypts the payload of a frame straight into the message buffer.
+     * @param frame the encrypted frame
+     * @param messageIndex where in the message buffer to put the plaintext
+     * @return the plaintext length
+     */
+    private int decryptFrame(AAFrame frame, int messageIndex) throws IOException {
+        // plaintext is never longer than the ciphertext, so this should leave enough room
+        growReadMessageBufferIfNeeded(messageIndex + frame.getPayloadLength(), messageIndex);
+
+        return tlsService.decrypt(
+                frame.getBuffer(), frame.getPayloadBufferOffset(), frame.getPayloadLength(),
+                readMessageBuffer.array(), messageIndex, readMessageBuffer.capacity() - messageIndex,
+                (directLength, overflow) -> {
+                    int overflowIndex = messageIndex + directLength;
+                    int overflowLength = overflow.remaining();
+                    growReadMessageBufferIfNeeded(overflowIndex + overflowLength, overflowIndex);
+                    overflow.get(readMessageBuffer.array(), overflowIndex, overflowLength);
+                    return overflowLength;
+                });
+    }
+
+    private void readMessage() throws IOException, InterruptedException {
         AAFrame frame = readFrame();
         int messageLength = 0;
         int messageIndex = 0;
@@ -272,81 +602,99 @@ public class MessageBroker {
             throw new AssertionError("multi-frame message didn't start with first frame");
         }
 
+        int channelId = frame.getChannelId();
+        int flags = frame.getFlags();
+
+        // messages are handled inline until the handshake is done, the next frame can't be decrypted until the handler has processed it
+        boolean inline = tlsService.needsHandshake();
+
+        WireCapture capture = wireCapture;
+
+        // single-frame plaintext messages handled inline are passed to the handler straight out of the frame buffer
+        if (inline && !frame.isInSequence() && !frame.isPayloadEncrypted()) {
+            if (capture != null) capture.record(WireCapture.DIRECTION_RX, channelId, flags, 0, frame.getBuffer(), frame.getPayloadBufferOffset(), frame.getPayloadLength());
+            dispatchMessage(channelId, flags, frame.getBuffer(), frame.getPayloadBufferOffset(), frame.getPayloadLength());
+            return;
+        }
+
+        // otherwise reassemble into a pooled buffer. even if the channel's dispatcher is full, the frames have to be read (and decrypted) to keep the stream in order
+        ChannelDispatcher dispatcher = inline ? null : channelDispatchers.get(channelId);
+
         // multi-frame length
         if (frame.isFirstInSequence()) {
             messageLength = frame.getTotalMessageLength();
-            growReadMessageBufferIfNeeded(frame.getTotalMessageLength(), 0);
         } else if (!frame.isPayloadEncrypted()) {
-            messageLength = frame.getTotalMessageLength();
-            growReadMessageBufferIfNeeded(messageLength, 0);
+            messageLength = frame.getPayloadLength();
         }
 
+        // a single encrypted frame's plaintext is never longer than its ciphertext
+        readMessageBuffer = rxMessagePool.acquire(frame.isFirstInSequence() ? messageLength : frame.getPayloadLength());
+
         // decrypt first frame
         if (frame.isPayloadEncrypted()) {
-            int firstDecryptedPayloadLength = tlsService.decrypt(frame.getBuffer(), frame.getPayloadOffset(), frame.getPayloadLength(), out -> {
-                int decryptedLength = out.remaining();
-                growReadMessageBufferIfNeeded(decryptedLength, 0);
-                out.get(readMessageBuffer, 0, decryptedLength);
-                return decryptedLength;
-            });
+            int firstDecryptedPayloadLength = decryptFrame(frame, 0);
 
             messageIndex += firstDecryptedPayloadLength;
             if (!frame.isInSequence())
                 messageLength = firstDecryptedPayloadLength;
 
         } else {
-            System.arraycopy(frame.getBuffer(), frame.getPayloadOffset(), readMessageBuffer, 0, frame.getPayloadLength());
+            System.arraycopy(frame.getBuffer(), frame.getPayloadBufferOffset(), readMessageBuffer.array(), 0, frame.getPayloadLength());
             messageIndex = frame.getPayloadLength();
         }
 
+        if (capture != null) capture.record(WireCapture.DIRECTION_RX, channelId, flags, frame.isFirstInSequence() ? messageLength : 0, readMessageBuffer.array(), 0, messageIndex);
+
         // multi-frame messages
         if (frame.isFirstInSequence()) {
             boolean encrypted = frame.isPayloadEncrypted();
-            int channelId = frame.getChannelId();
-            frame = readFrame();
             do {
-                readFrame();
+                frame = readFrame();
                 if (LOG_MESSAGE_DEBUG) Log.d(TAG, "received next frame in sequence: " + frame);
                 if (!frame.isInSequence() || frame.isFirstInSequence() || frame.getChannelId() != channelId || frame.isPayloadEncrypted() != encrypted)
                     throw new AssertionError("broken frame sequence: channelId=" + channelId + ", encrypted=" + encrypted + ", frame=" + frame);
 
+                int frameIndex = messageIndex;
                 if (frame.isPayloadEncrypted()) {
-                    int curMessageIndex = messageIndex;
-                    messageIndex += tlsService.decrypt(frame.getBuffer(), frame.getPayloadOffset(), frame.getPayloadLength(), out -> {
-                        int decryptedLength = out.remaining();
-                        out.get(readMessageBuffer, curMessageIndex, decryptedLength);
-                        return decryptedLength;
-                    });
+                    messageIndex += decryptFrame(frame, messageIndex);
                 } else {
-                    System.arraycopy(frame.getBuffer(), frame.getPayloadOffset(), readMessageBuffer, messageIndex, frame.getPayloadLength());
+                    growReadMessageBufferIfNeeded(messageIndex + frame.getPayloadLength(), messageIndex);
+                    System.arraycopy(frame.getBuffer(), frame.getPayloadBufferOffset(), readMessageBuffer.array(), messageIndex, frame.getPayloadLength());
                     messageIndex += frame.getPayloadLength();
                 }
 
+                if (capture != null) capture.record(WireCapture.DIRECTION_RX, channelId, frame.getFlags(), 0, readMessageBuffer.array(), frameIndex, messageIndex - frameIndex);
+
             } while (!frame.isLastInSequence());
         }
 
-        if (LOG_MESSAGE_DEBUG) Log.d(TAG, "RX message: " + ByteUtil.hexDump(readMessageBuffer, 0, messageLength));
-
         if (messageIndex != messageLength)
             throw new AssertionError("message length miss-match: read=" + messageIndex + " expect=" + messageLength);
 
-        // callback
-        MessageListener handler = messageHandlers.get(frame.getChannelId());
-        if (handler == null) {
-            Log.w(TAG, "no handler for channel " + frame.getChannelId());
-            return;
-        }
+        PooledBuffer message = readMessageBuffer;
+        readMessageBuffer = null;
+        message.setLength(messageLength);
 
-        try {
-            handler.onMessage(frame.getChannelId(), frame.getFlags(), readMessageBuffer, 0, messageLength);
-        } catch (Throwable t) {
-            Log.wtf(TAG, "exception in message handler", t);
-            closeConnection();  // this isn't supposed to happen
+        if (dispatcher != null) {
+            if (LOG_MESSAGE_DEBUG) Log.d(TAG, "RX message: " + ByteUtil.hexDump(message.array(), 0, messageLength));
+            if (dispatcher.submit(flags, message))
+                Log.w(TAG, "channel " + channelId + " handler is behind, waited for it to catch up");
+        } else {
+            dispatchMessage(channelId, flags, message);
         }
+
+        rxMessagePool.trimIfDue();
     }
 
+    /**
+     * runs the connection until it dies.
+     * frames are read on a separate thread, this thread decrypts and reassembles them in order,
+     * and each channel's handler is called on its own thread.
+     */
     public void loop() {
         Log.i(TAG, "connection loop start");
+        Thread rxReadThread = new Thread(this::rxReadLoop, "AA rx reader");
+        rxReadThread.start();
         try {
 
             while (transferInterface.alive())
@@ -354,7 +702,10 @@ public class MessageBroker {
 
         } catch (IOException e) {
             Log.v(TAG, "connection died", e);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "connection loop interrupted", e);
         } finally {
+            rxReadThread.interrupt();
             Log.d(TAG, "connection loop exit");
         }
     }
@@ -0,0 +1,13 @@
+package io.benwiegand.projection.geargrinder.message;
+
+/**
+ * transmit scheduling class of a channel.
+ * whenever a frame is about to be sent, a pending frame from a higher priority class always goes first.
+ * channels within the same class take turns one frame at a time.
+ */
+public enum TransmitPriority {
+    CONTROL,    // control channel (pings, handshake, service discovery, etc.)
+    INPUT,      // input and sensor channels
+    AUDIO,
+    VIDEO,
+}
@@ -5,11 +5,22 @@ import static android.content.Context.BIND_IMPORTANT;
 
 import android.content.ComponentName;
 import android.content.Context;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.hardware.display.DisplayManager;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.InputEvent;
 import android.view.Surface;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
+
 import io.benwiegand.projection.geargrinder.PrivdService;
 import io.benwiegand.projection.geargrinder.ProjectionActivity;
 import io.benwiegand.projection.geargrinder.callback.IPCConnectionListener;
@@ -19,13 +30,15 @@ import io.benwiegand.projection.geargrinder.projection.input.InputEventConverter
 import io.benwiegand.projection.geargrinder.projection.display.LocalVirtualDisplayController;
 import io.benwiegand.projection.geargrinder.projection.display.PrivdVirtualDisplayProxy;
 import io.benwiegand.projection.geargrinder.projection.display.VirtualDisplayController;
+import io.benwiegand.projection.geargrinder.projection.ui.VirtualActivity;
+import io.benwiegand.projection.geargrinder.projection.video.FrameCopier;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.preset.VideoPreset;
 import io.benwiegand.projection.geargrinder.proto.data.readable.input.InputChannelMeta;
 import io.benwiegand.projection.geargrinder.proto.data.readable.input.event.TouchEvent;
 import io.benwiegand.projection.geargrinder.service.GeargrinderServiceConnector;
 import io.benwiegand.projection.libprivd.IPrivd;
 
-public class ProjectionService implements InputEventConverter.ConvertedInputEventListener, IPCConnectionListener, GeargrinderServiceConnector.ConnectionListener {
+public class ProjectionService implements InputEventConverter.ConvertedInputEventListener, IPCConnectionListener, GeargrinderServiceConnector.ConnectionListener, ProjectionActivity.DirectCompositionHost {
     private static final String TAG = ProjectionService.class.getSimpleName();
 
     private static final String VIRTUAL_DISPLAY_NAME = "Geargrinder projection";
@@ -48,6 +61,8 @@ public class ProjectionService implements InputEventConverter.ConvertedInputEven
     // this is all that really can be done
     private static final int LOCAL_VIRTUAL_DISPLAY_FLAGS = DisplayManager.VIRTUAL_DISPLAY_FLAG_OWN_CONTENT_ONLY | DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION;
 
+    private static final int SINK_SURFACE_SIZE = 16;
+
     private final Object lock = new Object();
 
     private InputEventConverter inputEventConverter;
@@ -56,6 +71,16 @@ public class ProjectionService implements InputEventConverter.ConvertedInputEven
     private VideoPreset videoPreset;
     private Surface surface = null;
 
+    // a virtual activity can draw straight to the output, while the projection display draws to a sink that's never looked at
+    private VirtualActivity directCompositionRequest = null;
+    private VirtualActivity directCompositionSource = null;
+    private ImageReader sinkReader = null;
+
+    // otherwise, the active task's virtual activities can be drawn as layers over the projection display by the frame copier
+    private Supplier<FrameCopier.Layer> layerFactory = null;
+    private Map<VirtualActivity, Rect> layerRequest = Map.of();
+    private final Map<VirtualActivity, FrameCopier.Layer> layers = new HashMap<>();
+
     public GeargrinderServiceConnector connector;
     private IPrivd privd = null;
 
@@ -102,8 +127,19 @@ public class ProjectionService implements InputEventConverter.ConvertedInputEven
         if (dead) return;
         dead = true;
         connector.destroy();
+
+        synchronized (lock) {
+            removeLayersLocked(Map.of());
+            if (directCompositionSource != null)
+                directCompositionSource.setDirectOutput(null);
+            directCompositionRequest = null;
+            directCompositionSource = null;
+        }
+
         if (virtualDisplay != null)
             virtualDisplay.release();
+        if (sinkReader != null)
+            sinkReader.close();
     }
 
     public Throwable getError() {
@@ -150,11 +186,15 @@ public class ProjectionService implements InputEventConverter.ConvertedInputEven
             inputInit = false;
             outputInit = false;
 
+            updateCompositionLocked();
             if (virtualDisplay != null) virtualDisplay.setSurface(null);
         }
     }
 
-    public void setOutput(Surface surface, VideoPreset videoPreset) {
+    /**
+     * @param layerFactory creates layers that are drawn over the output surface, see {@link FrameCopier#createLayer()}
+     */
+    public void setOutput(Surface surface, VideoPreset videoPreset, Supplier<FrameCopier.Layer> layerFactory) {
         synchronized (lock) {
             Log.i(TAG, "attaching new output");
             if (!this.videoPreset.equals(videoPreset)) {
@@ -170,12 +210,20 @@ public class ProjectionService implements InputEventConverter.ConvertedInputEven
                 this.videoPreset = videoPreset;
             }
 
+            // start over from the projection display, the layers belong to the old output and the direct composition source might not fit anymore
+            removeLayersLocked(Map.of());
+            if (directCompositionSource != null)
+                directCompositionSource.setDirectOutput(null);
+            directCompositionSource = null;
+
             if (virtualDisplay != null)
                 virtualDisplay.setSurface(surface);
 
             this.surface = surface;
+            this.layerFactory = layerFactory;
 
             outputInit = true;
+            updateCompositionLocked();
             onInitAdvancedLocked();
         }
     }
@@ -190,6 +238,113 @@ public class ProjectionService implements InputEventConverter.ConvertedInputEven
         }
     }
 
+    /**
+     * a display without a surface is turned off, which would stop the projection activity and take the virtual activity's surface view down with it.
+     * this gives the projection display somewhere tiny to draw instead.
+     */
+    private Surface getSinkSurfaceLocked() {
+        if (sinkReader == null) {
+            sinkReader = ImageReader.newInstance(SINK_SURFACE_SIZE, SINK_SURFACE_SIZE, PixelFormat.RGBA_8888, 2);
+            sinkReader.setOnImageAvailableListener(reader -> {
+                Image image = reader.acquireLatestImage();
+                if (image != null) image.close();
+            }, new Handler(Looper.getMainLooper()));
+        }
+        return sinkReader.getSurface();
+    }
+
+    private void updateCompositionLocked() {
+        boolean canRedirect = outputInit && surface != null && virtualDisplay != null;
+
+        VirtualActivity source = canRedirect ? directCompositionRequest : null;
+        if (source != null && (source.getSurfaceWidth() != videoPreset.width() || source.getSurfaceHeight() != videoPreset.height())) source = null;
+
+        // a direct composition source covers everything, so nothing else needs a layer
+        Map<VirtualActivity, Rect> layerSources = canRedirect && source == null && layerFactory != null ? layerRequest : Map.of();
+
+        removeLayersLocked(layerSources);
+        setDirectCompositionSourceLocked(source);
+        addLayersLocked(layerSources);
+    }
+
+    private void removeLayersLocked(Map<VirtualActivity, Rect> keep) {
+        Iterator<Map.Entry<VirtualActivity, FrameCopier.Layer>> iter = layers.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<VirtualActivity, FrameCopier.Layer> entry = iter.next();
+            if (keep.containsKey(entry.getKey())) continue;
+
+            // the virtual activity lets go of the layer's surface before it's released
+            entry.getKey().setDirectOutput(null);
+            entry.getValue().release();
+            iter.remove();
+        }
+    }
+
+    private void addLayersLocked(Map<VirtualActivity, Rect> sources) {
+        for (Map.Entry<VirtualActivity, Rect> entry : sources.entrySet()) {
+            VirtualActivity activity = entry.getKey();
+            Rect bounds = entry.getValue();
+
+            FrameCopier.Layer layer = layers.get(activity);
+            if (layer != null) {
+                layer.setBounds(bounds.left, bounds.top, bounds.width(), bounds.height());
+                continue;
+            }
+
+            try {
+                layer = layerFactory.get();
+            } catch (Throwable t) {
+                Log.e(TAG, "failed to create layer", t);
+            }
+
+            if (layer == null) {
+                Log.w(TAG, "output doesn't support layers, virtual activities will be composited into the projection display");
+                layerFactory = null;
+                return;
+            }
+
+            Log.d(TAG, "drawing " + activity.getComponentName().flattenToShortString() + " as a layer at " + bounds);
+            layer.setBounds(bounds.left, bounds.top, bounds.width(), bounds.height());
+            layers.put(activity, layer);
+            activity.setDirectOutput(layer.getSurface());
+        }
+    }
+
+    private void setDirectCompositionSourceLocked(VirtualActivity source) {
+        if (source == directCompositionSource) return;
+
+        // only one display can be connected to the output at a time, so the old one lets go first
+        if (directCompositionSource != null) directCompositionSource.setDirectOutput(null);
+        else virtualDisplay.setSurface(getSinkSurfaceLocked());
+
+        directCompositionSource = source;
+        if (source != null) {
+            Log.i(TAG, "projection display bypassed, " + source.getComponentName().flattenToShortString() + " is drawing to the output");
+            source.setDirectOutput(surface);
+        } else {
+            Log.i(TAG, "projection display drawing to the output");
+            virtualDisplay.setSurface(outputInit ? surface : null);
+        }
+    }
+
+    @Override
+    public void setDirectCompositionSource(VirtualActivity source) {
+        synchronized (lock) {
+            if (dead) return;
+            directCompositionRequest = source;
+            updateCompositionLocked();
+        }
+    }
+
+    @Override
+    public void setLayerSources(Map<VirtualActivity, Rect> sources) {
+        synchronized (lock) {
+            if (dead) return;
+            layerRequest = sources;
+            updateCompositionLocked();
+        }
+    }
+
     @Override
     public void onInputEvent(InputEvent event, int displayId, boolean displayIdSet) {
         if (!started) return;
@@ -206,6 +361,7 @@ public class ProjectionService implements InputEventConverter.ConvertedInputEven
     public void onProjectionActivityConnected(ProjectionActivity.ActivityBinder binder) {
         synchronized (lock) {
             binder.setMargins(videoPreset.marginHorizontal(), videoPreset.marginVertical());
+            binder.setDirectCompositionHost(this);
 
             uiInit = true;
             onInitAdvancedLocked();
@@ -265,6 +421,7 @@ public class ProjectionService implements InputEventConverter.ConvertedInputEven
             }
 
             virtualDisplayInit = true;
+            updateCompositionLocked();
             onInitAdvancedLocked();
         }
     }
@@ -3,6 +3,7 @@ package io.benwiegand.projection.geargrinder.projection.ui;
 import android.annotation.SuppressLint;
 import android.content.ComponentName;
 import android.content.Context;
+import android.graphics.Rect;
 import android.hardware.display.DisplayManager;
 import android.os.DeadObjectException;
 import android.os.Handler;
@@ -66,6 +67,10 @@ public class VirtualActivity implements SurfaceHolder.Callback {
     private final IPrivd privd;
     private final AppRecord app;
     private VirtualDisplayController virtualDisplay = null;
+
+    // when set, the virtual display draws here instead of the surface view
+    private final Object surfaceLock = new Object();
+    private volatile Surface directOutput = null;
     private final int density;
     private int width;
     private int height;
@@ -128,7 +133,7 @@ public class VirtualActivity implements SurfaceHolder.Callback {
             }
 
             if (virtualDisplay == null) {
-                Surface surface = surfaceView.getHolder().getSurface();
+                Surface surface = directOutput != null ? directOutput : surfaceView.getHolder().getSurface();
 
                 VirtualDisplayController virtualDisplay;
                 try {
@@ -199,8 +204,11 @@ public class VirtualActivity implements SurfaceHolder.Callback {
     }
 
     public void destroy() {
-        if (virtualDisplay != null)
-            virtualDisplay.release();
+        synchronized (surfaceLock) {
+            if (virtualDisplay != null)
+                virtualDisplay.release();
+            virtualDisplay = null;
+        }
 
         focusTrackers.clear();
     }
@@ -245,6 +253,52 @@ public class VirtualActivity implements SurfaceHolder.Callback {
         return rootView.findViewById(R.id.focus_indicator);
     }
 
+    /**
+     * whether nothing in this virtual activity is covering the app, so its display could be shown as-is
+     */
+    public boolean canComposeDirectly() {
+        return virtualDisplay != null && validFrame && splash.getRootView().getVisibility() != View.VISIBLE;
+    }
+
+    /**
+     * @return where the surface view is in the projection activity's window
+     */
+    public Rect getSurfaceBounds() {
+        int[] location = new int[2];
+        surfaceView.getLocationInWindow(location);
+        return new Rect(location[0], location[1], location[0] + surfaceView.getWidth(), location[1] + surfaceView.getHeight());
+    }
+
+    public int getSurfaceWidth() {
+        return width;
+    }
+
+    public int getSurfaceHeight() {
+        return height;
+    }
+
+    /**
+     * points the virtual display at another surface, skipping the surface view and the composition of the layout it's in.
+     * the surface must be the same size as the surface view, since input still goes through the surface view.
+     * @param surface the surface to draw to, or null to go back to the surface view
+     */
+    public void setDirectOutput(Surface surface) {
+        synchronized (surfaceLock) {
+            if (directOutput == surface) return;
+            Log.i(TAG, surface != null ? "drawing directly to output" : "drawing to surface view");
+            directOutput = surface;
+
+            if (virtualDisplay == null) return;
+            if (surface != null) {
+                virtualDisplay.setSurface(surface);
+                return;
+            }
+
+            Surface viewSurface = surfaceView.getHolder().getSurface();
+            virtualDisplay.setSurface(viewSurface.isValid() ? viewSurface : null);
+        }
+    }
+
     public int getDisplayId() {
         if (virtualDisplay == null) return -1;
         return virtualDisplay.getDisplayId();
@@ -297,8 +351,10 @@ public class VirtualActivity implements SurfaceHolder.Callback {
     @Override
     public void surfaceCreated(@NonNull SurfaceHolder holder) {
         Log.d(TAG, "surface created");
-        if (virtualDisplay != null)
-            virtualDisplay.setSurface(holder.getSurface());
+        synchronized (surfaceLock) {
+            if (virtualDisplay != null && directOutput == null)
+                virtualDisplay.setSurface(holder.getSurface());
+        }
 
         invalidateFrame();
     }
@@ -306,8 +362,10 @@ public class VirtualActivity implements SurfaceHolder.Callback {
     @Override
     public void surfaceDestroyed(@NonNull SurfaceHolder holder) {
         Log.d(TAG, "surface destroyed");
-        if (virtualDisplay != null)
-            virtualDisplay.setSurface(null);
+        synchronized (surfaceLock) {
+            if (virtualDisplay != null && directOutput == null)
+                virtualDisplay.setSurface(null);
+        }
 
         invalidateFrame();
     }
@@ -79,6 +79,13 @@ public class ProjectionTask {
         splash.toggle();
     }
 
+    /**
+     * @return true if the splash is covering the task, even if it's still fading out
+     */
+    public boolean isSplashShown() {
+        return splash.getRootView().getVisibility() == View.VISIBLE;
+    }
+
     public AlertDialog createAddSplitScreenDialog() {
         List<AppRecord> appRecords = new ArrayList<>();
         taskManager.getOrderedVirtualActivities().stream()
@@ -96,10 +103,14 @@ public class ProjectionTask {
 
     private void updateContextButtons() {
         ButtonPreset addSplitScreenButton = new ButtonPreset(R.string.launch_split_screen, android.R.drawable.ic_input_add, v -> createAddSplitScreenDialog().show());
+        ButtonPreset fullscreenButton = new ButtonPreset(R.string.fullscreen_button, android.R.drawable.ic_menu_crop, v -> {
+            splash.hide();
+            taskManager.requestFullscreen();
+        });
         if (activityCount() >= MAX_SPLIT_SCREEN) {
-            splash.inflateButtons();
+            splash.inflateButtons(fullscreenButton);
         } else {
-            splash.inflateButtons(addSplitScreenButton);
+            splash.inflateButtons(addSplitScreenButton, fullscreenButton);
         }
     }
 
@@ -37,6 +37,7 @@ public class ProjectionTaskManager {
         default void onTaskUpdated(ProjectionTask task, boolean pinned) {};
         default void onSwitchTask(ProjectionTask oldTask, boolean oldPinned, ProjectionTask newTask, boolean newPinned) {};
         default void onContentFocus() {};
+        default void onFullscreenRequest() {};
     }
 
     private final ViewGroup contentFrame;
@@ -232,6 +233,10 @@ public class ProjectionTaskManager {
         callListeners(Listener::onContentFocus);
     }
 
+    public void requestFullscreen() {
+        callListeners(Listener::onFullscreenRequest);
+    }
+
     public void switchToTask(ProjectionTask newTask) {
         ProjectionTask oldTask = activeTask;
         boolean oldPinned = oldTask != null && isPinned(oldTask);
@@ -0,0 +1,147 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * picks a video bitrate based on how quickly the headunit acks frames.
+ * when acks start lagging behind (or the outstanding ack limit is hit), the bitrate is cut multiplicatively.
+ * when acks are quick again, it creeps back up towards the max.
+ * acks are reported from the message thread, the target bitrate is applied to the encoder from the video thread.
+ */
+public class BitrateController {
+    private static final String TAG = BitrateController.class.getSimpleName();
+
+    private static final boolean LOG_ACK_DEBUG = false;
+
+    // minimum time between adjustments, so the encoder has time to react to the last one
+    private static final long ADJUST_INTERVAL = 1000;
+
+    // how long to wait after a decrease before increasing again, to avoid bouncing off the limit
+    private static final long INCREASE_HOLDOFF = 3000;
+
+    // latency above the baseline that counts as the headunit falling behind
+    private static final long CONGESTION_LATENCY_MARGIN = 40;
+    private static final long SEVERE_CONGESTION_LATENCY_MARGIN = 150;
+
+    private static final float LATENCY_SMOOTHING = 0.125f;
+
+    // the baseline is the lowest latency seen, raised slowly so it can follow a link that got slower for good
+    private static final long BASELINE_DRIFT_PER_ADJUST_INTERVAL = 1;
+
+    private static final float DECREASE_FACTOR = 0.75f;
+    private static final float SEVERE_DECREASE_FACTOR = 0.5f;
+    private static final float INCREASE_STEP = 0.05f;    // fraction of the max bitrate
+
+    // a drop to below this fraction of the previous bitrate in one step requests a sync frame, so the picture recovers quickly
+    private static final float SYNC_FRAME_DROP_RATIO = 0.6f;
+
+    // how long a bitrate has to hold without the headunit falling behind to count as stable
+    private static final long STABLE_HOLD_TIME = 10000;
+
+    private final int minBitrate;
+    private final int maxBitrate;
+
+    private final AtomicBoolean syncFrameRequested = new AtomicBoolean(false);
+    private volatile int targetBitrate;
+    private volatile int stableBitrate = -1;
+
+    // only touched from onAck()
+    private float smoothedLatency = -1;
+    private long baselineLatency = Long.MAX_VALUE;
+    private long lastAdjustTime;
+    private long lastDecreaseTime;
+    private long bitrateSetTime;
+
+    public BitrateController(int initialBitrate, int minBitrate, int maxBitrate) {
+        assert minBitrate > 0 && minBitrate <= maxBitrate;
+        this.minBitrate = minBitrate;
+        this.maxBitrate = maxBitrate;
+        targetBitrate = clamp(initialBitrate);
+
+        lastAdjustTime = SystemClock.elapsedRealtime();
+        lastDecreaseTime = lastAdjustTime;
+        bitrateSetTime = lastAdjustTime;
+
+        Log.i(TAG, "adaptive bitrate: initial = " + targetBitrate + ", min = " + minBitrate + ", max = " + maxBitrate);
+    }
+
+    private int clamp(long bitrate) {
+        return (int) Math.max(minBitrate, Math.min(maxBitrate, bitrate));
+    }
+
+    /**
+     * called for every acked frame
+     * @param latency time between sending the frame and getting the ack in ms
+     * @param outstandingAcks frames still waiting for an ack
+     * @param maxOutstandingAcks the outstanding ack limit
+     */
+    public void onAck(long latency, int outstandingAcks, int maxOutstandingAcks) {
+        onAck(latency, outstandingAcks, maxOutstandingAcks, SystemClock.elapsedRealtime());
+    }
+
+    void onAck(long latency, int outstandingAcks, int maxOutstandingAcks, long now) {
+        if (smoothedLatency < 0) smoothedLatency = latency;
+        else smoothedLatency += (latency - smoothedLatency) * LATENCY_SMOOTHING;
+        baselineLatency = Math.min(baselineLatency, latency);
+
+        if (LOG_ACK_DEBUG) Log.v(TAG, "ack latency: " + latency + " ms, smoothed = " + smoothedLatency + ", baseline = " + baselineLatency + ", outstanding = " + outstandingAcks);
+
+        if (now - lastAdjustTime < ADJUST_INTERVAL) return;
+        lastAdjustTime = now;
+
+        float excessLatency = smoothedLatency - baselineLatency;
+        baselineLatency += BASELINE_DRIFT_PER_ADJUST_INTERVAL;
+
+        int currentBitrate = targetBitrate;
+        boolean congested = excessLatency > CONGESTION_LATENCY_MARGIN || outstandingAcks >= maxOutstandingAcks;
+        if (!congested && now - bitrateSetTime >= STABLE_HOLD_TIME && currentBitrate > stableBitrate)
+            stableBitrate = currentBitrate;
+
+        int newBitrate;
+        if (excessLatency > SEVERE_CONGESTION_LATENCY_MARGIN) {
+            newBitrate = clamp((long) (currentBitrate * SEVERE_DECREASE_FACTOR));
+        } else if (congested) {
+            newBitrate = clamp((long) (currentBitrate * DECREASE_FACTOR));
+        } else if (excessLatency < CONGESTION_LATENCY_MARGIN / 2f && now - lastDecreaseTime >= INCREASE_HOLDOFF) {
+            newBitrate = clamp(currentBitrate + (long) (maxBitrate * INCREASE_STEP));
+        } else {
+            return;
+        }
+
+        if (newBitrate == currentBitrate) return;
+
+        if (newBitrate < currentBitrate) {
+            Log.i(TAG, "headunit falling behind (latency +" + (int) excessLatency + " ms, " + outstandingAcks + "/" + maxOutstandingAcks + " outstanding), lowering bitrate: " + currentBitrate + " -> " + newBitrate);
+            lastDecreaseTime = now;
+            if (newBitrate < currentBitrate * SYNC_FRAME_DROP_RATIO)
+                syncFrameRequested.set(true);
+        } else {
+            Log.d(TAG, "raising bitrate: " + currentBitrate + " -> " + newBitrate);
+        }
+
+        targetBitrate = newBitrate;
+        bitrateSetTime = now;
+    }
+
+    public int getTargetBitrate() {
+        return targetBitrate;
+    }
+
+    /**
+     * @return the highest bitrate that held for a while without the headunit falling behind, or -1 if none has yet.
+     *         a later drop doesn't lower it, that's usually just a burst of hard to encode frames.
+     */
+    public int getStableBitrate() {
+        return stableBitrate;
+    }
+
+    /**
+     * @return true if a sync frame should be requested along with the next bitrate update, only returns true once per request
+     */
+    public boolean takeSyncFrameRequest() {
+        return syncFrameRequested.getAndSet(false);
+    }
+}
@@ -0,0 +1,127 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import android.os.Build;
+import android.util.Base64;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Set;
+
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
+import io.benwiegand.projection.geargrinder.proto.data.readable.av.preset.VideoPreset;
+
+/**
+ * what the video encoder on this device was found to support, saved so sessions don't have to find out the hard way every time.
+ * only valid for the os build it was probed on, see {@link EncoderCapabilities#isCurrent()}.
+ */
+public record EncoderCapabilities(
+        int probeVersion,                                   // 1
+        String fingerprint,                                 // 2    Build.FINGERPRINT when probed
+        String encoderName,                                 // 3    null if no encoder could be started
+        int bitrateMode,                                    // 4    BITRATE_MODE_AUTO if the default works
+        Set<VideoPreset.Resolution> supportedResolutions,   // 5    packed ordinals
+        int maxLevel,                                       // 6    highest avc baseline level, 0 if unknown
+        boolean openGLFrameCopierWorks,                     // 7
+        boolean hevcHardwareEncoder                         // 8    there's a hardware hevc encoder, software ones can't keep up
+) implements ProtoWritable {
+    private static final String TAG = EncoderCapabilities.class.getSimpleName();
+
+    // bump when the probe changes, so results from older versions are thrown out
+    public static final int PROBE_VERSION = 2;
+
+    /**
+     * @return true if this was probed with the current probe on the current os build
+     */
+    public boolean isCurrent() {
+        return probeVersion == PROBE_VERSION && Build.FINGERPRINT.equals(fingerprint);
+    }
+
+    /**
+     * @return true if the probed encoder can be used with the given bitrate mode setting
+     */
+    public boolean canUseEncoder(int bitrateMode) {
+        if (encoderName == null) return false;
+        return bitrateMode == VideoEncoder.BITRATE_MODE_AUTO || bitrateMode == bitrateMode();
+    }
+
+    public boolean isResolutionSupported(VideoPreset.Resolution resolution) {
+        return supportedResolutions.contains(resolution);
+    }
+
+    private long[] resolutionOrdinals() {
+        long[] ordinals = new long[supportedResolutions.size()];
+        int i = 0;
+        for (VideoPreset.Resolution resolution : supportedResolutions)
+            ordinals[i++] = resolution.ordinal();
+        return ordinals;
+    }
+
+    @Override
+    public int encodedLength() {
+        int length = ProtoWriter.varIntFieldSize(1, probeVersion())
+                + ProtoWriter.varDataFieldSize(2, fingerprint().getBytes(StandardCharsets.UTF_8).length)
+                + ProtoWriter.varIntFieldSize(4, bitrateMode())
+                + ProtoWriter.packedVarIntsFieldSize(5, resolutionOrdinals())
+                + ProtoWriter.varIntFieldSize(6, maxLevel())
+                + ProtoWriter.boolFieldSize(7)
+                + ProtoWriter.boolFieldSize(8);
+        if (encoderName() != null)
+            length += ProtoWriter.varDataFieldSize(3, encoderName().getBytes(StandardCharsets.UTF_8).length);
+        return length;
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.varInt(1, probeVersion())
+                .varData(2, fingerprint().getBytes(StandardCharsets.UTF_8));
+        if (encoderName() != null)
+            writer.varData(3, encoderName().getBytes(StandardCharsets.UTF_8));
+        writer.varInt(4, bitrateMode())
+                .packedVarInts(5, resolutionOrdinals())
+                .varInt(6, maxLevel())
+                .bool(7, openGLFrameCopierWorks())
+                .bool(8, hevcHardwareEncoder());
+    }
+
+    public static EncoderCapabilities parse(byte[] buffer, int offset, int length) {
+        try {
+            ProtoReader reader = new ProtoReader(buffer, offset, length);
+            int probeVersion = 0;
+            String fingerprint = "";
+            String encoderName = null;
+            int bitrateMode = VideoEncoder.BITRATE_MODE_AUTO;
+            Set<VideoPreset.Resolution> supportedResolutions = EnumSet.noneOf(VideoPreset.Resolution.class);
+            int maxLevel = 0;
+            boolean openGLFrameCopierWorks = false;
+            boolean hevcHardwareEncoder = false;
+
+            while (reader.next()) {
+                switch (reader.fieldId()) {
+                    case 1 -> probeVersion = reader.int32();
+                    case 2 -> fingerprint = reader.string();
+                    case 3 -> encoderName = reader.string();
+                    case 4 -> bitrateMode = reader.int32();
+                    case 5 -> {
+                        int[] ordinals = new int[reader.packedCount()];
+                        reader.readPackedInt32(ordinals, 0);
+                        for (int ordinal : ordinals) {
+                            if (ordinal < 0 || ordinal >= VideoPreset.Resolution.values().length) continue;
+                            supportedResolutions.add(VideoPreset.Resolution.values()[ordinal]);
+                        }
+                    }
+                    case 6 -> maxLevel = reader.int32();
+                    case 7 -> openGLFrameCopierWorks = reader.bool();
+                    case 8 -> hevcHardwareEncoder = reader.bool();
+                }
+            }
+
+            return new EncoderCapabilities(probeVersion, fingerprint, encoderName, bitrateMode, supportedResolutions, maxLevel, openGLFrameCopierWorks, hevcHardwareEncoder);
+        } catch (Throwable t) {
+            Log.wtf(TAG, "failed to parse EncoderCapabilities: " + Base64.encodeToString(buffer, offset, length, 0), t);
+            return null;
+        }
+    }
+}
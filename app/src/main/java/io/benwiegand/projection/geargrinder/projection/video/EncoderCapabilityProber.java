@@ -0,0 +1,157 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import io.benwiegand.projection.geargrinder.proto.data.readable.av.preset.VideoPreset;
+import io.benwiegand.projection.geargrinder.settings.SettingsManager;
+
+/**
+ * finds out what the video encoder can do ahead of time, so a session can start with a working configuration on the first try.
+ * the results are saved and only probed again after an os update (or a change to the probe).
+ */
+public class EncoderCapabilityProber {
+    private static final String TAG = EncoderCapabilityProber.class.getSimpleName();
+
+    // the encoder is test started with this, it should work pretty much anywhere
+    private static final VideoPreset.Resolution PROBE_RESOLUTION = VideoPreset.Resolution.RES_480P;
+    private static final int PROBE_FRAME_RATE = 30;
+    private static final int PROBE_BITRATE = 2_000_000;
+
+    /**
+     * probes on a background thread, unless there are already results for this os build
+     */
+    public static void probeIfNeeded(SettingsManager settingsManager) {
+        EncoderCapabilities saved = settingsManager.getEncoderCapabilities();
+        if (saved != null && saved.isCurrent()) {
+            Log.d(TAG, "encoder capabilities are up to date: " + saved);
+            return;
+        }
+
+        Log.i(TAG, saved == null ? "no encoder capabilities saved, probing" : "encoder capabilities are stale, probing");
+        Thread thread = new Thread(() -> {
+            EncoderCapabilities capabilities = probe();
+            if (!settingsManager.saveEncoderCapabilities(capabilities))
+                Log.e(TAG, "failed to save encoder capabilities");
+        }, TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * probes the encoder, this blocks for a bit while the encoder and OpenGL are started up
+     */
+    public static EncoderCapabilities probe() {
+        long startTime = SystemClock.elapsedRealtime();
+
+        MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        MediaFormat format = VideoEncoder.createFormat(
+                MediaFormat.MIMETYPE_VIDEO_AVC,
+                PROBE_RESOLUTION.width(),
+                PROBE_RESOLUTION.height(),
+                PROBE_FRAME_RATE,
+                VideoEncoder.BITRATE_MODE_AUTO,
+                PROBE_BITRATE,
+                0);
+
+        String codecName = VideoEncoder.findEncoder(codecList, format, VideoEncoder.BITRATE_MODE_AUTO);
+        int bitrateMode = format.containsKey(MediaFormat.KEY_BITRATE_MODE)
+                ? format.getInteger(MediaFormat.KEY_BITRATE_MODE)
+                : VideoEncoder.BITRATE_MODE_AUTO;
+
+        // if the encoder doesn't say, don't rule anything out
+        Set<VideoPreset.Resolution> supportedResolutions = EnumSet.allOf(VideoPreset.Resolution.class);
+        int maxLevel = 0;
+        boolean openGLFrameCopierWorks = false;
+        boolean hevcHardwareEncoder = VideoEncoder.hasHardwareEncoder(codecList, MediaFormat.MIMETYPE_VIDEO_HEVC);
+
+        MediaCodecInfo.CodecCapabilities codecCapabilities = codecName == null ? null : getCodecCapabilities(codecList, codecName);
+        if (codecCapabilities != null) {
+            MediaCodecInfo.VideoCapabilities videoCapabilities = codecCapabilities.getVideoCapabilities();
+            if (videoCapabilities != null) {
+                supportedResolutions.clear();
+                for (VideoPreset.Resolution resolution : VideoPreset.Resolution.values()) {
+                    if (videoCapabilities.isSizeSupported(resolution.width(), resolution.height()))
+                        supportedResolutions.add(resolution);
+                }
+            }
+
+            for (MediaCodecInfo.CodecProfileLevel profileLevel : codecCapabilities.profileLevels) {
+                if (profileLevel.profile != MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline) continue;
+                maxLevel = Math.max(maxLevel, profileLevel.level);
+            }
+        }
+
+        // some encoders claim to support formats they can't actually be configured with
+        if (codecName != null) {
+            MediaCodec encoder = null;
+            Surface surface = null;
+            try {
+                encoder = MediaCodec.createByCodecName(codecName);
+                encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                surface = encoder.createInputSurface();
+                encoder.start();
+
+                openGLFrameCopierWorks = probeOpenGLFrameCopier(surface);
+
+                encoder.stop();
+            } catch (Throwable t) {
+                Log.e(TAG, "encoder failed to start: " + codecName, t);
+                codecName = null;
+            } finally {
+                if (encoder != null) encoder.release();
+                if (surface != null) surface.release();
+            }
+        } else {
+            Log.e(TAG, "couldn't find encoder");
+        }
+
+        EncoderCapabilities capabilities = new EncoderCapabilities(
+                EncoderCapabilities.PROBE_VERSION,
+                Build.FINGERPRINT,
+                codecName,
+                bitrateMode,
+                supportedResolutions,
+                maxLevel,
+                openGLFrameCopierWorks,
+                hevcHardwareEncoder);
+
+        Log.i(TAG, "probed encoder capabilities in " + (SystemClock.elapsedRealtime() - startTime) + " ms: " + capabilities);
+        return capabilities;
+    }
+
+    private static MediaCodecInfo.CodecCapabilities getCodecCapabilities(MediaCodecList codecList, String codecName) {
+        for (MediaCodecInfo codecInfo : codecList.getCodecInfos()) {
+            if (!codecInfo.getName().equals(codecName)) continue;
+            try {
+                return codecInfo.getCapabilitiesForType(MediaFormat.MIMETYPE_VIDEO_AVC);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "no avc capabilities for " + codecName, e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean probeOpenGLFrameCopier(Surface surface) {
+        FrameCopier frameCopier = new OpenGLFrameCopier(PROBE_RESOLUTION.width(), PROBE_RESOLUTION.height(), surface);
+        try {
+            frameCopier.init();
+            return true;
+        } catch (Throwable t) {
+            Log.w(TAG, "OpenGLFrameCopier failed to init", t);
+            return false;
+        } finally {
+            frameCopier.destroy();
+        }
+    }
+}
@@ -13,4 +13,40 @@ public interface FrameCopier {
     int nextFrameNumber();
     int copyFrame();
 
+    /**
+     * like {@link FrameCopier#copyFrame()}, but doesn't wait for the copy to finish
+     * @return the number of the frame that will be copied
+     */
+    int requestFrame();
+
+    /**
+     * @return when the latest input frame was produced, on the System.nanoTime() clock. 0 if unknown.
+     */
+    long lastFrameTimestamp();
+
+    /**
+     * an extra input drawn over the main one
+     */
+    interface Layer {
+
+        Surface getSurface();
+
+        /**
+         * moves the layer, and sizes its buffers to match
+         * @param x left edge on the output, in pixels from the left
+         * @param y top edge on the output, in pixels from the top
+         */
+        void setBounds(int x, int y, int width, int height);
+
+        void release();
+
+    }
+
+    /**
+     * @return a new layer, drawn over the main input and any layers created before it, or null if layers aren't supported
+     */
+    default Layer createLayer() {
+        return null;
+    }
+
 }
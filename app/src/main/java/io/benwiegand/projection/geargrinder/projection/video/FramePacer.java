@@ -0,0 +1,93 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import android.util.Log;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * schedules frame captures at a fixed rate on the nanosecond clock.
+ * deadlines are spaced from the previous deadline rather than from when the last frame was actually captured, so scheduler noise doesn't add up into drift.
+ * if the caller falls more than a frame behind, the missed deadlines are skipped instead of captured back to back.
+ * the schedule can also be pulled towards when frames actually show up on the virtual display, so each capture picks up a fresh frame.
+ */
+public class FramePacer {
+    private static final String TAG = FramePacer.class.getSimpleName();
+
+    private static final boolean LOG_PACING_DEBUG = false;
+
+    // how far behind a frame arrival to schedule a capture, so the copy doesn't race the frame it's meant to pick up
+    private static final long ARRIVAL_CAPTURE_DELAY_NS = 1_000_000;     // 1 ms
+
+    // fraction of the phase error corrected per frame arrival, low enough to ride out jittery arrivals
+    private static final float ARRIVAL_PHASE_GAIN = 0.1f;
+
+    private final long frameIntervalNs;
+
+    private long nextDeadline;
+    private long lastArrivalTimestamp = 0;
+
+    public FramePacer(int frameRate) {
+        assert frameRate > 0;
+        frameIntervalNs = 1_000_000_000L / frameRate;
+        reset();
+    }
+
+    /**
+     * starts a new schedule with the first deadline now
+     */
+    public void reset() {
+        nextDeadline = System.nanoTime();
+    }
+
+    public long getFrameIntervalNs() {
+        return frameIntervalNs;
+    }
+
+    /**
+     * @return when the next frame is due on the System.nanoTime() clock
+     */
+    long getNextDeadline() {
+        return nextDeadline;
+    }
+
+    /**
+     * waits for the next frame deadline
+     * @return the number of deadlines that were missed and skipped
+     */
+    public int awaitNextFrame() throws InterruptedException {
+        long now = System.nanoTime();
+        int skipped = 0;
+
+        long late = now - nextDeadline;
+        if (late >= frameIntervalNs) {
+            // too far behind to catch up, capture now and continue the schedule from the next deadline after this
+            skipped = (int) (late / frameIntervalNs);
+            nextDeadline += skipped * frameIntervalNs;
+            if (LOG_PACING_DEBUG) Log.d(TAG, "late by " + late / 1000 + " us, skipping " + skipped + " frames");
+        }
+
+        long wait;
+        while ((wait = nextDeadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+
+        nextDeadline += frameIntervalNs;
+        return skipped;
+    }
+
+    /**
+     * nudges the schedule so captures happen just after frames arrive
+     * @param timestamp when the latest frame arrived on the System.nanoTime() clock, 0 if unknown
+     */
+    public void onFrameArrival(long timestamp) {
+        if (timestamp == 0 || timestamp == lastArrivalTimestamp) return;
+        lastArrivalTimestamp = timestamp;
+
+        // phase error between the ideal capture time and the next deadline, wrapped to half a frame either way
+        long error = Math.floorMod(timestamp + ARRIVAL_CAPTURE_DELAY_NS - nextDeadline, frameIntervalNs);
+        if (error > frameIntervalNs / 2) error -= frameIntervalNs;
+
+        nextDeadline += (long) (error * ARRIVAL_PHASE_GAIN);
+    }
+}
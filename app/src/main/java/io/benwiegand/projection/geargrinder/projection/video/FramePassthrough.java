@@ -38,4 +38,15 @@ public class FramePassthrough implements FrameCopier {
     public int copyFrame() {
         return frameCounter++;
     }
+
+    @Override
+    public int requestFrame() {
+        return copyFrame();
+    }
+
+    @Override
+    public long lastFrameTimestamp() {
+        // frames go straight to the encoder
+        return 0;
+    }
 }
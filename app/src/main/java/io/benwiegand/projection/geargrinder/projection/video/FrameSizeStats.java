@@ -0,0 +1,84 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * tracks how much encoded frame sizes vary, to see how bursty the video stream is.
+ * I frames show up as big spikes over the mean, which should mostly go away with intra refresh.
+ * stats are kept over a window, which is logged and started over every {@link FrameSizeStats#WINDOW_LENGTH} ms.
+ */
+public class FrameSizeStats {
+    private static final String TAG = FrameSizeStats.class.getSimpleName();
+
+    private static final long WINDOW_LENGTH = 10000;
+
+    public record Summary(
+            int frames,
+            int keyFrames,
+            double mean,            // bytes
+            double stdDev,          // bytes
+            int max                 // bytes
+    ) {
+        /**
+         * @return how many times bigger the biggest frame was than the mean, 0 if there were no frames
+         */
+        public double peakToMean() {
+            return mean > 0 ? max / mean : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d frames (%d key), mean = %.0f B, stddev = %.0f B (cv %.2f), max = %d B (%.1fx mean)",
+                    frames, keyFrames, mean, stdDev, mean > 0 ? stdDev / mean : 0, max, peakToMean());
+        }
+    }
+
+    private long windowStart = SystemClock.elapsedRealtime();
+
+    // running mean and variance (welford's method)
+    private int frames = 0;
+    private int keyFrames = 0;
+    private double mean = 0;
+    private double m2 = 0;
+    private int max = 0;
+
+    private volatile Summary lastSummary = null;
+
+    public void onFrame(int size, boolean keyFrame) {
+        onFrame(size, keyFrame, SystemClock.elapsedRealtime());
+    }
+
+    void onFrame(int size, boolean keyFrame, long now) {
+        frames++;
+        if (keyFrame) keyFrames++;
+        double delta = size - mean;
+        mean += delta / frames;
+        m2 += delta * (size - mean);
+        max = Math.max(max, size);
+
+        if (now - windowStart < WINDOW_LENGTH) return;
+
+        lastSummary = summarize();
+        Log.i(TAG, "frame sizes over the last " + (now - windowStart) + " ms: " + lastSummary);
+
+        windowStart = now;
+        frames = 0;
+        keyFrames = 0;
+        mean = 0;
+        m2 = 0;
+        max = 0;
+    }
+
+    private Summary summarize() {
+        double variance = frames > 1 ? m2 / (frames - 1) : 0;
+        return new Summary(frames, keyFrames, mean, Math.sqrt(variance), max);
+    }
+
+    /**
+     * @return the stats of the last full window, or null if there hasn't been one yet
+     */
+    public Summary getLastSummary() {
+        return lastSummary;
+    }
+}
@@ -15,9 +15,13 @@ import android.view.Surface;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 /**
- * GLES/EGL frame copier/limiter
+ * GLES/EGL frame copier/limiter.
+ * extra layers can be drawn over the main input, so virtual activities don't have to be composited into the projection display first.
  */
 public class OpenGLFrameCopier implements FrameCopier {
     private static final String TAG = OpenGLFrameCopier.class.getSimpleName();
@@ -90,6 +94,77 @@ public class OpenGLFrameCopier implements FrameCopier {
     private boolean dead = false;
 
     private int frameNumber = 0;
+    private volatile long lastFrameTimestamp = 0;
+
+    // guarded by lock, drawn in order over the main input
+    private final List<CompositorLayer> layers = new ArrayList<>();
+    private boolean layersChanged = false;
+
+    private final class CompositorLayer implements Layer {
+        private final SurfaceTexture surfaceTexture;
+        private final Surface surface;
+        private final float[] matrix = new float[16];
+
+        // render thread only, 0 until attached to the GL context
+        private int tex = 0;
+
+        // guarded by lock
+        private int x = 0;
+        private int y = 0;
+        private int width = 0;
+        private int height = 0;
+        private boolean frameAvailable = false;
+        private boolean hasFrame = false;
+        private boolean released = false;
+
+        private CompositorLayer() {
+            // created detached, the render thread attaches it to its context
+            surfaceTexture = new SurfaceTexture(false);
+            surfaceTexture.setOnFrameAvailableListener(st -> onLayerFrameAvailable(this));
+            surface = new Surface(surfaceTexture);
+        }
+
+        @Override
+        public Surface getSurface() {
+            return surface;
+        }
+
+        @Override
+        public void setBounds(int x, int y, int width, int height) {
+            synchronized (lock) {
+                if (released) return;
+                if (this.x == x && this.y == y && this.width == width && this.height == height) return;
+                this.x = x;
+                this.y = y;
+                this.width = width;
+                this.height = height;
+
+                if (width > 0 && height > 0)
+                    surfaceTexture.setDefaultBufferSize(width, height);
+
+                layersChanged = true;
+                lock.notify();
+            }
+        }
+
+        @Override
+        public void release() {
+            synchronized (lock) {
+                if (released) return;
+                released = true;
+
+                if (dead) {
+                    // nothing left to clean up after it
+                    surface.release();
+                    surfaceTexture.release();
+                    return;
+                }
+
+                layersChanged = true;
+                lock.notify();
+            }
+        }
+    }
 
     public OpenGLFrameCopier(int width, int height, Surface outputSurface) {
         this.width = width;
@@ -242,10 +317,7 @@ public class OpenGLFrameCopier implements FrameCopier {
 
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, tex);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        setTextureParameters();
 
         GLES20.glUniform1i(uTexture, 0);
         checkErrorGL();
@@ -306,6 +378,89 @@ public class OpenGLFrameCopier implements FrameCopier {
         }
     }
 
+    @Override
+    public int requestFrame() {
+        synchronized (lock) {
+            if (dead) throw new IllegalStateException("frame copier is dead");
+            copyFrame = true;
+            lock.notify();
+
+            // the render thread picks up the pending frame before copying
+            if (!hasPendingFrameLocked()) return frameNumber;
+            return frameNumber + 1 == Integer.MAX_VALUE ? 0 : frameNumber + 1;
+        }
+    }
+
+    @Override
+    public long lastFrameTimestamp() {
+        return lastFrameTimestamp;
+    }
+
+    @Override
+    public Layer createLayer() {
+        synchronized (lock) {
+            if (dead) throw new IllegalStateException("frame copier is dead");
+            CompositorLayer layer = new CompositorLayer();
+            layers.add(layer);
+            layersChanged = true;
+            lock.notify();
+            return layer;
+        }
+    }
+
+    /**
+     * attaches new layers to the GL context, and cleans up released ones
+     */
+    private void updateLayers() {
+        Iterator<CompositorLayer> iter = layers.iterator();
+        while (iter.hasNext()) {
+            CompositorLayer layer = iter.next();
+
+            if (layer.released) {
+                iter.remove();
+                if (layer.tex != 0) layer.surfaceTexture.detachFromGLContext();    // also deletes the texture
+                layer.surface.release();
+                layer.surfaceTexture.release();
+                continue;
+            }
+
+            if (layer.tex != 0) continue;
+
+            int[] texArray = new int[1];
+            GLES20.glGenTextures(1, texArray, 0);
+            checkErrorGL();
+
+            layer.surfaceTexture.attachToGLContext(texArray[0]);
+            layer.tex = texArray[0];
+            setTextureParameters();
+        }
+    }
+
+    private static void setTextureParameters() {
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    }
+
+    /**
+     * draws a texture into a rectangle of the output, with the origin at the top left like everything else
+     */
+    private void drawTexture(int texture, float[] texMatrix, int x, int y, int width, int height) {
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texture);
+        GLES20.glViewport(x, this.height - y - height, width, height);
+        GLES20.glUniformMatrix4fv(uTexMatrix, 1, false, texMatrix, 0);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    }
+
+    private boolean hasPendingFrameLocked() {
+        if (nextFrameAvailable || layersChanged) return true;
+        for (CompositorLayer layer : layers) {
+            if (layer.frameAvailable) return true;
+        }
+        return false;
+    }
+
     private void renderLoop() {
         // everything needs to happen on the same thread
         synchronized (lock) {
@@ -323,14 +478,37 @@ public class OpenGLFrameCopier implements FrameCopier {
                 }
 
                 while (!dead) {
+                    // any layer changing counts as a new frame, so the output only stops changing once every layer has
+                    boolean newFrame = false;
+
+                    if (layersChanged) {
+                        updateLayers();
+                        layersChanged = false;
+                        newFrame = true;
+                    }
+
                     if (nextFrameAvailable) {
                         surfaceTexture.updateTexImage();
                         surfaceTexture.getTransformMatrix(matrix);
+                        lastFrameTimestamp = surfaceTexture.getTimestamp();
 
-                        if (++frameNumber == Integer.MAX_VALUE) frameNumber = 0;
                         nextFrameAvailable = false;
+                        newFrame = true;
                     }
 
+                    for (CompositorLayer layer : layers) {
+                        if (!layer.frameAvailable) continue;
+                        layer.surfaceTexture.updateTexImage();
+                        layer.surfaceTexture.getTransformMatrix(layer.matrix);
+                        lastFrameTimestamp = Math.max(lastFrameTimestamp, layer.surfaceTexture.getTimestamp());
+
+                        layer.frameAvailable = false;
+                        layer.hasFrame = true;
+                        newFrame = true;
+                    }
+
+                    if (newFrame && ++frameNumber == Integer.MAX_VALUE) frameNumber = 0;
+
                     if (copyFrame) {
                         GLES20.glUseProgram(program);
 
@@ -343,9 +521,13 @@ public class OpenGLFrameCopier implements FrameCopier {
                         GLES20.glEnableVertexAttribArray(aTexCoord);
                         GLES20.glVertexAttribPointer(aTexCoord, 2, GLES20.GL_FLOAT, false, 0, texBuffer);
 
-                        GLES20.glUniformMatrix4fv(uTexMatrix, 1, false, matrix, 0);
+                        drawTexture(tex, matrix, 0, 0, width, height);
 
-                        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+                        // layers without a frame yet leave whatever the main input has there
+                        for (CompositorLayer layer : layers) {
+                            if (!layer.hasFrame || layer.width <= 0 || layer.height <= 0) continue;
+                            drawTexture(layer.tex, layer.matrix, layer.x, layer.y, layer.width, layer.height);
+                        }
 
                         EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, System.nanoTime());
                         EGL14.eglSwapBuffers(eglDisplay, eglSurface);
@@ -374,4 +556,12 @@ public class OpenGLFrameCopier implements FrameCopier {
             lock.notify();
         }
     }
+
+    private void onLayerFrameAvailable(CompositorLayer layer) {
+        synchronized (lock) {
+            if (layer.released) return;
+            layer.frameAvailable = true;
+            lock.notify();
+        }
+    }
 }
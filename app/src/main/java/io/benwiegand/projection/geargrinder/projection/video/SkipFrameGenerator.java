@@ -0,0 +1,400 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * builds H.264 P frames where every macroblock is skipped, so the headunit's decoder just shows the last picture again.
+ * these are a few bytes each, and cost nothing to make compared to encoding a duplicate frame.
+ * <p>
+ * the parameters come from the SPS and PPS the encoder puts out, and the numbering carries on from the last frame it produced.
+ * the skip frames are reference frames, so the encoder's next frame doesn't fit after them and has to be an IDR frame.
+ * only what baseline encoders put out is supported: CAVLC, one slice group, no weighted prediction, and picture order count type 0 or 2.
+ */
+public class SkipFrameGenerator {
+    private static final String TAG = SkipFrameGenerator.class.getSimpleName();
+
+    private static final int NAL_TYPE_SLICE = 1;
+    private static final int NAL_TYPE_IDR_SLICE = 5;
+    private static final int NAL_TYPE_SPS = 7;
+    private static final int NAL_TYPE_PPS = 8;
+
+    private static final int SLICE_TYPE_P_ONLY = 5;     // P, and every other slice in the picture is too
+
+    // enough for any of the headers this looks at
+    private static final int MAX_HEADER_LENGTH = 256;
+    public static final int MAX_FRAME_LENGTH = 64;
+
+    private final byte[] headerBuffer = new byte[MAX_HEADER_LENGTH];
+
+    // sps
+    private boolean spsValid = false;
+    private int spsId;
+    private int log2MaxFrameNum;
+    private int picOrderCntType;
+    private int log2MaxPicOrderCntLsb;
+    private boolean frameMbsOnly;
+    private int picSizeInMbs;
+
+    // pps
+    private boolean ppsValid = false;
+    private int ppsId;
+    private boolean bottomFieldPicOrderInFramePresent;
+    private boolean deblockingFilterControlPresent;
+    private boolean redundantPicCntPresent;
+
+    // last frame
+    private boolean frameValid = false;
+    private int nalRefIdc;
+    private int frameNum;
+    private int picOrderCntLsb;
+
+    /**
+     * reads whatever is useful out of the headers of an encoded buffer, either the codec config or a frame.
+     * the buffer isn't advanced.
+     */
+    public void onEncodedBuffer(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        int nalStart = findNalStart(buffer, buffer.position(), limit);
+        while (nalStart >= 0) {
+            // only the start of each nal is parsed, never the picture data
+            int headerEnd = Math.min(limit, nalStart + MAX_HEADER_LENGTH);
+
+            int nalType = buffer.get(nalStart) & 0x1f;
+            if (nalType == NAL_TYPE_SLICE || nalType == NAL_TYPE_IDR_SLICE) {
+                // the first slice has everything needed, and the rest of the buffer is picture data, so there's no need to look for the end of it
+                parseSliceHeader(buffer, nalStart, headerEnd);
+                return;
+            }
+
+            // anything before the first slice is small (parameter sets, sei, delimiters)
+            int nextNalStart = findNalStart(buffer, nalStart, limit);
+            // the start code and any trailing zeros before it don't matter here
+            int nalEnd = Math.min(headerEnd, nextNalStart >= 0 ? nextNalStart - 3 : limit);
+
+            switch (nalType) {
+                case NAL_TYPE_SPS -> parseSps(buffer, nalStart, nalEnd);
+                case NAL_TYPE_PPS -> parsePps(buffer, nalStart, nalEnd);
+            }
+
+            nalStart = nextNalStart;
+        }
+    }
+
+    public boolean canGenerate() {
+        return spsValid && ppsValid && frameValid;
+    }
+
+    /**
+     * writes the next skip frame, with a start code
+     * @param out at least {@link SkipFrameGenerator#MAX_FRAME_LENGTH} bytes
+     * @return the length of the frame
+     */
+    public int generate(byte[] out) {
+        if (!canGenerate()) throw new IllegalStateException("no stream to continue");
+
+        frameNum = (frameNum + 1) & ((1 << log2MaxFrameNum) - 1);
+        picOrderCntLsb = (picOrderCntLsb + 2) & ((1 << log2MaxPicOrderCntLsb) - 1);
+
+        BitWriter writer = new BitWriter(headerBuffer);
+        writer.writeBits(nalRefIdc << 5 | NAL_TYPE_SLICE, 8);
+
+        // slice header
+        writer.writeUe(0);                      // first_mb_in_slice
+        writer.writeUe(SLICE_TYPE_P_ONLY);      // slice_type
+        writer.writeUe(ppsId);                  // pic_parameter_set_id
+        writer.writeBits(frameNum, log2MaxFrameNum);
+        if (!frameMbsOnly) writer.writeBits(0, 1);  // field_pic_flag
+        if (picOrderCntType == 0) {
+            writer.writeBits(picOrderCntLsb, log2MaxPicOrderCntLsb);
+            if (bottomFieldPicOrderInFramePresent) writer.writeSe0();   // delta_pic_order_cnt_bottom
+        }
+        if (redundantPicCntPresent) writer.writeUe(0);  // redundant_pic_cnt
+        writer.writeBits(0, 1);                 // num_ref_idx_active_override_flag
+        writer.writeBits(0, 1);                 // ref_pic_list_modification_flag_l0
+        writer.writeBits(0, 1);                 // adaptive_ref_pic_marking_mode_flag, nal_ref_idc is never 0 here
+        writer.writeSe0();                      // slice_qp_delta
+        if (deblockingFilterControlPresent) writer.writeUe(1);  // disable_deblocking_filter_idc, nothing to filter
+
+        // slice data
+        writer.writeUe(picSizeInMbs);           // mb_skip_run
+        writer.writeTrailingBits();
+
+        return escape(headerBuffer, writer.length(), out);
+    }
+
+    /**
+     * finds the next NAL unit after the given index
+     * @return the index of the NAL unit header, or -1 if there are no more
+     */
+    private static int findNalStart(ByteBuffer buffer, int index, int limit) {
+        for (int i = index; i + 2 < limit; i++) {
+            if ((buffer.get(i + 2) & 0xff) > 1) {
+                i += 2;
+                continue;
+            }
+            if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1)
+                return i + 3 < limit ? i + 3 : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * copies the start of a NAL unit without its emulation prevention bytes
+     * @return a reader for the payload after the NAL header
+     */
+    private BitReader unescape(ByteBuffer buffer, int nalStart, int nalEnd) {
+        int length = 0;
+        int zeros = 0;
+        for (int i = nalStart + 1; i < nalEnd && length < headerBuffer.length; i++) {
+            byte b = buffer.get(i);
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            headerBuffer[length++] = b;
+        }
+        return new BitReader(headerBuffer, length);
+    }
+
+    /**
+     * adds emulation prevention bytes and a start code
+     * @return the escaped length
+     */
+    private static int escape(byte[] in, int length, byte[] out) {
+        int index = 0;
+        out[index++] = 0;
+        out[index++] = 0;
+        out[index++] = 0;
+        out[index++] = 1;
+
+        int zeros = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = in[i];
+            if (zeros >= 2 && (b & 0xff) <= 3) {
+                out[index++] = 3;
+                zeros = 0;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            out[index++] = b;
+        }
+        return index;
+    }
+
+    private static boolean isHighProfile(int profileIdc) {
+        return switch (profileIdc) {
+            case 100, 110, 122, 244, 44, 83, 86, 118, 128, 138, 139, 134, 135 -> true;
+            default -> false;
+        };
+    }
+
+    private static void skipScalingList(BitReader reader, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int i = 0; i < size; i++) {
+            if (nextScale != 0) nextScale = (lastScale + reader.readSe() + 256) % 256;
+            if (nextScale != 0) lastScale = nextScale;
+        }
+    }
+
+    private void parseSps(ByteBuffer buffer, int nalStart, int nalEnd) {
+        spsValid = false;
+        frameValid = false;
+        try {
+            BitReader reader = unescape(buffer, nalStart, nalEnd);
+            int profileIdc = reader.readBits(8);
+            reader.readBits(16);    // constraint flags, level_idc
+            spsId = reader.readUe();
+
+            if (isHighProfile(profileIdc)) {
+                int chromaFormatIdc = reader.readUe();
+                if (chromaFormatIdc == 3 && reader.readBits(1) != 0) {
+                    Log.w(TAG, "separate colour planes not supported");
+                    return;
+                }
+                reader.readUe();        // bit_depth_luma_minus8
+                reader.readUe();        // bit_depth_chroma_minus8
+                reader.readBits(1);     // qpprime_y_zero_transform_bypass_flag
+                if (reader.readBits(1) != 0) {  // seq_scaling_matrix_present_flag
+                    int lists = chromaFormatIdc != 3 ? 8 : 12;
+                    for (int i = 0; i < lists; i++) {
+                        if (reader.readBits(1) != 0) skipScalingList(reader, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+
+            log2MaxFrameNum = reader.readUe() + 4;
+            picOrderCntType = reader.readUe();
+            if (picOrderCntType == 0) {
+                log2MaxPicOrderCntLsb = reader.readUe() + 4;
+            } else if (picOrderCntType != 2) {
+                Log.w(TAG, "picture order count type " + picOrderCntType + " not supported");
+                return;
+            }
+
+            reader.readUe();            // max_num_ref_frames
+            reader.readBits(1);         // gaps_in_frame_num_value_allowed_flag
+            int picWidthInMbs = reader.readUe() + 1;
+            int picHeightInMapUnits = reader.readUe() + 1;
+            frameMbsOnly = reader.readBits(1) != 0;
+            picSizeInMbs = picWidthInMbs * picHeightInMapUnits * (frameMbsOnly ? 1 : 2);
+
+            spsValid = true;
+        } catch (IndexOutOfBoundsException e) {
+            Log.w(TAG, "SPS truncated", e);
+        }
+    }
+
+    private void parsePps(ByteBuffer buffer, int nalStart, int nalEnd) {
+        ppsValid = false;
+        frameValid = false;
+        try {
+            BitReader reader = unescape(buffer, nalStart, nalEnd);
+            ppsId = reader.readUe();
+            if (reader.readUe() != spsId) {
+                Log.w(TAG, "PPS refers to an unknown SPS");
+                return;
+            }
+
+            if (reader.readBits(1) != 0) {
+                Log.w(TAG, "CABAC not supported");
+                return;
+            }
+
+            bottomFieldPicOrderInFramePresent = reader.readBits(1) != 0;
+            if (reader.readUe() != 0) {
+                Log.w(TAG, "slice groups not supported");
+                return;
+            }
+
+            reader.readUe();            // num_ref_idx_l0_default_active_minus1
+            reader.readUe();            // num_ref_idx_l1_default_active_minus1
+            if (reader.readBits(1) != 0) {
+                Log.w(TAG, "weighted prediction not supported");
+                return;
+            }
+
+            reader.readBits(2);         // weighted_bipred_idc
+            reader.readSe();            // pic_init_qp_minus26
+            reader.readSe();            // pic_init_qs_minus26
+            reader.readSe();            // chroma_qp_index_offset
+            deblockingFilterControlPresent = reader.readBits(1) != 0;
+            reader.readBits(1);         // constrained_intra_pred_flag
+            redundantPicCntPresent = reader.readBits(1) != 0;
+
+            ppsValid = true;
+        } catch (IndexOutOfBoundsException e) {
+            Log.w(TAG, "PPS truncated", e);
+        }
+    }
+
+    private void parseSliceHeader(ByteBuffer buffer, int nalStart, int nalEnd) {
+        frameValid = false;
+        if (!spsValid || !ppsValid) return;
+
+        int nalHeader = buffer.get(nalStart) & 0xff;
+        nalRefIdc = (nalHeader >> 5) & 0x3;
+        boolean idr = (nalHeader & 0x1f) == NAL_TYPE_IDR_SLICE;
+
+        // the sliding window only works out if the last frame is a reference too
+        if (nalRefIdc == 0) return;
+
+        try {
+            BitReader reader = unescape(buffer, nalStart, nalEnd);
+            reader.readUe();            // first_mb_in_slice
+            reader.readUe();            // slice_type
+            if (reader.readUe() != ppsId) return;
+
+            frameNum = reader.readBits(log2MaxFrameNum);
+            if (!frameMbsOnly && reader.readBits(1) != 0) return;   // field_pic_flag
+            if (idr) reader.readUe();   // idr_pic_id
+            picOrderCntLsb = picOrderCntType == 0 ? reader.readBits(log2MaxPicOrderCntLsb) : 0;
+
+            frameValid = true;
+        } catch (IndexOutOfBoundsException e) {
+            Log.w(TAG, "slice header truncated", e);
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] buffer;
+        private final int length;
+        private int bitIndex = 0;
+
+        private BitReader(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+        private int readBit() {
+            int byteIndex = bitIndex >> 3;
+            if (byteIndex >= length) throw new IndexOutOfBoundsException("read past end of header");
+            int bit = (buffer[byteIndex] >> (7 - (bitIndex & 7))) & 1;
+            bitIndex++;
+            return bit;
+        }
+
+        private int readBits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++)
+                value = value << 1 | readBit();
+            return value;
+        }
+
+        private int readUe() {
+            int leadingZeros = 0;
+            while (readBit() == 0) {
+                if (++leadingZeros > 31) throw new IndexOutOfBoundsException("invalid exp-golomb code");
+            }
+            return (int) ((1L << leadingZeros) - 1 + readBits(leadingZeros));
+        }
+
+        private int readSe() {
+            int codeNum = readUe();
+            return (codeNum & 1) != 0 ? (codeNum + 1) / 2 : -(codeNum / 2);
+        }
+    }
+
+    private static final class BitWriter {
+        private final byte[] buffer;
+        private int bitIndex = 0;
+
+        private BitWriter(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private void writeBit(int bit) {
+            int byteIndex = bitIndex >> 3;
+            int shift = 7 - (bitIndex & 7);
+            if (shift == 7) buffer[byteIndex] = 0;
+            buffer[byteIndex] |= (byte) ((bit & 1) << shift);
+            bitIndex++;
+        }
+
+        private void writeBits(int value, int count) {
+            for (int i = count - 1; i >= 0; i--)
+                writeBit(value >> i);
+        }
+
+        private void writeUe(int value) {
+            int bits = 32 - Integer.numberOfLeadingZeros(value + 1);
+            writeBits(0, bits - 1);
+            writeBits(value + 1, bits);
+        }
+
+        private void writeSe0() {
+            writeBit(1);
+        }
+
+        private void writeTrailingBits() {
+            writeBit(1);
+            while ((bitIndex & 7) != 0) writeBit(0);
+        }
+
+        private int length() {
+            return bitIndex >> 3;
+        }
+    }
+}
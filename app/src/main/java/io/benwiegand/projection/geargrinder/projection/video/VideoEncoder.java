@@ -6,29 +6,73 @@ import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 import android.view.Surface;
 
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import io.benwiegand.projection.geargrinder.data.BufferReader;
 
 public class VideoEncoder {
     private static final String TAG = VideoEncoder.class.getSimpleName();
 
-    private static final int BITRATE_MODE_AUTO = -1;
+    static final int BITRATE_MODE_AUTO = -1;
 
     /**
      * minimum number of duplicate frames to send after video output stops changing
      */
     private static final int MIN_DUPLICATE_FRAMES = 60;
 
+    /**
+     * duplicate frames to send before switching to skip frames, so the encoder can still refine the picture a bit
+     */
+    private static final int MIN_REFINE_FRAMES = 8;
+
+    /**
+     * how often to send a skip frame while the output isn't changing, to keep the headunit's decoder fed
+     */
+    private static final long STATIC_FRAME_INTERVAL = 200_000_000;  // ns
+
     private static final boolean LOG_FRAME_SIZE_DEBUG = true;
 
     private static final int I_FRAME_INTERVAL = 5;
 
+    /**
+     * with intra refresh, I frames are only a fallback in case the encoder doesn't actually refresh. sync frames can still be requested.
+     */
+    private static final int INTRA_REFRESH_I_FRAME_INTERVAL = 60;
+
+    /**
+     * time to refresh the whole picture over with intra refresh
+     */
+    private static final int INTRA_REFRESH_PERIOD = 1;    // s
+
+    /**
+     * encoded buffers waiting to be picked up in async mode before the encoder stops being fed new frames
+     */
+    private static final int ASYNC_OUTPUT_QUEUE_SIZE = 8;
+
+    // avc levels from 3.1 (the old fixed level) up, with their max frame size (macroblocks) and max macroblocks per second
+    private static final int[] AVC_LEVELS = {
+            MediaCodecInfo.CodecProfileLevel.AVCLevel31,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel32,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel4,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel42,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel5,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel51,
+            MediaCodecInfo.CodecProfileLevel.AVCLevel52,
+    };
+    private static final int[] AVC_LEVEL_MAX_FRAME_SIZES = {3600, 5120, 8192, 8704, 22080, 36864, 36864};
+    private static final int[] AVC_LEVEL_MAX_MACROBLOCK_RATES = {108000, 216000, 245760, 522240, 589824, 983040, 2073600};
+
 
     private MediaCodec encoder = null;
     private Surface hardwareSurface = null;
@@ -37,36 +81,173 @@ public class VideoEncoder {
     private final int width;
     private final int height;
     private final int maxFrameRate;
+    private final String mimeType;
     private final int bitrateMode;
+    private final boolean intraRefresh;
+    private final EncoderCapabilities capabilities;
 
     private int bitrate;
 
     private int lastFrameNumber = -1;
     private int duplicateFrames = 0;
 
+    // static content: skip frames are sent instead of encoding, and the encoder's next frame has to be an I frame
+    private final SkipFrameGenerator skipFrameGenerator;    // null if there's no skip frame support for the codec
+    private final byte[] staticFrameBuffer = new byte[SkipFrameGenerator.MAX_FRAME_LENGTH];
+    private long nextStaticFrameTime = 0;
+    private boolean awaitingSyncFrame = false;
+
+    // the latest codec config (sps/pps), sent again when the headunit may have torn down its decoder
+    private byte[] codecConfig = null;
+
     private final MediaCodec.BufferInfo bufferInfo;
 
+    // async mode: the codec callback queues encoded buffers here, getFrame() picks them up
+    private final boolean async;
+    private HandlerThread callbackThread = null;
+    private final BlockingQueue<AsyncOutput> asyncOutputQueue;
+    private final BlockingQueue<AsyncOutput> asyncOutputPool;
+    private int asyncFramesInFlight = 0;   // requested frames that haven't been picked up yet
+
+    private static final class AsyncOutput {
+        private int index;
+        private int offset;
+        private int size;
+        private int flags;
+        private long presentationTimeUs;
+        private boolean error;
+    }
+
 
-    public VideoEncoder(int width, int height, int maxFrameRate, int bitrateMode, int bitrate) {
+    /**
+     * @param mimeType MediaFormat.MIMETYPE_VIDEO_AVC or MediaFormat.MIMETYPE_VIDEO_HEVC. hevc only uses hardware encoders.
+     * @param async whether to use the codec in async mode. the frame copy for the next frame then overlaps with the encode and send of the current one,
+     *              instead of copying, encoding, and sending each frame in lockstep.
+     * @param intraRefresh whether to refresh the picture a few macroblocks at a time instead of with periodic I frames, if the encoder supports it.
+     *                     this spreads the cost of a refresh over many frames, so there are no big frames clogging up the connection every few seconds.
+     * @param capabilities probed encoder capabilities to skip the encoder search with, or null to search
+     */
+    public VideoEncoder(int width, int height, int maxFrameRate, String mimeType, int bitrateMode, int bitrate, boolean async, boolean intraRefresh, EncoderCapabilities capabilities) {
         this.width = width;
         this.height = height;
         this.maxFrameRate = maxFrameRate;
+        this.mimeType = mimeType;
         this.bitrateMode = bitrateMode;
         this.bitrate = bitrate;
+        this.async = async;
+        this.intraRefresh = intraRefresh;
+        // capabilities are only probed for avc
+        this.capabilities = isAvc() ? capabilities : null;
+        skipFrameGenerator = isAvc() ? new SkipFrameGenerator() : null;
 
         bufferInfo = new MediaCodec.BufferInfo();
+
+        if (async) {
+            // unbounded, the codec only has so many output buffers to hand out anyway
+            asyncOutputQueue = new LinkedBlockingQueue<>();
+            asyncOutputPool = new ArrayBlockingQueue<>(ASYNC_OUTPUT_QUEUE_SIZE + 1);
+            for (int i = 0; i < ASYNC_OUTPUT_QUEUE_SIZE + 1; i++)
+                asyncOutputPool.add(new AsyncOutput());
+        } else {
+            asyncOutputQueue = null;
+            asyncOutputPool = null;
+        }
     }
 
-    public void init() throws IOException {
+    private final MediaCodec.Callback asyncCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            // input comes from the surface
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            // never drop encoded frames, later P frames reference them
+            AsyncOutput output = asyncOutputPool.poll();
+            if (output == null) output = new AsyncOutput();
+
+            output.index = index;
+            output.offset = info.offset;
+            output.size = info.size;
+            output.flags = info.flags;
+            output.presentationTimeUs = info.presentationTimeUs;
+            output.error = false;
+            asyncOutputQueue.add(output);
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            Log.e(TAG, "codec error: " + e.getDiagnosticInfo(), e);
+            AsyncOutput output = asyncOutputPool.poll();
+            if (output == null) output = new AsyncOutput();
+            output.error = true;
+            asyncOutputQueue.add(output);
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            Log.i(TAG, "output format changed: " + format);
+        }
+    };
+
+    /**
+     * asks for the next frame to be a sync frame, such as when the headunit may have lost frames
+     */
+    public void requestSyncFrame() {
+        Log.v(TAG, "requesting I frame");
+        requestSyncFrame(encoder);
+    }
+
+    private static void requestSyncFrame(MediaCodec codec) {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        codec.setParameters(params);
+    }
+
+    private boolean isAvc() {
+        return MediaFormat.MIMETYPE_VIDEO_AVC.equals(mimeType);
+    }
+
+    /**
+     * picks the lowest avc level (3.1 at the least) that covers the resolution and frame rate
+     * @param maxLevel the highest level the encoder supports, or 0 if unknown
+     * @return the level, capped to maxLevel. 3.1 if maxLevel is unknown, since encoders generally take it and raise it as needed.
+     */
+    static int avcLevelFor(int width, int height, int frameRate, int maxLevel) {
+        if (maxLevel <= 0) return AVC_LEVELS[0];
 
-        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
-//        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_HEVC, width, height);   // TODO: figure out how to determine support for this
+        long frameSize = (long) ((width + 15) / 16) * ((height + 15) / 16);
+        long macroblockRate = frameSize * frameRate;
+
+        int level = AVC_LEVELS[AVC_LEVELS.length - 1];
+        for (int i = 0; i < AVC_LEVELS.length; i++) {
+            if (frameSize > AVC_LEVEL_MAX_FRAME_SIZES[i] || macroblockRate > AVC_LEVEL_MAX_MACROBLOCK_RATES[i]) continue;
+            level = AVC_LEVELS[i];
+            break;
+        }
+
+        // the level constants go up with the level
+        return Math.min(level, maxLevel);
+    }
+
+    /**
+     * creates the format the encoder is configured with
+     * @param bitrateMode the bitrate mode, or BITRATE_MODE_AUTO to leave it up to the encoder
+     * @param maxLevel the highest avc baseline level the encoder supports, or 0 if unknown
+     */
+    static MediaFormat createFormat(String mimeType, int width, int height, int maxFrameRate, int bitrateMode, int bitrate, int maxLevel) {
+        MediaFormat format = MediaFormat.createVideoFormat(mimeType, width, height);
         format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
         format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
         format.setInteger(MediaFormat.KEY_FRAME_RATE, maxFrameRate);
         format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
-        format.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline);
-        format.setInteger(MediaFormat.KEY_LEVEL, MediaCodecInfo.CodecProfileLevel.AVCLevel31);
+        if (MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mimeType)) {
+            format.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.HEVCProfileMain);
+            format.setInteger(MediaFormat.KEY_LEVEL, MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel41);
+        } else {
+            format.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline);
+            format.setInteger(MediaFormat.KEY_LEVEL, avcLevelFor(width, height, maxFrameRate, maxLevel));
+        }
         if (bitrateMode != BITRATE_MODE_AUTO)
             format.setInteger(MediaFormat.KEY_BITRATE_MODE, bitrateMode);
         format.setInteger(MediaFormat.KEY_LATENCY, 1);
@@ -80,11 +261,14 @@ public class VideoEncoder {
             format.setInteger(MediaFormat.KEY_VIDEO_QP_I_MAX, 50);
         }
 
-        MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
-        for (MediaCodecInfo ci : codecList.getCodecInfos()) {
-            Log.i(TAG, "codec: " + ci.getName());
-        }
+        return format;
+    }
 
+    /**
+     * finds an encoder for the format. in auto bitrate mode, other bitrate modes are tried until one is found, and the format is updated with it.
+     * @return the codec name, or null if there is no suitable encoder
+     */
+    static String findEncoder(MediaCodecList codecList, MediaFormat format, int bitrateMode) {
         String codecName = codecList.findEncoderForFormat(format);
         if (bitrateMode == BITRATE_MODE_AUTO) {
             if (codecName == null) {
@@ -108,29 +292,128 @@ public class VideoEncoder {
                 codecName = codecList.findEncoderForFormat(format);
             }
         }
+        return codecName;
+    }
 
-        if (codecName == null) {
-            Log.e(TAG, "couldn't find encoder");
-            throw new RuntimeException("failed to find a suitable encoder");
+    private static boolean isHardwareAccelerated(MediaCodecInfo codecInfo) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            return codecInfo.isHardwareAccelerated();
+
+        // before Q there's no way to ask, but the software codecs all come from aosp
+        String name = codecInfo.getName();
+        return !name.startsWith("OMX.google.") && !name.startsWith("c2.android.");
+    }
+
+    /**
+     * @return true if there is a hardware encoder for the mime type
+     */
+    static boolean hasHardwareEncoder(MediaCodecList codecList, String mimeType) {
+        for (MediaCodecInfo codecInfo : codecList.getCodecInfos()) {
+            if (!codecInfo.isEncoder() || !isHardwareAccelerated(codecInfo)) continue;
+            for (String type : codecInfo.getSupportedTypes()) {
+                if (type.equalsIgnoreCase(mimeType)) return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean supportsIntraRefresh(MediaCodec codec) {
+        try {
+            return codec.getCodecInfo()
+                    .getCapabilitiesForType(mimeType)
+                    .isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_IntraRefresh);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "failed to get encoder capabilities", e);
+            return false;
         }
+    }
 
-//        String codecName = "c2.android.avc.encoder";
-//        Log.i(TAG, "forcing encoder: " + codecName);
+    private void startEncoder(String codecName, MediaFormat format) throws IOException {
+        encoder = MediaCodec.createByCodecName(codecName);
+        try {
+            if (!isAvc() && !isHardwareAccelerated(encoder.getCodecInfo()))
+                throw new IOException("not using software encoder for " + mimeType + ": " + codecName);
+
+            if (intraRefresh && supportsIntraRefresh(encoder)) {
+                Log.i(TAG, "using intra refresh");
+                format.setInteger(MediaFormat.KEY_INTRA_REFRESH_PERIOD, maxFrameRate * INTRA_REFRESH_PERIOD);
+                format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, INTRA_REFRESH_I_FRAME_INTERVAL);
+            } else if (intraRefresh) {
+                Log.w(TAG, "encoder doesn't support intra refresh, using periodic I frames");
+            }
+
+            if (async) {
+                if (callbackThread == null) {
+                    callbackThread = new HandlerThread(TAG + " callback");
+                    callbackThread.start();
+                }
+                encoder.setCallback(asyncCallback, new Handler(callbackThread.getLooper()));
+            }
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            hardwareSurface = encoder.createInputSurface();
+            encoder.start();
+        } catch (Throwable t) {
+            if (hardwareSurface != null) hardwareSurface.release();
+            hardwareSurface = null;
+            encoder.release();
+            encoder = null;
+            throw t;
+        }
+    }
 
-//        String codecName = "OMX.Exynos.AVC.Encoder";
-//        Log.i(TAG, "forcing encoder: " + codecName);
+    public void init() throws IOException {
+        MediaFormat format = createFormat(mimeType, width, height, maxFrameRate, bitrateMode, bitrate, capabilities != null ? capabilities.maxLevel() : 0);
 
-//        String codecName = "OMX.MTK.VIDEO.ENCODER.AVC";
-//        Log.i(TAG, "forcing encoder: " + codecName);
+        String codecName = null;
+        if (capabilities != null && capabilities.canUseEncoder(bitrateMode)) {
+            // skip the search, this one was already found to work
+            codecName = capabilities.encoderName();
+            if (capabilities.bitrateMode() != BITRATE_MODE_AUTO)
+                format.setInteger(MediaFormat.KEY_BITRATE_MODE, capabilities.bitrateMode());
 
-//        String codecName = "c2.mtk.avc.encoder";
-//        Log.i(TAG, "forcing encoder: " + codecName);
+            Log.i(TAG, "using probed encoder: " + codecName + ", bitrate mode = " + capabilities.bitrateMode());
+            try {
+                startEncoder(codecName, format);
+            } catch (Throwable t) {
+                Log.w(TAG, "probed encoder failed to start, searching for another", t);
+                codecName = null;
+                format = createFormat(mimeType, width, height, maxFrameRate, bitrateMode, bitrate, 0);
+            }
+        }
 
-        Log.i(TAG, "found encoder: " + codecName);
-        encoder = MediaCodec.createByCodecName(codecName);
-        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        hardwareSurface = encoder.createInputSurface();
-        encoder.start();
+        if (codecName == null) {
+            MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+            for (MediaCodecInfo ci : codecList.getCodecInfos()) {
+                Log.i(TAG, "codec: " + ci.getName());
+            }
+
+            codecName = findEncoder(codecList, format, bitrateMode);
+            if (codecName == null) {
+                Log.e(TAG, "couldn't find encoder");
+                throw new RuntimeException("failed to find a suitable encoder");
+            }
+
+//            String codecName = "c2.android.avc.encoder";
+//            Log.i(TAG, "forcing encoder: " + codecName);
+
+//            String codecName = "OMX.Exynos.AVC.Encoder";
+//            Log.i(TAG, "forcing encoder: " + codecName);
+
+//            String codecName = "OMX.MTK.VIDEO.ENCODER.AVC";
+//            Log.i(TAG, "forcing encoder: " + codecName);
+
+//            String codecName = "c2.mtk.avc.encoder";
+//            Log.i(TAG, "forcing encoder: " + codecName);
+
+            Log.i(TAG, "found " + mimeType + " encoder: " + codecName);
+            startEncoder(codecName, format);
+        }
+
+        if (capabilities != null && !capabilities.openGLFrameCopierWorks()) {
+            Log.w(TAG, "OpenGLFrameCopier didn't work when probed, using FramePassthrough");
+            frameCopier = new FramePassthrough(hardwareSurface);
+            return;
+        }
 
         try {
 
@@ -159,19 +442,48 @@ public class VideoEncoder {
         if (frameCopier != null) {
             frameCopier.destroy();
         }
+
+        if (callbackThread != null) {
+            callbackThread.quit();
+        }
     }
 
     public Surface getInputSurface() {
         return frameCopier.getInputSurface();
     }
 
-    private void updateBitrate(int bitrate, boolean requestSync) {
-        if (this.bitrate == bitrate) return;
+    /**
+     * @return a layer to draw over the input surface, or null if the frame copier can't composite
+     */
+    public FrameCopier.Layer createLayer() {
+        return frameCopier.createLayer();
+    }
+
+    /**
+     * @return when the latest frame was produced on the projected display, on the System.nanoTime() clock. 0 if unknown.
+     */
+    public long getLastInputFrameTimestamp() {
+        return frameCopier.lastFrameTimestamp();
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * changes the bitrate of the running encoder
+     * @param bitrate the new bitrate in bits per second
+     * @param requestSync whether to also request a sync frame, so the picture recovers quickly after a big drop
+     */
+    public void updateBitrate(int bitrate, boolean requestSync) {
+        if (this.bitrate == bitrate && !requestSync) return;
 
         Bundle params = new Bundle();
 
-        Log.i(TAG, "updating bitrate: " + this.bitrate + " -> " + bitrate);
-        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+        if (this.bitrate != bitrate) {
+            Log.i(TAG, "updating bitrate: " + this.bitrate + " -> " + bitrate);
+            params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+        }
 
         if (requestSync) {
             Log.v(TAG, "requesting I frame");
@@ -182,6 +494,44 @@ public class VideoEncoder {
         this.bitrate = bitrate;
     }
 
+    /**
+     * pauses or resumes encoding while keeping the codec and its input surface alive.
+     * encoded frames still waiting to be picked up are discarded, and a sync frame is requested on resume since the headunit's decoder will have to start over.
+     */
+    public void setSuspended(boolean suspended) {
+        Log.i(TAG, suspended ? "suspending encoder" : "resuming encoder");
+
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_SUSPEND, suspended ? 1 : 0);
+        if (!suspended) params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+
+        discardPendingOutput();
+        encoder.setParameters(params);
+
+        // the first frame after resuming isn't a duplicate
+        lastFrameNumber = -1;
+        duplicateFrames = 0;
+        nextStaticFrameTime = 0;
+        awaitingSyncFrame = false;
+    }
+
+    private void discardPendingOutput() {
+        if (async) {
+            AsyncOutput output;
+            while ((output = asyncOutputQueue.poll()) != null) {
+                if (!output.error) encoder.releaseOutputBuffer(output.index, false);
+                asyncOutputPool.offer(output);
+            }
+            asyncFramesInFlight = 0;
+            return;
+        }
+
+        int index;
+        while ((index = encoder.dequeueOutputBuffer(bufferInfo, 0)) != MediaCodec.INFO_TRY_AGAIN_LATER) {
+            if (index >= 0) encoder.releaseOutputBuffer(index, false);
+        }
+    }
+
     public enum FrameError {
         NO_ERROR,
         NO_FRAME,       // nothing to output
@@ -195,20 +545,44 @@ public class VideoEncoder {
         public long timestamp = 0;
         public FrameError error = FrameError.NO_ERROR;
         public int bufferIndex = -1;
+        public boolean keyFrame = false;
     }
 
     public BufferReader getFrame(FrameResult result, long timeoutUs) throws InterruptedException {
         if (frameCopier.nextFrameNumber() == lastFrameNumber) {
-            if (duplicateFrames >= MIN_DUPLICATE_FRAMES) {
-                result.error = FrameError.NO_FRAME;
-                return null;
+            int minDuplicateFrames = canSendSkipFrames() ? MIN_REFINE_FRAMES : MIN_DUPLICATE_FRAMES;
+            if (duplicateFrames >= minDuplicateFrames) {
+                if (async) {
+                    // still pick up whatever was requested before the output stopped changing
+                    BufferReader frame = getAsyncFrame(result, 0);
+                    if (result.error != FrameError.NO_FRAME || asyncFramesInFlight > 0) return frame;
+                }
+                return getStaticFrame(result);
             }
 
             duplicateFrames++;
         } else {
+            if (awaitingSyncFrame && duplicateFrames > 0) {
+                // the content changed after skip frames, ask for the I frame now instead of discarding frames until it comes
+                Log.v(TAG, "output changed after skip frames, requesting I frame");
+                requestSyncFrame(encoder);
+            }
             duplicateFrames = 0;
         }
 
+        if (async) {
+            if (asyncOutputQueue.size() >= ASYNC_OUTPUT_QUEUE_SIZE) {
+                // encoded frames aren't being picked up fast enough, stop feeding the encoder until they are.
+                // the frame isn't marked as copied, so it gets picked up on a later call.
+                return getAsyncFrame(result, 0);
+            }
+
+            // the copy runs on the GL thread while the previous frame is being encoded and sent.
+            // only wait if there's an earlier frame to pick up, the first one is picked up on the next call.
+            lastFrameNumber = frameCopier.requestFrame();
+            return getAsyncFrame(result, ++asyncFramesInFlight > 1 ? timeoutUs : 0);
+        }
+
         lastFrameNumber = frameCopier.copyFrame();
         int index = encoder.dequeueOutputBuffer(bufferInfo, timeoutUs);
         result.bufferIndex = index;
@@ -233,6 +607,66 @@ public class VideoEncoder {
             return null;
         }
 
+        return readOutputBuffer(result, index);
+    }
+
+    private boolean canSendSkipFrames() {
+        return skipFrameGenerator != null && skipFrameGenerator.canGenerate();
+    }
+
+    /**
+     * gets a skip frame to repeat the last picture, if it's time for one
+     */
+    private BufferReader getStaticFrame(FrameResult result) {
+        result.bufferIndex = -1;
+
+        long now = System.nanoTime();
+        if (!canSendSkipFrames() || now - nextStaticFrameTime < 0) {
+            result.error = FrameError.NO_FRAME;
+            return null;
+        }
+
+        nextStaticFrameTime = now + STATIC_FRAME_INTERVAL;
+        awaitingSyncFrame = true;
+
+        int length = skipFrameGenerator.generate(staticFrameBuffer);
+        if (LOG_FRAME_SIZE_DEBUG) Log.v(TAG, "skip frame size: " + length);
+
+        result.timestamp = now / 1000;
+        result.keyFrame = false;
+        result.length = length;
+        result.error = FrameError.NO_ERROR;
+        return BufferReader.from(staticFrameBuffer, 0, length);
+    }
+
+    private BufferReader getAsyncFrame(FrameResult result, long timeoutUs) throws InterruptedException {
+        AsyncOutput output = asyncOutputQueue.poll(timeoutUs, TimeUnit.MICROSECONDS);
+        if (output == null) {
+            // frames requested while the copier was busy get merged, don't keep waiting for those
+            if (timeoutUs > 0) asyncFramesInFlight = 0;
+            result.bufferIndex = -1;
+            result.error = FrameError.NO_FRAME;
+            return null;
+        }
+
+        if (asyncFramesInFlight > 0) asyncFramesInFlight--;
+
+        int index = output.index;
+        boolean error = output.error;
+        bufferInfo.set(output.offset, output.size, output.presentationTimeUs, output.flags);
+        asyncOutputPool.offer(output);
+
+        if (error) {
+            result.bufferIndex = -1;
+            result.error = FrameError.FAILURE;
+            return null;
+        }
+
+        result.bufferIndex = index;
+        return readOutputBuffer(result, index);
+    }
+
+    private BufferReader readOutputBuffer(FrameResult result, int index) {
         ByteBuffer encoded = encoder.getOutputBuffer(index);
         if (encoded == null) {
             Log.wtf(TAG, "got null output buffer"); // this shouldn't happen
@@ -263,7 +697,27 @@ public class VideoEncoder {
             encoded.position(bufferInfo.offset);
             encoded.limit(bufferInfo.offset + bufferInfo.size);
 
+            if (isFrame && awaitingSyncFrame) {
+                if (!isKeyFrame) {
+                    // this was encoded against the picture before the skip frames, the headunit can't decode it
+                    if (LOG_FRAME_SIZE_DEBUG) Log.v(TAG, "discarding frame after skip frames");
+                    requestSyncFrame(encoder);
+                    result.error = FrameError.NO_FRAME;
+                    return null;
+                }
+                awaitingSyncFrame = false;
+            }
+
+            if (skipFrameGenerator != null) skipFrameGenerator.onEncodedBuffer(encoded);
+
+            if (!isFrame) {
+                if (codecConfig == null || codecConfig.length != bufferInfo.size)
+                    codecConfig = new byte[bufferInfo.size];
+                encoded.duplicate().get(codecConfig);
+            }
+
             if (isFrame) result.timestamp = bufferInfo.presentationTimeUs;
+            result.keyFrame = isKeyFrame;
             result.length = bufferInfo.size;
             result.error = FrameError.NO_ERROR;
             return BufferReader.from(encoded);
@@ -273,7 +727,18 @@ public class VideoEncoder {
         }
     }
 
+    /**
+     * @return the latest codec config output, or null if there hasn't been any yet
+     */
+    public BufferReader getCodecConfig() {
+        return codecConfig == null ? null : BufferReader.from(codecConfig);
+    }
+
+    /**
+     * @param index the frame's buffer index, negative indices are ignored since those frames didn't come from the encoder
+     */
     public void releaseOutputBuffer(int index) {
+        if (index < 0) return;
         encoder.releaseOutputBuffer(index, false);
     }
 }
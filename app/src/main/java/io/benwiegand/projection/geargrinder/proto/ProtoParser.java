@@ -21,12 +21,12 @@ public class ProtoParser {
     private static final String TAG = ProtoParser.class.getSimpleName();
 
     // TODO: merge parts of ProtoParser and ProtoSerializer
-    private static final int FIELD_TYPE_VAR_INT = 0;
-    private static final int FIELD_TYPE_64 = 1;
-    private static final int FIELD_TYPE_VAR_DATA = 2;
-    private static final int FIELD_TYPE_GROUP_START = 3;
-    private static final int FIELD_TYPE_GROUP_END = 4;
-    private static final int FIELD_TYPE_32 = 5;
+    static final int FIELD_TYPE_VAR_INT = 0;
+    static final int FIELD_TYPE_64 = 1;
+    static final int FIELD_TYPE_VAR_DATA = 2;
+    static final int FIELD_TYPE_GROUP_START = 3;
+    static final int FIELD_TYPE_GROUP_END = 4;
+    static final int FIELD_TYPE_32 = 5;
 
     public interface ProtoField {
         int fieldId();
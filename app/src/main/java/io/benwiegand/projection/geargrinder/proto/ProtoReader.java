@@ -0,0 +1,302 @@
+package io.benwiegand.projection.geargrinder.proto;
+
+import static io.benwiegand.projection.geargrinder.proto.ProtoParser.FIELD_TYPE_32;
+import static io.benwiegand.projection.geargrinder.proto.ProtoParser.FIELD_TYPE_64;
+import static io.benwiegand.projection.geargrinder.proto.ProtoParser.FIELD_TYPE_GROUP_END;
+import static io.benwiegand.projection.geargrinder.proto.ProtoParser.FIELD_TYPE_GROUP_START;
+import static io.benwiegand.projection.geargrinder.proto.ProtoParser.FIELD_TYPE_VAR_DATA;
+import static io.benwiegand.projection.geargrinder.proto.ProtoParser.FIELD_TYPE_VAR_INT;
+import static io.benwiegand.projection.geargrinder.util.ByteUtil.readInt32;
+import static io.benwiegand.projection.geargrinder.util.ByteUtil.readInt64;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * streaming protobuf reader that walks the fields of a message in order and decodes values on demand.
+ * unlike {@link ProtoParser#parse(byte[], int, int)} it doesn't allocate anything, so it's meant for messages that arrive constantly.
+ * <pre>
+ * ProtoReader reader = new ProtoReader(buffer, offset, length);
+ * while (reader.next()) {
+ *     switch (reader.fieldId()) {
+ *         case 1 -> x = reader.int32();
+ *         case 2 -> y = reader.int32();
+ *     }
+ * }
+ * </pre>
+ */
+public final class ProtoReader {
+    private static final byte[] EMPTY_BUFFER = new byte[0];
+
+    private byte[] buffer;
+    private int start;
+    private int end;
+    private int position;
+
+    // current field
+    private int fieldId;
+    private int fieldType;
+    private int valueOffset;
+    private int valueLength;
+    private int groupDepth = 0;    // group ends are only valid while skipping a group
+
+    public ProtoReader(byte[] buffer, int offset, int length) {
+        reset(buffer, offset, length);
+    }
+
+    /**
+     * creates an empty reader, to be pointed at a message later with {@link ProtoReader#reset(byte[], int, int)} or {@link ProtoReader#enter(ProtoReader)}
+     */
+    public ProtoReader() {
+        this(EMPTY_BUFFER, 0, 0);
+    }
+
+    /**
+     * points this reader at a new message, so one reader can be reused for many messages
+     */
+    public ProtoReader reset(byte[] buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.length)
+            throw new IndexOutOfBoundsException("message out of bounds: offset = " + offset + ", length = " + length + ", buffer length = " + buffer.length);
+
+        this.buffer = buffer;
+        start = offset;
+        end = offset + length;
+        rewind();
+        return this;
+    }
+
+    /**
+     * goes back to before the first field
+     */
+    public ProtoReader rewind() {
+        position = start;
+        fieldId = -1;
+        fieldType = -1;
+        return this;
+    }
+
+    /**
+     * points another reader at the message contained in the current var data field
+     * @param reader the reader to reuse
+     * @return the passed reader
+     */
+    public ProtoReader enter(ProtoReader reader) {
+        requireType(FIELD_TYPE_VAR_DATA);
+        return reader.reset(buffer, valueOffset, valueLength);
+    }
+
+    /**
+     * advances to the next field
+     * @return true if there was a next field, false if the end of the message was reached
+     */
+    public boolean next() {
+        if (position >= end) return false;
+
+        long tag = decodeVarInt();
+        fieldId = (int) (tag >>> 3);
+        fieldType = (int) (tag & 0x07);
+
+        switch (fieldType) {
+            case FIELD_TYPE_VAR_INT -> {
+                valueOffset = position;
+                skipVarInt();
+                valueLength = position - valueOffset;
+            }
+            case FIELD_TYPE_64 -> {
+                valueOffset = position;
+                valueLength = 8;
+                position += 8;
+            }
+            case FIELD_TYPE_32 -> {
+                valueOffset = position;
+                valueLength = 4;
+                position += 4;
+            }
+            case FIELD_TYPE_VAR_DATA -> {
+                long dataLength = decodeVarInt();
+                if (dataLength > end - position || dataLength < 0)
+                    throw new IndexOutOfBoundsException("var data exceeds message length for field with id " + fieldId + ": len = " + dataLength);
+                valueOffset = position;
+                valueLength = (int) dataLength;
+                position += valueLength;
+            }
+            case FIELD_TYPE_GROUP_START -> {
+                // groups aren't supported, skip over the whole thing
+                int groupFieldId = fieldId;
+                int groupOffset = position;
+                skipGroup(groupFieldId);
+                fieldId = groupFieldId;
+                fieldType = FIELD_TYPE_GROUP_START;
+                valueOffset = groupOffset;
+                valueLength = position - groupOffset;
+            }
+            case FIELD_TYPE_GROUP_END -> {
+                if (groupDepth == 0) throw new IllegalStateException("group end without group start for id " + fieldId);
+                valueOffset = position;
+                valueLength = 0;
+            }
+            default -> throw new IllegalStateException("unexpected field type " + fieldType + " for field with id " + fieldId);
+        }
+
+        if (position > end)
+            throw new IndexOutOfBoundsException("a field parsed beyond the specified length: id = " + fieldId);
+
+        return true;
+    }
+
+    private long decodeVarInt() {
+        long value = 0;
+        int lshift = 0;
+        byte b;
+        do {
+            if (position >= end) throw new IndexOutOfBoundsException("var int exceeds message length");
+            if (lshift >= 64) throw new IllegalStateException("var int too long");
+            b = buffer[position++];
+            value |= (long) (b & 0x7f) << lshift;
+            lshift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private void skipVarInt() {
+        decodeVarInt();
+    }
+
+    private void skipGroup(int groupFieldId) {
+        groupDepth++;
+        try {
+            while (true) {
+                if (!next()) throw new IndexOutOfBoundsException("group " + groupFieldId + " not terminated");
+                if (fieldType == FIELD_TYPE_GROUP_END && fieldId == groupFieldId) return;
+            }
+        } finally {
+            groupDepth--;
+        }
+    }
+
+    private void requireType(int type) {
+        if (fieldType != type)
+            throw new IllegalStateException("field " + fieldId + " has type " + fieldType + ", expected " + type);
+    }
+
+    public int fieldId() {
+        return fieldId;
+    }
+
+    public int fieldType() {
+        return fieldType;
+    }
+
+    /**
+     * @return the current field as an unsigned integer, regardless of its encoding
+     */
+    public long uint64() {
+        return switch (fieldType) {
+            case FIELD_TYPE_VAR_INT -> {
+                int savedPosition = position;
+                position = valueOffset;
+                long value = decodeVarInt();
+                position = savedPosition;
+                yield value;
+            }
+            case FIELD_TYPE_32 -> readInt32(buffer, valueOffset);
+            case FIELD_TYPE_64 -> readInt64(buffer, valueOffset);
+            default -> throw new IllegalStateException("invalid field type for integer: " + fieldType);
+        };
+    }
+
+    /**
+     * @return the current field as a 32 bit integer
+     */
+    public int int32() {
+        if (fieldType == FIELD_TYPE_64)
+            throw new IllegalStateException("invalid field type for 32 bit integer: " + fieldType);
+        return (int) uint64();
+    }
+
+    public boolean bool() {
+        return uint64() != 0;
+    }
+
+    public String string() {
+        requireType(FIELD_TYPE_VAR_DATA);
+        return new String(buffer, valueOffset, valueLength, StandardCharsets.UTF_8);
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the offset of the current field's value within {@link ProtoReader#buffer()}, excluding the length prefix of var data
+     */
+    public int valueOffset() {
+        return valueOffset;
+    }
+
+    public int valueLength() {
+        return valueLength;
+    }
+
+    /**
+     * counts the occurrences of a field in the whole message, without moving the cursor.
+     * useful for sizing arrays of repeated fields.
+     */
+    public int count(int countFieldId) {
+        int savedPosition = position, savedFieldId = fieldId, savedFieldType = fieldType, savedValueOffset = valueOffset, savedValueLength = valueLength;
+        try {
+            rewind();
+            int count = 0;
+            while (next()) {
+                if (fieldId == countFieldId) count++;
+            }
+            return count;
+        } finally {
+            position = savedPosition;
+            fieldId = savedFieldId;
+            fieldType = savedFieldType;
+            valueOffset = savedValueOffset;
+            valueLength = savedValueLength;
+        }
+    }
+
+    /**
+     * counts the integers in the current field. repeated integers are sometimes packed into a single var data field.
+     * @return the number of packed var ints if the field is var data, otherwise 1
+     */
+    public int packedCount() {
+        if (fieldType != FIELD_TYPE_VAR_DATA) return 1;
+
+        int count = 0;
+        for (int i = valueOffset; i < valueOffset + valueLength; i++) {
+            if ((buffer[i] & 0x80) == 0) count++;
+        }
+        return count;
+    }
+
+    /**
+     * reads the integers in the current field, which may be packed or a single value.
+     * @param out output array
+     * @param outOffset where to start writing in the output array
+     * @return the number of integers written
+     */
+    public int readPackedInt32(int[] out, int outOffset) {
+        if (fieldType != FIELD_TYPE_VAR_DATA) {
+            out[outOffset] = int32();
+            return 1;
+        }
+
+        int savedPosition = position, savedEnd = end;
+        try {
+            position = valueOffset;
+            end = valueOffset + valueLength;
+
+            int i = outOffset;
+            while (position < end)
+                out[i++] = (int) decodeVarInt();
+            return i - outOffset;
+        } finally {
+            position = savedPosition;
+            end = savedEnd;
+        }
+    }
+}
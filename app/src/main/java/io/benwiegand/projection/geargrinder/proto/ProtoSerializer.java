@@ -4,10 +4,6 @@ import static io.benwiegand.projection.geargrinder.util.ByteUtil.unsignByte;
 import static io.benwiegand.projection.geargrinder.util.ByteUtil.writeInt32;
 import static io.benwiegand.projection.geargrinder.util.ByteUtil.writeInt64;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.stream.Collectors;
 
 /**
  * flexible protobuf serializer
@@ -134,19 +130,15 @@ public class ProtoSerializer {
     }
 
     public static ProtoVarData createVarIntArray(int fieldId, long... values) {
-        Collection<ProtoVarInt> varInts = Arrays.stream(values)
-                .mapToObj(n -> new ProtoVarInt(0, n))
-                .collect(Collectors.toCollection(ArrayList::new));
-
-        int length = varInts.stream()
-                .map(ProtoVarInt::encodedLength)
-                .reduce(Integer::sum)
-                .orElse(0);
-
-        byte[] buffer = new byte[length];
+        byte[] buffer = new byte[ProtoWriter.packedVarIntsSize(values)];
         int cur = 0;
-        for (ProtoVarInt vi : varInts)
-            cur += vi.encode(buffer, cur);
+        for (long value : values) {
+            while ((value & ~0x7fL) != 0) {
+                buffer[cur++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[cur++] = (byte) value;
+        }
 
         return new ProtoVarData(fieldId, buffer);
     }
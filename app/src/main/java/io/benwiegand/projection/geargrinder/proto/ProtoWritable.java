@@ -0,0 +1,27 @@
+package io.benwiegand.projection.geargrinder.proto;
+
+/**
+ * a protobuf message that knows its encoded size up front, so it can be written straight into an existing buffer
+ */
+public interface ProtoWritable {
+
+    /**
+     * @return the exact number of bytes {@link ProtoWritable#write(ProtoWriter)} will write
+     */
+    int encodedLength();
+
+    /**
+     * writes the fields of this message at the writer's current position
+     */
+    void write(ProtoWriter writer);
+
+    /**
+     * serializes this message into a new byte array
+     */
+    default byte[] serialize() {
+        byte[] buffer = new byte[encodedLength()];
+        write(new ProtoWriter(buffer, 0));
+        return buffer;
+    }
+
+}
@@ -0,0 +1,175 @@
+package io.benwiegand.projection.geargrinder.proto;
+
+import static io.benwiegand.projection.geargrinder.proto.ProtoParser.FIELD_TYPE_32;
+import static io.benwiegand.projection.geargrinder.proto.ProtoParser.FIELD_TYPE_64;
+import static io.benwiegand.projection.geargrinder.proto.ProtoParser.FIELD_TYPE_VAR_DATA;
+import static io.benwiegand.projection.geargrinder.proto.ProtoParser.FIELD_TYPE_VAR_INT;
+import static io.benwiegand.projection.geargrinder.util.ByteUtil.writeInt32;
+import static io.benwiegand.projection.geargrinder.util.ByteUtil.writeInt64;
+
+/**
+ * streaming protobuf writer that writes fields one after another into an existing buffer.
+ * the static *Size() methods give the encoded size of each field, so a {@link ProtoWritable} can work out its length before anything is written.
+ * <pre>
+ * ProtoWriter writer = new ProtoWriter(buffer, offset);
+ * writer.varInt(1, x)
+ *       .varInt(2, y);
+ * </pre>
+ */
+public final class ProtoWriter {
+    private static final byte[] EMPTY_BUFFER = new byte[0];
+
+    private byte[] buffer;
+    private int position;
+
+    public ProtoWriter(byte[] buffer, int offset) {
+        reset(buffer, offset);
+    }
+
+    /**
+     * creates a writer with no buffer, to be pointed at one later with {@link ProtoWriter#reset(byte[], int)}
+     */
+    public ProtoWriter() {
+        this(EMPTY_BUFFER, 0);
+    }
+
+    /**
+     * points this writer at a new buffer, so one writer can be reused for many messages
+     */
+    public ProtoWriter reset(byte[] buffer, int offset) {
+        if (offset < 0 || offset > buffer.length)
+            throw new IndexOutOfBoundsException("offset out of bounds: offset = " + offset + ", buffer length = " + buffer.length);
+
+        this.buffer = buffer;
+        position = offset;
+        return this;
+    }
+
+    /**
+     * @return the offset in the buffer the next field will be written at
+     */
+    public int position() {
+        return position;
+    }
+
+    public static int varIntSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    private static int tagSize(int fieldId) {
+        return varIntSize((long) fieldId << 3);
+    }
+
+    public static int varIntFieldSize(int fieldId, long value) {
+        return tagSize(fieldId) + varIntSize(value);
+    }
+
+    public static int boolFieldSize(int fieldId) {
+        return tagSize(fieldId) + 1;
+    }
+
+    public static int fixed32FieldSize(int fieldId) {
+        return tagSize(fieldId) + 4;
+    }
+
+    public static int fixed64FieldSize(int fieldId) {
+        return tagSize(fieldId) + 8;
+    }
+
+    public static int varDataFieldSize(int fieldId, int length) {
+        return tagSize(fieldId) + varIntSize(length) + length;
+    }
+
+    public static int messageFieldSize(int fieldId, ProtoWritable message) {
+        return varDataFieldSize(fieldId, message.encodedLength());
+    }
+
+    /**
+     * @return the length of the packed integers without the tag and length prefix
+     */
+    public static int packedVarIntsSize(long[] values) {
+        int length = 0;
+        for (long value : values)
+            length += varIntSize(value);
+        return length;
+    }
+
+    public static int packedVarIntsFieldSize(int fieldId, long[] values) {
+        return varDataFieldSize(fieldId, packedVarIntsSize(values));
+    }
+
+    private void writeVarInt(long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeTag(int fieldId, int fieldType) {
+        assert fieldId > 0;
+        writeVarInt(((long) fieldId << 3) | fieldType);
+    }
+
+    public ProtoWriter varInt(int fieldId, long value) {
+        writeTag(fieldId, FIELD_TYPE_VAR_INT);
+        writeVarInt(value);
+        return this;
+    }
+
+    public ProtoWriter bool(int fieldId, boolean value) {
+        return varInt(fieldId, value ? 1 : 0);
+    }
+
+    public ProtoWriter fixed32(int fieldId, int value) {
+        writeTag(fieldId, FIELD_TYPE_32);
+        writeInt32(value, buffer, position);
+        position += 4;
+        return this;
+    }
+
+    public ProtoWriter fixed64(int fieldId, long value) {
+        writeTag(fieldId, FIELD_TYPE_64);
+        writeInt64(value, buffer, position);
+        position += 8;
+        return this;
+    }
+
+    public ProtoWriter varData(int fieldId, byte[] data, int offset, int length) {
+        writeTag(fieldId, FIELD_TYPE_VAR_DATA);
+        writeVarInt(length);
+        System.arraycopy(data, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    public ProtoWriter varData(int fieldId, byte[] data) {
+        return varData(fieldId, data, 0, data.length);
+    }
+
+    /**
+     * writes a nested message as var data
+     */
+    public ProtoWriter message(int fieldId, ProtoWritable message) {
+        writeTag(fieldId, FIELD_TYPE_VAR_DATA);
+        writeVarInt(message.encodedLength());
+
+        int start = position;
+        message.write(this);
+        assert position - start == message.encodedLength();
+        return this;
+    }
+
+    /**
+     * writes repeated integers packed into a single var data field
+     */
+    public ProtoWriter packedVarInts(int fieldId, long[] values) {
+        writeTag(fieldId, FIELD_TYPE_VAR_DATA);
+        writeVarInt(packedVarIntsSize(values));
+        for (long value : values)
+            writeVarInt(value);
+        return this;
+    }
+}
@@ -0,0 +1,18 @@
+package io.benwiegand.projection.geargrinder.proto.data.enums;
+
+public enum MediaCodecType {
+    UNKNOWN,
+    AUDIO_PCM,
+    AUDIO_AAC_LC,
+    VIDEO_H264_BP,
+    AUDIO_AAC_LC_ADTS,
+    VIDEO_VP9,
+    VIDEO_AV1,
+    VIDEO_H265;
+
+    public static MediaCodecType parse(int value) {
+        if (value < 0) return UNKNOWN;
+        if (value >= values().length) return UNKNOWN;
+        return values()[value];
+    }
+}
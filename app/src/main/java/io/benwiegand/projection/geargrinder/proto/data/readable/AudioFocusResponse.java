@@ -3,10 +3,7 @@ package io.benwiegand.projection.geargrinder.proto.data.readable;
 import android.util.Base64;
 import android.util.Log;
 
-import java.util.List;
-import java.util.Map;
-
-import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
 
 public record AudioFocusResponse(
         State focusState,
@@ -33,12 +30,18 @@ public record AudioFocusResponse(
 
     public static AudioFocusResponse parse(byte[] buffer, int offset, int length) {
         try {
-            Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
-
-            return new AudioFocusResponse(
-                    State.parse(ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(1), 0)),
-                    ProtoParser.getSingleUnsignedInteger(buffer, fields.get(2), 0)
-            );
+            ProtoReader reader = new ProtoReader(buffer, offset, length);
+            int focusState = 0;
+            long unknown = 0;
+
+            while (reader.next()) {
+                switch (reader.fieldId()) {
+                    case 1 -> focusState = reader.int32();
+                    case 2 -> unknown = reader.uint64();
+                }
+            }
+
+            return new AudioFocusResponse(State.parse(focusState), unknown);
 
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse AudioFocusResponse: " + Base64.encodeToString(buffer, offset, length, 0), t);
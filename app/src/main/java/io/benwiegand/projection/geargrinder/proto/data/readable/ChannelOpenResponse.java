@@ -3,10 +3,7 @@ package io.benwiegand.projection.geargrinder.proto.data.readable;
 import android.util.Base64;
 import android.util.Log;
 
-import java.util.List;
-import java.util.Map;
-
-import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
 
 public record ChannelOpenResponse(
         Status status
@@ -29,11 +26,14 @@ public record ChannelOpenResponse(
 
     public static ChannelOpenResponse parse(byte[] buffer, int offset, int length) {
         try {
-            Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
+            ProtoReader reader = new ProtoReader(buffer, offset, length);
+            int status = -1;
+
+            while (reader.next()) {
+                if (reader.fieldId() == 1) status = reader.int32();
+            }
 
-            return new ChannelOpenResponse(
-                    Status.parse(ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(1), -1))
-            );
+            return new ChannelOpenResponse(Status.parse(status));
 
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse ChannelOpenResponse: " + Base64.encodeToString(buffer, offset, length, 0), t);
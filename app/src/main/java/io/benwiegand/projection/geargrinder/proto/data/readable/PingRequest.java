@@ -3,10 +3,7 @@ package io.benwiegand.projection.geargrinder.proto.data.readable;
 import android.util.Base64;
 import android.util.Log;
 
-import java.util.List;
-import java.util.Map;
-
-import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
 
 public record PingRequest(
         long timestamp,
@@ -16,12 +13,18 @@ public record PingRequest(
 
     public static PingRequest parse(byte[] buffer, int offset, int length) {
         try {
-            Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
+            ProtoReader reader = new ProtoReader(buffer, offset, length);
+            long timestamp = 0;
+            long unknown = 0;
+
+            while (reader.next()) {
+                switch (reader.fieldId()) {
+                    case 1 -> timestamp = reader.uint64();
+                    case 2 -> unknown = reader.uint64();
+                }
+            }
 
-            return new PingRequest(
-                    ProtoParser.getSingleUnsignedInteger(buffer, fields.get(1), 0),
-                    ProtoParser.getSingleUnsignedInteger(buffer, fields.get(2), 0)
-            );
+            return new PingRequest(timestamp, unknown);
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse PingRequest: " + Base64.encodeToString(buffer, offset, length, 0), t);
             return null;
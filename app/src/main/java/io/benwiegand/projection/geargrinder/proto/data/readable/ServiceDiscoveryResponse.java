@@ -37,6 +37,19 @@ public record ServiceDiscoveryResponse(
         return carName;
     }
 
+    /**
+     * identifies the headunit across connections. this changes when the headunit software is updated, since it may behave differently after.
+     */
+    public String identity() {
+        return String.join("|",
+                String.valueOf(headunitManufacturer()),
+                String.valueOf(headunitName()),
+                String.valueOf(carModel()),
+                String.valueOf(carSerial()),
+                String.valueOf(headunitSoftwareBuild()),
+                String.valueOf(headunitSoftwareVersion()));
+    }
+
 
     public static ServiceDiscoveryResponse parse(byte[] buffer, int offset, int length) {
         try {
@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Map;
 
 import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.data.enums.MediaCodecType;
 import io.benwiegand.projection.geargrinder.proto.data.readable.ChannelMeta;
 
 public interface AVChannelMeta extends ChannelMeta {
@@ -17,17 +18,18 @@ public interface AVChannelMeta extends ChannelMeta {
         try {
             Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
 
+            // the channel type is the codec it takes
             int type = ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(1), -1);
-            return switch (type) {
-                case 1 -> AudioChannelMeta.parse(channelId, buffer, offset, length, fields);
-                // idk what 2 is
-                case 3 -> VideoChannelMeta.parse(channelId, buffer, offset, length, fields);
-                case 0 -> { // none
+            if (type == -1) throw new AssertionError("AV channel type not defined");
+            return switch (MediaCodecType.parse(type)) {
+                case AUDIO_PCM -> AudioChannelMeta.parse(channelId, buffer, offset, length, fields);
+                case VIDEO_H264_BP, VIDEO_H265, VIDEO_VP9, VIDEO_AV1 -> VideoChannelMeta.parse(channelId, buffer, offset, length, fields);
+                case UNKNOWN -> {
+                    if (type != 0) throw new AssertionError("unknown AV channel type: " + type);
                     Log.wtf(TAG, "AV channel type none");
                     yield null;
                 }
-                case -1 -> throw new AssertionError("AV channel type not defined");
-                default -> throw new AssertionError("unknown AV channel type: " + type);
+                default -> throw new AssertionError("unsupported AV channel type: " + type);
             };
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse AVChannelMeta: " + Base64.encodeToString(buffer, offset, length, 0), t);
@@ -0,0 +1,33 @@
+package io.benwiegand.projection.geargrinder.proto.data.readable.av;
+
+import android.util.Base64;
+import android.util.Log;
+
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
+
+public record AVMediaAck(
+        int session,
+        int ackCount        // number of frames acked at once
+) {
+    private static final String TAG = AVMediaAck.class.getSimpleName();
+
+    public static AVMediaAck parse(byte[] buffer, int offset, int length) {
+        try {
+            ProtoReader reader = new ProtoReader(buffer, offset, length);
+            int session = 0;
+            int ackCount = 1;
+
+            while (reader.next()) {
+                switch (reader.fieldId()) {
+                    case 1 -> session = reader.int32();
+                    case 2 -> ackCount = reader.int32();
+                }
+            }
+
+            return new AVMediaAck(session, ackCount);
+        } catch (Throwable t) {
+            Log.wtf(TAG, "failed to parse AVMediaAck: " + Base64.encodeToString(buffer, offset, length, 0), t);
+            return null;
+        }
+    }
+}
@@ -4,10 +4,8 @@ import android.util.Base64;
 import android.util.Log;
 
 import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
 
 public record AVSetupResponse(
         Status status,
@@ -34,13 +32,29 @@ public record AVSetupResponse(
 
     public static AVSetupResponse parse(byte[] buffer, int offset, int length) {
         try {
-            Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
+            ProtoReader reader = new ProtoReader(buffer, offset, length);
+            int status = -1;
+            int maxOutstandingAck = 1;
 
-            return new AVSetupResponse(
-                    Status.parse(ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(1), -1)),
-                    ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(2), 1),
-                    ProtoParser.getUnsignedInteger32Array(buffer, fields.get(3))
-            );
+            // repeated, may be packed
+            int acceptedPresetCount = 0;
+            while (reader.next()) {
+                if (reader.fieldId() == 3) acceptedPresetCount += reader.packedCount();
+            }
+
+            int[] acceptedPresets = new int[acceptedPresetCount];
+            int acceptedPresetIndex = 0;
+
+            reader.rewind();
+            while (reader.next()) {
+                switch (reader.fieldId()) {
+                    case 1 -> status = reader.int32();
+                    case 2 -> maxOutstandingAck = reader.int32();
+                    case 3 -> acceptedPresetIndex += reader.readPackedInt32(acceptedPresets, acceptedPresetIndex);
+                }
+            }
+
+            return new AVSetupResponse(Status.parse(status), maxOutstandingAck, acceptedPresets);
 
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse AVSetupResponse: " + Base64.encodeToString(buffer, offset, length, 0), t);
@@ -8,10 +8,12 @@ import java.util.List;
 import java.util.Map;
 
 import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.data.enums.MediaCodecType;
 import io.benwiegand.projection.geargrinder.proto.data.readable.av.preset.VideoPreset;
 
 public record VideoChannelMeta(
         int channelId,
+        MediaCodecType codecType,
         VideoPreset[] presets
         // calls not implemented yet
 ) implements AVChannelMeta {
@@ -20,13 +22,16 @@ public record VideoChannelMeta(
     public static VideoChannelMeta parse(int channelId, byte[] buffer, int offset, int length, Map<Integer, List<ProtoParser.ProtoField>> fields) {
         try {
 
+            // older headunits only do h264 and don't say so
+            MediaCodecType codecType = MediaCodecType.parse(ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(1), MediaCodecType.VIDEO_H264_BP.ordinal()));
+
             List<ProtoParser.ProtoField> videoPresetFields = fields.get(4);
             VideoPreset[] videoPresets = new VideoPreset[videoPresetFields == null ? 0 : videoPresetFields.size()];
             if (videoPresetFields != null) {
                 int i = 0;
                 for (ProtoParser.ProtoField videoPresetField : videoPresetFields) {
                     if (videoPresetField instanceof ProtoParser.ProtoVarData vd) {
-                        videoPresets[i++] = VideoPreset.parse(buffer, vd.offset(), vd.length());
+                        videoPresets[i++] = VideoPreset.parse(buffer, vd.offset(), vd.length(), codecType);
                     } else {
                         throw new AssertionError("expected var data for audio preset");
                     }
@@ -35,6 +40,7 @@ public record VideoChannelMeta(
 
             return new VideoChannelMeta(
                     channelId,
+                    codecType,
                     videoPresets
             );
 
@@ -48,6 +54,7 @@ public record VideoChannelMeta(
     public String toString() {
         return "VideoChannelMeta{" +
                 "channelId=" + channelId +
+                ", codecType=" + codecType +
                 ", presets=" + Arrays.toString(presets) +
                 '}';
     }
@@ -7,13 +7,15 @@ import java.util.List;
 import java.util.Map;
 
 import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.data.enums.MediaCodecType;
 
 public record VideoPreset(
     Resolution resolution,
     RefreshRate refreshRate,
     int marginHorizontal,
     int marginVertical,
-    int density
+    int density,
+    MediaCodecType codecType
 ) {
     private static final String TAG = VideoPreset.class.getSimpleName();
     public static final int DEFAULT_RESOLUTION_WIDTH = 800;
@@ -81,12 +83,20 @@ public record VideoPreset(
     }
 
     public int[] bitrateTargets() {
-        return switch (resolution()) {
+        int[] targets = switch (resolution()) {
             case UNKNOWN -> new int[] {1000000, 500000, 250000, 100000};
             case RES_480P -> new int[] {5000000, 250000, 100000};
             case RES_720P -> new int[] {15000000, 10000000, 5000000};
             case RES_1080P -> new int[] {30000000, 15000000, 10000000};
         };
+
+        // hevc looks about the same at half the bitrate
+        if (codecType() == MediaCodecType.VIDEO_H265) {
+            for (int i = 0; i < targets.length; i++)
+                targets[i] /= 2;
+        }
+
+        return targets;
     }
 
     public static VideoPreset getDefault() {
@@ -94,11 +104,15 @@ public record VideoPreset(
                 Resolution.UNKNOWN,
                 RefreshRate.UNKNOWN,
                 0, 0,
-                DEFAULT_DENSITY_DPI
+                DEFAULT_DENSITY_DPI,
+                MediaCodecType.VIDEO_H264_BP
         );
     }
 
-    public static VideoPreset parse(byte[] buffer, int offset, int length) {
+    /**
+     * @param defaultCodecType the codec to assume if the preset doesn't say, the channel's codec
+     */
+    public static VideoPreset parse(byte[] buffer, int offset, int length, MediaCodecType defaultCodecType) {
         try {
             Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
 
@@ -107,7 +121,8 @@ public record VideoPreset(
                     RefreshRate.parse(ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(2), -1)),
                     ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(3), 0),
                     ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(4), 0),
-                    ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(5), DEFAULT_DENSITY_DPI)
+                    ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(5), DEFAULT_DENSITY_DPI),
+                    MediaCodecType.parse(ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(10), defaultCodecType.ordinal()))
             );
 
         } catch (Throwable t) {
@@ -4,10 +4,8 @@ import android.util.Base64;
 import android.util.Log;
 
 import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
 import io.benwiegand.projection.geargrinder.proto.data.readable.input.event.ButtonEvent;
 import io.benwiegand.projection.geargrinder.proto.data.readable.input.event.RelativeEvent;
 import io.benwiegand.projection.geargrinder.proto.data.readable.input.event.TouchEvent;
@@ -22,36 +20,37 @@ public record InputEventData(
 ) {
     private static final String TAG = InputEventData.class.getSimpleName();
 
-    public static InputEventData parse(byte[] buffer, int offset, int length) {
-        try {
-            Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
+    private static final ButtonEvent[] NO_BUTTON_EVENTS = new ButtonEvent[0];
+    private static final RelativeEvent[] NO_RELATIVE_EVENTS = new RelativeEvent[0];
 
-            ProtoParser.ProtoVarData touchEventField = ProtoParser.getSingle(fields.get(3), ProtoParser.ProtoVarData.class);
-            TouchEvent touchEvent = touchEventField == null ? null : TouchEvent.parse(buffer, touchEventField.offset(), touchEventField.length());
+    public static InputEventData parse(byte[] buffer, int offset, int length) {
+        return parse(buffer, offset, length, new ProtoReader(), new ProtoReader(), new ProtoReader());
+    }
 
-            ButtonEvent[] buttonEvents;
-            ProtoParser.ProtoVarData buttonEventField = ProtoParser.getSingle(fields.get(4), ProtoParser.ProtoVarData.class);
-            if (buttonEventField != null) {
-                buttonEvents = ButtonEvent.parseAll(buffer, buttonEventField.offset(), buttonEventField.length());
-            } else {
-                buttonEvents = new ButtonEvent[0];
-            }
+    /**
+     * like {@link InputEventData#parse(byte[], int, int)}, but with readers owned by the caller so they can be reused for every event.
+     * the readers are reset to the message, their previous state doesn't matter.
+     * @param eventReader entered for the touch, button, or relative event
+     * @param innerReader entered for each pointer, button, or relative event within it
+     */
+    public static InputEventData parse(byte[] buffer, int offset, int length, ProtoReader reader, ProtoReader eventReader, ProtoReader innerReader) {
+        try {
+            reader.reset(buffer, offset, length);
+            long timestamp = 0;
+            TouchEvent touchEvent = null;
+            ButtonEvent[] buttonEvents = NO_BUTTON_EVENTS;
+            RelativeEvent[] relativeEvents = NO_RELATIVE_EVENTS;
 
-            // encoder/rotary input
-            RelativeEvent[] relativeEvents;
-            ProtoParser.ProtoVarData relativeEventField = ProtoParser.getSingle(fields.get(6), ProtoParser.ProtoVarData.class);
-            if (relativeEventField != null) {
-                relativeEvents = RelativeEvent.parseAll(buffer, relativeEventField.offset(), relativeEventField.length());
-            } else {
-                relativeEvents = new RelativeEvent[0];
+            while (reader.next()) {
+                switch (reader.fieldId()) {
+                    case 1 -> timestamp = reader.uint64();
+                    case 3 -> touchEvent = TouchEvent.parse(reader.enter(eventReader), innerReader);
+                    case 4 -> buttonEvents = ButtonEvent.parseAll(reader.enter(eventReader), innerReader);
+                    case 6 -> relativeEvents = RelativeEvent.parseAll(reader.enter(eventReader), innerReader);   // encoder/rotary input
+                }
             }
 
-            return new InputEventData(
-                    ProtoParser.getSingleUnsignedInteger(buffer, fields.get(1), 0),
-                    touchEvent,
-                    buttonEvents,
-                    relativeEvents
-            );
+            return new InputEventData(timestamp, touchEvent, buttonEvents, relativeEvents);
 
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse InputEventData: " + Base64.encodeToString(buffer, offset, length, 0), t);
@@ -3,10 +3,7 @@ package io.benwiegand.projection.geargrinder.proto.data.readable.input.event;
 import android.util.Base64;
 import android.util.Log;
 
-import java.util.List;
-import java.util.Map;
-
-import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
 
 public record ButtonEvent(
         int code,
@@ -14,40 +11,46 @@ public record ButtonEvent(
 ) {
     private static final String TAG = ButtonEvent.class.getSimpleName();
 
-    public static ButtonEvent parse(byte[] buffer, int offset, int length) {
-        try {
-            Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
+    private static ButtonEvent parse(ProtoReader reader) {
+        int code = -1;
+        boolean pressed = false;
+
+        while (reader.next()) {
+            switch (reader.fieldId()) {
+                case 1 -> code = reader.int32();
+                case 2 -> pressed = reader.bool();
+            }
+        }
 
-            return new ButtonEvent(
-                    ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(1), -1),
-                    ProtoParser.getSingleBoolean(buffer, fields.get(2), false)
-            );
+        return new ButtonEvent(code, pressed);
+    }
 
+    public static ButtonEvent parse(byte[] buffer, int offset, int length) {
+        try {
+            return parse(new ProtoReader(buffer, offset, length));
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse ButtonEvent: " + Base64.encodeToString(buffer, offset, length, 0), t);
             return null;
         }
     }
 
-    public static ButtonEvent[] parseAll(byte[] buffer, int offset, int length) {
-        try {
-            Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
-
-            List<ProtoParser.ProtoField> buttonEventFields = fields.get(1);
-            ButtonEvent[] buttonEvents = new ButtonEvent[buttonEventFields == null ? 0 : buttonEventFields.size()];
-            if (buttonEventFields != null) {
-                int i = 0;
-                for (ProtoParser.ProtoField buttonEventField : buttonEventFields) {
-                    if (buttonEventField instanceof ProtoParser.ProtoVarData vd) {
-                        buttonEvents[i++] = ButtonEvent.parse(buffer, vd.offset(), vd.length());
-                    } else {
-                        throw new AssertionError("expected var data for audio preset");
-                    }
-                }
-            }
+    /**
+     * @param buttonEventReader entered for each event, so the caller can reuse it across messages
+     */
+    public static ButtonEvent[] parseAll(ProtoReader reader, ProtoReader buttonEventReader) {
+        ButtonEvent[] buttonEvents = new ButtonEvent[reader.count(1)];
+        int i = 0;
+        while (reader.next()) {
+            if (reader.fieldId() == 1)
+                buttonEvents[i++] = parse(reader.enter(buttonEventReader));
+        }
 
-            return buttonEvents;
+        return buttonEvents;
+    }
 
+    public static ButtonEvent[] parseAll(byte[] buffer, int offset, int length) {
+        try {
+            return parseAll(new ProtoReader(buffer, offset, length), new ProtoReader());
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse ButtonEvent array: " + Base64.encodeToString(buffer, offset, length, 0), t);
             return null;
@@ -3,10 +3,7 @@ package io.benwiegand.projection.geargrinder.proto.data.readable.input.event;
 import android.util.Base64;
 import android.util.Log;
 
-import java.util.List;
-import java.util.Map;
-
-import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
 
 public record RelativeEvent(
         long code,
@@ -14,40 +11,46 @@ public record RelativeEvent(
 ) {
     private static final String TAG = RelativeEvent.class.getSimpleName();
 
-    public static RelativeEvent parse(byte[] buffer, int offset, int length) {
-        try {
-            Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
+    private static RelativeEvent parse(ProtoReader reader) {
+        long code = -1;
+        int delta = 0;
+
+        while (reader.next()) {
+            switch (reader.fieldId()) {
+                case 1 -> code = reader.uint64();
+                case 2 -> delta = reader.int32();
+            }
+        }
 
-            return new RelativeEvent(
-                    ProtoParser.getSingleUnsignedInteger(buffer, fields.get(1), -1),
-                    ProtoParser.getSingleInteger32(buffer, fields.get(2), 0)
-            );
+        return new RelativeEvent(code, delta);
+    }
 
+    public static RelativeEvent parse(byte[] buffer, int offset, int length) {
+        try {
+            return parse(new ProtoReader(buffer, offset, length));
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse RelativeEvent: " + Base64.encodeToString(buffer, offset, length, 0), t);
             return null;
         }
     }
 
-    public static RelativeEvent[] parseAll(byte[] buffer, int offset, int length) {
-        try {
-            Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
-
-            List<ProtoParser.ProtoField> relativeEventFields = fields.get(1);
-            RelativeEvent[] relativeEvents = new RelativeEvent[relativeEventFields == null ? 0 : relativeEventFields.size()];
-            if (relativeEventFields != null) {
-                int i = 0;
-                for (ProtoParser.ProtoField relativeEventField : relativeEventFields) {
-                    if (relativeEventField instanceof ProtoParser.ProtoVarData vd) {
-                        relativeEvents[i++] = RelativeEvent.parse(buffer, vd.offset(), vd.length());
-                    } else {
-                        throw new AssertionError("expected var data for audio preset");
-                    }
-                }
-            }
+    /**
+     * @param relativeEventReader entered for each event, so the caller can reuse it across messages
+     */
+    public static RelativeEvent[] parseAll(ProtoReader reader, ProtoReader relativeEventReader) {
+        RelativeEvent[] relativeEvents = new RelativeEvent[reader.count(1)];
+        int i = 0;
+        while (reader.next()) {
+            if (reader.fieldId() == 1)
+                relativeEvents[i++] = parse(reader.enter(relativeEventReader));
+        }
 
-            return relativeEvents;
+        return relativeEvents;
+    }
 
+    public static RelativeEvent[] parseAll(byte[] buffer, int offset, int length) {
+        try {
+            return parseAll(new ProtoReader(buffer, offset, length), new ProtoReader());
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse RelativeEvent array: " + Base64.encodeToString(buffer, offset, length, 0), t);
             return null;
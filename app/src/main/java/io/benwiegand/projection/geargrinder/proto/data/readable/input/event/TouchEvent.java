@@ -5,10 +5,8 @@ import android.util.Log;
 import android.view.MotionEvent;
 
 import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoParser;
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
 
 public record TouchEvent(
         PointerLocation[] pointerLocations,
@@ -19,16 +17,25 @@ public record TouchEvent(
 
     public record PointerLocation(int x, int y, int pointerIndex) {
 
-        public static PointerLocation parse(byte[] buffer, int offset, int length) {
-            try {
-                Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
+        private static PointerLocation parse(ProtoReader reader) {
+            int x = 0;
+            int y = 0;
+            int pointerIndex = 0;
+
+            while (reader.next()) {
+                switch (reader.fieldId()) {
+                    case 1 -> x = reader.int32();
+                    case 2 -> y = reader.int32();
+                    case 3 -> pointerIndex = reader.int32();
+                }
+            }
 
-                return new PointerLocation(
-                        ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(1), 0),
-                        ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(2), 0),
-                        ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(3), 0)
-                );
+            return new PointerLocation(x, y, pointerIndex);
+        }
 
+        public static PointerLocation parse(byte[] buffer, int offset, int length) {
+            try {
+                return parse(new ProtoReader(buffer, offset, length));
             } catch (Throwable t) {
                 Log.wtf(TAG, "failed to parse PointerLocation: " + Base64.encodeToString(buffer, offset, length, 0), t);
                 return null;
@@ -63,29 +70,29 @@ public record TouchEvent(
         return action().ordinal() + (actionPointerIndex() << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
     }
 
-    public static TouchEvent parse(byte[] buffer, int offset, int length) {
-        try {
-            Map<Integer, List<ProtoParser.ProtoField>> fields = ProtoParser.parse(buffer, offset, length);
-
-            List<ProtoParser.ProtoField> pointerLocationFields = fields.get(1);
-            PointerLocation[] pointerLocations = new PointerLocation[pointerLocationFields == null ? 0 : pointerLocationFields.size()];
-            if (pointerLocationFields != null) {
-                int i = 0;
-                for (ProtoParser.ProtoField pointerLocationField : pointerLocationFields) {
-                    if (pointerLocationField instanceof ProtoParser.ProtoVarData vd) {
-                        pointerLocations[i++] = PointerLocation.parse(buffer, vd.offset(), vd.length());
-                    } else {
-                        throw new AssertionError("expected var data for pointer location, got " + pointerLocationField.getClass().getSimpleName());
-                    }
-                }
+    /**
+     * @param pointerLocationReader entered for each pointer, so the caller can reuse it across messages
+     */
+    public static TouchEvent parse(ProtoReader reader, ProtoReader pointerLocationReader) {
+        PointerLocation[] pointerLocations = new PointerLocation[reader.count(1)];
+        int pointerLocationIndex = 0;
+        int actionPointerIndex = 0;
+        int action = 0;
+
+        while (reader.next()) {
+            switch (reader.fieldId()) {
+                case 1 -> pointerLocations[pointerLocationIndex++] = PointerLocation.parse(reader.enter(pointerLocationReader));
+                case 2 -> actionPointerIndex = reader.int32();
+                case 3 -> action = reader.int32();
             }
+        }
 
-            return new TouchEvent(
-                    pointerLocations,
-                    ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(2), 0),
-                    Action.parse(ProtoParser.getSingleUnsignedInteger32(buffer, fields.get(3), 0))
-            );
+        return new TouchEvent(pointerLocations, actionPointerIndex, Action.parse(action));
+    }
 
+    public static TouchEvent parse(byte[] buffer, int offset, int length) {
+        try {
+            return parse(new ProtoReader(buffer, offset, length), new ProtoReader());
         } catch (Throwable t) {
             Log.wtf(TAG, "failed to parse TouchEvent: " + Base64.encodeToString(buffer, offset, length, 0), t);
             return null;
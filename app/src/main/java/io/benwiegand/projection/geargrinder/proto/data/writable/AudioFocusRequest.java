@@ -1,8 +1,9 @@
 package io.benwiegand.projection.geargrinder.proto.data.writable;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoSerializer;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
 
-public record AudioFocusRequest(Type focusType) {
+public record AudioFocusRequest(Type focusType) implements ProtoWritable {
 
     public enum Type {
         NONE,
@@ -16,10 +17,14 @@ public record AudioFocusRequest(Type focusType) {
         }
     }
 
-    public byte[] serialize() {
-        return ProtoSerializer.serialize(
-                new ProtoSerializer.ProtoVarInt(1, focusType().serialize())
-        );
+    @Override
+    public int encodedLength() {
+        return ProtoWriter.varIntFieldSize(1, focusType().serialize());
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.varInt(1, focusType().serialize());
     }
 
 }
@@ -1,16 +1,22 @@
 package io.benwiegand.projection.geargrinder.proto.data.writable;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoSerializer;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
 
 public record ChannelOpenRequest(
         int priority,
         int channelId
-) {
+) implements ProtoWritable {
 
-    public byte[] serialize() {
-        return ProtoSerializer.serialize(
-                new ProtoSerializer.ProtoVarInt(1, priority()),
-                new ProtoSerializer.ProtoVarInt(2, channelId())
-        );
+    @Override
+    public int encodedLength() {
+        return ProtoWriter.varIntFieldSize(1, priority())
+                + ProtoWriter.varIntFieldSize(2, channelId());
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.varInt(1, priority())
+                .varInt(2, channelId());
     }
 }
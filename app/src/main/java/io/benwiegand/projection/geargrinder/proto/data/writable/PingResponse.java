@@ -1,18 +1,23 @@
 package io.benwiegand.projection.geargrinder.proto.data.writable;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoSerializer;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
 import io.benwiegand.projection.geargrinder.proto.data.readable.PingRequest;
 
-public record PingResponse(long timestamp) {
+public record PingResponse(long timestamp) implements ProtoWritable {
 
     public static PingResponse fromRequest(PingRequest request) {
         return new PingResponse(request.timestamp());
     }
 
-    public byte[] serialize() {
-        return ProtoSerializer.serialize(
-                new ProtoSerializer.ProtoVarInt(1, timestamp())
-        );
+    @Override
+    public int encodedLength() {
+        return ProtoWriter.varIntFieldSize(1, timestamp());
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.varInt(1, timestamp());
     }
 
 }
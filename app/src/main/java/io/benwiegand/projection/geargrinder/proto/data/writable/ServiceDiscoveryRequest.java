@@ -4,7 +4,8 @@ import android.util.Base64;
 
 import java.nio.charset.StandardCharsets;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoSerializer;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
 
 public record ServiceDiscoveryRequest(
         byte[] thumbnail32,     // 1    32x32 png image
@@ -12,7 +13,7 @@ public record ServiceDiscoveryRequest(
         byte[] thumbnail128,    // 3    128x128 png image
         String deviceName,      // 4
         String deviceModel      // 5
-) {
+) implements ProtoWritable {
     public static final byte[] DEFAULT_THUMBNAIL_32 = Base64.decode("iVBORw0KGgoAAAANSUhEUgAAACAAAAAgAgMAAAAOFJJnAAAAAXNSR0IB2cksfwAAAARnQU1BAACxjwv8YQUAAAAgY0hSTQAAeiYAAICEAAD6AAAAgOgAAHUwAADqYAAAOpgAABdwnLpRPAAAAAxQTFRFAAAAAAAA////nZ2detZtKgAAAAF0Uk5TAEDm2GYAAABKSURBVBjTY2AgBBRgDA0YXwPCW4CFsQArowHKYMLK0EBhMCzAYKxawbRq1QogQ2vVKgiDYRVYEqSIAc5QgDEW4GNw4WIoQBhoAAACdyWFYS2uEwAAAABJRU5ErkJggg==", 0);
     public static final byte[] DEFAULT_THUMBNAIL_64 = Base64.decode("iVBORw0KGgoAAAANSUhEUgAAAEAAAABAAgMAAADXB5lNAAAAAXNSR0IB2cksfwAAAARnQU1BAACxjwv8YQUAAAAgY0hSTQAAeiYAAICEAAD6AAAAgOgAAHUwAADqYAAAOpgAABdwnLpRPAAAAAxQTFRFAAAAAAAA////nZ2detZtKgAAAAF0Uk5TAEDm2GYAAAAZdEVYdENvbW1lbnQAQ3JlYXRlZCB3aXRoIEdJTVBXgQ4XAAAAh0lEQVQ4y8XTSQqAMAwF0NCV5Cg9ZY+SZfintFZNYwRRcQgUyqMhA5To8+ASIF+DKX8D2UOSAHwdkp4B7MB3yjsQD7XNAGoAOoQSIL8O6+goHsRaR7uwQX0YQVsKIFgAKAktZsiwkLluh2WFPN17WerruwMSgJ8ADZB+hjYpeahn8GChtz7zCPorhEnnuPkFAAAAAElFTkSuQmCC", 0);
     public static final byte[] DEFAULT_THUMBNAIL_128 = Base64.decode("iVBORw0KGgoAAAANSUhEUgAAAIAAAACAAgMAAAC+UIlYAAAAAXNSR0IB2cksfwAAAARnQU1BAACxjwv8YQUAAAAgY0hSTQAAeiYAAICEAAD6AAAAgOgAAHUwAADqYAAAOpgAABdwnLpRPAAAAAxQTFRFAAAAAAAA////nZ2detZtKgAAAAF0Uk5TAEDm2GYAAAAZdEVYdENvbW1lbnQAQ3JlYXRlZCB3aXRoIEdJTVBXgQ4XAAAA80lEQVRYw+3XTQ6EIAwF4IYlR+GUrOcUZFbNO+WYOIz8tGAMiibzlvJpAtIGiP65f+Db4wbhyeA7PRXEgROBVYHlDnAYBvwgYAXgLwe+WuN9wM0ELgKaCUgDBgJwCVjxDFAuMpC9OQdwtoINsO5m3BnEsnfjgWmCIAF/GLAGggqMBPK64B3g17REgBRAAqEJlmdIwRKuQNjaX0xIKx94rT8kCeegDqd/qwOoC2wPUDlQzCL9xLvYF8VEuNo4ZRfcA8JBgBMAy8CqgEcD0oGnqsXMAq4P/HRQnnKA60FdOX8gnuEmgO1ErlxyDIbfo7q3wSflA6NL5p69Qoa3AAAAAElFTkSuQmCC", 0);
@@ -29,13 +30,21 @@ public record ServiceDiscoveryRequest(
         );
     }
 
-    public byte[] serialize() {
-        return ProtoSerializer.serialize(
-                new ProtoSerializer.ProtoVarData(1, thumbnail32()),
-                new ProtoSerializer.ProtoVarData(2, thumbnail64()),
-                new ProtoSerializer.ProtoVarData(3, thumbnail128()),
-                new ProtoSerializer.ProtoVarData(4, deviceName().getBytes(StandardCharsets.UTF_8)),
-                new ProtoSerializer.ProtoVarData(5, deviceModel().getBytes(StandardCharsets.UTF_8))
-        );
+    @Override
+    public int encodedLength() {
+        return ProtoWriter.varDataFieldSize(1, thumbnail32().length)
+                + ProtoWriter.varDataFieldSize(2, thumbnail64().length)
+                + ProtoWriter.varDataFieldSize(3, thumbnail128().length)
+                + ProtoWriter.varDataFieldSize(4, deviceName().getBytes(StandardCharsets.UTF_8).length)
+                + ProtoWriter.varDataFieldSize(5, deviceModel().getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.varData(1, thumbnail32())
+                .varData(2, thumbnail64())
+                .varData(3, thumbnail128())
+                .varData(4, deviceName().getBytes(StandardCharsets.UTF_8))
+                .varData(5, deviceModel().getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -1,26 +1,34 @@
 package io.benwiegand.projection.geargrinder.proto.data.writable.av;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoSerializer;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
+import io.benwiegand.projection.geargrinder.proto.data.enums.MediaCodecType;
 
 public record AVSetupRequest(
         int type
-) {
+) implements ProtoWritable {
 
     // TODO: unsure if this is correct
     public static int AV_SETUP_REQUEST_TYPE_AUDIO = 1;
-    public static int AV_SETUP_REQUEST_TYPE_VIDEO = 3;
 
     public static AVSetupRequest createAudio() {
         return new AVSetupRequest(AV_SETUP_REQUEST_TYPE_AUDIO);
     }
 
-    public static AVSetupRequest createVideo() {
-        return new AVSetupRequest(AV_SETUP_REQUEST_TYPE_VIDEO);
+    /**
+     * the type of a video setup request is the codec the stream will use
+     */
+    public static AVSetupRequest createVideo(MediaCodecType codecType) {
+        return new AVSetupRequest(codecType.ordinal());
     }
 
-    public byte[] serialize() {
-        return ProtoSerializer.serialize(
-                new ProtoSerializer.ProtoVarInt(1, type())
-        );
+    @Override
+    public int encodedLength() {
+        return ProtoWriter.varIntFieldSize(1, type());
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.varInt(1, type());
     }
 }
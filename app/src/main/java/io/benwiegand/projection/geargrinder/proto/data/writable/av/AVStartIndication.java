@@ -1,17 +1,23 @@
 package io.benwiegand.projection.geargrinder.proto.data.writable.av;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoSerializer;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
 
 public record AVStartIndication(
         int session,
         int preset
-) {
+) implements ProtoWritable {
 
-    public byte[] serialize() {
-        return ProtoSerializer.serialize(
-                new ProtoSerializer.ProtoVarInt(1, session()),
-                new ProtoSerializer.ProtoVarInt(2, preset())
-        );
+    @Override
+    public int encodedLength() {
+        return ProtoWriter.varIntFieldSize(1, session())
+                + ProtoWriter.varIntFieldSize(2, preset());
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.varInt(1, session())
+                .varInt(2, preset());
     }
 
 }
@@ -1,11 +1,18 @@
 package io.benwiegand.projection.geargrinder.proto.data.writable.input;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoSerializer;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
 
-public record InputBindingRequest(long[] keyCodes) {
+public record InputBindingRequest(long[] keyCodes) implements ProtoWritable {
 
-    public byte[] serialize() {
-        return ProtoSerializer.serialize(ProtoSerializer.createVarIntArray(1, keyCodes()));
+    @Override
+    public int encodedLength() {
+        return ProtoWriter.packedVarIntsFieldSize(1, keyCodes());
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.packedVarInts(1, keyCodes());
     }
 
 }
@@ -1,17 +1,23 @@
 package io.benwiegand.projection.geargrinder.proto.data.writable.sensor;
 
-import io.benwiegand.projection.geargrinder.proto.ProtoSerializer;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
 import io.benwiegand.projection.geargrinder.proto.data.readable.sensor.SensorMeta;
 
 public record SensorStartRequest(
         SensorMeta.Type sensorType,
         long refreshInterval
-) {
+) implements ProtoWritable {
 
-    public byte[] serialize() {
-        return ProtoSerializer.serialize(
-                new ProtoSerializer.ProtoVarInt(1, sensorType().serialize()),
-                new ProtoSerializer.ProtoVarInt(2, refreshInterval)
-        );
+    @Override
+    public int encodedLength() {
+        return ProtoWriter.varIntFieldSize(1, sensorType().serialize())
+                + ProtoWriter.varIntFieldSize(2, refreshInterval());
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.varInt(1, sensorType().serialize())
+                .varInt(2, refreshInterval());
     }
 }
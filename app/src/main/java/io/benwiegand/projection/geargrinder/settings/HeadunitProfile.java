@@ -0,0 +1,93 @@
+package io.benwiegand.projection.geargrinder.settings;
+
+import android.util.Base64;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+
+import io.benwiegand.projection.geargrinder.proto.ProtoReader;
+import io.benwiegand.projection.geargrinder.proto.ProtoWritable;
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
+
+/**
+ * what worked with a headunit last time it was connected, so the next session can start from there.
+ * ints are -1 when unknown.
+ */
+public record HeadunitProfile(
+        int videoPresetIndex,       // 1
+        int videoBitrate,           // 2    highest bitrate that held without the headunit falling behind
+        int videoAckWindow,         // 3
+        int audioPresetIndex,       // 4
+        int audioAckWindow,         // 5
+        String cipherSuite          // 6    null if unknown
+) implements ProtoWritable {
+    private static final String TAG = HeadunitProfile.class.getSimpleName();
+
+    public static final int UNKNOWN = -1;
+
+    /**
+     * fills in anything unknown in this profile from an older one
+     */
+    public HeadunitProfile withFallback(HeadunitProfile previous) {
+        if (previous == null) return this;
+        return new HeadunitProfile(
+                videoPresetIndex() != UNKNOWN ? videoPresetIndex() : previous.videoPresetIndex(),
+                videoBitrate() != UNKNOWN ? videoBitrate() : previous.videoBitrate(),
+                videoAckWindow() != UNKNOWN ? videoAckWindow() : previous.videoAckWindow(),
+                audioPresetIndex() != UNKNOWN ? audioPresetIndex() : previous.audioPresetIndex(),
+                audioAckWindow() != UNKNOWN ? audioAckWindow() : previous.audioAckWindow(),
+                cipherSuite() != null ? cipherSuite() : previous.cipherSuite()
+        );
+    }
+
+    @Override
+    public int encodedLength() {
+        int length = ProtoWriter.varIntFieldSize(1, videoPresetIndex())
+                + ProtoWriter.varIntFieldSize(2, videoBitrate())
+                + ProtoWriter.varIntFieldSize(3, videoAckWindow())
+                + ProtoWriter.varIntFieldSize(4, audioPresetIndex())
+                + ProtoWriter.varIntFieldSize(5, audioAckWindow());
+        if (cipherSuite() != null)
+            length += ProtoWriter.varDataFieldSize(6, cipherSuite().getBytes(StandardCharsets.UTF_8).length);
+        return length;
+    }
+
+    @Override
+    public void write(ProtoWriter writer) {
+        writer.varInt(1, videoPresetIndex())
+                .varInt(2, videoBitrate())
+                .varInt(3, videoAckWindow())
+                .varInt(4, audioPresetIndex())
+                .varInt(5, audioAckWindow());
+        if (cipherSuite() != null)
+            writer.varData(6, cipherSuite().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static HeadunitProfile parse(byte[] buffer, int offset, int length) {
+        try {
+            ProtoReader reader = new ProtoReader(buffer, offset, length);
+            int videoPresetIndex = UNKNOWN;
+            int videoBitrate = UNKNOWN;
+            int videoAckWindow = UNKNOWN;
+            int audioPresetIndex = UNKNOWN;
+            int audioAckWindow = UNKNOWN;
+            String cipherSuite = null;
+
+            while (reader.next()) {
+                switch (reader.fieldId()) {
+                    case 1 -> videoPresetIndex = reader.int32();
+                    case 2 -> videoBitrate = reader.int32();
+                    case 3 -> videoAckWindow = reader.int32();
+                    case 4 -> audioPresetIndex = reader.int32();
+                    case 5 -> audioAckWindow = reader.int32();
+                    case 6 -> cipherSuite = reader.string();
+                }
+            }
+
+            return new HeadunitProfile(videoPresetIndex, videoBitrate, videoAckWindow, audioPresetIndex, audioAckWindow, cipherSuite);
+        } catch (Throwable t) {
+            Log.wtf(TAG, "failed to parse HeadunitProfile: " + Base64.encodeToString(buffer, offset, length, 0), t);
+            return null;
+        }
+    }
+}
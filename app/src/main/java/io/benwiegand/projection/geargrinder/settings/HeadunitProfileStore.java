@@ -0,0 +1,44 @@
+package io.benwiegand.projection.geargrinder.settings;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+/**
+ * keeps a {@link HeadunitProfile} for each headunit that has been connected.
+ * these aren't user settings, so they're kept out of the main preferences.
+ */
+public class HeadunitProfileStore {
+    private static final String TAG = HeadunitProfileStore.class.getSimpleName();
+    private static final String PREFERENCE_NAME = "io.benwiegand.projection.geargrinder_headunit_profiles";
+
+    private final SharedPreferences prefs;
+
+    public HeadunitProfileStore(Context context) {
+        prefs = context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param identity identifies the headunit, see ServiceDiscoveryResponse.identity()
+     * @return the saved profile, or null if there is none
+     */
+    public HeadunitProfile get(String identity) {
+        String value = prefs.getString(identity, null);
+        if (value == null) return null;
+
+        try {
+            byte[] data = Base64.decode(value, Base64.NO_WRAP);
+            return HeadunitProfile.parse(data, 0, data.length);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "saved headunit profile is corrupted", e);
+            return null;
+        }
+    }
+
+    public boolean save(String identity, HeadunitProfile profile) {
+        return prefs.edit()
+                .putString(identity, Base64.encodeToString(profile.serialize(), Base64.NO_WRAP))
+                .commit();
+    }
+}
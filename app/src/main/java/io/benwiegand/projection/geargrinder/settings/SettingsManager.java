@@ -11,6 +11,8 @@ import androidx.annotation.StringRes;
 import java.util.List;
 
 import io.benwiegand.projection.geargrinder.R;
+import io.benwiegand.projection.geargrinder.crypto.CipherSuiteRanking;
+import io.benwiegand.projection.geargrinder.projection.video.EncoderCapabilities;
 
 public class SettingsManager {
     private static final String TAG = SettingsManager.class.getSimpleName();
@@ -49,10 +51,36 @@ public class SettingsManager {
         return castInt(R.string.key_video_bitrate_custom, R.string.video_bitrate_custom_default);
     }
 
+    public boolean useVideoAdaptiveBitrate() {
+        return getBool(R.string.key_video_adaptive_bitrate, R.string.video_adaptive_bitrate_default);
+    }
+
+    public int getVideoBitrateMin() {
+        return castInt(R.string.key_video_bitrate_min, R.string.video_bitrate_min_default);
+    }
+
+    public int getVideoBitrateMax() {
+        return castInt(R.string.key_video_bitrate_max, R.string.video_bitrate_max_default);
+    }
+
+    public boolean useVideoIntraRefresh() {
+        return getBool(R.string.key_video_intra_refresh, R.string.video_intra_refresh_default);
+    }
+
     public boolean useImportedPhoneKeys() {
         return getBool(R.string.key_use_imported_phone_keys, R.string.start_projection_when_locked_default);
     }
 
+    public boolean isWireCaptureEnabled() {
+        return getBool(R.string.key_wire_capture, R.string.wire_capture_default);
+    }
+
+    public boolean setWireCaptureEnabled(boolean enabled) {
+        return prefs.edit()
+                .putBoolean(context.getString(R.string.key_wire_capture), enabled)
+                .commit();
+    }
+
     public byte[][] getX509CertificateChain(String key) {
         return getRawBytesMulti(key);
     }
@@ -93,6 +121,48 @@ public class SettingsManager {
         return getRawBytes(R.string.key_imported_phone_pkcs8_private_key);
     }
 
+    public boolean saveEncoderCapabilities(EncoderCapabilities capabilities) {
+        return saveRawBytes(R.string.key_encoder_capabilities, capabilities.serialize());
+    }
+
+    public EncoderCapabilities getEncoderCapabilities() {
+        byte[] data = getRawBytes(R.string.key_encoder_capabilities);
+        if (data == null) return null;
+        return EncoderCapabilities.parse(data, 0, data.length);
+    }
+
+    public boolean saveCipherSuiteRanking(CipherSuiteRanking ranking) {
+        return saveRawBytes(R.string.key_cipher_suite_ranking, ranking.serialize());
+    }
+
+    public CipherSuiteRanking getCipherSuiteRanking() {
+        byte[] data = getRawBytes(R.string.key_cipher_suite_ranking);
+        if (data == null) return null;
+        return CipherSuiteRanking.parse(data, 0, data.length);
+    }
+
+    public void saveLastCipherSuite(String cipherSuite) {
+        // this is saved during connection setup, so don't wait on the disk
+        prefs.edit()
+                .putString(context.getString(R.string.key_last_cipher_suite), cipherSuite)
+                .apply();
+    }
+
+    public String getLastCipherSuite() {
+        return prefs.getString(context.getString(R.string.key_last_cipher_suite), null);
+    }
+
+    public void saveLastFrameSizeStats(String stats) {
+        // this is saved as the video loop exits, so don't wait on the disk
+        prefs.edit()
+                .putString(context.getString(R.string.key_last_frame_size_stats), stats)
+                .apply();
+    }
+
+    public String getLastFrameSizeStats() {
+        return prefs.getString(context.getString(R.string.key_last_frame_size_stats), null);
+    }
+
     private int castInt(@StringRes int key, @StringRes int defaultRes) {
         String stringValue = prefs.getString(context.getString(key), null);
         if (stringValue == null) stringValue = context.getString(defaultRes);
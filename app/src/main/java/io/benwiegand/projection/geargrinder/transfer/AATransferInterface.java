@@ -20,12 +20,12 @@ public interface AATransferInterface {
     void sendFrame(byte[] buffer, int offset, int length) throws IOException;
 
     /**
-     * reads an entire AA frame from the underlying byte stream, blocking if needed
-     * @param buffer output
-     * @return the number of bytes in the message
+     * reads an entire AA frame from the underlying byte stream, blocking if needed.
+     * the frame is a view into a pooled buffer, and it's valid until the caller releases its reference to that buffer.
+     * @return the frame and its buffer
      * @throws IOException if the connection died
      */
-    int readFrame(byte[] buffer) throws IOException;
+    ReceivedFrame readFrame() throws IOException;
 
     /**
      * closes the connection
@@ -0,0 +1,13 @@
+package io.benwiegand.projection.geargrinder.transfer;
+
+import io.benwiegand.projection.geargrinder.data.PooledBuffer;
+import io.benwiegand.projection.geargrinder.message.AAFrame;
+
+/**
+ * a frame read from a {@link AATransferInterface}, along with a reference to the pooled buffer it lives in.
+ * the frame stays valid until that reference is released, so it can be handed to another thread without copying it.
+ * @param frame the frame, a view into the buffer
+ * @param buffer the buffer holding the frame, the receiver owns one reference to it
+ */
+public record ReceivedFrame(AAFrame frame, PooledBuffer buffer) {
+}
@@ -0,0 +1,150 @@
+package io.benwiegand.projection.geargrinder.transfer;
+
+import static io.benwiegand.projection.geargrinder.message.AAFrame.EXTENDED_HEADER_LENGTH;
+import static io.benwiegand.projection.geargrinder.message.AAFrame.FLAG_ENCRYPTED;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import io.benwiegand.projection.geargrinder.data.BufferPool;
+import io.benwiegand.projection.geargrinder.data.PooledBuffer;
+import io.benwiegand.projection.geargrinder.message.AAFrame;
+
+/**
+ * plays back the headunit's side of a {@link WireCapture}, so a session can be fed through {@link io.benwiegand.projection.geargrinder.message.MessageBroker} again without a headunit.
+ * frames are handed out with their plaintext payloads and the encrypted flag cleared, since the original session keys are gone.
+ * everything the phone side sends is discarded.
+ */
+public class ReplayTransferInterface implements AATransferInterface {
+    private static final String TAG = ReplayTransferInterface.class.getSimpleName();
+
+    public enum Speed {
+        ORIGINAL,   // frames come in with the same timing they were captured with
+        MAXIMUM,    // frames come in as fast as they're read
+    }
+
+    private final Speed speed;
+    private final MappedByteBuffer capture;
+    private final BufferPool framePool = new BufferPool();
+
+    private long replayStartTime = -1;
+    private long framesReplayed = 0;
+    private long framesDiscarded = 0;
+
+    private volatile boolean alive = true;
+    private boolean ended = false;
+
+    public ReplayTransferInterface(File file, Speed speed) throws IOException {
+        this.speed = speed;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("capture too large to replay: " + channel.size() + " bytes");
+            capture = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (capture.remaining() < WireCapture.FILE_HEADER_LENGTH || capture.getInt() != WireCapture.MAGIC)
+            throw new IOException("not a wire capture: " + file);
+
+        int version = capture.getShort() & 0xffff;
+        if (version != WireCapture.VERSION)
+            throw new IOException("unsupported wire capture version: " + version);
+
+        capture.position(WireCapture.FILE_HEADER_LENGTH);
+        Log.i(TAG, "replaying " + file + " (" + capture.limit() + " bytes) at " + speed + " speed");
+    }
+
+    @Override
+    public boolean alive() {
+        return alive;
+    }
+
+    @Override
+    public void sendFrame(byte[] buffer, int offset, int length) throws IOException {
+        if (!alive) throw new IOException("replay closed");
+        framesDiscarded++;
+    }
+
+    private void awaitRecordTime(long timestamp) throws IOException {
+        if (speed != Speed.ORIGINAL) return;
+
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (replayStartTime < 0) replayStartTime = now - timestamp;
+
+        long wait;
+        while ((wait = replayStartTime + timestamp - SystemClock.elapsedRealtimeNanos()) > 0) {
+            LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) throw new IOException("replay interrupted");
+        }
+    }
+
+    /**
+     * captures grow in zero-filled chunks and are only trimmed when closed, so a capture that was cut short
+     * (by a crash, for example) ends in zeros. no real record has an all-zero header, the timestamp is never 0.
+     */
+    private boolean isZeroRecordHeader() {
+        int position = capture.position();
+        for (int i = 0; i < WireCapture.RECORD_HEADER_LENGTH; i++) {
+            if (capture.get(position + i) != 0) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public ReceivedFrame readFrame() throws IOException {
+        while (alive && capture.remaining() >= WireCapture.RECORD_HEADER_LENGTH) {
+            if (isZeroRecordHeader()) {
+                Log.w(TAG, "capture ends with unwritten space, it probably wasn't closed properly");
+                break;
+            }
+
+            long timestamp = capture.getLong();
+            int direction = capture.get();
+            int channelId = capture.get() & 0xff;
+            int flags = capture.get() & 0xff;
+            capture.get();  // reserved
+            int totalMessageLength = capture.getInt();
+            int payloadLength = capture.getInt();
+
+            if (payloadLength < 0 || payloadLength > capture.remaining()) {
+                Log.w(TAG, "capture ends with a partial frame");
+                break;
+            }
+
+            if (direction != WireCapture.DIRECTION_RX) {
+                capture.position(capture.position() + payloadLength);
+                continue;
+            }
+
+            awaitRecordTime(timestamp);
+
+            PooledBuffer frameBuffer = framePool.acquire(EXTENDED_HEADER_LENGTH + payloadLength);
+            AAFrame frame = new AAFrame(frameBuffer.array(), flags & ~FLAG_ENCRYPTED)
+                    .setChannelId(channelId);
+            if (frame.isFirstInSequence()) frame.setTotalMessageLength(totalMessageLength);
+
+            frame.setPayloadLength(payloadLength);
+            capture.get(frameBuffer.array(), frame.getPayloadBufferOffset(), payloadLength);
+
+            framesReplayed++;
+            return new ReceivedFrame(frame, frameBuffer);
+        }
+
+        // stays alive, the frames already read still need to make it through the broker
+        if (!ended) Log.i(TAG, "end of capture: replayed " + framesReplayed + " frames, discarded " + framesDiscarded + " sent frames");
+        ended = true;
+        throw new IOException("end of capture");
+    }
+
+    @Override
+    public void close() {
+        alive = false;
+    }
+}
@@ -1,31 +1,54 @@
 package io.benwiegand.projection.geargrinder.transfer;
 
+import static io.benwiegand.projection.geargrinder.message.AAFrame.EXTENDED_HEADER_LENGTH;
+import static io.benwiegand.projection.geargrinder.message.AAFrame.HEADER_LENGTH;
+
 import android.os.ParcelFileDescriptor;
+import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import io.benwiegand.projection.geargrinder.data.BufferPool;
+import io.benwiegand.projection.geargrinder.data.PooledBuffer;
 import io.benwiegand.projection.geargrinder.message.AAFrame;
 
 // uses USB bulk transfers to separate AA messages
 // other implementations may need to leverage the 16-bit payload size in each message
 public class UsbTransferInterface implements AATransferInterface {
+    private static final String TAG = UsbTransferInterface.class.getSimpleName();
+
+    // largest frame the header can describe (16-bit payload length)
+    private static final int MAX_FRAME_LENGTH = EXTENDED_HEADER_LENGTH + 0xffff;
+
     private final ParcelFileDescriptor pfd;
     private final InputStream is;
     private final OutputStream os;
     private final int maxTransferSize;
-    private final byte[] readCache;
-    private int readCacheLength = 0;
+
+    // frames are handed out as views into this buffer, each holding a reference to it, and it's only replaced when it runs out of room at the end.
+    // that way a read can return many frames which are consumed in place, and at most a partial frame is ever moved.
+    private final BufferPool readBufferPool = new BufferPool();
+    private final int readBufferSize;
+    private PooledBuffer readBuffer;
+    private int readStart = 0;  // start of the next frame
+    private int readEnd = 0;    // end of data read so far
 
     private boolean alive = true;
 
-    public UsbTransferInterface(ParcelFileDescriptor pfd, InputStream is, OutputStream os, int maxTransferSize) {
+    /**
+     * @param maxTransferSize the max size of a single USB transfer
+     * @param readBufferSize the size of the read buffer. larger buffers allow each read to grab more frames at once.
+     *                       it's always big enough to hold one max size transfer on top of one max size frame.
+     */
+    public UsbTransferInterface(ParcelFileDescriptor pfd, InputStream is, OutputStream os, int maxTransferSize, int readBufferSize) {
         this.pfd = pfd;
         this.is = is;
         this.os = os;
         this.maxTransferSize = maxTransferSize;
-        readCache = new byte[maxTransferSize];
+        this.readBufferSize = Math.max(readBufferSize, MAX_FRAME_LENGTH + maxTransferSize);
+        readBuffer = readBufferPool.acquire(this.readBufferSize);
     }
 
     @Override
@@ -44,35 +67,60 @@ public class UsbTransferInterface implements AATransferInterface {
         }
     }
 
+    private void makeRoomForTransfer() {
+        // reading less than a full transfer can truncate it, so always leave room for one
+        if (readBuffer.capacity() - readEnd >= maxTransferSize) return;
+
+        int partialLength = readEnd - readStart;
+        assert partialLength < MAX_FRAME_LENGTH;
+
+        // frames that haven't been released yet still point into the old buffer, so the partial frame has to go somewhere else
+        if (readBuffer.refCount() > 1) {
+            PooledBuffer newBuffer = readBufferPool.acquire(readBufferSize);
+            if (partialLength > 0)
+                System.arraycopy(readBuffer.array(), readStart, newBuffer.array(), 0, partialLength);
+            readBuffer.release();
+            readBuffer = newBuffer;
+        } else if (partialLength > 0) {
+            System.arraycopy(readBuffer.array(), readStart, readBuffer.array(), 0, partialLength);
+        }
+
+        readStart = 0;
+        readEnd = partialLength;
+    }
+
     private void readTransfer() throws IOException {
-        assert readCacheLength <= 0;
-        int len = is.read(readCache);
+        makeRoomForTransfer();
+
+        int len = is.read(readBuffer.array(), readEnd, readBuffer.capacity() - readEnd);
         if (len < 0) throw new IOException("stream closed (" + len + ")");
+        if (len == 0) Log.w(TAG, "got empty transfer");
+
+        readEnd += len;
+    }
 
-        readCacheLength = len;
+    private int bufferedFrameLength() {
+        if (readEnd - readStart < HEADER_LENGTH) return -1;
+        int len = AAFrame.wrap(readBuffer.array(), readStart).getLength();
+        return len <= readEnd - readStart ? len : -1;
     }
 
     @Override
-    public int readFrame(byte[] buffer) throws IOException {
+    public ReceivedFrame readFrame() throws IOException {
         try {
-            if (readCacheLength <= 0) readTransfer();
-            AAFrame frame = new AAFrame(readCache);
-            int len = frame.getLength();
-
-            if (len > readCacheLength)
-                throw new IOException("frame length out of bounds");
-
-            System.arraycopy(frame.getBuffer(), 0, buffer, 0, len);
-
-            if (frame.getLength() == readCacheLength) {
-                readCacheLength = 0;
-                return frame.getLength();
+            // every frame has been consumed and released, so the buffer can start over for free
+            if (readStart == readEnd && readBuffer.refCount() == 1) {
+                readStart = 0;
+                readEnd = 0;
             }
 
-            System.arraycopy(readCache, len, readCache, 0, readCacheLength - len);
-            readCacheLength -= len;
+            int len;
+            while ((len = bufferedFrameLength()) < 0)
+                readTransfer();
 
-            return len;
+            AAFrame frame = AAFrame.wrap(readBuffer.array(), readStart);
+            readStart += len;
+            return new ReceivedFrame(frame, readBuffer.retain());
         } catch (IOException e) {
             alive = false;
             throw e;
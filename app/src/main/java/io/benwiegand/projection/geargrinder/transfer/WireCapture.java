@@ -0,0 +1,238 @@
+package io.benwiegand.projection.geargrinder.transfer;
+
+import static io.benwiegand.projection.geargrinder.util.ByteUtil.writeInt32;
+import static io.benwiegand.projection.geargrinder.util.ByteUtil.writeInt64;
+import static io.benwiegand.projection.geargrinder.util.ByteUtil.writeUInt16;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.benwiegand.projection.geargrinder.message.AAFrame;
+
+/**
+ * records every frame sent and received to a file, for {@link ReplayTransferInterface}.
+ * frames are recorded with their plaintext payload, since the session keys are gone by the time anyone looks at a capture.
+ * recording only copies the frame into a free slot, a separate thread appends the slots to a memory-mapped file.
+ * if the writer falls behind, frames are dropped from the capture instead of holding up the connection.
+ * <p>
+ * file layout, all big endian:
+ * <pre>
+ * header:  magic (4) | version (2) | reserved (2) | start time, elapsed realtime ns (8)
+ * record:  timestamp ns since start (8) | direction (1) | channel id (1) | flags (1) | reserved (1)
+ *          | total message length, only for the first frame of a multi-frame message, otherwise 0 (4)
+ *          | payload length (4) | plaintext payload
+ * </pre>
+ * the file grows in zero-filled chunks and is trimmed on close, so if it never gets closed, the records end at the first all-zero header.
+ * recording stops once the file would grow past {@link WireCapture#MAX_FILE_SIZE}.
+ */
+public class WireCapture {
+    private static final String TAG = WireCapture.class.getSimpleName();
+
+    static final int MAGIC = 0x47474150;    // "GGAP"
+    static final int VERSION = 1;
+    static final int FILE_HEADER_LENGTH = 16;
+    static final int RECORD_HEADER_LENGTH = 20;
+
+    public static final int DIRECTION_RX = 0;   // headunit -> phone
+    public static final int DIRECTION_TX = 1;   // phone -> headunit
+
+    private static final int SLOT_SIZE = RECORD_HEADER_LENGTH + AAFrame.MAX_LENGTH;
+    private static final int SLOT_COUNT = 64;
+    private static final long MAP_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final long MAX_FILE_SIZE = 256 * 1024 * 1024;
+
+    private static final class Slot {
+        byte[] buffer = new byte[SLOT_SIZE];
+        int length;
+    }
+
+    // tells the writer to finish up
+    private static final Slot END = new Slot();
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long startTime = SystemClock.elapsedRealtimeNanos();
+
+    private final BlockingQueue<Slot> freeSlots = new ArrayBlockingQueue<>(SLOT_COUNT);
+    private final BlockingQueue<Slot> pendingSlots = new ArrayBlockingQueue<>(SLOT_COUNT + 1);    // + END
+    private final Thread writerThread;
+
+    // writer thread only
+    private MappedByteBuffer map = null;
+    private long mapStart = 0;
+    private long recordCount = 0;
+
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private volatile boolean closed = false;    // stops recording, either because of close() or a write failure
+    private boolean closeCalled = false;
+
+    public WireCapture(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+
+        for (int i = 0; i < SLOT_COUNT; i++)
+            freeSlots.add(new Slot());
+
+        byte[] header = new byte[FILE_HEADER_LENGTH];
+        writeInt32(MAGIC, header, 0);
+        writeUInt16(VERSION, header, 4);
+        writeInt64(startTime, header, 8);
+        append(header, 0, header.length);
+
+        writerThread = new Thread(this::writeLoop, "wire capture writer");
+        writerThread.start();
+        Log.i(TAG, "capturing to " + file);
+    }
+
+    private Slot takeSlot(int payloadLength) {
+        Slot slot = freeSlots.poll();
+        if (slot == null) {
+            droppedCount.incrementAndGet();
+            return null;
+        }
+
+        if (slot.buffer.length < RECORD_HEADER_LENGTH + payloadLength)
+            slot.buffer = new byte[RECORD_HEADER_LENGTH + payloadLength];
+        slot.length = RECORD_HEADER_LENGTH + payloadLength;
+        return slot;
+    }
+
+    private void writeRecordHeader(Slot slot, int direction, int channelId, int flags, int totalMessageLength, int payloadLength) {
+        byte[] buffer = slot.buffer;
+        // never 0, an all-zero header marks the end of a capture that wasn't closed
+        writeInt64(Math.max(1, SystemClock.elapsedRealtimeNanos() - startTime), buffer, 0);
+        buffer[8] = (byte) direction;
+        buffer[9] = (byte) channelId;
+        buffer[10] = (byte) flags;
+        buffer[11] = 0;
+        writeInt32(totalMessageLength, buffer, 12);
+        writeInt32(payloadLength, buffer, 16);
+    }
+
+    private void submit(Slot slot) {
+        boolean queued = pendingSlots.offer(slot);
+        assert queued;  // there's only as many slots as queue capacity
+    }
+
+    /**
+     * records a frame. never blocks, the frame is dropped from the capture if the writer is behind.
+     * @param flags the frame's flags, as they were on the wire
+     * @param totalMessageLength the plaintext length of the whole message if this is the first of several frames, otherwise 0
+     */
+    public void record(int direction, int channelId, int flags, int totalMessageLength, byte[] payload, int offset, int length) {
+        if (closed) return;
+        Slot slot = takeSlot(length);
+        if (slot == null) return;
+
+        writeRecordHeader(slot, direction, channelId, flags, totalMessageLength, length);
+        System.arraycopy(payload, offset, slot.buffer, RECORD_HEADER_LENGTH, length);
+        submit(slot);
+    }
+
+    /**
+     * like {@link WireCapture#record(int, int, int, int, byte[], int, int)}, but with the payload split across buffers.
+     * the buffers aren't advanced.
+     */
+    public void record(int direction, int channelId, int flags, int totalMessageLength, ByteBuffer[] payload) {
+        if (closed) return;
+        int length = 0;
+        for (ByteBuffer buffer : payload) length += buffer.remaining();
+
+        Slot slot = takeSlot(length);
+        if (slot == null) return;
+
+        writeRecordHeader(slot, direction, channelId, flags, totalMessageLength, length);
+        int index = RECORD_HEADER_LENGTH;
+        for (ByteBuffer buffer : payload) {
+            int remaining = buffer.remaining();
+            buffer.duplicate().get(slot.buffer, index, remaining);
+            index += remaining;
+        }
+        submit(slot);
+    }
+
+    /**
+     * appends to the file through the current mapping, mapping the next chunk when it runs out
+     */
+    private void append(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (map == null || !map.hasRemaining()) {
+                mapStart += map == null ? 0 : map.position();
+                map = channel.map(FileChannel.MapMode.READ_WRITE, mapStart, MAP_CHUNK_SIZE);
+            }
+
+            int chunk = Math.min(length, map.remaining());
+            map.put(buffer, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Slot slot = pendingSlots.take();
+                if (slot == END) break;
+
+                if (mapStart + (map == null ? 0 : map.position()) + slot.length > MAX_FILE_SIZE) {
+                    Log.w(TAG, "capture reached " + MAX_FILE_SIZE + " bytes, stopping");
+                    closed = true;
+                    freeSlots.add(slot);
+                    break;
+                }
+
+                try {
+                    append(slot.buffer, 0, slot.length);
+                    recordCount++;
+                } finally {
+                    freeSlots.add(slot);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "failed to write capture, stopping", e);
+            closed = true;
+        } catch (InterruptedException e) {
+            Log.w(TAG, "capture writer interrupted", e);
+        }
+    }
+
+    /**
+     * writes out whatever is still queued, and trims the file down to what was written
+     */
+    public synchronized void close() {
+        if (closeCalled) return;
+        closeCalled = true;
+        closed = true;
+
+        try {
+            pendingSlots.put(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "interrupted while finishing capture", e);
+            writerThread.interrupt();
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            long length = mapStart + (map == null ? 0 : map.position());
+            if (map != null) map.force();
+            channel.truncate(length);
+            raf.close();
+            Log.i(TAG, "captured " + recordCount + " frames (" + length + " bytes) to " + file + ", dropped " + droppedCount.get());
+        } catch (IOException e) {
+            Log.e(TAG, "failed to finish capture", e);
+        }
+    }
+}
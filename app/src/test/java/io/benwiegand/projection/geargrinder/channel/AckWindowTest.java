@@ -0,0 +1,180 @@
+package io.benwiegand.projection.geargrinder.channel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AckWindowTest {
+
+    private static final int LIMIT = 8;
+
+    private AckWindow ackWindow;
+    private long now;
+
+    @Before
+    public void setUp() {
+        // SystemClock returns 0 in unit tests, so the window is set at time 0
+        ackWindow = new AckWindow(64);
+        ackWindow.setLimit(LIMIT);
+        now = 1000;
+    }
+
+    /**
+     * sends a frame and acks it after the given latency
+     */
+    private long sendAndAck(long latency) {
+        ackWindow.onSend(now);
+        now += latency;
+        return ackWindow.onAck(1, now);
+    }
+
+    @Test
+    public void setLimit_opensWindowFully() {
+        assertEquals(LIMIT, ackWindow.getWindow());
+    }
+
+    @Test
+    public void setInitialWindow_isCappedToLimit() {
+        ackWindow.setInitialWindow(3);
+        assertEquals(3, ackWindow.getWindow());
+
+        ackWindow.setInitialWindow(LIMIT * 2);
+        assertEquals(LIMIT, ackWindow.getWindow());
+
+        ackWindow.setInitialWindow(0);
+        assertEquals(1, ackWindow.getWindow());
+    }
+
+    @Test
+    public void onAck_returnsLatency() {
+        assertEquals(-1, ackWindow.onAck(1, now));
+        assertEquals(15, sendAndAck(15));
+        assertEquals(0, ackWindow.getOutstanding());
+    }
+
+    @Test
+    public void window_growsByOnePerWindowOfAcks() {
+        ackWindow.setInitialWindow(2);
+
+        sendAndAck(10);
+        assertEquals(2, ackWindow.getWindow());
+        sendAndAck(10);
+        assertEquals(3, ackWindow.getWindow());
+
+        for (int i = 0; i < 3; i++) sendAndAck(10);
+        assertEquals(4, ackWindow.getWindow());
+    }
+
+    @Test
+    public void window_doesNotGrowPastLimit() {
+        for (int i = 0; i < LIMIT * 4; i++) sendAndAck(10);
+        assertEquals(LIMIT, ackWindow.getWindow());
+    }
+
+    @Test
+    public void window_halvesOncePerRoundTripWhenLatencyInflates() {
+        sendAndAck(10);
+
+        // a burst of frames that all come back late
+        for (int i = 0; i < 4; i++) ackWindow.onSend(now);
+        now += 200;
+        for (int i = 0; i < 4; i++) ackWindow.onAck(1, now);
+        assertEquals(LIMIT / 2, ackWindow.getWindow());
+
+        // frames sent after the decrease count again
+        now++;
+        sendAndAck(200);
+        assertEquals(LIMIT / 4, ackWindow.getWindow());
+    }
+
+    @Test
+    public void await_returnsWhenThereIsRoom() throws InterruptedException {
+        ackWindow.setInitialWindow(1);
+        assertTrue(ackWindow.await(0));
+
+        ackWindow.onSend(now);
+        assertEquals(1, ackWindow.getOutstanding());
+        ackWindow.onAck(1, now + 10);
+        assertTrue(ackWindow.await(0));
+    }
+
+    @Test
+    public void await_timesOutWhenFull() throws InterruptedException {
+        ackWindow.setInitialWindow(1);
+        ackWindow.onSend(now);
+
+        long start = System.nanoTime();
+        assertFalse(ackWindow.await(50));
+        assertTrue(System.nanoTime() - start >= 50_000_000);
+    }
+
+    @Test
+    public void await_keepsWaitingUntilThereIsRoom() throws InterruptedException {
+        ackWindow.setLimit(1);
+        ackWindow.onSend(now);
+        ackWindow.onSend(now);
+
+        Thread acker = new Thread(() -> {
+            try {
+                // the first ack wakes the waiter without making room
+                Thread.sleep(20);
+                ackWindow.onAck(1, now + 20);
+                Thread.sleep(40);
+                ackWindow.onAck(1, now + 60);
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        long start = System.nanoTime();
+        acker.start();
+        assertTrue(ackWindow.await(5000));
+        assertTrue(System.nanoTime() - start >= 60_000_000);
+        assertEquals(0, ackWindow.getOutstanding());
+        acker.join();
+    }
+
+    @Test
+    public void stableWindow_needsToHold() {
+        assertEquals(-1, ackWindow.getStableWindow(now));
+
+        sendAndAck(10);
+        assertEquals(-1, ackWindow.getStableWindow(now));
+
+        now = 10_000;
+        sendAndAck(10);
+        assertEquals(LIMIT, ackWindow.getStableWindow(now));
+    }
+
+    @Test
+    public void stableWindow_survivesShrinkAndReset() {
+        now = 10_000;
+        sendAndAck(10);
+        assertEquals(LIMIT, ackWindow.getStableWindow(now));
+
+        for (int i = 0; i < 2; i++) ackWindow.onSend(now);
+        now += 500;
+        ackWindow.onAck(2, now);
+        assertEquals(LIMIT / 2, ackWindow.getWindow());
+        assertEquals(LIMIT, ackWindow.getStableWindow(now));
+
+        ackWindow.reset();
+        assertEquals(LIMIT, ackWindow.getStableWindow(now));
+    }
+
+    @Test
+    public void stableWindow_clockRestartsWhenWindowChanges() {
+        ackWindow.setInitialWindow(2);
+        now = 9_000;
+        sendAndAck(10);
+        sendAndAck(10);
+        assertEquals(3, ackWindow.getWindow());
+
+        // held since setInitialWindow(), but it grew since then
+        now = 12_000;
+        assertEquals(-1, ackWindow.getStableWindow(now));
+
+        now = 9_020 + 10_000;
+        assertEquals(3, ackWindow.getStableWindow(now));
+    }
+}
@@ -0,0 +1,129 @@
+package io.benwiegand.projection.geargrinder.crypto;
+
+import org.junit.Test;
+
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
+
+import static org.junit.Assert.*;
+
+public class CipherSuiteRankingTest {
+
+    private static final String RSA_GCM = "TLS_RSA_WITH_AES_128_GCM_SHA256";
+    private static final String RSA_NULL = "TLS_RSA_WITH_NULL_SHA256";
+    private static final String ECDHE_GCM = "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256";
+    private static final String ECDHE_CBC = "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA";
+    private static final String DHE_GCM = "TLS_DHE_RSA_WITH_AES_128_GCM_SHA256";
+    private static final String ECDHE_CHACHA = "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256";
+
+    private static CipherSuiteRanking ranking(CipherSuiteRanking.Entry... entries) {
+        return new CipherSuiteRanking("fingerprint", entries, CipherSuiteRanking.BENCHMARK_VERSION);
+    }
+
+    private static CipherSuiteRanking.Entry entry(String cipherSuite, long bytesPerSecond) {
+        return new CipherSuiteRanking.Entry(cipherSuite, bytesPerSecond);
+    }
+
+    @Test
+    public void isForwardSecret_checksKeyExchange() {
+        assertTrue(CipherSuiteRanking.isForwardSecret(ECDHE_GCM));
+        assertTrue(CipherSuiteRanking.isForwardSecret(DHE_GCM));
+        assertTrue(CipherSuiteRanking.isForwardSecret("TLS_AES_128_GCM_SHA256"));
+        assertTrue(CipherSuiteRanking.isForwardSecret("TLS_CHACHA20_POLY1305_SHA256"));
+        assertFalse(CipherSuiteRanking.isForwardSecret(RSA_GCM));
+    }
+
+    @Test
+    public void isAead_checksCipher() {
+        assertTrue(CipherSuiteRanking.isAead(ECDHE_GCM));
+        assertTrue(CipherSuiteRanking.isAead(ECDHE_CHACHA));
+        assertTrue(CipherSuiteRanking.isAead("TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8"));
+        assertFalse(CipherSuiteRanking.isAead(ECDHE_CBC));
+        assertFalse(CipherSuiteRanking.isAead(RSA_NULL));
+    }
+
+    @Test
+    public void order_putsFasterFirst() {
+        CipherSuiteRanking ranking = ranking(
+                entry(ECDHE_CBC, 100_000_000),
+                entry(ECDHE_GCM, 300_000_000),
+                entry(DHE_GCM, 50_000_000));
+
+        assertArrayEquals(new String[] {ECDHE_GCM, ECDHE_CBC, DHE_GCM},
+                ranking.order(new String[] {DHE_GCM, ECDHE_CBC, ECDHE_GCM}));
+    }
+
+    @Test
+    public void order_neverPutsFasterSuiteAheadOfForwardSecrecy() {
+        CipherSuiteRanking ranking = ranking(
+                entry(RSA_NULL, 900_000_000),
+                entry(RSA_GCM, 500_000_000),
+                entry(ECDHE_CBC, 100_000_000));
+
+        assertArrayEquals(new String[] {ECDHE_CBC, RSA_GCM, RSA_NULL},
+                ranking.order(new String[] {RSA_NULL, RSA_GCM, ECDHE_CBC}));
+    }
+
+    @Test
+    public void order_breaksTiesTowardsEcdheAndAead() {
+        // within 10% of each other, so the benchmark can't tell them apart
+        CipherSuiteRanking ranking = ranking(
+                entry(DHE_GCM, 100_000_000),
+                entry(ECDHE_CBC, 99_000_000),
+                entry(ECDHE_GCM, 98_000_000));
+
+        assertArrayEquals(new String[] {ECDHE_GCM, ECDHE_CBC, DHE_GCM},
+                ranking.order(new String[] {DHE_GCM, ECDHE_CBC, ECDHE_GCM}));
+    }
+
+    @Test
+    public void order_putsUnmeasuredLastInTheirGroup() {
+        CipherSuiteRanking ranking = ranking(
+                entry(ECDHE_CBC, 100_000_000),
+                entry(RSA_GCM, 500_000_000));
+
+        assertArrayEquals(new String[] {ECDHE_CBC, ECDHE_CHACHA, DHE_GCM, RSA_GCM},
+                ranking.order(new String[] {ECDHE_CHACHA, RSA_GCM, DHE_GCM, ECDHE_CBC}));
+    }
+
+    @Test
+    public void get_findsEntry() {
+        CipherSuiteRanking ranking = ranking(entry(ECDHE_GCM, 12_345_678));
+        assertEquals(12.3, ranking.get(ECDHE_GCM).megabytesPerSecond(), 0);
+        assertNull(ranking.get(RSA_GCM));
+    }
+
+    @Test
+    public void roundTrip_keepsEntriesInOrder() {
+        CipherSuiteRanking ranking = ranking(
+                entry(ECDHE_GCM, 300_000_000),
+                entry(ECDHE_CBC, 100_000_000));
+
+        byte[] serialized = ranking.serialize();
+        assertEquals(ranking.encodedLength(), serialized.length);
+
+        CipherSuiteRanking parsed = CipherSuiteRanking.parse(serialized, 0, serialized.length);
+        assertNotNull(parsed);
+        assertEquals(ranking.fingerprint(), parsed.fingerprint());
+        assertEquals(ranking.version(), parsed.version());
+        assertArrayEquals(ranking.entries(), parsed.entries());
+    }
+
+    @Test
+    public void parse_defaultsToFirstVersion() {
+        byte[] buffer = new byte[32];
+        int length = new ProtoWriter(buffer, 0)
+                .varData(1, new byte[] {'f'})
+                .position();
+
+        CipherSuiteRanking parsed = CipherSuiteRanking.parse(buffer, 0, length);
+        assertNotNull(parsed);
+        assertEquals(1, parsed.version());
+        assertEquals(0, parsed.entries().length);
+    }
+
+    @Test
+    public void parse_returnsNullWhenMalformed() {
+        byte[] buffer = {0x12, 0x03, 0x0a};
+        assertNull(CipherSuiteRanking.parse(buffer, 0, buffer.length));
+    }
+}
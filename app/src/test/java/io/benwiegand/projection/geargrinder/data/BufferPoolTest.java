@@ -0,0 +1,147 @@
+package io.benwiegand.projection.geargrinder.data;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void acquire_roundsUpToSizeClass() {
+        BufferPool pool = new BufferPool();
+        assertEquals(256, pool.acquire(1).capacity());
+        assertEquals(256, pool.acquire(256).capacity());
+        assertEquals(512, pool.acquire(257).capacity());
+        assertEquals(1 << 20, pool.acquire(1 << 20).capacity());
+
+        PooledBuffer buffer = pool.acquire(100);
+        assertEquals(0, buffer.length());
+        assertEquals(1, buffer.refCount());
+    }
+
+    @Test
+    public void release_recyclesBuffer() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.acquire(1000);
+        buffer.setLength(500);
+        buffer.release();
+        assertEquals(0, buffer.refCount());
+
+        PooledBuffer reused = pool.acquire(600);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.length());
+        assertEquals(1, reused.refCount());
+    }
+
+    @Test
+    public void hugeBuffers_areNotPooled() {
+        BufferPool pool = new BufferPool();
+        int size = (1 << 20) + 1;
+        PooledBuffer buffer = pool.acquire(size);
+        assertEquals(size, buffer.capacity());
+        buffer.release();
+
+        assertNotSame(buffer, pool.acquire(size));
+    }
+
+    @Test
+    public void retain_keepsBufferUntilLastRelease() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.acquire(100);
+        assertSame(buffer, buffer.retain());
+        assertEquals(2, buffer.refCount());
+
+        buffer.release();
+        assertEquals(1, buffer.refCount());
+        assertNotSame(buffer, pool.acquire(100));
+
+        buffer.release();
+        assertSame(buffer, pool.acquire(100));
+    }
+
+    @Test
+    public void releasedBuffer_rejectsRetainAndRelease() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.acquire(100);
+        buffer.release();
+
+        assertThrows(IllegalStateException.class, buffer::retain);
+        assertThrows(IllegalStateException.class, buffer::release);
+    }
+
+    @Test
+    public void setLength_checksBounds() {
+        PooledBuffer buffer = new BufferPool().acquire(256);
+        buffer.setLength(256);
+        assertEquals(256, buffer.length());
+
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.setLength(257));
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.setLength(-1));
+    }
+
+    @Test
+    public void grow_keepsBufferWithEnoughRoom() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.acquire(256);
+        assertSame(buffer, pool.grow(buffer, 256, 0));
+        assertEquals(1, buffer.refCount());
+    }
+
+    @Test
+    public void grow_copiesIntoBiggerBuffer() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.acquire(256);
+        for (int i = 0; i < 10; i++) buffer.array()[i] = (byte) i;
+        buffer.setLength(10);
+
+        PooledBuffer grown = pool.grow(buffer, 1000, 8);
+        assertNotSame(buffer, grown);
+        assertEquals(1024, grown.capacity());
+        assertEquals(8, grown.length());
+        for (int i = 0; i < 8; i++) assertEquals(i, grown.array()[i]);
+
+        // the old one went back to the pool
+        assertEquals(0, buffer.refCount());
+        assertSame(buffer, pool.acquire(256));
+    }
+
+    @Test
+    public void release_keepsLimitedNumberOfFreeBuffers() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer[] buffers = new PooledBuffer[32];
+        for (int i = 0; i < buffers.length; i++) buffers[i] = pool.acquire(100);
+        for (PooledBuffer buffer : buffers) buffer.release();
+
+        Set<PooledBuffer> released = Collections.newSetFromMap(new IdentityHashMap<>());
+        Collections.addAll(released, buffers);
+
+        int reused = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            if (released.contains(pool.acquire(100))) reused++;
+        }
+        assertTrue(reused > 0);
+        assertTrue(reused < buffers.length);
+    }
+
+    @Test
+    public void trimIfDue_dropsIdleLargeBuffers() {
+        // SystemClock returns 0 in unit tests, so buffers are acquired at time 0
+        BufferPool pool = new BufferPool();
+        PooledBuffer small = pool.acquire(256);
+        PooledBuffer large = pool.acquire(64 * 1024);
+        small.release();
+        large.release();
+
+        pool.trimIfDue(1000);
+        assertSame(large, pool.acquire(64 * 1024));
+        large.release();
+
+        pool.trimIfDue(10_000);
+        assertNotSame(large, pool.acquire(64 * 1024));
+        assertSame(small, pool.acquire(256));
+    }
+}
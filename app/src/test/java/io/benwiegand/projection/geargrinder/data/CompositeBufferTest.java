@@ -0,0 +1,204 @@
+package io.benwiegand.projection.geargrinder.data;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CompositeBufferTest {
+
+    private static byte[] range(int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = (byte) (start + i);
+        return bytes;
+    }
+
+    // 0..9 split over an array, a heap buffer and a direct buffer
+    private static CompositeBuffer createBuffer() {
+        ByteBuffer heap = ByteBuffer.wrap(range(0, 10));
+        heap.position(3).limit(7);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(3);
+        direct.put(range(7, 3)).flip();
+
+        return new CompositeBuffer(2)
+                .add(range(0, 10), 0, 3)
+                .add(heap)
+                .add(direct);
+    }
+
+    @Test
+    public void length_coversAllComponents() {
+        CompositeBuffer buffer = createBuffer();
+        assertEquals(10, buffer.length());
+        assertEquals(10, buffer.remaining());
+        assertTrue(buffer.initialized());
+    }
+
+    @Test
+    public void read_spansComponents() {
+        CompositeBuffer buffer = createBuffer();
+
+        byte[] out = new byte[12];
+        buffer.read(out, 1, 5);
+        buffer.read(out, 6, 5);
+        assertArrayEquals(new byte[] {0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 0}, out);
+        assertEquals(10, buffer.index());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void read_intoByteBuffer() {
+        CompositeBuffer buffer = createBuffer();
+        buffer.skip(2);
+
+        ByteBuffer out = ByteBuffer.allocate(8);
+        buffer.read(out, 6);
+        assertEquals(6, out.position());
+        assertArrayEquals(range(2, 6), Arrays.copyOf(out.array(), 6));
+        assertEquals(8, buffer.index());
+    }
+
+    @Test
+    public void read_rejectsReadingPastEnd() {
+        CompositeBuffer buffer = createBuffer();
+        buffer.skip(8);
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.read(new byte[3], 0, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.skip(3));
+        assertEquals(8, buffer.index());
+    }
+
+    @Test
+    public void nioBuffers_exposeRangeWithoutAdvancing() {
+        CompositeBuffer buffer = createBuffer();
+        buffer.skip(2);
+
+        ByteBuffer[] buffers = buffer.nioBuffers(6);
+        assertEquals(3, buffers.length);
+        assertEquals(1, buffers[0].remaining());
+        assertEquals(4, buffers[1].remaining());
+        assertEquals(1, buffers[2].remaining());
+        assertEquals(2, buffers[0].get(buffers[0].position()));
+        assertEquals(3, buffers[1].get(buffers[1].position()));
+        assertEquals(7, buffers[2].get(buffers[2].position()));
+        assertEquals(2, buffer.index());
+
+        assertEquals(1, buffer.nioBuffers(1).length);
+    }
+
+    @Test
+    public void add_doesNotTouchSourceBuffer() {
+        ByteBuffer source = ByteBuffer.wrap(range(0, 10));
+        source.position(2).limit(8);
+
+        CompositeBuffer buffer = new CompositeBuffer().add(source);
+        buffer.read(new byte[6], 0, 6);
+
+        assertEquals(2, source.position());
+        assertEquals(8, source.limit());
+    }
+
+    @Test
+    public void add_skipsEmptyComponents() {
+        CompositeBuffer buffer = new CompositeBuffer(1)
+                .add(new byte[4], 2, 0)
+                .add(ByteBuffer.allocate(0))
+                .add(range(5, 2), 0, 2);
+
+        assertEquals(2, buffer.length());
+        assertEquals(1, buffer.nioBuffers(2).length);
+    }
+
+    @Test
+    public void add_readerAddsOnlyUnreadBytes() {
+        BufferReader arrayReader = BufferReader.from(range(0, 4));
+        arrayReader.skip(1);
+        BufferReader bufferReader = BufferReader.from(ByteBuffer.wrap(range(4, 4)));
+        bufferReader.skip(2);
+
+        CompositeBuffer buffer = new CompositeBuffer()
+                .add(arrayReader)
+                .add(bufferReader)
+                .add(createBuffer());
+
+        byte[] out = new byte[buffer.length()];
+        buffer.read(out, 0, out.length);
+        assertArrayEquals(new byte[] {1, 2, 3, 6, 7, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, out);
+
+        // the added readers weren't advanced
+        assertEquals(1, arrayReader.index());
+        assertEquals(2, bufferReader.index());
+    }
+
+    @Test
+    public void clear_allowsReuse() {
+        byte[] header = range(100, 4);
+        ByteBuffer[] frames = {ByteBuffer.wrap(range(0, 8)), ByteBuffer.wrap(range(50, 8))};
+        CompositeBuffer buffer = new CompositeBuffer(2);
+
+        for (int i = 0; i < 20; i++) {
+            ByteBuffer frame = frames[i % frames.length];
+            frame.position(i % 4).limit(8);
+
+            buffer.clear()
+                    .add(header, 0, 2)
+                    .add(frame);
+            assertEquals(2 + 8 - i % 4, buffer.length());
+
+            byte[] out = new byte[buffer.length()];
+            buffer.read(out, 0, out.length);
+            assertEquals(100, out[0]);
+            assertEquals(101, out[1]);
+            assertEquals(frame.get(i % 4), out[2]);
+            assertEquals(frame.get(7), out[out.length - 1]);
+        }
+    }
+
+    @Test
+    public void add_reusesViewsOfSameSources() {
+        byte[] header = range(0, 4);
+        ByteBuffer[] frames = {ByteBuffer.allocateDirect(8), ByteBuffer.allocateDirect(8)};
+        CompositeBuffer buffer = new CompositeBuffer(2);
+
+        ByteBuffer[][] views = new ByteBuffer[frames.length][];
+        for (int i = 0; i < 6; i++) {
+            ByteBuffer[] nioBuffers = buffer.clear()
+                    .add(header, 0, 4)
+                    .add(frames[i % frames.length])
+                    .nioBuffers(12);
+
+            if (i < frames.length) {
+                views[i] = nioBuffers.clone();
+            } else {
+                assertSame(views[i % frames.length][0], nioBuffers[0]);
+                assertSame(views[i % frames.length][1], nioBuffers[1]);
+            }
+        }
+    }
+
+    @Test
+    public void add_growsPastInitialCapacity() {
+        CompositeBuffer buffer = new CompositeBuffer(1);
+        for (int i = 0; i < 10; i++) buffer.add(range(i, 1), 0, 1);
+
+        byte[] out = new byte[10];
+        buffer.read(out, 0, 10);
+        assertArrayEquals(range(0, 10), out);
+
+        buffer.reset();
+        assertEquals(10, buffer.nioBuffers(10).length);
+    }
+
+    @Test
+    public void reset_rewindsToStart() {
+        CompositeBuffer buffer = createBuffer();
+        buffer.skip(7);
+        buffer.reset();
+
+        byte[] out = new byte[10];
+        buffer.read(out, 0, 10);
+        assertArrayEquals(range(0, 10), out);
+    }
+}
@@ -0,0 +1,96 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BitrateControllerTest {
+
+    private static final int MIN_BITRATE = 1_000_000;
+    private static final int MAX_BITRATE = 8_000_000;
+    private static final int MAX_OUTSTANDING = 8;
+
+    // SystemClock returns 0 in unit tests, so the controller starts at time 0
+    private static BitrateController createController(int initialBitrate) {
+        BitrateController controller = new BitrateController(initialBitrate, MIN_BITRATE, MAX_BITRATE);
+        controller.onAck(10, 0, MAX_OUTSTANDING, 100);     // baseline latency
+        return controller;
+    }
+
+    @Test
+    public void initialBitrate_isClamped() {
+        assertEquals(MIN_BITRATE, new BitrateController(1, MIN_BITRATE, MAX_BITRATE).getTargetBitrate());
+        assertEquals(MAX_BITRATE, new BitrateController(Integer.MAX_VALUE, MIN_BITRATE, MAX_BITRATE).getTargetBitrate());
+    }
+
+    @Test
+    public void onAck_waitsBetweenAdjustments() {
+        BitrateController controller = createController(4_000_000);
+        controller.onAck(10, MAX_OUTSTANDING, MAX_OUTSTANDING, 900);
+        assertEquals(4_000_000, controller.getTargetBitrate());
+    }
+
+    @Test
+    public void onAck_lowersBitrateWhenAcksPileUp() {
+        BitrateController controller = createController(4_000_000);
+        controller.onAck(10, MAX_OUTSTANDING, MAX_OUTSTANDING, 1000);
+        assertEquals(3_000_000, controller.getTargetBitrate());
+        assertFalse(controller.takeSyncFrameRequest());
+    }
+
+    @Test
+    public void onAck_halvesBitrateAndRequestsSyncFrameWhenSeverelyBehind() {
+        BitrateController controller = createController(4_000_000);
+        controller.onAck(2000, 1, MAX_OUTSTANDING, 500);
+        controller.onAck(2000, 1, MAX_OUTSTANDING, 1000);
+        assertEquals(2_000_000, controller.getTargetBitrate());
+
+        assertTrue(controller.takeSyncFrameRequest());
+        assertFalse(controller.takeSyncFrameRequest());
+    }
+
+    @Test
+    public void onAck_raisesBitrateAfterHoldoff() {
+        BitrateController controller = createController(4_000_000);
+        controller.onAck(10, 1, MAX_OUTSTANDING, 1000);
+        controller.onAck(10, 1, MAX_OUTSTANDING, 2000);
+        assertEquals(4_000_000, controller.getTargetBitrate());
+
+        controller.onAck(10, 1, MAX_OUTSTANDING, 3000);
+        assertEquals(4_000_000 + MAX_BITRATE / 20, controller.getTargetBitrate());
+    }
+
+    @Test
+    public void onAck_neverGoesPastLimits() {
+        BitrateController controller = createController(MIN_BITRATE);
+        controller.onAck(10, MAX_OUTSTANDING, MAX_OUTSTANDING, 1000);
+        assertEquals(MIN_BITRATE, controller.getTargetBitrate());
+
+        controller = createController(MAX_BITRATE);
+        controller.onAck(10, 1, MAX_OUTSTANDING, 4000);
+        assertEquals(MAX_BITRATE, controller.getTargetBitrate());
+    }
+
+    @Test
+    public void stableBitrate_isKeptAfterADrop() {
+        BitrateController controller = createController(MAX_BITRATE);
+        assertEquals(-1, controller.getStableBitrate());
+
+        controller.onAck(10, 1, MAX_OUTSTANDING, 5000);
+        assertEquals(-1, controller.getStableBitrate());
+
+        controller.onAck(10, 1, MAX_OUTSTANDING, 10_000);
+        assertEquals(MAX_BITRATE, controller.getStableBitrate());
+
+        controller.onAck(10, MAX_OUTSTANDING, MAX_OUTSTANDING, 11_000);
+        assertEquals(6_000_000, controller.getTargetBitrate());
+        assertEquals(MAX_BITRATE, controller.getStableBitrate());
+    }
+
+    @Test
+    public void stableBitrate_isNotSetWhileBehind() {
+        BitrateController controller = createController(MAX_BITRATE);
+        controller.onAck(10, MAX_OUTSTANDING, MAX_OUTSTANDING, 10_000);
+        assertEquals(-1, controller.getStableBitrate());
+    }
+}
@@ -0,0 +1,82 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import io.benwiegand.projection.geargrinder.proto.ProtoWriter;
+import io.benwiegand.projection.geargrinder.proto.data.readable.av.preset.VideoPreset;
+
+import static org.junit.Assert.*;
+
+public class EncoderCapabilitiesTest {
+
+    private static EncoderCapabilities roundTrip(EncoderCapabilities capabilities) {
+        byte[] serialized = capabilities.serialize();
+        assertEquals(capabilities.encodedLength(), serialized.length);
+        return EncoderCapabilities.parse(serialized, 0, serialized.length);
+    }
+
+    @Test
+    public void roundTrip_keepsAllFields() {
+        EncoderCapabilities capabilities = new EncoderCapabilities(
+                EncoderCapabilities.PROBE_VERSION,
+                "vendor/device/device:16/ABC.123/4567:user/release-keys",
+                "c2.vendor.avc.encoder",
+                2,
+                EnumSet.of(VideoPreset.Resolution.RES_480P, VideoPreset.Resolution.RES_1080P),
+                0x10000,
+                true,
+                true);
+
+        assertEquals(capabilities, roundTrip(capabilities));
+    }
+
+    @Test
+    public void roundTrip_withoutEncoder() {
+        EncoderCapabilities capabilities = new EncoderCapabilities(
+                EncoderCapabilities.PROBE_VERSION,
+                "fingerprint",
+                null,
+                VideoEncoder.BITRATE_MODE_AUTO,
+                EnumSet.noneOf(VideoPreset.Resolution.class),
+                0,
+                false,
+                false);
+
+        EncoderCapabilities parsed = roundTrip(capabilities);
+        assertEquals(capabilities, parsed);
+        assertFalse(parsed.canUseEncoder(VideoEncoder.BITRATE_MODE_AUTO));
+    }
+
+    @Test
+    public void parse_skipsUnknownResolutions() {
+        byte[] buffer = new byte[32];
+        int length = new ProtoWriter(buffer, 0)
+                .packedVarInts(5, new long[] {VideoPreset.Resolution.RES_720P.ordinal(), 99})
+                .position();
+
+        EncoderCapabilities parsed = EncoderCapabilities.parse(buffer, 0, length);
+        assertNotNull(parsed);
+        assertEquals(EnumSet.of(VideoPreset.Resolution.RES_720P), parsed.supportedResolutions());
+        assertTrue(parsed.isResolutionSupported(VideoPreset.Resolution.RES_720P));
+        assertFalse(parsed.isResolutionSupported(VideoPreset.Resolution.RES_1080P));
+    }
+
+    @Test
+    public void parse_returnsNullWhenMalformed() {
+        byte[] buffer = {0x12, 0x05, 'a'};
+        assertNull(EncoderCapabilities.parse(buffer, 0, buffer.length));
+    }
+
+    @Test
+    public void canUseEncoder_matchesBitrateMode() {
+        EncoderCapabilities capabilities = new EncoderCapabilities(
+                EncoderCapabilities.PROBE_VERSION, "fingerprint", "encoder", 1,
+                EnumSet.noneOf(VideoPreset.Resolution.class), 0, false, false);
+
+        assertTrue(capabilities.canUseEncoder(VideoEncoder.BITRATE_MODE_AUTO));
+        assertTrue(capabilities.canUseEncoder(1));
+        assertFalse(capabilities.canUseEncoder(2));
+    }
+}
@@ -0,0 +1,83 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FramePacerTest {
+
+    private static final int FRAME_RATE = 10;
+    private static final long INTERVAL = 100_000_000;   // ns
+
+    @Test
+    public void frameInterval_matchesFrameRate() {
+        assertEquals(INTERVAL, new FramePacer(FRAME_RATE).getFrameIntervalNs());
+        assertEquals(16_666_666, new FramePacer(60).getFrameIntervalNs());
+    }
+
+    @Test
+    public void awaitNextFrame_waitsForDeadline() throws InterruptedException {
+        FramePacer pacer = new FramePacer(FRAME_RATE);
+        long start = pacer.getNextDeadline();
+
+        assertEquals(0, pacer.awaitNextFrame());
+        assertEquals(0, pacer.awaitNextFrame());
+        assertTrue(System.nanoTime() >= start + INTERVAL);
+
+        // deadlines are spaced from each other, not from when the caller got there
+        assertEquals(start + 2 * INTERVAL, pacer.getNextDeadline());
+    }
+
+    @Test
+    public void awaitNextFrame_skipsMissedDeadlines() throws InterruptedException {
+        FramePacer pacer = new FramePacer(FRAME_RATE);
+        long start = pacer.getNextDeadline();
+        pacer.awaitNextFrame();
+
+        Thread.sleep(350);
+        assertEquals(2, pacer.awaitNextFrame());
+        assertEquals(start + 4 * INTERVAL, pacer.getNextDeadline());
+    }
+
+    @Test
+    public void awaitNextFrame_throwsWhenInterrupted() throws InterruptedException {
+        FramePacer pacer = new FramePacer(FRAME_RATE);
+        pacer.awaitNextFrame();
+
+        Thread.currentThread().interrupt();
+        assertThrows(InterruptedException.class, pacer::awaitNextFrame);
+        assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void onFrameArrival_pullsScheduleTowardsArrivals() {
+        FramePacer pacer = new FramePacer(FRAME_RATE);
+        long deadline = pacer.getNextDeadline();
+
+        // arrivals a bit after the deadline push it back by a fraction of the error (after the capture delay)
+        pacer.onFrameArrival(deadline + 19_000_000);
+        assertEquals(deadline + 2_000_000, pacer.getNextDeadline());
+
+        // arrivals a bit before pull it forward, even if they're a whole frame earlier
+        deadline = pacer.getNextDeadline();
+        pacer.onFrameArrival(deadline - INTERVAL - 21_000_000);
+        assertEquals(deadline - 2_000_000, pacer.getNextDeadline());
+    }
+
+    @Test
+    public void onFrameArrival_ignoresUnknownAndRepeatedArrivals() {
+        FramePacer pacer = new FramePacer(FRAME_RATE);
+        long deadline = pacer.getNextDeadline();
+
+        pacer.onFrameArrival(0);
+        assertEquals(deadline, pacer.getNextDeadline());
+
+        long arrival = deadline + 49_000_000;
+        pacer.onFrameArrival(arrival);
+        long nudged = pacer.getNextDeadline();
+        assertNotEquals(deadline, nudged);
+
+        pacer.onFrameArrival(arrival);
+        assertEquals(nudged, pacer.getNextDeadline());
+    }
+}
@@ -0,0 +1,68 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameSizeStatsTest {
+
+    // SystemClock returns 0 in unit tests, so the first window starts at time 0
+
+    @Test
+    public void lastSummary_isNullUntilWindowEnds() {
+        FrameSizeStats stats = new FrameSizeStats();
+        stats.onFrame(1000, true, 0);
+        stats.onFrame(1000, false, 9999);
+        assertNull(stats.getLastSummary());
+    }
+
+    @Test
+    public void summary_coversWholeWindow() {
+        FrameSizeStats stats = new FrameSizeStats();
+        int[] sizes = {2000, 4000, 4000, 4000, 5000, 5000, 7000, 9000};
+        for (int i = 0; i < sizes.length; i++)
+            stats.onFrame(sizes[i], i == 0, i == sizes.length - 1 ? 10_000 : i * 100);
+
+        FrameSizeStats.Summary summary = stats.getLastSummary();
+        assertNotNull(summary);
+        assertEquals(8, summary.frames());
+        assertEquals(1, summary.keyFrames());
+        assertEquals(5000, summary.mean(), 1e-9);
+        assertEquals(Math.sqrt(32_000_000 / 7.0), summary.stdDev(), 1e-6);
+        assertEquals(9000, summary.max());
+        assertEquals(1.8, summary.peakToMean(), 1e-9);
+    }
+
+    @Test
+    public void nextWindow_startsOver() {
+        FrameSizeStats stats = new FrameSizeStats();
+        stats.onFrame(50_000, true, 0);
+        stats.onFrame(1000, false, 10_000);
+
+        stats.onFrame(1000, false, 15_000);
+        stats.onFrame(1000, false, 20_000);
+
+        FrameSizeStats.Summary summary = stats.getLastSummary();
+        assertEquals(2, summary.frames());
+        assertEquals(0, summary.keyFrames());
+        assertEquals(1000, summary.mean(), 1e-9);
+        assertEquals(0, summary.stdDev(), 1e-9);
+        assertEquals(1000, summary.max());
+    }
+
+    @Test
+    public void summary_handlesSingleFrame() {
+        FrameSizeStats stats = new FrameSizeStats();
+        stats.onFrame(1234, true, 10_000);
+
+        FrameSizeStats.Summary summary = stats.getLastSummary();
+        assertEquals(1, summary.frames());
+        assertEquals(0, summary.stdDev(), 0);
+        assertEquals(1, summary.peakToMean(), 1e-9);
+    }
+
+    @Test
+    public void peakToMean_isZeroWithoutFrames() {
+        assertEquals(0, new FrameSizeStats.Summary(0, 0, 0, 0, 0).peakToMean(), 0);
+    }
+}
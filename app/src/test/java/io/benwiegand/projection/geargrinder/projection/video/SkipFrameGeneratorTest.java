@@ -0,0 +1,89 @@
+package io.benwiegand.projection.geargrinder.projection.video;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static org.junit.Assert.*;
+
+public class SkipFrameGeneratorTest {
+
+    // 1280x720 baseline, poc type 0, log2_max_frame_num 4, log2_max_poc_lsb 6, deblocking filter control present
+    private static final String SPS = "000000016742c01fed00a00b72";
+    private static final String PPS = "0000000168ce3c80";
+    private static final String IDR = "000000016588840380";
+
+    private static final String SKIP_FRAME_1 = "00000001619a210a001c23";
+    private static final String SKIP_FRAME_2 = "00000001619a420a001c23";
+
+    private static ByteBuffer buffer(String hex) {
+        return ByteBuffer.wrap(HexFormat.of().parseHex(hex));
+    }
+
+    private static String generate(SkipFrameGenerator generator) {
+        byte[] out = new byte[SkipFrameGenerator.MAX_FRAME_LENGTH];
+        int length = generator.generate(out);
+        return HexFormat.of().formatHex(out, 0, length);
+    }
+
+    @Test
+    public void generate_continuesStream() {
+        SkipFrameGenerator generator = new SkipFrameGenerator();
+        generator.onEncodedBuffer(buffer(SPS + PPS));
+        assertFalse(generator.canGenerate());
+
+        generator.onEncodedBuffer(buffer(IDR));
+        assertTrue(generator.canGenerate());
+
+        assertEquals(SKIP_FRAME_1, generate(generator));
+        assertEquals(SKIP_FRAME_2, generate(generator));
+    }
+
+    @Test
+    public void generate_needsParameterSetsAndFrame() {
+        SkipFrameGenerator generator = new SkipFrameGenerator();
+        assertThrows(IllegalStateException.class, () -> generate(generator));
+
+        generator.onEncodedBuffer(buffer(IDR));
+        assertFalse(generator.canGenerate());
+    }
+
+    @Test
+    public void onEncodedBuffer_readsWholeAccessUnit() {
+        SkipFrameGenerator generator = new SkipFrameGenerator();
+        generator.onEncodedBuffer(buffer(SPS + PPS + IDR));
+        assertEquals(SKIP_FRAME_1, generate(generator));
+    }
+
+    @Test
+    public void onEncodedBuffer_ignoresPictureData() {
+        // picture data after the slice header, with something that looks like a start code far into it
+        byte[] idr = HexFormat.of().parseHex(IDR);
+        byte[] frame = Arrays.copyOf(idr, 64 * 1024);
+        Arrays.fill(frame, idr.length, frame.length, (byte) 0x55);
+        frame[40_000] = 0;
+        frame[40_001] = 0;
+        frame[40_002] = 1;
+        frame[40_003] = 0x67;
+
+        SkipFrameGenerator generator = new SkipFrameGenerator();
+        generator.onEncodedBuffer(buffer(SPS + PPS));
+        generator.onEncodedBuffer(ByteBuffer.wrap(frame));
+        assertEquals(SKIP_FRAME_1, generate(generator));
+    }
+
+    @Test
+    public void onEncodedBuffer_onlyReadsBetweenPositionAndLimit() {
+        byte[] bytes = HexFormat.of().parseHex("ffffffff" + SPS + PPS + IDR + "00000001");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).position(4).limit(bytes.length - 4);
+
+        SkipFrameGenerator generator = new SkipFrameGenerator();
+        generator.onEncodedBuffer(buffer);
+        assertEquals(4, buffer.position());
+        assertEquals(bytes.length - 4, buffer.limit());
+        assertEquals(SKIP_FRAME_1, generate(generator));
+    }
+}
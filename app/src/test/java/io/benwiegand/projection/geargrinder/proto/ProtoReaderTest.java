@@ -0,0 +1,143 @@
+package io.benwiegand.projection.geargrinder.proto;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProtoReaderTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            bytes[i] = (byte) values[i];
+        return bytes;
+    }
+
+    private static final byte[] MESSAGE = bytes(
+            0x08, 0x96, 0x01,                       // 1: varint 150
+            0x12, 0x02, 'h', 'i',                   // 2: "hi"
+            0x1a, 0x03, 0x01, 0xac, 0x02,           // 3: packed [1, 300]
+            0x22, 0x02, 0x08, 0x07,                 // 4: { 1: 7 }
+            0x2b, 0x08, 0x05, 0x2c,                 // 5: group { 1: 5 }
+            0x08, 0x01,                             // 1: varint 1
+            0x30, 0xff, 0xff, 0xff, 0xff, 0x0f      // 6: varint 0xffffffff
+    );
+
+    @Test
+    public void next_walksFieldsInOrder() {
+        ProtoReader reader = new ProtoReader(MESSAGE, 0, MESSAGE.length);
+        int[] expected = {1, 2, 3, 4, 5, 1, 6};
+        for (int fieldId : expected) {
+            assertTrue(reader.next());
+            assertEquals(fieldId, reader.fieldId());
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void values_areDecoded() {
+        ProtoReader reader = new ProtoReader(MESSAGE, 0, MESSAGE.length);
+
+        assertTrue(reader.next());
+        assertEquals(150, reader.uint64());
+        assertEquals(150, reader.int32());
+
+        assertTrue(reader.next());
+        assertEquals("hi", reader.string());
+
+        assertTrue(reader.next());
+        assertEquals(2, reader.packedCount());
+        int[] packed = new int[3];
+        assertEquals(2, reader.readPackedInt32(packed, 1));
+        assertArrayEquals(new int[] {0, 1, 300}, packed);
+
+        assertTrue(reader.next());
+        ProtoReader nested = reader.enter(new ProtoReader());
+        assertTrue(nested.next());
+        assertEquals(1, nested.fieldId());
+        assertEquals(7, nested.int32());
+        assertFalse(nested.next());
+
+        assertTrue(reader.next());
+        assertEquals(ProtoParser.FIELD_TYPE_GROUP_START, reader.fieldType());
+
+        assertTrue(reader.next());
+        assertTrue(reader.bool());
+
+        assertTrue(reader.next());
+        assertEquals(0xffffffffL, reader.uint64());
+        assertEquals(-1, reader.int32());
+    }
+
+    @Test
+    public void readPackedInt32_readsUnpackedValue() {
+        ProtoReader reader = new ProtoReader(MESSAGE, 0, MESSAGE.length);
+        assertTrue(reader.next());
+        assertEquals(1, reader.packedCount());
+        int[] out = new int[1];
+        assertEquals(1, reader.readPackedInt32(out, 0));
+        assertEquals(150, out[0]);
+    }
+
+    @Test
+    public void count_doesNotMoveCursor() {
+        ProtoReader reader = new ProtoReader(MESSAGE, 0, MESSAGE.length);
+        assertTrue(reader.next());
+        assertTrue(reader.next());
+
+        assertEquals(2, reader.count(1));
+        assertEquals(0, reader.count(9));
+
+        assertEquals(2, reader.fieldId());
+        assertEquals("hi", reader.string());
+        assertTrue(reader.next());
+        assertEquals(3, reader.fieldId());
+    }
+
+    @Test
+    public void rewind_startsOver() {
+        ProtoReader reader = new ProtoReader(MESSAGE, 0, MESSAGE.length);
+        while (reader.next());
+
+        reader.rewind();
+        assertTrue(reader.next());
+        assertEquals(1, reader.fieldId());
+        assertEquals(150, reader.int32());
+    }
+
+    @Test
+    public void reset_readsPartOfBuffer() {
+        ProtoReader reader = new ProtoReader();
+        assertFalse(reader.next());
+
+        // just the string field
+        reader.reset(MESSAGE, 3, 4);
+        assertTrue(reader.next());
+        assertEquals("hi", reader.string());
+        assertSame(MESSAGE, reader.buffer());
+        assertEquals(5, reader.valueOffset());
+        assertEquals(2, reader.valueLength());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void reset_rejectsOutOfBounds() {
+        ProtoReader reader = new ProtoReader();
+        assertThrows(IndexOutOfBoundsException.class, () -> reader.reset(MESSAGE, 1, MESSAGE.length));
+        assertThrows(IndexOutOfBoundsException.class, () -> reader.reset(MESSAGE, -1, 1));
+    }
+
+    @Test
+    public void next_rejectsTruncatedVarData() {
+        byte[] message = bytes(0x12, 0x05, 'h', 'i');
+        ProtoReader reader = new ProtoReader(message, 0, message.length);
+        assertThrows(IndexOutOfBoundsException.class, reader::next);
+    }
+
+    @Test
+    public void string_rejectsWrongType() {
+        ProtoReader reader = new ProtoReader(MESSAGE, 0, MESSAGE.length);
+        assertTrue(reader.next());
+        assertThrows(IllegalStateException.class, reader::string);
+    }
+}
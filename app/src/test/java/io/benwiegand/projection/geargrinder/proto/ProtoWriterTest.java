@@ -0,0 +1,134 @@
+package io.benwiegand.projection.geargrinder.proto;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ProtoWriterTest {
+
+    private record Point(int x, int y) implements ProtoWritable {
+        @Override
+        public int encodedLength() {
+            return ProtoWriter.varIntFieldSize(1, x()) + ProtoWriter.varIntFieldSize(2, y());
+        }
+
+        @Override
+        public void write(ProtoWriter writer) {
+            writer.varInt(1, x())
+                    .varInt(2, y());
+        }
+    }
+
+    @Test
+    public void varInt_matchesWireFormat() {
+        byte[] buffer = new byte[3];
+        new ProtoWriter(buffer, 0).varInt(1, 150);
+        assertArrayEquals(new byte[] {0x08, (byte) 0x96, 0x01}, buffer);
+    }
+
+    @Test
+    public void varIntSize_matchesWrittenLength() {
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Long.MIN_VALUE};
+        byte[] buffer = new byte[32];
+        for (long value : values) {
+            ProtoWriter writer = new ProtoWriter(buffer, 0).varInt(1, value);
+            assertEquals("value " + value, ProtoWriter.varIntFieldSize(1, value), writer.position());
+        }
+
+        // negative ints are sign extended to 10 bytes
+        assertEquals(10, ProtoWriter.varIntSize(-1));
+        assertEquals(2, ProtoWriter.varIntFieldSize(15, 0));
+        assertEquals(3, ProtoWriter.varIntFieldSize(16, 0));
+    }
+
+    @Test
+    public void fields_roundTripThroughReader() {
+        byte[] data = "geargrinder".getBytes(StandardCharsets.UTF_8);
+        long[] packed = {1, 300, 70000};
+        Point point = new Point(3, -4);
+
+        int length = ProtoWriter.varIntFieldSize(1, -5)
+                + ProtoWriter.boolFieldSize(2)
+                + ProtoWriter.fixed32FieldSize(3)
+                + ProtoWriter.fixed64FieldSize(4)
+                + ProtoWriter.varDataFieldSize(5, 4)
+                + ProtoWriter.messageFieldSize(6, point)
+                + ProtoWriter.packedVarIntsFieldSize(7, packed);
+
+        byte[] buffer = new byte[length + 2];
+        ProtoWriter writer = new ProtoWriter(buffer, 2)
+                .varInt(1, -5)
+                .bool(2, true)
+                .fixed32(3, 0x12345678)
+                .fixed64(4, 0x123456789abcdefL)
+                .varData(5, data, 4, 4)
+                .message(6, point)
+                .packedVarInts(7, packed);
+        assertEquals(buffer.length, writer.position());
+
+        ProtoReader reader = new ProtoReader(buffer, 2, length);
+
+        assertTrue(reader.next());
+        assertEquals(1, reader.fieldId());
+        assertEquals(-5, reader.int32());
+
+        assertTrue(reader.next());
+        assertTrue(reader.bool());
+
+        assertTrue(reader.next());
+        assertEquals(0x12345678, reader.int32());
+
+        assertTrue(reader.next());
+        assertEquals(0x123456789abcdefL, reader.uint64());
+
+        assertTrue(reader.next());
+        assertEquals("grin", reader.string());
+
+        assertTrue(reader.next());
+        ProtoReader nested = reader.enter(new ProtoReader());
+        assertTrue(nested.next());
+        assertEquals(3, nested.int32());
+        assertTrue(nested.next());
+        assertEquals(-4, nested.int32());
+        assertFalse(nested.next());
+
+        assertTrue(reader.next());
+        int[] values = new int[reader.packedCount()];
+        reader.readPackedInt32(values, 0);
+        assertArrayEquals(new int[] {1, 300, 70000}, values);
+
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void serialize_usesEncodedLength() {
+        Point point = new Point(150, 1);
+        byte[] serialized = point.serialize();
+        assertEquals(point.encodedLength(), serialized.length);
+        assertArrayEquals(new byte[] {0x08, (byte) 0x96, 0x01, 0x10, 0x01}, serialized);
+    }
+
+    @Test
+    public void reset_reusesWriter() {
+        ProtoWriter writer = new ProtoWriter();
+        assertEquals(0, writer.position());
+
+        byte[] first = new byte[2];
+        byte[] second = new byte[4];
+        writer.reset(first, 0).bool(1, true);
+        writer.reset(second, 2).bool(2, false);
+
+        assertArrayEquals(new byte[] {0x08, 0x01}, first);
+        assertArrayEquals(new byte[] {0, 0, 0x10, 0x00}, second);
+        assertEquals(4, writer.position());
+    }
+
+    @Test
+    public void reset_rejectsOutOfBounds() {
+        ProtoWriter writer = new ProtoWriter();
+        assertThrows(IndexOutOfBoundsException.class, () -> writer.reset(new byte[2], 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> writer.reset(new byte[2], -1));
+    }
+}
@@ -0,0 +1,48 @@
+package io.benwiegand.projection.geargrinder.settings;
+
+import org.junit.Test;
+
+import static io.benwiegand.projection.geargrinder.settings.HeadunitProfile.UNKNOWN;
+import static org.junit.Assert.*;
+
+public class HeadunitProfileTest {
+
+    private static HeadunitProfile roundTrip(HeadunitProfile profile) {
+        byte[] serialized = profile.serialize();
+        assertEquals(profile.encodedLength(), serialized.length);
+        return HeadunitProfile.parse(serialized, 0, serialized.length);
+    }
+
+    @Test
+    public void roundTrip_keepsAllFields() {
+        HeadunitProfile profile = new HeadunitProfile(2, 6_000_000, 12, 0, 4, "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256");
+        assertEquals(profile, roundTrip(profile));
+    }
+
+    @Test
+    public void roundTrip_keepsUnknowns() {
+        HeadunitProfile profile = new HeadunitProfile(UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, null);
+        assertEquals(profile, roundTrip(profile));
+    }
+
+    @Test
+    public void parse_defaultsMissingFieldsToUnknown() {
+        HeadunitProfile parsed = HeadunitProfile.parse(new byte[0], 0, 0);
+        assertEquals(new HeadunitProfile(UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, null), parsed);
+    }
+
+    @Test
+    public void parse_returnsNullWhenMalformed() {
+        byte[] buffer = {0x32, 0x10, 'T', 'L', 'S'};
+        assertNull(HeadunitProfile.parse(buffer, 0, buffer.length));
+    }
+
+    @Test
+    public void withFallback_onlyFillsUnknowns() {
+        HeadunitProfile previous = new HeadunitProfile(1, 4_000_000, 8, 1, 2, "old suite");
+        HeadunitProfile current = new HeadunitProfile(3, UNKNOWN, 16, UNKNOWN, UNKNOWN, null);
+
+        assertEquals(new HeadunitProfile(3, 4_000_000, 16, 1, 2, "old suite"), current.withFallback(previous));
+        assertSame(current, current.withFallback(null));
+    }
+}